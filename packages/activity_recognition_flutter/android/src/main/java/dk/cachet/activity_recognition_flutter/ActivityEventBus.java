@@ -0,0 +1,155 @@
+package dk.cachet.activity_recognition_flutter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process hand-off of the detected activities from {@link ActivityRecognizedService} to the plugin.
+ * <p>
+ * The service publishes each detection from its worker thread into a bounded lock-free queue, and a single drain
+ * is posted to the main thread, where the {@link Listener} sends the events to Flutter. When the queue is full the
+ * oldest detection is dropped, as only the recent activities are of interest.
+ * <p>
+ * While no listener is attached, e.g. when the Flutter engine is detached, the latest detection is saved in the
+ * shared preferences instead, and delivered when a listener attaches again.
+ */
+class ActivityEventBus {
+    private static final String TAG = "ActivityEventBus";
+
+    /**
+     * Maximum number of detections waiting for the main thread
+     */
+    static final int CAPACITY = 64;
+
+    interface Listener {
+        /**
+         * Called on the main thread for each detected activity
+         */
+        void onActivity(HashMap<String, Object> event);
+    }
+
+    private static final ConcurrentLinkedQueue<HashMap<String, Object>> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger size = new AtomicInteger();
+    private static final AtomicBoolean scheduled = new AtomicBoolean();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static volatile Listener listener;
+    private static volatile Context context;
+
+    private static final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            HashMap<String, Object> event;
+            while ((event = queue.poll()) != null) {
+                size.decrementAndGet();
+                Listener current = listener;
+                if (current != null) {
+                    current.onActivity(event);
+                } else if (queue.isEmpty()) {
+                    // detached while the events were waiting, keep the latest one
+                    persist(context, event);
+                }
+            }
+        }
+    };
+
+    private ActivityEventBus() {
+    }
+
+    /**
+     * Publishes a detected activity, from any thread
+     *
+     * @param context context used to save the event if no listener is attached
+     * @param event   the detected activity
+     */
+    static void publish(Context context, HashMap<String, Object> event) {
+        if (listener == null) {
+            persist(context, event);
+            return;
+        }
+        queue.offer(event);
+        if (size.incrementAndGet() > CAPACITY && queue.poll() != null) {
+            size.decrementAndGet();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            mainHandler.post(drain);
+        }
+    }
+
+    /**
+     * Attaches the listener, and delivers the detection saved while no listener was attached, if any. Must be
+     * called on the main thread.
+     */
+    static void attach(Context context, Listener listener) {
+        ActivityEventBus.context = context.getApplicationContext();
+        ActivityEventBus.listener = listener;
+        // the events published from now on are drained on the main thread, after this one
+        HashMap<String, Object> saved = restore(context);
+        if (saved != null) listener.onActivity(saved);
+    }
+
+    /**
+     * Detaches the listener, if it is attached
+     */
+    static void detach(Listener listener) {
+        if (ActivityEventBus.listener == listener) {
+            ActivityEventBus.listener = null;
+        }
+    }
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getSharedPreferences(ActivityRecognitionFlutterPlugin.ACTIVITY_RECOGNITION,
+                Context.MODE_PRIVATE);
+    }
+
+    private static void persist(Context context, HashMap<String, Object> event) {
+        if (context == null) return;
+        preferences(context).edit()
+                .putString(ActivityRecognitionFlutterPlugin.DETECTED_ACTIVITY, new JSONObject(event).toString())
+                .apply();
+    }
+
+    private static HashMap<String, Object> restore(Context context) {
+        SharedPreferences preferences = preferences(context);
+        String json = preferences.getString(ActivityRecognitionFlutterPlugin.DETECTED_ACTIVITY, null);
+        if (json == null) return null;
+        preferences.edit().remove(ActivityRecognitionFlutterPlugin.DETECTED_ACTIVITY).apply();
+        try {
+            JSONObject object = new JSONObject(json);
+            HashMap<String, Object> event = new HashMap<>();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = object.get(key);
+                if (value instanceof JSONArray) {
+                    // the confidences
+                    JSONArray array = (JSONArray) value;
+                    byte[] bytes = new byte[array.length()];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = (byte) array.getInt(i);
+                    }
+                    value = bytes;
+                }
+                event.put(key, value);
+            }
+            return event;
+        } catch (JSONException e) {
+            // e.g. the "TYPE,confidence" string saved by an earlier version
+            Log.w(TAG, "Discarding the saved activity " + json);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package dk.cachet.activity_recognition_flutter;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Journal of all the detected activities, kept on disk so that the activities detected while the Flutter engine is
+ * detached are not lost.
+ * <p>
+ * The journal is an append-only log of fixed-size little-endian records of {@link #RECORD_SIZE} bytes: the time of
+ * the detection in milliseconds since epoch (int64), the activity type as an index in
+ * {@link ActivityRecognizedService#TYPES} (int8), the confidence in percent (int8), the transition (int8: 0 for a
+ * detection, 1 for entering and 2 for exiting the activity) and a reserved byte. A daily index, an append-only file
+ * of (epoch day (int32), offset in the log (int64)) entries, points to each record whose UTC day differs from the
+ * day of the previous record. The log is thus split into segments of records of a single day, and a range query only
+ * reads the segments of the days in the range, even if a record is appended after the records of a later day, e.g.
+ * after the clock of the phone was set back.
+ * <p>
+ * A query returns the records as runs of consecutive records of the same activity and transition, in columns of
+ * primitive values.
+ */
+class ActivityJournal {
+    private static final String TAG = "ActivityJournal";
+
+    static final int RECORD_SIZE = 12;
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final long DAY = 24 * 60 * 60 * 1000;
+
+    static final byte DETECTION = 0;
+    static final byte ENTER = 1;
+    static final byte EXIT = 2;
+
+    private static ActivityJournal instance;
+
+    private final File logFile;
+    private final File indexFile;
+    private FileChannel log;
+    private FileChannel index;
+    private final List<long[]> segments = new ArrayList<>();  // epoch day and offset of the first record, in log order
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @return the journal of the app, opened on first use
+     */
+    static synchronized ActivityJournal getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(), "activity_journal");
+            instance = new ActivityJournal(directory);
+        }
+        return instance;
+    }
+
+    ActivityJournal(File directory) {
+        logFile = new File(directory, "journal.bin");
+        indexFile = new File(directory, "journal.idx");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+        }
+    }
+
+    /**
+     * Opens the files if needed, dropping a partially written record or index entry left by a crash
+     */
+    private boolean open() {
+        if (log != null) return true;
+        try {
+            log = new RandomAccessFile(logFile, "rw").getChannel();
+            index = new RandomAccessFile(indexFile, "rw").getChannel();
+            log.truncate(log.size() / RECORD_SIZE * RECORD_SIZE);
+            index.truncate(index.size() / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE);
+
+            ByteBuffer entries = ByteBuffer.allocate((int) index.size()).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(index, entries, 0);
+            entries.flip();
+            while (entries.remaining() >= INDEX_ENTRY_SIZE) {
+                long day = entries.getInt();
+                long offset = Math.min(entries.getLong(), log.size());
+                segments.add(new long[]{day, offset});
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Opening the journal failed", e);
+            close();
+            return false;
+        }
+    }
+
+    private void close() {
+        try {
+            if (log != null) log.close();
+            if (index != null) index.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Closing the journal failed", e);
+        }
+        log = null;
+        index = null;
+        segments.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+
+    /**
+     * Appends a detected activity
+     *
+     * @param timestamp  time of the detection in milliseconds since epoch
+     * @param type       index of the activity type in {@link ActivityRecognizedService#TYPES}
+     * @param confidence confidence in percent
+     * @param transition {@link #DETECTION}, {@link #ENTER} or {@link #EXIT}
+     */
+    synchronized void append(long timestamp, int type, int confidence, byte transition) {
+        if (!open()) return;
+        try {
+            long offset = log.size();
+            long day = Math.floorDiv(timestamp, DAY);
+            if (segments.isEmpty() || segments.get(segments.size() - 1)[0] != day) {
+                entry.clear();
+                entry.putInt((int) day).putLong(offset);
+                entry.flip();
+                while (entry.hasRemaining()) {
+                    index.write(entry, index.size());
+                }
+                segments.add(new long[]{day, offset});
+            }
+
+            record.clear();
+            record.putLong(timestamp)
+                    .put((byte) type)
+                    .put((byte) confidence)
+                    .put(transition)
+                    .put((byte) 0);
+            record.flip();
+            while (record.hasRemaining()) {
+                log.write(record, offset + record.position());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Appending to the journal failed", e);
+        }
+    }
+
+    /**
+     * Reads the activities detected in a time range, as runs of consecutive records of the same activity and
+     * transition
+     *
+     * @param from start of the range in milliseconds since epoch, inclusive
+     * @param to   end of the range in milliseconds since epoch, exclusive
+     * @return columns of the runs: "starts" and "ends" (long[], time of the first and last record), "types" and
+     * "transitions" (byte[]), "counts" (int[], number of records) and "confidences" (byte[], mean confidence)
+     */
+    synchronized HashMap<String, Object> query(long from, long to) {
+        Runs runs = new Runs();
+        if (open() && from < to) {
+            try {
+                long fromDay = Math.floorDiv(from, DAY);
+                long toDay = Math.floorDiv(to - 1, DAY);
+                long size = log.size();
+                for (int i = 0; i < segments.size(); i++) {
+                    long day = segments.get(i)[0];
+                    if (day < fromDay || day > toDay) continue;
+                    long end = i + 1 < segments.size() ? segments.get(i + 1)[1] : size;
+                    read(segments.get(i)[1], end, from, to, runs);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Reading the journal failed", e);
+            }
+        }
+        return runs.toMap();
+    }
+
+    private void read(long start, long end, long from, long to, Runs runs) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(log, buffer, position);
+            buffer.flip();
+            position += buffer.limit();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                long timestamp = buffer.getLong();
+                byte type = buffer.get();
+                byte confidence = buffer.get();
+                byte transition = buffer.get();
+                buffer.get();
+                if (timestamp >= from && timestamp < to) {
+                    runs.add(timestamp, type, confidence, transition);
+                }
+            }
+            if (buffer.limit() < RECORD_SIZE) break;
+        }
+    }
+
+    /**
+     * Deletes all the records
+     */
+    synchronized void clear() {
+        close();
+        if ((logFile.exists() && !logFile.delete()) || (indexFile.exists() && !indexFile.delete())) {
+            Log.e(TAG, "Clearing the journal failed");
+        }
+    }
+
+    /**
+     * Run-length encoding of the records read
+     */
+    private static class Runs {
+        final List<long[]> times = new ArrayList<>();  // start, end, confidence sum
+        final List<byte[]> states = new ArrayList<>();  // type, transition
+        final List<Integer> counts = new ArrayList<>();
+
+        void add(long timestamp, byte type, byte confidence, byte transition) {
+            int last = counts.size() - 1;
+            if (last >= 0 && states.get(last)[0] == type && states.get(last)[1] == transition) {
+                long[] run = times.get(last);
+                run[1] = timestamp;
+                run[2] += confidence;
+                counts.set(last, counts.get(last) + 1);
+            } else {
+                times.add(new long[]{timestamp, timestamp, confidence});
+                states.add(new byte[]{type, transition});
+                counts.add(1);
+            }
+        }
+
+        HashMap<String, Object> toMap() {
+            int n = counts.size();
+            long[] starts = new long[n];
+            long[] ends = new long[n];
+            byte[] types = new byte[n];
+            byte[] transitions = new byte[n];
+            int[] runCounts = new int[n];
+            byte[] confidences = new byte[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = times.get(i)[0];
+                ends[i] = times.get(i)[1];
+                types[i] = states.get(i)[0];
+                transitions[i] = states.get(i)[1];
+                runCounts[i] = counts.get(i);
+                confidences[i] = (byte) Math.round((double) times.get(i)[2] / runCounts[i]);
+            }
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("starts", starts);
+            map.put("ends", ends);
+            map.put("types", types);
+            map.put("transitions", transitions);
+            map.put("counts", runCounts);
+            map.put("confidences", confidences);
+            return map;
+        }
+    }
+}
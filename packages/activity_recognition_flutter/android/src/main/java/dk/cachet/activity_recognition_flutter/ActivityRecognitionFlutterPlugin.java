@@ -5,58 +5,103 @@ import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
 import com.google.android.gms.location.ActivityRecognition;
+import com.google.android.gms.location.ActivityRecognitionClient;
+import com.google.android.gms.location.ActivityTransition;
+import com.google.android.gms.location.ActivityTransitionRequest;
+import com.google.android.gms.location.DetectedActivity;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
 
 /**
  * ActivityRecognitionFlutterPlugin
  */
 @SuppressLint("LongLogTag")
-public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventChannel.StreamHandler, ActivityAware, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventChannel.StreamHandler, ActivityAware, ActivityEventBus.Listener, MethodChannel.MethodCallHandler {
     private EventChannel channel;
+    private MethodChannel methodChannel;
+    private ExecutorService journalExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private EventChannel.EventSink eventSink;
     private Activity androidActivity;
     private Context androidContext;
+    private Context applicationContext;
     public static final String DETECTED_ACTIVITY = "detected_activity";
     public static final String ACTIVITY_RECOGNITION = "activity_recognition_flutter";
+    public static final String ACTIVITY_RECOGNITION_METHODS = "activity_recognition_flutter/methods";
+
+    /**
+     * Periodic detections, every detection interval
+     */
+    static final String MODE_UPDATES = "updates";
+
+    /**
+     * Only the transitions between activities, see {@link ActivityTransitionRequest}
+     */
+    static final String MODE_TRANSITIONS = "transitions";
+
+    static final long DEFAULT_DETECTION_INTERVAL = 5 * 1000;
+
+    /**
+     * The activity types supported by the transition API
+     */
+    static final int[] TRANSITION_TYPES = {
+            DetectedActivity.IN_VEHICLE,
+            DetectedActivity.ON_BICYCLE,
+            DetectedActivity.RUNNING,
+            DetectedActivity.STILL,
+            DetectedActivity.WALKING,
+    };
 
     private final String TAG = "activity_recognition_flutter";
 
     /**
      * The main function for starting activity tracking.
      * Handling events is done inside [ActivityRecognizedService]
+     *
+     * @param mode     {@link #MODE_UPDATES} or {@link #MODE_TRANSITIONS}
+     * @param interval detection interval in milliseconds in {@link #MODE_UPDATES}
      */
-    private void startActivityTracking() {
-        // Start the service
-        Intent intent = new Intent(androidActivity, ActivityRecognizedBroadcastReceiver.class);
-        
-        Log.d(TAG, "SDK = " + Build.VERSION.SDK_INT);
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= 31) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
+    private void startActivityTracking(String mode, long interval) {
+        ActivityRecognitionClient client = ActivityRecognition.getClient(applicationContext);
+
+        // Only one mode is registered at a time. The other mode is always removed, as it may have been registered
+        // by an earlier process, and removing a request which is not registered has no effect.
+        if (MODE_TRANSITIONS.equals(mode)) {
+            client.removeActivityUpdates(pendingIntent(MODE_UPDATES));
+        } else {
+            client.removeActivityTransitionUpdates(pendingIntent(MODE_TRANSITIONS));
         }
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(androidActivity, 0, intent, flags);
 
-        // Frequency in milliseconds
-        long frequency = 5 * 1000;
-        Task<Void> task = ActivityRecognition.getClient(androidContext)
-                .requestActivityUpdates(frequency, pendingIntent);
+        // Registering again with the same pending intent replaces the previous request
+        Task<Void> task;
+        if (MODE_TRANSITIONS.equals(mode)) {
+            task = client.requestActivityTransitionUpdates(transitionRequest(), pendingIntent(mode));
+        } else {
+            task = client.requestActivityUpdates(interval, pendingIntent(mode));
+        }
 
         task.addOnSuccessListener(new OnSuccessListener<Void>() {
             @Override
@@ -72,6 +117,34 @@ public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventCha
         });
     }
 
+    private PendingIntent pendingIntent(String mode) {
+        Intent intent = new Intent(applicationContext, ActivityRecognizedBroadcastReceiver.class);
+
+        Log.d(TAG, "SDK = " + Build.VERSION.SDK_INT);
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= 31) {
+            // Mutable, as the detections are filled into the intent
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        int requestCode = MODE_TRANSITIONS.equals(mode) ? 1 : 0;
+        return PendingIntent.getBroadcast(applicationContext, requestCode, intent, flags);
+    }
+
+    private static ActivityTransitionRequest transitionRequest() {
+        List<ActivityTransition> transitions = new ArrayList<>();
+        for (int type : TRANSITION_TYPES) {
+            transitions.add(new ActivityTransition.Builder()
+                    .setActivityType(type)
+                    .setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_ENTER)
+                    .build());
+            transitions.add(new ActivityTransition.Builder()
+                    .setActivityType(type)
+                    .setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_EXIT)
+                    .build());
+        }
+        return new ActivityTransitionRequest(transitions);
+    }
+
     /**
      * EventChannel.StreamHandler interface below
      */
@@ -80,6 +153,54 @@ public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventCha
     public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
         channel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), ACTIVITY_RECOGNITION);
         channel.setStreamHandler(this);
+
+        methodChannel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), ACTIVITY_RECOGNITION_METHODS);
+        methodChannel.setMethodCallHandler(this);
+        journalExecutor = Executors.newSingleThreadExecutor();
+        applicationContext = flutterPluginBinding.getApplicationContext();
+    }
+
+    /**
+     * MethodChannel.MethodCallHandler interface below.
+     * The journal is read on a background thread.
+     */
+    @Override
+    public void onMethodCall(@NonNull MethodCall call, @NonNull final MethodChannel.Result result) {
+        final ActivityJournal journal = ActivityJournal.getInstance(applicationContext);
+        switch (call.method) {
+            case "queryJournal":
+                final long from = ((Number) call.argument("from")).longValue();
+                final long to = ((Number) call.argument("to")).longValue();
+                journalExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final HashMap<String, Object> runs = journal.query(from, to);
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                result.success(runs);
+                            }
+                        });
+                    }
+                });
+                break;
+            case "clearJournal":
+                journalExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        journal.clear();
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                result.success(null);
+                            }
+                        });
+                    }
+                });
+                break;
+            default:
+                result.notImplemented();
+        }
     }
 
     // Unchecked HashMap cast. Using instanceof does not clear the warning.
@@ -94,8 +215,25 @@ public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventCha
         }
         Log.d(TAG, "Foreground mode: " + fg);
 
+        HashMap<String, Object> smoothing = (HashMap<String, Object>) args.get("smoothing");
+        if (smoothing != null) {
+            ActivityRecognizedService.setSmoother(new ActivitySmoother(
+                    ((Number) smoothing.get("alpha")).doubleValue(),
+                    ((Number) smoothing.get("margin")).doubleValue(),
+                    ((Number) smoothing.get("minDetections")).intValue()));
+        } else {
+            ActivityRecognizedService.setSmoother(null);
+        }
+
+        String mode = args.get("mode") != null ? (String) args.get("mode") : MODE_UPDATES;
+        long interval = args.get("detectionInterval") != null
+                ? ((Number) args.get("detectionInterval")).longValue()
+                : DEFAULT_DETECTION_INTERVAL;
+
         eventSink = events;
-        startActivityTracking();
+        // the application context, as the stream may be listened to from an engine without an activity
+        ActivityEventBus.attach(applicationContext, this);
+        startActivityTracking(mode, interval);
     }
 
     @RequiresApi(api = Build.VERSION_CODES.O)
@@ -118,12 +256,16 @@ public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventCha
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        ActivityEventBus.detach(this);
         channel.setStreamHandler(null);
+        methodChannel.setMethodCallHandler(null);
+        journalExecutor.shutdown();
     }
 
     @Override
     public void onCancel(Object arguments) {
-        channel.setStreamHandler(null);
+        ActivityEventBus.detach(this);
+        eventSink = null;
     }
 
     /**
@@ -133,9 +275,6 @@ public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventCha
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
         androidActivity = binding.getActivity();
         androidContext = binding.getActivity().getApplicationContext();
-
-        SharedPreferences prefs = androidContext.getSharedPreferences(ACTIVITY_RECOGNITION, Context.MODE_PRIVATE);
-        prefs.registerOnSharedPreferenceChangeListener(this);
         // Log.d(TAG, "onAttachedToActivity");
     }
 
@@ -159,16 +298,13 @@ public class ActivityRecognitionFlutterPlugin implements FlutterPlugin, EventCha
     }
 
     /**
-     * Shared preferences changed, i.e. latest activity
+     * Activity detected, handed over by [ActivityRecognizedService] on the main thread
      */
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        String result = sharedPreferences
-                .getString(DETECTED_ACTIVITY, "error");
-        // Log.d("onSharedPreferenceChange", result);
-        if (key!= null && key.equals(DETECTED_ACTIVITY)) {
-            // Log.d(TAG, "Detected activity: " + result);
-            eventSink.success(result);
+    public void onActivity(HashMap<String, Object> event) {
+        // Log.d(TAG, "Detected activity: " + event);
+        if (eventSink != null) {
+            eventSink.success(event);
         }
     }
   }
@@ -3,19 +3,44 @@ package dk.cachet.activity_recognition_flutter;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.JobIntentService;
 
 import com.google.android.gms.location.ActivityRecognitionResult;
+import com.google.android.gms.location.ActivityTransition;
+import com.google.android.gms.location.ActivityTransitionEvent;
+import com.google.android.gms.location.ActivityTransitionResult;
 import com.google.android.gms.location.DetectedActivity;
 
+import java.util.HashMap;
 import java.util.List;
 
 public class ActivityRecognizedService extends JobIntentService {
 
+    /**
+     * The activity types, in the order of the confidences sent to Flutter and of the ActivityType enum in Dart
+     */
+    static final int[] TYPES = {
+            DetectedActivity.IN_VEHICLE,
+            DetectedActivity.ON_BICYCLE,
+            DetectedActivity.ON_FOOT,
+            DetectedActivity.RUNNING,
+            DetectedActivity.STILL,
+            DetectedActivity.TILTING,
+            DetectedActivity.UNKNOWN,
+            DetectedActivity.WALKING,
+    };
+
+    // Smoothing of the detections, null to send every detection
+    private static volatile ActivitySmoother smoother;
+
+    static void setSmoother(@Nullable ActivitySmoother smoother) {
+        ActivityRecognizedService.smoother = smoother;
+    }
+
     static void enqueueWork(Context context, Intent work) {
         enqueueWork(context, ActivityRecognizedService.class, 1, work);
     }
@@ -32,35 +57,92 @@ public class ActivityRecognizedService extends JobIntentService {
 
     // remove override and make onHandleIntent private.
     private void onHandleIntent(@Nullable Intent intent) {
+        if (ActivityTransitionResult.hasResult(intent)) {
+            onHandleTransitions(ActivityTransitionResult.extractResult(intent));
+            return;
+        }
         ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
+        if (result == null) return;
         List<DetectedActivity> activities = result.getProbableActivities();
 
         DetectedActivity mostLikely = activities.get(0);
+        byte[] confidences = new byte[TYPES.length];
 
         for (DetectedActivity a : activities) {
             if (a.getConfidence() > mostLikely.getConfidence()) {
                 mostLikely = a;
             }
+            int index = indexOf(a.getType());
+            if (index >= 0) {
+                confidences[index] = (byte) a.getConfidence();
+            }
         }
 
         String type = getActivityString(mostLikely.getType());
         int confidence = mostLikely.getConfidence();
 
-        String data = type + "," + confidence;
+        // Every detection is journaled, also while the Flutter engine is detached
+        ActivityJournal.getInstance(this).append(result.getTime(), typeIndex(mostLikely.getType()), confidence,
+                ActivityJournal.DETECTION);
+
+        ActivitySmoother current = smoother;
+        if (current != null) {
+            if (!current.update(confidences)) return;
+            type = getActivityString(TYPES[current.getState()]);
+            confidence = current.getConfidence();
+            confidences = current.getConfidences();
+        }
+
+        Log.d("onHandleIntent", type + "," + confidence);
+
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("confidence", confidence);
+        event.put("confidences", confidences);
+        event.put("timestamp", result.getTime());
+
+        // Handed over to ActivityRecognitionFlutterPlugin in-process
+        ActivityEventBus.publish(getApplicationContext(), event);
+    }
 
-        Log.d("onHandleIntent", data);
+    private void onHandleTransitions(ActivityTransitionResult result) {
+        // The transitions are timed on the elapsed realtime clock
+        long offset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
 
-        // Same preferences as in ActivityRecognitionFlutterPlugin.java
-        SharedPreferences preferences =
-                getApplicationContext().getSharedPreferences(
-                        ActivityRecognitionFlutterPlugin.ACTIVITY_RECOGNITION, MODE_PRIVATE);
+        for (ActivityTransitionEvent transition : result.getTransitionEvents()) {
+            String type = getActivityString(transition.getActivityType());
+            boolean enter = transition.getTransitionType() == ActivityTransition.ACTIVITY_TRANSITION_ENTER;
+            String enterOrExit = enter ? "ENTER" : "EXIT";
+            long timestamp = offset + transition.getElapsedRealTimeNanos() / 1000000;
+
+            ActivityJournal.getInstance(this).append(timestamp, typeIndex(transition.getActivityType()), 100,
+                    enter ? ActivityJournal.ENTER : ActivityJournal.EXIT);
+
+            Log.d("onHandleTransitions", type + "," + enterOrExit);
+
+            HashMap<String, Object> event = new HashMap<>();
+            event.put("type", type);
+            event.put("confidence", 100);
+            event.put("transition", enterOrExit);
+            event.put("timestamp", timestamp);
+
+            ActivityEventBus.publish(getApplicationContext(), event);
+        }
+    }
+
+    static int indexOf(int type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) return i;
+        }
+        return -1;
+    }
 
-        preferences.edit().clear()
-                .putString(
-                        ActivityRecognitionFlutterPlugin.DETECTED_ACTIVITY,
-                        data
-                )
-                .apply();
+    /**
+     * @return index of the type in {@link #TYPES}, or of UNKNOWN if it is not one of them
+     */
+    static int typeIndex(int type) {
+        int index = indexOf(type);
+        return index >= 0 ? index : indexOf(DetectedActivity.UNKNOWN);
     }
 
     public static String getActivityString(int type) {
@@ -0,0 +1,89 @@
+package dk.cachet.activity_recognition_flutter;
+
+/**
+ * Smooths the distributions of detected activities and reports only the stable changes of activity.
+ * <p>
+ * Each distribution, the confidences of all the activity types, is folded into an exponential moving average. The
+ * activity changes when another type leads the current one in the average by at least {@code margin}, for
+ * {@code minDetections} detections in a row. This hysteresis keeps a single misdetection, or two types of about the
+ * same confidence, from flapping between activities.
+ */
+class ActivitySmoother {
+    private final double alpha;
+    private final double margin;
+    private final int minDetections;
+
+    private final double[] smoothed = new double[ActivityRecognizedService.TYPES.length];
+    private int state = -1;  // index of the current activity, -1 until the first detection
+    private int candidate = -1;
+    private int candidateDetections;
+
+    /**
+     * @param alpha         weight of a new distribution in the moving average, in 0..1
+     * @param margin        lead in confidence, in 0..1, another activity needs over the current one
+     * @param minDetections number of detections in a row another activity needs to lead
+     */
+    ActivitySmoother(double alpha, double margin, int minDetections) {
+        this.alpha = alpha;
+        this.margin = margin;
+        this.minDetections = Math.max(1, minDetections);
+    }
+
+    /**
+     * Adds a distribution
+     *
+     * @param confidences confidence in percent per activity type, indexed as {@link ActivityRecognizedService#TYPES}
+     * @return true if the activity changed
+     */
+    synchronized boolean update(byte[] confidences) {
+        int best = 0;
+        for (int i = 0; i < smoothed.length; i++) {
+            double p = confidences[i] / 100.0;
+            smoothed[i] = state < 0 ? p : smoothed[i] + alpha * (p - smoothed[i]);
+            if (smoothed[i] > smoothed[best]) best = i;
+        }
+
+        if (state < 0) {
+            state = best;
+            return true;
+        }
+        if (best == state || smoothed[best] - smoothed[state] < margin) {
+            candidate = -1;
+            return false;
+        }
+        if (best != candidate) {
+            candidate = best;
+            candidateDetections = 0;
+        }
+        if (++candidateDetections < minDetections) return false;
+
+        state = best;
+        candidate = -1;
+        return true;
+    }
+
+    /**
+     * @return index of the current activity in {@link ActivityRecognizedService#TYPES}
+     */
+    synchronized int getState() {
+        return state;
+    }
+
+    /**
+     * @return smoothed confidence in percent of the current activity
+     */
+    synchronized int getConfidence() {
+        return (int) Math.round(smoothed[state] * 100);
+    }
+
+    /**
+     * @return smoothed confidence in percent per activity type, indexed as {@link ActivityRecognizedService#TYPES}
+     */
+    synchronized byte[] getConfidences() {
+        byte[] confidences = new byte[smoothed.length];
+        for (int i = 0; i < smoothed.length; i++) {
+            confidences[i] = (byte) Math.round(smoothed[i] * 100);
+        }
+        return confidences;
+    }
+}
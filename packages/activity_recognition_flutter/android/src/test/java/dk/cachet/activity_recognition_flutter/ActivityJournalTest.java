@@ -0,0 +1,108 @@
+package dk.cachet.activity_recognition_flutter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ActivityJournalTest {
+    private static final int STILL = 4;
+    private static final int WALKING = 7;
+    private static final long DAY = ActivityJournal.DAY;
+
+    private File directory;
+    private ActivityJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("activity_journal").toFile();
+        journal = new ActivityJournal(directory);
+    }
+
+    @After
+    public void tearDown() {
+        journal.clear();
+        directory.delete();
+    }
+
+    @Test
+    public void encodesTheRunsOfRecords() {
+        journal.append(1000, STILL, 80, ActivityJournal.DETECTION);
+        journal.append(2000, STILL, 90, ActivityJournal.DETECTION);
+        journal.append(3000, STILL, 100, ActivityJournal.DETECTION);
+        journal.append(4000, WALKING, 60, ActivityJournal.DETECTION);
+        journal.append(5000, WALKING, 70, ActivityJournal.DETECTION);
+        journal.append(6000, WALKING, 100, ActivityJournal.ENTER);
+
+        HashMap<String, Object> runs = journal.query(0, DAY);
+        assertArrayEquals(new long[]{1000, 4000, 6000}, (long[]) runs.get("starts"));
+        assertArrayEquals(new long[]{3000, 5000, 6000}, (long[]) runs.get("ends"));
+        assertArrayEquals(new byte[]{STILL, WALKING, WALKING}, (byte[]) runs.get("types"));
+        assertArrayEquals(new byte[]{0, 0, ActivityJournal.ENTER}, (byte[]) runs.get("transitions"));
+        assertArrayEquals(new int[]{3, 2, 1}, (int[]) runs.get("counts"));
+        assertArrayEquals(new byte[]{90, 65, 100}, (byte[]) runs.get("confidences"));
+    }
+
+    @Test
+    public void readsOnlyTheRecordsInTheRange() {
+        for (int i = 0; i < 5; i++) {
+            journal.append(1000 * i, STILL, 100, ActivityJournal.DETECTION);
+        }
+        HashMap<String, Object> runs = journal.query(1000, 4000);
+        assertArrayEquals(new long[]{1000}, (long[]) runs.get("starts"));
+        assertArrayEquals(new long[]{3000}, (long[]) runs.get("ends"));
+        assertArrayEquals(new int[]{3}, (int[]) runs.get("counts"));
+
+        assertEquals(0, ((long[]) journal.query(4000, 4000).get("starts")).length);
+    }
+
+    @Test
+    public void readsTheSegmentsOfTheDaysInTheRange() {
+        journal.append(10 * DAY + 1000, STILL, 100, ActivityJournal.DETECTION);
+        journal.append(11 * DAY + 1000, WALKING, 100, ActivityJournal.DETECTION);
+        // appended after a record of a later day, e.g. after the clock was set back
+        journal.append(10 * DAY + 2000, WALKING, 100, ActivityJournal.DETECTION);
+
+        HashMap<String, Object> day10 = journal.query(10 * DAY, 11 * DAY);
+        assertArrayEquals(new long[]{10 * DAY + 1000, 10 * DAY + 2000}, (long[]) day10.get("starts"));
+        assertArrayEquals(new byte[]{STILL, WALKING}, (byte[]) day10.get("types"));
+
+        HashMap<String, Object> day11 = journal.query(11 * DAY, 12 * DAY);
+        assertArrayEquals(new long[]{11 * DAY + 1000}, (long[]) day11.get("starts"));
+
+        // the runs follow the order of the log
+        assertArrayEquals(new int[]{1, 2}, (int[]) journal.query(0, 12 * DAY).get("counts"));
+        assertEquals(0, ((long[]) journal.query(12 * DAY, 13 * DAY).get("starts")).length);
+    }
+
+    @Test
+    public void reopensTheJournalDroppingAPartialRecord() throws IOException {
+        journal.append(10 * DAY, STILL, 100, ActivityJournal.DETECTION);
+        journal.append(11 * DAY, WALKING, 100, ActivityJournal.DETECTION);
+        journal.clear();
+        journal = new ActivityJournal(directory);
+        journal.append(10 * DAY, STILL, 100, ActivityJournal.DETECTION);
+        journal.append(11 * DAY, WALKING, 100, ActivityJournal.DETECTION);
+        try (FileOutputStream log = new FileOutputStream(new File(directory, "journal.bin"), true)) {
+            log.write(new byte[5]);
+        }
+
+        ActivityJournal reopened = new ActivityJournal(directory);
+        reopened.append(11 * DAY + 1000, WALKING, 50, ActivityJournal.DETECTION);
+        HashMap<String, Object> day11 = reopened.query(11 * DAY, 12 * DAY);
+        assertArrayEquals(new long[]{11 * DAY}, (long[]) day11.get("starts"));
+        assertArrayEquals(new long[]{11 * DAY + 1000}, (long[]) day11.get("ends"));
+        assertArrayEquals(new int[]{2}, (int[]) day11.get("counts"));
+        assertArrayEquals(new byte[]{75}, (byte[]) day11.get("confidences"));
+        assertArrayEquals(new long[]{10 * DAY}, (long[]) reopened.query(10 * DAY, 11 * DAY).get("starts"));
+        reopened.clear();
+    }
+}
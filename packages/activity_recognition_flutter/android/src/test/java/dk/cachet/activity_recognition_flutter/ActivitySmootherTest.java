@@ -0,0 +1,80 @@
+package dk.cachet.activity_recognition_flutter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActivitySmootherTest {
+    private static final int STILL = 4;
+    private static final int WALKING = 7;
+
+    private static byte[] distribution(int still, int walking) {
+        byte[] confidences = new byte[ActivityRecognizedService.TYPES.length];
+        confidences[STILL] = (byte) still;
+        confidences[WALKING] = (byte) walking;
+        return confidences;
+    }
+
+    @Test
+    public void reportsTheFirstDetection() {
+        ActivitySmoother smoother = new ActivitySmoother(0.5, 0.1, 2);
+        assertTrue(smoother.update(distribution(20, 80)));
+        assertEquals(WALKING, smoother.getState());
+        assertEquals(80, smoother.getConfidence());
+    }
+
+    @Test
+    public void ignoresASingleMisdetection() {
+        ActivitySmoother smoother = new ActivitySmoother(0.5, 0.1, 2);
+        smoother.update(distribution(100, 0));
+        assertFalse(smoother.update(distribution(0, 100)));
+        assertFalse(smoother.update(distribution(100, 0)));
+        assertFalse(smoother.update(distribution(100, 0)));
+        assertEquals(STILL, smoother.getState());
+    }
+
+    @Test
+    public void changesAfterTheMinimumDetectionsInARow() {
+        ActivitySmoother smoother = new ActivitySmoother(0.5, 0.1, 2);
+        smoother.update(distribution(100, 0));
+        // walking ties with still in the average, then leads it twice
+        assertFalse(smoother.update(distribution(0, 100)));
+        assertFalse(smoother.update(distribution(0, 100)));
+        assertTrue(smoother.update(distribution(0, 100)));
+        assertEquals(WALKING, smoother.getState());
+    }
+
+    @Test
+    public void restartsTheCountWhenTheLeadIsInterrupted() {
+        ActivitySmoother smoother = new ActivitySmoother(1, 0.1, 2);
+        smoother.update(distribution(100, 0));
+        assertFalse(smoother.update(distribution(0, 100)));
+        assertFalse(smoother.update(distribution(100, 0)));
+        assertFalse(smoother.update(distribution(0, 100)));
+        assertTrue(smoother.update(distribution(0, 100)));
+        assertEquals(WALKING, smoother.getState());
+    }
+
+    @Test
+    public void needsTheMarginToChange() {
+        ActivitySmoother smoother = new ActivitySmoother(1, 0.2, 1);
+        smoother.update(distribution(50, 45));
+        assertFalse(smoother.update(distribution(45, 55)));
+        assertEquals(STILL, smoother.getState());
+        assertTrue(smoother.update(distribution(30, 60)));
+        assertEquals(WALKING, smoother.getState());
+    }
+
+    @Test
+    public void smoothsTheConfidences() {
+        ActivitySmoother smoother = new ActivitySmoother(0.5, 0.1, 2);
+        smoother.update(distribution(80, 20));
+        smoother.update(distribution(40, 60));
+        assertEquals(STILL, smoother.getState());
+        assertEquals(60, smoother.getConfidence());
+        assertArrayEquals(distribution(60, 40), smoother.getConfidences());
+    }
+}
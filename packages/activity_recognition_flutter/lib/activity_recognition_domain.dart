@@ -15,6 +15,21 @@ enum ActivityType {
   INVALID // Used for parsing errors
 }
 
+/// How activities are detected on Android.
+enum ActivityRecognitionMode {
+  /// An [ActivityEvent] is detected every detection interval.
+  updates,
+
+  /// Only the transitions between activities are detected, using the
+  /// Activity Transition API. Supports the IN_VEHICLE, ON_BICYCLE, RUNNING,
+  /// STILL and WALKING activities.
+  transitions,
+}
+
+/// Whether an activity is entered or exited, in the
+/// [ActivityRecognitionMode.transitions] mode.
+enum ActivityTransitionType { ENTER, EXIT }
+
 Map<String, ActivityType> _activityMap = {
   // Android
   'IN_VEHICLE': ActivityType.IN_VEHICLE,
@@ -46,9 +61,25 @@ class ActivityEvent {
   /// The timestamp when detected.
   late DateTime timeStamp;
 
+  /// The confidence in percentage of each [ActivityType] in the detection,
+  /// indexed by [ActivityType.index]. Only available on Android. Smoothed
+  /// like [confidence] when [ActivitySmoothing] is enabled.
+  List<int>? confidences;
+
+  /// Whether [type] was entered or exited, in the
+  /// [ActivityRecognitionMode.transitions] mode.
+  ActivityTransitionType? transition;
+
   /// The type of activity as a String.
   String get typeString => type.toString().split('.').last;
 
+  /// The confidence in percentage of [type] in the detection, or null if the
+  /// [confidences] are not available.
+  int? confidenceOf(ActivityType type) =>
+      (confidences != null && type.index < confidences!.length)
+          ? confidences![type.index]
+          : null;
+
   ActivityEvent(this.type, this.confidence) {
     this.timeStamp = DateTime.now();
   }
@@ -69,6 +100,105 @@ class ActivityEvent {
     return ActivityEvent(type, conf);
   }
 
+  /// Create an [ActivityEvent] based on the map sent on Android, with the
+  /// `type`, `confidence` and `timestamp` of the detection.
+  factory ActivityEvent.fromMap(Map<dynamic, dynamic> map) {
+    ActivityEvent event = ActivityEvent(
+        _activityMap[map['type']] ?? ActivityType.UNKNOWN, map['confidence']);
+    if (map['timestamp'] != null) {
+      event.timeStamp = DateTime.fromMillisecondsSinceEpoch(map['timestamp']);
+    }
+    if (map['confidences'] != null) {
+      event.confidences = List<int>.from(map['confidences']);
+    }
+    if (map['transition'] != null) {
+      event.transition = map['transition'] == 'ENTER'
+          ? ActivityTransitionType.ENTER
+          : ActivityTransitionType.EXIT;
+    }
+    return event;
+  }
+
   @override
   String toString() => 'Activity - type: $typeString, confidence: $confidence%';
 }
+
+/// A run of consecutive detections of the same activity, read from the
+/// activity journal on Android.
+class ActivityRun {
+  /// The type of activity.
+  final ActivityType type;
+
+  /// Whether [type] was entered or exited, or null for detections in the
+  /// [ActivityRecognitionMode.updates] mode.
+  final ActivityTransitionType? transition;
+
+  /// The time of the first detection of the run.
+  final DateTime start;
+
+  /// The time of the last detection of the run.
+  final DateTime end;
+
+  /// The number of detections in the run.
+  final int count;
+
+  /// The mean confidence of the detections in percentage.
+  final int confidence;
+
+  ActivityRun(this.type, this.transition, this.start, this.end, this.count,
+      this.confidence);
+
+  /// Decode the runs sent on Android, as columns of values.
+  static List<ActivityRun> fromColumns(Map<dynamic, dynamic> map) {
+    final List<int> starts = map['starts'];
+    final List<int> ends = map['ends'];
+    final List<int> types = map['types'];
+    final List<int> transitions = map['transitions'];
+    final List<int> counts = map['counts'];
+    final List<int> confidences = map['confidences'];
+    return List.generate(
+        starts.length,
+        (i) => ActivityRun(
+            types[i] < ActivityType.values.length
+                ? ActivityType.values[types[i]]
+                : ActivityType.UNKNOWN,
+            transitions[i] == 0
+                ? null
+                : ActivityTransitionType.values[transitions[i] - 1],
+            DateTime.fromMillisecondsSinceEpoch(starts[i]),
+            DateTime.fromMillisecondsSinceEpoch(ends[i]),
+            counts[i],
+            confidences[i]));
+  }
+
+  @override
+  String toString() =>
+      'ActivityRun - type: ${type.name}, start: $start, end: $end, count: $count';
+}
+
+/// Configures the smoothing of the detected activities on Android.
+///
+/// The confidences of the detections are smoothed by an exponential moving
+/// average, and an [ActivityEvent] is only sent when the activity changes,
+/// i.e. when another activity leads the current one by at least [margin] for
+/// [minDetections] detections in a row.
+class ActivitySmoothing {
+  /// The weight of a new detection in the moving average, from 0 to 1.
+  final double alpha;
+
+  /// The lead in confidence, from 0 to 1, another activity needs over the
+  /// current one.
+  final double margin;
+
+  /// The number of detections in a row another activity needs to lead.
+  final int minDetections;
+
+  const ActivitySmoothing(
+      {this.alpha = 0.5, this.margin = 0.1, this.minDetections = 2});
+
+  Map<String, dynamic> toMap() => {
+        'alpha': alpha,
+        'margin': margin,
+        'minDetections': minDetections,
+      };
+}
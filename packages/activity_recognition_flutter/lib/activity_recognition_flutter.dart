@@ -12,7 +12,10 @@ part 'activity_recognition_domain.dart';
 class ActivityRecognition {
   static const EventChannel _eventChannel =
       const EventChannel('activity_recognition_flutter');
+  static const MethodChannel _methodChannel =
+      const MethodChannel('activity_recognition_flutter/methods');
   Stream<ActivityEvent>? _stream;
+  Map<String, dynamic>? _arguments;
   static ActivityRecognition _instance = ActivityRecognition._();
   ActivityRecognition._();
 
@@ -25,12 +28,58 @@ class ActivityRecognition {
   /// By default the foreground service is enabled, which allows the
   /// updates to be streamed while the app runs in the background.
   /// The programmer can choose to not enable to foreground service.
-  Stream<ActivityEvent> activityStream({bool runForegroundService = true}) {
-    if (_stream == null) {
-      _stream = _eventChannel
-          .receiveBroadcastStream({"foreground": runForegroundService}).map(
-              (json) => ActivityEvent.fromString(json));
+  ///
+  /// On Android, each event holds the confidences of all activity types. With
+  /// [smoothing], the detections are smoothed natively and an event is only
+  /// sent when the activity changes.
+  ///
+  /// On Android, activities are detected every [detectionInterval] in the
+  /// [ActivityRecognitionMode.updates] mode. A longer interval saves battery.
+  /// In the [ActivityRecognitionMode.transitions] mode only the transitions
+  /// between activities are sent. Asking for a stream with other arguments
+  /// creates a new stream, and registers the new mode; cancel the
+  /// subscriptions to the previous stream first.
+  Stream<ActivityEvent> activityStream(
+      {bool runForegroundService = true,
+      ActivitySmoothing? smoothing,
+      ActivityRecognitionMode mode = ActivityRecognitionMode.updates,
+      Duration detectionInterval = const Duration(seconds: 5)}) {
+    final Map<String, dynamic> arguments = {
+      "foreground": runForegroundService,
+      "smoothing": smoothing?.toMap(),
+      "mode": mode.name,
+      "detectionInterval": detectionInterval.inMilliseconds,
+    };
+    if (_stream == null || !_sameArguments(arguments)) {
+      _arguments = arguments;
+      _stream = _eventChannel.receiveBroadcastStream(arguments).map(
+              (event) => event is Map
+                  ? ActivityEvent.fromMap(event)
+                  : ActivityEvent.fromString(event));
     }
     return _stream!;
   }
+
+  /// Reads the activities detected between [from] and [to] on Android,
+  /// including those detected while the app was not running.
+  ///
+  /// Every detection is journaled natively. The detections are returned as
+  /// [ActivityRun]s of consecutive detections of the same activity.
+  Future<List<ActivityRun>> activityJournal(DateTime from, DateTime to) async {
+    final Map<dynamic, dynamic> columns =
+        await _methodChannel.invokeMethod('queryJournal', {
+      'from': from.millisecondsSinceEpoch,
+      'to': to.millisecondsSinceEpoch,
+    });
+    return ActivityRun.fromColumns(columns);
+  }
+
+  /// Deletes the journal of detected activities on Android.
+  Future<void> clearActivityJournal() =>
+      _methodChannel.invokeMethod('clearJournal');
+
+  bool _sameArguments(Map<String, dynamic> arguments) =>
+      _arguments != null &&
+      arguments.keys.every((key) =>
+          arguments[key].toString() == _arguments![key].toString());
 }
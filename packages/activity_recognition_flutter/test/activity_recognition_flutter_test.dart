@@ -1,3 +1,6 @@
+import 'dart:typed_data';
+
+import 'package:activity_recognition_flutter/activity_recognition_flutter.dart';
 import 'package:flutter/services.dart';
 import 'package:flutter_test/flutter_test.dart';
 
@@ -17,4 +20,94 @@ void main() {
     TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
         .setMockMethodCallHandler(channel, null);
   });
+
+  group('ActivityEvent.fromMap', () {
+    test('decodes a detection', () {
+      final confidences = Uint8List(8)
+        ..[ActivityType.STILL.index] = 20
+        ..[ActivityType.WALKING.index] = 80;
+      final event = ActivityEvent.fromMap({
+        'type': 'WALKING',
+        'confidence': 80,
+        'timestamp': 1700000000000,
+        'confidences': confidences,
+      });
+
+      expect(event.type, ActivityType.WALKING);
+      expect(event.confidence, 80);
+      expect(event.timeStamp.millisecondsSinceEpoch, 1700000000000);
+      expect(event.confidenceOf(ActivityType.STILL), 20);
+      expect(event.confidenceOf(ActivityType.WALKING), 80);
+      expect(event.confidenceOf(ActivityType.RUNNING), 0);
+      expect(event.transition, isNull);
+    });
+
+    test('decodes a transition', () {
+      final enter = ActivityEvent.fromMap(
+          {'type': 'STILL', 'confidence': 100, 'transition': 'ENTER'});
+      final exit = ActivityEvent.fromMap(
+          {'type': 'STILL', 'confidence': 100, 'transition': 'EXIT'});
+
+      expect(enter.transition, ActivityTransitionType.ENTER);
+      expect(exit.transition, ActivityTransitionType.EXIT);
+      expect(enter.confidences, isNull);
+      expect(enter.confidenceOf(ActivityType.STILL), isNull);
+    });
+
+    test('maps an unknown type to UNKNOWN', () {
+      final event = ActivityEvent.fromMap({'type': 'FLYING', 'confidence': 50});
+      expect(event.type, ActivityType.UNKNOWN);
+      expect(event.confidence, 50);
+    });
+  });
+
+  group('ActivityRun.fromColumns', () {
+    test('decodes the runs', () {
+      final runs = ActivityRun.fromColumns({
+        'starts': Int64List.fromList([1000, 4000]),
+        'ends': Int64List.fromList([3000, 4000]),
+        'types': Uint8List.fromList(
+            [ActivityType.STILL.index, ActivityType.WALKING.index]),
+        'transitions': Uint8List.fromList([0, 1]),
+        'counts': Int32List.fromList([3, 1]),
+        'confidences': Uint8List.fromList([90, 100]),
+      });
+
+      expect(runs, hasLength(2));
+      expect(runs[0].type, ActivityType.STILL);
+      expect(runs[0].transition, isNull);
+      expect(runs[0].start.millisecondsSinceEpoch, 1000);
+      expect(runs[0].end.millisecondsSinceEpoch, 3000);
+      expect(runs[0].count, 3);
+      expect(runs[0].confidence, 90);
+      expect(runs[1].type, ActivityType.WALKING);
+      expect(runs[1].transition, ActivityTransitionType.ENTER);
+      expect(runs[1].count, 1);
+    });
+
+    test('maps an unknown type to UNKNOWN', () {
+      final runs = ActivityRun.fromColumns({
+        'starts': Int64List.fromList([1000]),
+        'ends': Int64List.fromList([1000]),
+        'types': Uint8List.fromList([42]),
+        'transitions': Uint8List.fromList([2]),
+        'counts': Int32List.fromList([1]),
+        'confidences': Uint8List.fromList([50]),
+      });
+      expect(runs.single.type, ActivityType.UNKNOWN);
+      expect(runs.single.transition, ActivityTransitionType.EXIT);
+    });
+
+    test('decodes no runs', () {
+      final runs = ActivityRun.fromColumns({
+        'starts': Int64List(0),
+        'ends': Int64List(0),
+        'types': Uint8List(0),
+        'transitions': Uint8List(0),
+        'counts': Int32List(0),
+        'confidences': Uint8List(0),
+      });
+      expect(runs, isEmpty);
+    });
+  });
 }
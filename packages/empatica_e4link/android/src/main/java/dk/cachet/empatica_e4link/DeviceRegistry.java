@@ -0,0 +1,147 @@
+package dk.cachet.empatica_e4link;
+
+import android.os.SystemClock;
+
+import com.empatica.empalink.EmpaticaDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the E4 devices discovered while scanning, safe to update from the SDK callback thread while it is
+ * queried from the platform thread.
+ * <p>
+ * Each advertisement replaces the entry of its device with a new immutable entry, holding the RSSI smoothed by an
+ * exponential moving average and the time the device was last seen. Devices not seen for the expiry time are
+ * removed. The snapshot ranks the devices by their smoothed RSSI, minus {@link #STALENESS_PENALTY} dB per second
+ * since they were last seen, so the best candidate to connect to is the closest device still advertising.
+ */
+class DeviceRegistry {
+    /**
+     * Weight of a new RSSI value in the smoothed RSSI
+     */
+    static final double RSSI_ALPHA = 0.3;
+
+    /**
+     * Ranking penalty in dB per second since a device was last seen
+     */
+    static final double STALENESS_PENALTY = 1.0;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long expiry = 30 * 1000;
+
+    /**
+     * Records an advertisement of a device
+     *
+     * @return true if the device was not known, or had expired
+     */
+    boolean update(EmpaticaDevice device, String label, int rssi) {
+        return update(device, label, rssi, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param now elapsed realtime of the advertisement in milliseconds
+     */
+    boolean update(EmpaticaDevice device, String label, int rssi, long now) {
+        boolean[] added = new boolean[1];
+        entries.compute(device.serialNumber, (serialNumber, entry) -> {
+            if (entry == null || now - entry.lastSeen > expiry) {
+                added[0] = true;
+                return new Entry(device, label, rssi, now);
+            }
+            return entry.update(device, label, rssi, now);
+        });
+        return added[0];
+    }
+
+    /**
+     * @return the device with the given serial number, or null if it was not discovered
+     */
+    EmpaticaDevice get(String serialNumber) {
+        Entry entry = entries.get(serialNumber);
+        return entry != null ? entry.device : null;
+    }
+
+    /**
+     * Sets the time after which a device which is not seen is removed
+     *
+     * @param expiry expiry time in milliseconds
+     */
+    void setExpiry(long expiry) {
+        this.expiry = expiry;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Removes the expired devices, and returns the others ranked from the best candidate to connect to
+     */
+    List<Map<String, Object>> snapshot() {
+        return snapshot(SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /**
+     * @param now       elapsed realtime in milliseconds
+     * @param wallClock time in milliseconds since epoch at {@code now}
+     */
+    List<Map<String, Object>> snapshot(long now, long wallClock) {
+        entries.values().removeIf(entry -> now - entry.lastSeen > expiry);
+
+        List<Entry> ranked = new ArrayList<>(entries.values());
+        ranked.sort((a, b) -> Double.compare(b.score(now), a.score(now)));
+
+        List<Map<String, Object>> devices = new ArrayList<>(ranked.size());
+        for (Entry entry : ranked) {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("device", entry.device.serialNumber);
+            map.put("name", entry.device.name);
+            map.put("deviceLabel", entry.label);
+            map.put("rssi", entry.rssi);
+            map.put("lastRssi", entry.lastRssi);
+            map.put("firstSeen", wallClock - (now - entry.firstSeen));
+            map.put("lastSeen", wallClock - (now - entry.lastSeen));
+            map.put("advertisements", entry.advertisements);
+            devices.add(map);
+        }
+        return devices;
+    }
+
+    private static class Entry {
+        final EmpaticaDevice device;
+        final String label;
+        final double rssi;  // smoothed
+        final int lastRssi;
+        final long firstSeen;  // elapsed realtime
+        final long lastSeen;  // elapsed realtime
+        final int advertisements;
+
+        Entry(EmpaticaDevice device, String label, int rssi, long now) {
+            this(device, label, rssi, rssi, now, now, 1);
+        }
+
+        private Entry(EmpaticaDevice device, String label, double rssi, int lastRssi, long firstSeen, long lastSeen,
+                      int advertisements) {
+            this.device = device;
+            this.label = label;
+            this.rssi = rssi;
+            this.lastRssi = lastRssi;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+            this.advertisements = advertisements;
+        }
+
+        Entry update(EmpaticaDevice device, String label, int rssi, long now) {
+            double smoothed = this.rssi + RSSI_ALPHA * (rssi - this.rssi);
+            return new Entry(device, label, smoothed, rssi, firstSeen, now, advertisements + 1);
+        }
+
+        double score(long now) {
+            return rssi - STALENESS_PENALTY * (now - lastSeen) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package dk.cachet.empatica_e4link;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the latest samples of each E4 signal in primitive ring buffers, so that they can be drained in bulk at a
+ * cadence chosen by the app instead of being sent one by one.
+ * <p>
+ * Every sample gets a sequence number, increasing across all signals. A drain returns the samples received after a
+ * given sequence number together with the sequence number to pass to the next drain, so that no sample is returned
+ * twice. When a ring is full, its oldest samples are overwritten, and the next drain reports a gap for that signal.
+ * A buffer replacing another one continues its sequence numbers, so that the sequence number of the last drain stays
+ * valid, and reports a gap for the samples of the replaced buffer which were not drained.
+ */
+class EmpaDataBuffer {
+    static final String GSR = "GSR";
+    static final String BVP = "BVP";
+    static final String IBI = "IBI";
+    static final String TEMPERATURE = "Temperature";
+    static final String ACCELERATION = "Acceleration";
+    static final String BATTERY_LEVEL = "BatteryLevel";
+    static final String TAG = "Tag";
+
+    /**
+     * Minimum number of samples kept per signal, for the signals with a low rate
+     */
+    static final int MIN_CAPACITY = 16;
+
+    private final Map<String, Ring> rings = new LinkedHashMap<>();
+    private final Ring gsr;
+    private final Ring bvp;
+    private final Ring ibi;
+    private final Ring temperature;
+    private final Ring acceleration;
+    private final Ring batteryLevel;
+    private final Ring tag;
+    private long sequence;
+
+    /**
+     * @param duration number of seconds of samples kept per signal at the nominal sampling rates of the E4
+     */
+    EmpaDataBuffer(int duration) {
+        this(duration, 0);
+    }
+
+    /**
+     * @param duration number of seconds of samples kept per signal at the nominal sampling rates of the E4
+     * @param sequence sequence number of the last sample of the replaced buffer, see {@link #getSequence()}
+     */
+    EmpaDataBuffer(int duration, long sequence) {
+        this.sequence = sequence;
+        gsr = ring(GSR, 1, 4, duration);
+        bvp = ring(BVP, 1, 64, duration);
+        ibi = ring(IBI, 1, 4, duration);
+        temperature = ring(TEMPERATURE, 1, 4, duration);
+        acceleration = ring(ACCELERATION, 3, 32, duration);
+        batteryLevel = ring(BATTERY_LEVEL, 1, 1, duration);
+        tag = ring(TAG, 0, 1, duration);
+    }
+
+    private Ring ring(String signal, int channels, int rate, int duration) {
+        Ring ring = new Ring(channels, Math.max(MIN_CAPACITY, rate * duration));
+        // the samples of the replaced buffer are lost
+        ring.overwritten = sequence;
+        rings.put(signal, ring);
+        return ring;
+    }
+
+    synchronized void addGSR(double timestamp, float value) {
+        gsr.values[gsr.add(++sequence, timestamp)] = value;
+    }
+
+    synchronized void addBVP(double timestamp, float value) {
+        bvp.values[bvp.add(++sequence, timestamp)] = value;
+    }
+
+    synchronized void addIBI(double timestamp, float value) {
+        ibi.values[ibi.add(++sequence, timestamp)] = value;
+    }
+
+    synchronized void addTemperature(double timestamp, float value) {
+        temperature.values[temperature.add(++sequence, timestamp)] = value;
+    }
+
+    synchronized void addAcceleration(double timestamp, int x, int y, int z) {
+        int i = acceleration.add(++sequence, timestamp) * 3;
+        acceleration.values[i] = x;
+        acceleration.values[i + 1] = y;
+        acceleration.values[i + 2] = z;
+    }
+
+    synchronized void addBatteryLevel(double timestamp, float value) {
+        batteryLevel.values[batteryLevel.add(++sequence, timestamp)] = value;
+    }
+
+    synchronized void addTag(double timestamp) {
+        tag.add(++sequence, timestamp);
+    }
+
+    /**
+     * @return sequence number of the last sample added
+     */
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the samples received after a sequence number.
+     *
+     * @param since   sequence number returned by the previous drain, 0 to get all samples
+     * @param signals names of the signals to drain, all if <code>null</code>
+     * @return map with the sequence number to pass to the next drain, and a map of the samples of each signal
+     */
+    synchronized HashMap<String, Object> drain(long since, Collection<String> signals) {
+        HashMap<String, Object> samples = new HashMap<>();
+        for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+            if (signals == null || signals.contains(entry.getKey())) {
+                samples.put(entry.getKey(), entry.getValue().drain(since));
+            }
+        }
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("sequence", sequence);
+        map.put("signals", samples);
+        return map;
+    }
+
+    /**
+     * Ring buffer of the samples of one signal, with the values of a sample stored consecutively
+     */
+    private static class Ring {
+        final int channels;
+        final int capacity;
+        final long[] sequences;
+        final double[] timestamps;
+        final float[] values;
+        int head;  // position of the next sample
+        int count;
+        long overwritten;  // sequence number of the last sample overwritten
+
+        Ring(int channels, int capacity) {
+            this.channels = channels;
+            this.capacity = capacity;
+            sequences = new long[capacity];
+            timestamps = new double[capacity];
+            values = new float[capacity * channels];
+        }
+
+        /**
+         * @return position of the sample added, at which its values are stored
+         */
+        int add(long sequence, double timestamp) {
+            int i = head;
+            if (count == capacity) {
+                overwritten = sequences[i];
+            } else {
+                count++;
+            }
+            sequences[i] = sequence;
+            timestamps[i] = timestamp;
+            head = (head + 1) % capacity;
+            return i;
+        }
+
+        HashMap<String, Object> drain(long since) {
+            int oldest = (head + capacity - count) % capacity;
+            // the sequence numbers increase along the ring, so the first sample after since is found by bisection
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sequences[(oldest + mid) % capacity] <= since) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int n = count - lo;
+            long[] s = new long[n];
+            double[] t = new double[n];
+            float[] v = new float[n * channels];
+            for (int k = 0; k < n; k++) {
+                int i = (oldest + lo + k) % capacity;
+                s[k] = sequences[i];
+                t[k] = timestamps[i];
+                System.arraycopy(values, i * channels, v, k * channels, channels);
+            }
+
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("channels", channels);
+            map.put("sequences", s);
+            map.put("timestamps", t);
+            map.put("values", v);
+            map.put("gap", overwritten > since);
+            return map;
+        }
+    }
+}
@@ -4,14 +4,166 @@ import com.empatica.empalink.config.EmpaSensorStatus;
 import com.empatica.empalink.delegate.EmpaDataDelegate;
 
 import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import io.flutter.plugin.common.EventChannel.EventSink;
 import io.flutter.plugin.common.EventChannel.StreamHandler;
 
 class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
+    /**
+     * What happens to the GSR, BVP, IBI, temperature and acceleration samples while the band is not worn
+     */
+    enum Gating {
+        /**
+         * The samples are sent as usual
+         */
+        OFF,
+        /**
+         * The samples are sent with a "wearing" flag, and signal-quality events are sent
+         */
+        FLAG,
+        /**
+         * The samples are dropped, and signal-quality events are sent
+         */
+        SUPPRESS
+    }
+
+    /**
+     * Number of BVP samples between two signal-quality events, one second at 64 Hz
+     */
+    static final int QUALITY_EVENT_INTERVAL = 64;
+
+    /**
+     * Maximum number of samples waiting for the main thread, about a minute of all E4 signals
+     */
+    static final int DATA_QUEUE_CAPACITY = 8192;
+
     private MainThreadEventSink dataEventSink;
 
-    EmpaDataEventStreamHandler() {
+    // batching of the sampled signals, disabled if the batch size is 1
+    private int batchSize = 1;
+    private long maxLatency = 500;
+    private ScheduledExecutorService flushExecutor;
+    private volatile SignalBatcher gsrBatcher;
+    private volatile SignalBatcher bvpBatcher;
+    private volatile SignalBatcher ibiBatcher;
+    private volatile SignalBatcher temperatureBatcher;
+    private volatile SignalBatcher accelerationBatcher;
+
+    final SignalQuality quality = new SignalQuality();
+    private volatile Gating gating = Gating.OFF;
+    private volatile boolean wearing = true;
+    private int bvpSinceQualityEvent;
+
+    // ring buffers fed by the callbacks whether or not the stream is listened to, null if not started
+    volatile EmpaDataBuffer dataBuffer;
+
+    // session recorder fed by the callbacks, null if not recording
+    volatile SessionRecorder recorder;
+
+    private final EmpaMetricsEventStreamHandler metricsHandler;
+
+    /**
+     * @param metricsHandler handler of the metrics stream, fed with the interbeat intervals
+     */
+    EmpaDataEventStreamHandler(EmpaMetricsEventStreamHandler metricsHandler) {
+        this.metricsHandler = metricsHandler;
+    }
+
+    /**
+     * Sets how the GSR, BVP, IBI, temperature and acceleration samples are sent.
+     * With a batch size above 1, the samples of each signal are sent in "DataBatch" events holding
+     * up to batchSize samples, and a partial batch is sent at the latest after maxLatency.
+     *
+     * @param batchSize  maximum number of samples in a batch, 1 to send each sample in its own event
+     * @param maxLatency maximum time in milliseconds a sample waits in a partial batch
+     */
+    synchronized void setBatching(int batchSize, long maxLatency) {
+        stopBatching();
+        this.batchSize = batchSize;
+        this.maxLatency = maxLatency;
+        if (dataEventSink != null) startBatching();
+    }
+
+    private synchronized void startBatching() {
+        if (batchSize <= 1) return;
+        gsrBatcher = new SignalBatcher("GSR", 1, batchSize, dataEventSink);
+        bvpBatcher = new SignalBatcher("BVP", 1, batchSize, dataEventSink);
+        ibiBatcher = new SignalBatcher("IBI", 1, batchSize, dataEventSink);
+        temperatureBatcher = new SignalBatcher("Temperature", 1, batchSize, dataEventSink);
+        accelerationBatcher = new SignalBatcher("Acceleration", 3, batchSize, dataEventSink);
+        applyWearingFlag();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor();
+        flushExecutor.scheduleWithFixedDelay(this::flushBatchers, maxLatency, maxLatency, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopBatching() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            flushExecutor = null;
+        }
+        flushBatchers();
+        gsrBatcher = null;
+        bvpBatcher = null;
+        ibiBatcher = null;
+        temperatureBatcher = null;
+        accelerationBatcher = null;
+    }
+
+    /**
+     * Sets what happens to the samples while the band is not worn, see {@link Gating}
+     */
+    synchronized void setGating(Gating gating) {
+        this.gating = gating;
+        applyWearingFlag();
+        sendQuality();
+    }
+
+    /**
+     * Updates whether the band is worn after a change of the signal quality, and notifies the change
+     */
+    private synchronized void updateWearing() {
+        boolean wearing = quality.isWearing();
+        if (wearing != this.wearing) {
+            this.wearing = wearing;
+            applyWearingFlag();
+            sendQuality();
+        }
+    }
+
+    private synchronized void applyWearingFlag() {
+        Boolean flag = gating == Gating.FLAG ? wearing : null;
+        for (SignalBatcher batcher : new SignalBatcher[]{gsrBatcher, bvpBatcher, ibiBatcher, temperatureBatcher, accelerationBatcher}) {
+            if (batcher != null) batcher.setWearing(flag);
+        }
+    }
+
+    private void sendQuality() {
+        MainThreadEventSink eventSink = dataEventSink;
+        if (eventSink != null && gating != Gating.OFF) {
+            HashMap<String, Object> map = quality.toMap();
+            map.put("type", "SignalQuality");
+            eventSink.success(map);
+        }
+    }
+
+    /**
+     * @return false if the sample should be dropped because the band is not worn
+     */
+    private boolean passesGate() {
+        return gating != Gating.SUPPRESS || wearing;
+    }
+
+    private void flag(HashMap<String, Object> map) {
+        if (gating == Gating.FLAG) map.put("wearing", wearing);
+    }
+
+    private void flushBatchers() {
+        for (SignalBatcher batcher : new SignalBatcher[]{gsrBatcher, bvpBatcher, ibiBatcher, temperatureBatcher, accelerationBatcher}) {
+            if (batcher != null) batcher.flush();
+        }
     }
 
     /**
@@ -22,11 +174,22 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveGSR(float gsr, double timestamp) {
-        if (dataEventSink != null) {
+        quality.addEDA(gsr);
+        updateWearing();
+        if (!passesGate()) return;
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.gsr.add(timestamp, gsr);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addGSR(timestamp, gsr);
+        SignalBatcher batcher = gsrBatcher;
+        if (batcher != null) {
+            batcher.add(timestamp, gsr);
+        } else if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveGSR");
             map.put("gsr", gsr);
             map.put("timestamp", timestamp);
+            flag(map);
             dataEventSink.success(map);
         }
     }
@@ -39,11 +202,25 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveBVP(float bvp, double timestamp) {
-        if (dataEventSink != null) {
+        quality.addBVP(bvp);
+        if (++bvpSinceQualityEvent >= QUALITY_EVENT_INTERVAL) {
+            bvpSinceQualityEvent = 0;
+            sendQuality();
+        }
+        if (!passesGate()) return;
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.bvp.add(timestamp, bvp);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addBVP(timestamp, bvp);
+        SignalBatcher batcher = bvpBatcher;
+        if (batcher != null) {
+            batcher.add(timestamp, bvp);
+        } else if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveBVP");
             map.put("bvp", bvp);
             map.put("timestamp", timestamp);
+            flag(map);
             dataEventSink.success(map);
         }
     }
@@ -57,11 +234,21 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveIBI(float ibi, double timestamp) {
-        if (dataEventSink != null) {
+        if (!passesGate()) return;
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.ibi.add(timestamp, ibi);
+        metricsHandler.onIBI(ibi, timestamp);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addIBI(timestamp, ibi);
+        SignalBatcher batcher = ibiBatcher;
+        if (batcher != null) {
+            batcher.add(timestamp, ibi);
+        } else if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveIBI");
             map.put("ibi", ibi);
             map.put("timestamp", timestamp);
+            flag(map);
             dataEventSink.success(map);
         }
     }
@@ -74,11 +261,20 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveTemperature(float t, double timestamp) {
-        if (dataEventSink != null) {
+        if (!passesGate()) return;
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.temperature.add(timestamp, t);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addTemperature(timestamp, t);
+        SignalBatcher batcher = temperatureBatcher;
+        if (batcher != null) {
+            batcher.add(timestamp, t);
+        } else if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveTemperature");
             map.put("temperature", t);
             map.put("timestamp", timestamp);
+            flag(map);
             dataEventSink.success(map);
         }
     }
@@ -93,13 +289,22 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveAcceleration(int x, int y, int z, double timestamp) {
-        if (dataEventSink != null) {
+        if (!passesGate()) return;
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.acceleration.add(timestamp, x, y, z);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addAcceleration(timestamp, x, y, z);
+        SignalBatcher batcher = accelerationBatcher;
+        if (batcher != null) {
+            batcher.add(timestamp, x, y, z);
+        } else if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveAcceleration");
             map.put("x", x);
             map.put("y", y);
             map.put("z", z);
             map.put("timestamp", timestamp);
+            flag(map);
             dataEventSink.success(map);
         }
     }
@@ -112,6 +317,10 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveBatteryLevel(float level, double timestamp) {
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.batteryLevel.add(timestamp, level);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addBatteryLevel(timestamp, level);
         if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveBatteryLevel");
@@ -128,6 +337,10 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      */
     @Override
     public void didReceiveTag(double timestamp) {
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) recorder.tag.add(timestamp);
+        EmpaDataBuffer buffer = dataBuffer;
+        if (buffer != null) buffer.addTag(timestamp);
         if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "ReceiveTag");
@@ -144,6 +357,8 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
      * @param status on wrist status has been updated.
      */
     public void didUpdateOnWristStatus(@EmpaSensorStatus int status) {
+        quality.setOnWristStatus(status);
+        updateWearing();
         if (dataEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "UpdateOnWristStatus");
@@ -154,15 +369,17 @@ class EmpaDataEventStreamHandler implements StreamHandler, EmpaDataDelegate {
 
     @Override
     public void onListen(Object arguments, EventSink events) {
-        this.dataEventSink = new MainThreadEventSink(events);
+        this.dataEventSink = new MainThreadEventSink(events, MainThreadEventSink.Policy.BATCH, DATA_QUEUE_CAPACITY);
         HashMap<String, Object> map = new HashMap<>();
         map.put("type", "Listen");
         map.put("stream", "data");
         dataEventSink.success(map);
+        startBatching();
     }
 
     @Override
     public void onCancel(Object arguments) {
+        stopBatching();
         dataEventSink.endOfStream();
         this.dataEventSink = null;
     }
@@ -1,6 +1,8 @@
 package dk.cachet.empatica_e4link;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
@@ -9,9 +11,12 @@ import com.empatica.empalink.EmpaDeviceManager;
 import com.empatica.empalink.EmpaticaDevice;
 import com.empatica.empalink.config.EmpaStatus;
 
+import java.io.File;
 import java.net.HttpCookie;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
@@ -19,18 +24,28 @@ import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 
 class EmpaManagerMethodCallHandler implements MethodCallHandler {
     private final EmpaDeviceManager _handler;
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long dataBufferSequence;  // sequence number of the last sample of the stopped or replaced buffer
     EmpaStatusEventStreamHandler empaStatusEventStreamHandler;
+    EmpaDataEventStreamHandler empaDataEventStreamHandler;
+    EmpaMetricsEventStreamHandler empaMetricsEventStreamHandler;
 
     /**
      * Creates a new Empatica Device Manager
      *
      * @param empaDataDelegate   An empatica data delegate
      * @param empaStatusDelegate An empatica status delegate
+     * @param empaMetricsHandler The handler of the derived metrics stream
      * @param context            your application context
      */
     EmpaManagerMethodCallHandler(EmpaDataEventStreamHandler empaDataDelegate,
-                                 EmpaStatusEventStreamHandler empaStatusDelegate, Context context) {
+                                 EmpaStatusEventStreamHandler empaStatusDelegate,
+                                 EmpaMetricsEventStreamHandler empaMetricsHandler, Context context) {
         empaStatusEventStreamHandler = empaStatusDelegate;
+        empaDataEventStreamHandler = empaDataDelegate;
+        empaMetricsEventStreamHandler = empaMetricsHandler;
+        this.context = context;
         this._handler = new EmpaDeviceManager(context, empaDataDelegate, empaStatusDelegate);
     }
 
@@ -57,8 +72,9 @@ class EmpaManagerMethodCallHandler implements MethodCallHandler {
      */
     void startScanning() {
         this._handler.prepareScanning();
+        // a new scan reports every device again
+        empaStatusEventStreamHandler.discoveredDevices.clear();
         this._handler.startScanning();
-        empaStatusEventStreamHandler.discoveredDevices = new HashMap<>();
         if (empaStatusEventStreamHandler.statusEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "UpdateStatus");
@@ -72,7 +88,6 @@ class EmpaManagerMethodCallHandler implements MethodCallHandler {
      */
     void stopScanning() {
         this._handler.stopScanning();
-        empaStatusEventStreamHandler.discoveredDevices = new HashMap<>();
     }
 
     /**
@@ -131,6 +146,150 @@ class EmpaManagerMethodCallHandler implements MethodCallHandler {
         this._handler.disconnect();
     }
 
+    /**
+     * Sets how the sampled signals are sent on the data stream
+     *
+     * @param batchSize  maximum number of samples of a signal sent together, 1 to send each sample on its own
+     * @param maxLatency maximum time in milliseconds a sample waits before it is sent
+     */
+    void setDataBatching(int batchSize, long maxLatency) {
+        empaDataEventStreamHandler.setBatching(batchSize, maxLatency);
+    }
+
+    /**
+     * Starts keeping the latest samples of each signal in ring buffers, replacing the buffers if already started.
+     * The sequence numbers continue those of the previous buffers.
+     *
+     * @param duration number of seconds of samples kept per signal
+     */
+    void startDataBuffer(int duration) {
+        EmpaDataBuffer previous = empaDataEventStreamHandler.dataBuffer;
+        if (previous != null) dataBufferSequence = previous.getSequence();
+        empaDataEventStreamHandler.dataBuffer = new EmpaDataBuffer(duration, dataBufferSequence);
+    }
+
+    /**
+     * Returns the samples received after a sequence number, see {@link EmpaDataBuffer#drain(long, java.util.Collection)}
+     *
+     * @param since   sequence number returned by the previous drain, 0 to get all samples
+     * @param signals names of the signals to drain, all if null
+     * @return the samples, or null if the buffer is not started
+     */
+    HashMap<String, Object> drainDataBuffer(long since, List<String> signals) {
+        EmpaDataBuffer buffer = empaDataEventStreamHandler.dataBuffer;
+        return buffer != null ? buffer.drain(since, signals) : null;
+    }
+
+    /**
+     * Stops keeping samples in ring buffers and discards them
+     */
+    void stopDataBuffer() {
+        EmpaDataBuffer previous = empaDataEventStreamHandler.dataBuffer;
+        if (previous != null) dataBufferSequence = previous.getSequence();
+        empaDataEventStreamHandler.dataBuffer = null;
+    }
+
+    /**
+     * Sets what happens to the samples while the band is not worn
+     *
+     * @param mode one of "off", "flag" or "suppress"
+     */
+    void setDataGating(String mode) {
+        empaDataEventStreamHandler.setGating(EmpaDataEventStreamHandler.Gating.valueOf(mode.toUpperCase()));
+    }
+
+    /**
+     * Returns the current signal-quality indicators and whether the band is worn
+     */
+    HashMap<String, Object> getSignalQuality() {
+        return empaDataEventStreamHandler.quality.toMap();
+    }
+
+    /**
+     * Sets the sliding window of the HRV metrics sent on the metrics stream
+     *
+     * @param window   length of the window in seconds
+     * @param interval time between two reports in seconds
+     */
+    void setHrvWindow(double window, double interval) {
+        empaMetricsEventStreamHandler.setHrvWindow(window, interval);
+    }
+
+    /**
+     * Returns the devices discovered while scanning and not expired, ranked from the best candidate
+     * to connect to, i.e. the strongest smoothed RSSI of the devices still advertising
+     */
+    List<Map<String, Object>> getDiscoveredDevices() {
+        return empaStatusEventStreamHandler.discoveredDevices.snapshot();
+    }
+
+    /**
+     * Sets the time after which a discovered device which is not seen anymore is forgotten
+     *
+     * @param expiry expiry time in milliseconds
+     */
+    void setDeviceExpiry(long expiry) {
+        empaStatusEventStreamHandler.discoveredDevices.setExpiry(expiry);
+    }
+
+    /**
+     * Starts recording all signals to a session directory, stopping the current recording if any. The files are
+     * created in the background, and the result is the summary of the session once they are created.
+     *
+     * @param directory        path of the session directory, or null for a new directory in the app files
+     * @param rotationInterval time in milliseconds after which the files are rotated, 0 to never rotate
+     * @param result           result of the call
+     */
+    void startRecording(String directory, long rotationInterval, MethodChannel.Result result) {
+        stopRecording(null);
+        File dir = directory != null
+                ? new File(directory)
+                : new File(new File(context.getFilesDir(), "empatica"), "session-" + System.currentTimeMillis());
+        SessionRecorder recorder = new SessionRecorder(dir, rotationInterval, (opened, error) -> {
+            if (error != null) {
+                mainHandler.post(() -> {
+                    if (empaDataEventStreamHandler.recorder == opened) empaDataEventStreamHandler.recorder = null;
+                    result.error("recordingFailed", error.getMessage(), null);
+                });
+            } else {
+                HashMap<String, Object> session = opened.toMap();
+                mainHandler.post(() -> result.success(session));
+            }
+        });
+        empaDataEventStreamHandler.recorder = recorder;
+    }
+
+    /**
+     * Continues the recording in new files
+     *
+     * @return summary of the session, or null if not recording
+     */
+    HashMap<String, Object> rotateRecording() {
+        SessionRecorder recorder = empaDataEventStreamHandler.recorder;
+        if (recorder == null) return null;
+        recorder.rotate();
+        return recorder.toMap();
+    }
+
+    /**
+     * Stops recording. The remaining samples and the final manifest are written in the background, and the result
+     * is the summary of the session once they are written, or null if not recording.
+     *
+     * @param result result of the call, or null
+     */
+    void stopRecording(MethodChannel.Result result) {
+        SessionRecorder recorder = empaDataEventStreamHandler.recorder;
+        empaDataEventStreamHandler.recorder = null;
+        if (recorder == null) {
+            if (result != null) result.success(null);
+            return;
+        }
+        recorder.close(result == null ? null : (closed, error) -> {
+            HashMap<String, Object> session = closed.toMap();
+            mainHandler.post(() -> result.success(session));
+        });
+    }
+
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
         switch (call.method) {
@@ -178,6 +337,79 @@ class EmpaManagerMethodCallHandler implements MethodCallHandler {
                 disconnect();
                 result.success(null);
                 break;
+            case "setDataBatching":
+                Integer batchSize = call.argument("batchSize");
+                Number maxLatency = call.argument("maxLatency");
+                int batching = batchSize != null ? batchSize : 1;
+                long latency = maxLatency != null ? maxLatency.longValue() : 500;
+                // checked before the batchers are replaced, so the current batching is kept
+                if (batching < 1 || latency <= 0) {
+                    result.error("invalidArgument", "The batch size and maximum latency must be positive, but are "
+                            + batching + " and " + latency, null);
+                    break;
+                }
+                setDataBatching(batching, latency);
+                result.success(null);
+                break;
+            case "startDataBuffer":
+                Integer duration = call.argument("duration");
+                startDataBuffer(duration != null ? duration : 60);
+                result.success(null);
+                break;
+            case "drainDataBuffer":
+                Number since = call.argument("since");
+                result.success(drainDataBuffer(since != null ? since.longValue() : 0, call.argument("signals")));
+                break;
+            case "stopDataBuffer":
+                stopDataBuffer();
+                result.success(null);
+                break;
+            case "setDataGating":
+                try {
+                    setDataGating(call.argument("mode"));
+                    result.success(null);
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    result.error("invalidArgument", "Unknown gating mode " + call.argument("mode"), null);
+                }
+                break;
+            case "getSignalQuality":
+                result.success(getSignalQuality());
+                break;
+            case "setHrvWindow":
+                Number window = call.argument("window");
+                Number interval = call.argument("interval");
+                double hrvWindow = window != null ? window.doubleValue() : 60;
+                double hrvInterval = interval != null ? interval.doubleValue() : 5;
+                if (!(hrvWindow > 0) || !(hrvInterval > 0)) {
+                    result.error("invalidArgument", "The HRV window and interval must be positive, but are "
+                            + hrvWindow + " and " + hrvInterval, null);
+                    break;
+                }
+                setHrvWindow(hrvWindow, hrvInterval);
+                result.success(null);
+                break;
+            case "getHrv":
+                result.success(empaMetricsEventStreamHandler.getHrv());
+                break;
+            case "getDiscoveredDevices":
+                result.success(getDiscoveredDevices());
+                break;
+            case "setDeviceExpiry":
+                Number expiry = call.argument("expiry");
+                setDeviceExpiry(expiry != null ? expiry.longValue() : 30 * 1000);
+                result.success(null);
+                break;
+            case "startRecording":
+                Number rotationInterval = call.argument("rotationInterval");
+                startRecording(call.argument("directory"),
+                        rotationInterval != null ? rotationInterval.longValue() : 0, result);
+                break;
+            case "rotateRecording":
+                result.success(rotateRecording());
+                break;
+            case "stopRecording":
+                stopRecording(result);
+                break;
             default:
                 result.notImplemented();
         }
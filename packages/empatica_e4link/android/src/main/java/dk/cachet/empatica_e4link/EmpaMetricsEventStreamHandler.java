@@ -0,0 +1,66 @@
+package dk.cachet.empatica_e4link;
+
+import java.util.HashMap;
+
+import io.flutter.plugin.common.EventChannel.EventSink;
+import io.flutter.plugin.common.EventChannel.StreamHandler;
+
+/**
+ * Sends metrics derived natively from the data of the E4, at a low rate.
+ * Currently the heart rate variability computed from the interbeat intervals by a {@link HrvEngine}.
+ */
+class EmpaMetricsEventStreamHandler implements StreamHandler, HrvEngine.Listener {
+    private MainThreadEventSink metricsEventSink;
+    private volatile HrvEngine hrvEngine = new HrvEngine(60, 5, this);
+
+    EmpaMetricsEventStreamHandler() {
+    }
+
+    /**
+     * Replaces the HRV engine, discarding the beats in its window
+     *
+     * @param window   length of the window in seconds
+     * @param interval time between two reports in seconds
+     */
+    void setHrvWindow(double window, double interval) {
+        hrvEngine = new HrvEngine(window, interval, this);
+    }
+
+    /**
+     * Called by the data stream handler for every interbeat interval received
+     */
+    void onIBI(float ibi, double timestamp) {
+        hrvEngine.add(ibi, timestamp);
+    }
+
+    /**
+     * @return the last HRV metrics reported, or null if none were reported
+     */
+    HashMap<String, Object> getHrv() {
+        return hrvEngine.getLatest();
+    }
+
+    @Override
+    public void onHrv(HashMap<String, Object> metrics) {
+        if (metricsEventSink != null) {
+            HashMap<String, Object> map = new HashMap<>(metrics);
+            map.put("type", "Hrv");
+            metricsEventSink.success(map);
+        }
+    }
+
+    @Override
+    public void onListen(Object arguments, EventSink events) {
+        this.metricsEventSink = new MainThreadEventSink(events);
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("type", "Listen");
+        map.put("stream", "metrics");
+        metricsEventSink.success(map);
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        metricsEventSink.endOfStream();
+        this.metricsEventSink = null;
+    }
+}
@@ -13,7 +13,7 @@ import io.flutter.plugin.common.EventChannel.StreamHandler;
 
 class EmpaStatusEventStreamHandler implements StreamHandler, EmpaStatusDelegate {
     MainThreadEventSink statusEventSink;
-    public HashMap<String, EmpaticaDevice> discoveredDevices;
+    final DeviceRegistry discoveredDevices = new DeviceRegistry();
 
     EmpaStatusEventStreamHandler() {
     }
@@ -71,7 +71,9 @@ class EmpaStatusEventStreamHandler implements StreamHandler, EmpaStatusDelegate
     }
 
     /**
-     * Called when the startScanning() finds a new device
+     * Called when the startScanning() finds a device, for every advertisement.
+     * The device is recorded in the registry, and a DiscoverDevice event is only sent
+     * when it is first seen; the registry is queried for the up-to-date list.
      *
      * @param device      the discovered device
      * @param deviceLabel the label of the discovered device
@@ -82,14 +84,14 @@ class EmpaStatusEventStreamHandler implements StreamHandler, EmpaStatusDelegate
     public void didDiscoverDevice(EmpaticaDevice device, String deviceLabel, int rssi, boolean allowed) {
         if (!allowed)
             return;
-        if (statusEventSink != null) {
+        boolean added = discoveredDevices.update(device, deviceLabel, rssi);
+        if (added && statusEventSink != null) {
             HashMap<String, Object> map = new HashMap<>();
             map.put("type", "DiscoverDevice");
             map.put("device", device.serialNumber);
             map.put("name", device.name);
             map.put("deviceLabel", deviceLabel);
             map.put("rssi", rssi);
-            discoveredDevices.put(device.serialNumber, device);
             statusEventSink.success(map);
         }
     }
@@ -156,7 +158,9 @@ class EmpaStatusEventStreamHandler implements StreamHandler, EmpaStatusDelegate
 
     @Override
     public void onListen(Object arguments, EventSink events) {
-        this.statusEventSink = new MainThreadEventSink(events);
+        // sensor, on-wrist and bluetooth states are only relevant in their latest value
+        this.statusEventSink = new MainThreadEventSink(events, MainThreadEventSink.Policy.COALESCE, Integer.MAX_VALUE,
+                "UpdateSensorStatus", "UpdateOnWristStatus", "bluetoothStateChanged");
         HashMap<String, Object> map = new HashMap<>();
         map.put("type", "Listen");
         map.put("stream", "status");
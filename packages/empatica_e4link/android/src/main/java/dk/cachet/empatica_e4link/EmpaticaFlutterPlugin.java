@@ -12,18 +12,22 @@ public class EmpaticaFlutterPlugin implements FlutterPlugin {
     static final String methodChannelName = "empatica.io/empatica_methodChannel";
     static final String dataEventSinkName = "empatica.io/empatica_dataEventSink";
     static final String statusEventSinkName = "empatica.io/empatica_statusEventSink";
+    static final String metricsEventSinkName = "empatica.io/empatica_metricsEventSink";
     private MethodChannel methodChannel;
     EventChannel statusEventChannel;
     EventChannel dataEventChannel;
+    EventChannel metricsEventChannel;
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
         Context context = binding.getApplicationContext();
 
         final EmpaStatusEventStreamHandler empaStatusEventStreamHandler = new EmpaStatusEventStreamHandler();
-        final EmpaDataEventStreamHandler empaDataEventStreamHandler = new EmpaDataEventStreamHandler();
+        final EmpaMetricsEventStreamHandler empaMetricsEventStreamHandler = new EmpaMetricsEventStreamHandler();
+        final EmpaDataEventStreamHandler empaDataEventStreamHandler = new EmpaDataEventStreamHandler(
+                empaMetricsEventStreamHandler);
         final EmpaManagerMethodCallHandler empaMethodCallHandler = new EmpaManagerMethodCallHandler(
-                empaDataEventStreamHandler, empaStatusEventStreamHandler, context);
+                empaDataEventStreamHandler, empaStatusEventStreamHandler, empaMetricsEventStreamHandler, context);
 
         methodChannel = new MethodChannel(binding.getBinaryMessenger(), methodChannelName);
         methodChannel.setMethodCallHandler(empaMethodCallHandler);
@@ -33,6 +37,9 @@ public class EmpaticaFlutterPlugin implements FlutterPlugin {
 
         statusEventChannel = new EventChannel(binding.getBinaryMessenger(), statusEventSinkName);
         statusEventChannel.setStreamHandler(empaStatusEventStreamHandler);
+
+        metricsEventChannel = new EventChannel(binding.getBinaryMessenger(), metricsEventSinkName);
+        metricsEventChannel.setStreamHandler(empaMetricsEventStreamHandler);
     }
 
     @Override
@@ -40,6 +47,7 @@ public class EmpaticaFlutterPlugin implements FlutterPlugin {
         methodChannel.setMethodCallHandler(null);
         dataEventChannel.setStreamHandler(null);
         statusEventChannel.setStreamHandler(null);
+        metricsEventChannel.setStreamHandler(null);
     }
 
 }
@@ -0,0 +1,191 @@
+package dk.cachet.empatica_e4link;
+
+import java.util.HashMap;
+
+/**
+ * Computes heart rate variability metrics over a sliding time window of interbeat intervals (IBI).
+ * <p>
+ * The window holds the beats of the last {@code window} seconds, and the metrics are reported to the
+ * {@link Listener} every {@code interval} seconds of beats: mean heart rate, SDNN (standard deviation of the
+ * intervals), RMSSD (root mean square of the successive differences) and pNN50 (percentage of successive
+ * differences above 50 ms). All of them are kept as running sums updated when a beat enters or leaves the
+ * window, so each beat costs O(1).
+ * <p>
+ * Intervals outside {@link #MIN_IBI}..{@link #MAX_IBI} seconds, or differing by more than
+ * {@link #MAX_RELATIVE_CHANGE} from the previous accepted interval, are rejected as artifacts. After
+ * {@link #MAX_CONSECUTIVE_REJECTIONS} rejections in a row the interval is accepted anyway, so that a true change
+ * of heart rate is followed. Successive differences are only taken between consecutive beats, never across a
+ * rejected or missing beat.
+ */
+class HrvEngine {
+    /**
+     * Shortest interval accepted in seconds, i.e. 200 bpm
+     */
+    static final float MIN_IBI = 0.3f;
+
+    /**
+     * Longest interval accepted in seconds, i.e. 30 bpm
+     */
+    static final float MAX_IBI = 2.0f;
+
+    static final float MAX_RELATIVE_CHANGE = 0.2f;
+    static final int MAX_CONSECUTIVE_REJECTIONS = 3;
+
+    /**
+     * Threshold of the successive differences counted by pNN50, in seconds
+     */
+    static final double NN50 = 0.05;
+
+    interface Listener {
+        void onHrv(HashMap<String, Object> metrics);
+    }
+
+    private final double window;
+    private final double interval;
+    private final Listener listener;
+
+    // ring buffer of the beats in the window, a beat holds the difference to the previous beat if it is consecutive
+    private final int capacity;
+    private final double[] times;
+    private final float[] ibis;
+    private final double[] squaredDiffs;
+    private final boolean[] hasDiff;
+    private int head;
+    private int count;
+
+    private double sum;
+    private double sumSq;
+    private double sumSqDiff;
+    private int diffs;
+    private int nn50;
+
+    private float lastIbi;  // 0 if no beat was accepted
+    private double lastTime;
+    private int consecutiveRejections;
+    private int accepted;  // since the last report
+    private int rejected;  // since the last report
+    private double nextReport = Double.NaN;
+    private HashMap<String, Object> latest;
+
+    /**
+     * @param window   length of the window in seconds
+     * @param interval time between two reports in seconds
+     * @param listener listener receiving the metrics, or null
+     */
+    HrvEngine(double window, double interval, Listener listener) {
+        this.window = window;
+        this.interval = interval;
+        this.listener = listener;
+        capacity = (int) Math.ceil(window / MIN_IBI) + 1;
+        times = new double[capacity];
+        ibis = new float[capacity];
+        squaredDiffs = new double[capacity];
+        hasDiff = new boolean[capacity];
+    }
+
+    /**
+     * Adds an interval
+     *
+     * @param ibi       interbeat interval in seconds
+     * @param timestamp time of the beat in seconds
+     */
+    synchronized void add(float ibi, double timestamp) {
+        boolean consecutive = lastIbi > 0 && timestamp - lastTime < 1.5 * ibi;
+        if (ibi < MIN_IBI || ibi > MAX_IBI
+                || (lastIbi > 0 && Math.abs(ibi - lastIbi) > MAX_RELATIVE_CHANGE * lastIbi
+                && consecutiveRejections < MAX_CONSECUTIVE_REJECTIONS)) {
+            // the next beat is not consecutive to the last accepted one, so no difference is taken across
+            consecutiveRejections++;
+            rejected++;
+            report(timestamp);
+            return;
+        }
+        consecutiveRejections = 0;
+        accepted++;
+
+        while (count > 0 && (times[oldest()] <= timestamp - window || count == capacity)) {
+            evict();
+        }
+
+        int i = head;
+        times[i] = timestamp;
+        ibis[i] = ibi;
+        sum += ibi;
+        sumSq += ibi * ibi;
+        hasDiff[i] = consecutive && count > 0;
+        if (hasDiff[i]) {
+            double d = ibi - lastIbi;
+            squaredDiffs[i] = d * d;
+            sumSqDiff += d * d;
+            diffs++;
+            if (Math.abs(d) > NN50) nn50++;
+        }
+        head = (head + 1) % capacity;
+        count++;
+        lastIbi = ibi;
+        lastTime = timestamp;
+        report(timestamp);
+    }
+
+    private int oldest() {
+        return (head + capacity - count) % capacity;
+    }
+
+    /**
+     * Removes the oldest beat, and the difference of the next beat to it
+     */
+    private void evict() {
+        int i = oldest();
+        sum -= ibis[i];
+        sumSq -= ibis[i] * ibis[i];
+        count--;
+        if (count > 0) {
+            removeDiff(oldest());
+        } else {
+            sum = 0;
+            sumSq = 0;
+        }
+    }
+
+    private void removeDiff(int i) {
+        if (hasDiff[i]) {
+            hasDiff[i] = false;
+            sumSqDiff -= squaredDiffs[i];
+            diffs--;
+            if (Math.sqrt(squaredDiffs[i]) > NN50) nn50--;
+        }
+    }
+
+    private void report(double timestamp) {
+        if (Double.isNaN(nextReport)) nextReport = timestamp + interval;
+        if (timestamp < nextReport) return;
+        nextReport += interval;
+        if (nextReport <= timestamp) nextReport = timestamp + interval;
+
+        if (count >= 2 && diffs >= 1) {
+            double mean = sum / count;
+            double variance = Math.max(0, (sumSq - sum * mean) / (count - 1));
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("timestamp", timestamp);
+            map.put("window", window);
+            map.put("beats", count);
+            map.put("meanHr", 60 / mean);
+            map.put("sdnn", Math.sqrt(variance) * 1000);
+            map.put("rmssd", Math.sqrt(Math.max(0, sumSqDiff) / diffs) * 1000);
+            map.put("pnn50", 100.0 * nn50 / diffs);
+            map.put("artifacts", rejected);
+            map.put("artifactRate", (double) rejected / (accepted + rejected));
+            latest = map;
+            if (listener != null) listener.onHrv(map);
+        }
+        accepted = 0;
+        rejected = 0;
+    }
+
+    /**
+     * @return the last metrics reported, or null if none were reported
+     */
+    synchronized HashMap<String, Object> getLatest() {
+        return latest;
+    }
+}
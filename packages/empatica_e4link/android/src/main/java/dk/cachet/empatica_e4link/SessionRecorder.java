@@ -0,0 +1,441 @@
+package dk.cachet.empatica_e4link;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the E4 signals of a session to a directory, one append-only binary file per signal.
+ * <p>
+ * Each sample is copied as a fixed-size little-endian record, a float64 timestamp followed by the float32 values of
+ * the sample, into a large direct buffer of its signal. Full buffers are written through a {@link FileChannel} on a
+ * background writer thread while the callbacks fill a second buffer, so the callbacks never wait for the disk.
+ * Partially filled buffers are written every {@link #FLUSH_INTERVAL} milliseconds and the files are synced every
+ * {@link #SYNC_INTERVAL} milliseconds. Each file starts with a header of {@link #HEADER_SIZE} bytes: magic "E4SG"
+ * (int32), version (int16), number of values per sample (int16), record size (int32) and a reserved int32.
+ * <p>
+ * The session is split in segments: rotating closes the files of all signals and continues in new ones, e.g.
+ * "BVP.0001.bin". The manifest "manifest.json" lists the segments and their number of records; it is replaced
+ * atomically when the recording starts, rotates and stops. After a crash, the records of the last segment are the
+ * complete records of its files, since they are only ever appended.
+ * <p>
+ * All file operations run on the writer thread, including creating and closing the files, so the recorder can be
+ * started and stopped from the main thread. The {@link Listener} is notified on the writer thread.
+ */
+class SessionRecorder {
+    private static final String TAG = "SessionRecorder";
+
+    static final int MAGIC = 0x47533445;  // "E4SG" in little-endian
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long FLUSH_INTERVAL = 1000;
+    static final long SYNC_INTERVAL = 5 * 1000;
+    static final String MANIFEST = "manifest.json";
+
+    /**
+     * Notified on the writer thread when the files are created, or closed
+     */
+    interface Listener {
+        /**
+         * @param recorder the recorder
+         * @param error    the error if the files could not be created, null otherwise
+         */
+        void onComplete(SessionRecorder recorder, IOException error);
+    }
+
+    private final File directory;
+    private final long startTime = System.currentTimeMillis();
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1);
+    private final List<Column> columns = new ArrayList<>();
+    private boolean stopped;
+    final Column gsr;
+    final Column bvp;
+    final Column ibi;
+    final Column temperature;
+    final Column acceleration;
+    final Column batteryLevel;
+    final Column tag;
+
+    // only used on the writer thread
+    private boolean opened;
+    private int segment;
+    private long endTime;
+
+    /**
+     * Starts recording, creating the directory and the files of the first segment on the writer thread. Samples added
+     * before the files are created are kept in the buffers.
+     *
+     * @param directory        directory of the session
+     * @param rotationInterval time in milliseconds after which the segment is rotated, 0 to never rotate
+     * @param onOpened         notified once the files are created, or could not be created in which case the
+     *                         recorder is closed
+     */
+    SessionRecorder(File directory, long rotationInterval, Listener onOpened) {
+        this.directory = directory;
+        gsr = column(EmpaDataBuffer.GSR, 1);
+        bvp = column(EmpaDataBuffer.BVP, 1);
+        ibi = column(EmpaDataBuffer.IBI, 1);
+        temperature = column(EmpaDataBuffer.TEMPERATURE, 1);
+        acceleration = column(EmpaDataBuffer.ACCELERATION, 3);
+        batteryLevel = column(EmpaDataBuffer.BATTERY_LEVEL, 1);
+        tag = column(EmpaDataBuffer.TAG, 0);
+
+        writer.execute(() -> {
+            IOException error = null;
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Cannot create " + directory);
+                }
+                for (Column column : columns) {
+                    column.open(segment);
+                }
+                writeManifest(false);
+                opened = true;
+            } catch (IOException e) {
+                Log.e(TAG, "Creating the session " + directory + " failed", e);
+                error = e;
+            }
+            onOpened.onComplete(this, error);
+            if (error != null) close(null);
+        });
+        writer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+        if (rotationInterval > 0) {
+            writer.scheduleWithFixedDelay(this::rotateNow, rotationInterval, rotationInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Column column(String signal, int channels) {
+        Column column = new Column(signal, channels);
+        columns.add(column);
+        return column;
+    }
+
+    static String fileName(String signal, int segment) {
+        return String.format(Locale.US, "%s.%04d.bin", signal, segment);
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the samples collected so far and continues in a new segment. Does nothing once the recorder is closed.
+     */
+    void rotate() {
+        synchronized (this) {
+            // the writer is shut down right after stopped is set
+            if (stopped) return;
+            writer.execute(this::rotateNow);
+        }
+    }
+
+    /**
+     * Stops recording, and writes the remaining samples, closes the files and writes the final manifest on the
+     * writer thread, without waiting for it
+     *
+     * @param onClosed notified once the files are closed, or null
+     */
+    void close(Listener onClosed) {
+        synchronized (this) {
+            if (stopped) {
+                if (onClosed != null) onClosed.onComplete(this, null);
+                return;
+            }
+            stopped = true;
+        }
+        for (Column column : columns) {
+            column.close();
+        }
+        writer.execute(() -> {
+            for (Column column : columns) {
+                column.closeChannel();
+            }
+            if (opened) {
+                endTime = System.currentTimeMillis();
+                writeManifest(true);
+            }
+            if (onClosed != null) onClosed.onComplete(this, null);
+        });
+        // the tasks already submitted still run
+        writer.shutdown();
+    }
+
+    /**
+     * @return summary of the session: directory, start time, and number of records and drops per signal
+     */
+    HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("directory", directory.getAbsolutePath());
+        map.put("startTime", startTime);
+        HashMap<String, Object> signals = new HashMap<>();
+        for (Column column : columns) {
+            HashMap<String, Object> signal = new HashMap<>();
+            signal.put("records", column.getRecords());
+            signal.put("dropped", column.getDropped());
+            signals.put(column.signal, signal);
+        }
+        map.put("signals", signals);
+        return map;
+    }
+
+    private void flush() {
+        for (Column column : columns) {
+            column.flush();
+        }
+    }
+
+    private void sync() {
+        for (Column column : columns) {
+            column.sync();
+        }
+    }
+
+    /**
+     * Runs on the writer thread, after the writes of the previous segment
+     */
+    private void rotateNow() {
+        for (Column column : columns) {
+            column.flush();
+        }
+        // the writes submitted by the flush run before the files are switched
+        try {
+            writer.execute(this::switchSegment);
+        } catch (RejectedExecutionException e) {
+            // the recorder is closing
+        }
+    }
+
+    private void switchSegment() {
+        if (!opened) return;  // the files could not be created
+        segment++;
+        for (Column column : columns) {
+            column.closeChannel();
+            try {
+                column.open(segment);
+            } catch (IOException e) {
+                // the samples of the signal are dropped until the next rotation opens a file again
+                Log.e(TAG, "Rotating " + column.signal + " failed", e);
+            }
+        }
+        writeManifest(false);
+    }
+
+    /**
+     * Replaces the manifest atomically. Runs on the writer thread.
+     */
+    private void writeManifest(boolean closed) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"version\":").append(VERSION)
+                .append(",\"startTime\":").append(startTime)
+                .append(",\"endTime\":").append(closed ? String.valueOf(endTime) : "null")
+                .append(",\"closed\":").append(closed)
+                .append(",\"segments\":").append(segment + 1)
+                .append(",\"signals\":{");
+        for (int c = 0; c < columns.size(); c++) {
+            Column column = columns.get(c);
+            if (c > 0) json.append(',');
+            json.append('"').append(column.signal).append("\":{\"channels\":").append(column.channels)
+                    .append(",\"recordSize\":").append(column.recordSize)
+                    .append(",\"files\":[");
+            for (int s = 0; s <= segment; s++) {
+                if (s > 0) json.append(',');
+                json.append('"').append(fileName(column.signal, s)).append('"');
+            }
+            json.append("],\"records\":[");
+            for (int s = 0; s <= segment; s++) {
+                if (s > 0) json.append(',');
+                File file = new File(directory, fileName(column.signal, s));
+                long size = file.isFile() ? file.length() : 0;
+                json.append(Math.max(0, (size - HEADER_SIZE) / column.recordSize));
+            }
+            json.append("]}");
+        }
+        json.append("}}");
+
+        File tmp = new File(directory, MANIFEST + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Writing the manifest of " + directory + " failed", e);
+            return;
+        }
+        if (!tmp.renameTo(new File(directory, MANIFEST))) {
+            Log.e(TAG, "Replacing the manifest of " + directory + " failed");
+        }
+    }
+
+    /**
+     * The file of one signal, with two buffers swapped between the callbacks and the writer thread
+     */
+    class Column {
+        final String signal;
+        final int channels;
+        final int recordSize;
+        private ByteBuffer active;
+        private ByteBuffer spare;  // null while it is being written
+        private FileChannel channel;  // only used on the writer thread
+        private boolean closed;
+        private long records;
+        private long dropped;
+
+        Column(String signal, int channels) {
+            this.signal = signal;
+            this.channels = channels;
+            this.recordSize = 8 + 4 * channels;
+            int capacity = BUFFER_SIZE / recordSize * recordSize;
+            active = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            spare = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void open(int segment) throws IOException {
+            FileChannel file = new FileOutputStream(new File(directory, fileName(signal, segment))).getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) channels)
+                    .putInt(recordSize)
+                    .putInt(0);
+            header.flip();
+            try {
+                while (header.hasRemaining()) {
+                    file.write(header);
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            channel = file;
+        }
+
+        /**
+         * @return the buffer to put the record in, or null if the sample is dropped
+         */
+        private ByteBuffer reserve() {
+            if (closed) return null;
+            if (active.remaining() < recordSize) {
+                if (spare == null) {
+                    // the writer has not finished writing the other buffer
+                    dropped++;
+                    return null;
+                }
+                submitActive();
+            }
+            records++;
+            return active;
+        }
+
+        synchronized void add(double timestamp) {
+            ByteBuffer buffer = reserve();
+            if (buffer != null) buffer.putDouble(timestamp);
+        }
+
+        synchronized void add(double timestamp, float value) {
+            ByteBuffer buffer = reserve();
+            if (buffer != null) buffer.putDouble(timestamp).putFloat(value);
+        }
+
+        synchronized void add(double timestamp, float x, float y, float z) {
+            ByteBuffer buffer = reserve();
+            if (buffer != null) buffer.putDouble(timestamp).putFloat(x).putFloat(y).putFloat(z);
+        }
+
+        /**
+         * Swaps the buffers and writes the active one on the writer thread. Must be called holding the lock, with
+         * the spare buffer available.
+         */
+        private void submitActive() {
+            final ByteBuffer full = active;
+            active = spare;
+            spare = null;
+            writer.execute(() -> write(full));
+        }
+
+        /**
+         * Writes a buffer on the writer thread. The records which could not be written, because the file could not
+         * be opened or the write failed, are counted as dropped instead of recorded.
+         */
+        private void write(ByteBuffer buffer) {
+            buffer.flip();
+            try {
+                while (channel != null && buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Writing " + signal + " failed", e);
+            }
+            int lost = (buffer.remaining() + recordSize - 1) / recordSize;
+            buffer.clear();
+            synchronized (this) {
+                records -= lost;
+                dropped += lost;
+                spare = buffer;
+            }
+        }
+
+        synchronized void flush() {
+            if (!closed && spare != null && active.position() > 0) {
+                submitActive();
+            }
+        }
+
+        void sync() {
+            if (channel == null) return;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                Log.e(TAG, "Syncing " + signal + " failed", e);
+            }
+        }
+
+        /**
+         * Stops accepting samples and writes the remaining ones
+         */
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            if (active.position() > 0) {
+                if (spare == null) {
+                    final ByteBuffer last = active;
+                    writer.execute(() -> write(last));
+                } else {
+                    submitActive();
+                }
+            }
+        }
+
+        void closeChannel() {
+            if (channel == null) return;
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Closing " + signal + " failed", e);
+            }
+            channel = null;
+        }
+
+        synchronized long getRecords() {
+            return records;
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+    }
+}
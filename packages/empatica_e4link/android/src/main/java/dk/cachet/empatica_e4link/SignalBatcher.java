@@ -0,0 +1,92 @@
+package dk.cachet.empatica_e4link;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+import io.flutter.plugin.common.EventChannel.EventSink;
+
+/**
+ * Collects the samples of one E4 signal in columns of primitive values, and sends them as a single
+ * "DataBatch" event once {@code batchSize} samples are collected or when flushed.
+ * <p>
+ * The event holds the timestamps as a {@code double[]} and the values as a {@code float[]} with
+ * {@code channels} values per sample, which the Flutter codec sends as a Float64List and a Float32List,
+ * instead of a map with boxed values per sample.
+ */
+class SignalBatcher {
+    private final String signal;
+    private final int channels;
+    private final int batchSize;
+    private final EventSink eventSink;
+
+    private double[] timestamps;
+    private float[] values;
+    private int count;
+    private Boolean wearing;  // sent with the batches when gating flags the samples
+
+    /**
+     * @param signal    name of the signal, e.g. "BVP"
+     * @param channels  number of values per sample, e.g. 3 for the acceleration
+     * @param batchSize number of samples sent together
+     * @param eventSink event sink to send the batches to
+     */
+    SignalBatcher(String signal, int channels, int batchSize, EventSink eventSink) {
+        this.signal = signal;
+        this.channels = channels;
+        this.batchSize = batchSize;
+        this.eventSink = eventSink;
+        allocate();
+    }
+
+    private void allocate() {
+        timestamps = new double[batchSize];
+        values = new float[batchSize * channels];
+        count = 0;
+    }
+
+    synchronized void add(double timestamp, float value) {
+        timestamps[count] = timestamp;
+        values[count] = value;
+        if (++count == batchSize) flush();
+    }
+
+    synchronized void add(double timestamp, float x, float y, float z) {
+        timestamps[count] = timestamp;
+        int i = count * 3;
+        values[i] = x;
+        values[i + 1] = y;
+        values[i + 2] = z;
+        if (++count == batchSize) flush();
+    }
+
+    /**
+     * Sets the wearing flag sent with the next batches. The samples collected so far are sent first if the flag
+     * changes, so that a batch never mixes worn and non-worn samples.
+     *
+     * @param wearing whether the band is worn, or null to send no flag
+     */
+    synchronized void setWearing(Boolean wearing) {
+        if (!Objects.equals(wearing, this.wearing)) {
+            flush();
+            this.wearing = wearing;
+        }
+    }
+
+    /**
+     * Sends the samples collected so far, if any. The arrays are handed over to the event sink, so new ones
+     * are allocated for the next batch.
+     */
+    synchronized void flush() {
+        if (count == 0) return;
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("type", "DataBatch");
+        map.put("signal", signal);
+        map.put("channels", channels);
+        map.put("timestamps", count == batchSize ? timestamps : Arrays.copyOf(timestamps, count));
+        map.put("values", count == batchSize ? values : Arrays.copyOf(values, count * channels));
+        if (wearing != null) map.put("wearing", wearing);
+        eventSink.success(map);
+        allocate();
+    }
+}
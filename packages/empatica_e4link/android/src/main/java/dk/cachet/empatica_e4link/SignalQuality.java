@@ -0,0 +1,123 @@
+package dk.cachet.empatica_e4link;
+
+import com.empatica.empalink.config.EmpaSensorStatus;
+
+import java.util.HashMap;
+
+/**
+ * Rolling signal-quality indicators of the E4, used to tell whether the wristband is worn.
+ * <p>
+ * The BVP variance is computed over the last {@link #BVP_WINDOW} samples; a worn band shows the pulse wave, while
+ * a band lying on a table shows a nearly flat signal. The EDA is flat or near zero when the electrodes do not touch
+ * the skin, which is checked over the last {@link #EDA_WINDOW} samples. The band is considered worn unless it
+ * reported that it is not on the wrist, or the EDA is flat.
+ */
+class SignalQuality {
+    /**
+     * Number of BVP samples in the window, 4 seconds at 64 Hz
+     */
+    static final int BVP_WINDOW = 256;
+
+    /**
+     * Number of EDA samples in the window, 10 seconds at 4 Hz
+     */
+    static final int EDA_WINDOW = 40;
+
+    /**
+     * EDA range in microsiemens below which the EDA is flat
+     */
+    static final float EDA_FLATLINE_RANGE = 0.01f;
+
+    /**
+     * EDA level in microsiemens below which the electrodes do not touch the skin
+     */
+    static final float EDA_OFF_WRIST_LEVEL = 0.03f;
+
+    private final float[] bvp = new float[BVP_WINDOW];
+    private int bvpHead;
+    private int bvpCount;
+    private double bvpSum;
+    private double bvpSumSq;
+
+    private final float[] eda = new float[EDA_WINDOW];
+    private int edaHead;
+    private int edaCount;
+    private float edaMin;
+    private float edaMax;
+
+    private Integer onWristStatus;  // null until reported
+
+    synchronized void addBVP(float value) {
+        if (bvpCount == BVP_WINDOW) {
+            float old = bvp[bvpHead];
+            bvpSum -= old;
+            bvpSumSq -= old * old;
+        } else {
+            bvpCount++;
+        }
+        bvp[bvpHead] = value;
+        bvpSum += value;
+        bvpSumSq += value * value;
+        bvpHead = (bvpHead + 1) % BVP_WINDOW;
+        if (bvpHead == 0) {
+            // recompute the sums once per window, so that rounding errors do not accumulate
+            bvpSum = 0;
+            bvpSumSq = 0;
+            for (float v : bvp) {
+                bvpSum += v;
+                bvpSumSq += v * v;
+            }
+        }
+    }
+
+    synchronized void addEDA(float value) {
+        eda[edaHead] = value;
+        edaHead = (edaHead + 1) % EDA_WINDOW;
+        if (edaCount < EDA_WINDOW) edaCount++;
+        edaMin = Float.MAX_VALUE;
+        edaMax = -Float.MAX_VALUE;
+        for (int i = 0; i < edaCount; i++) {
+            edaMin = Math.min(edaMin, eda[i]);
+            edaMax = Math.max(edaMax, eda[i]);
+        }
+    }
+
+    synchronized void setOnWristStatus(@EmpaSensorStatus int status) {
+        onWristStatus = status;
+    }
+
+    /**
+     * @return variance of the BVP over the window, 0 until the window is full
+     */
+    synchronized double getBvpVariance() {
+        if (bvpCount < BVP_WINDOW) return 0;
+        double mean = bvpSum / bvpCount;
+        return Math.max(0, bvpSumSq / bvpCount - mean * mean);
+    }
+
+    /**
+     * @return true if the EDA has been flat or near zero over a full window
+     */
+    synchronized boolean isEdaFlatline() {
+        return edaCount == EDA_WINDOW && (edaMax - edaMin < EDA_FLATLINE_RANGE || edaMax < EDA_OFF_WRIST_LEVEL);
+    }
+
+    /**
+     * @return true unless the band reported that it is not on the wrist, or the EDA is flat
+     */
+    synchronized boolean isWearing() {
+        boolean onWrist = onWristStatus == null || onWristStatus == EmpaSensorStatus.ON_WRIST;
+        return onWrist && !isEdaFlatline();
+    }
+
+    synchronized HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("wearing", isWearing());
+        map.put("onWristStatus", onWristStatus);
+        map.put("bvpVariance", getBvpVariance());
+        map.put("edaFlatline", isEdaFlatline());
+        map.put("edaMin", edaCount > 0 ? edaMin : null);
+        map.put("edaMax", edaCount > 0 ? edaMax : null);
+        return map;
+    }
+}
@@ -0,0 +1,99 @@
+package dk.cachet.empatica_e4link;
+
+import com.empatica.empalink.EmpaticaDevice;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceRegistryTest {
+
+    private static EmpaticaDevice device(String serialNumber) {
+        EmpaticaDevice device = new EmpaticaDevice();
+        device.serialNumber = serialNumber;
+        device.name = "Empatica E4";
+        return device;
+    }
+
+    @Test
+    public void smoothsTheRssiOfADevice() {
+        DeviceRegistry registry = new DeviceRegistry();
+        EmpaticaDevice a = device("A");
+        assertTrue(registry.update(a, "E4 A", -60, 1000));
+        assertFalse(registry.update(a, "E4 A", -50, 2000));
+        assertSame(a, registry.get("A"));
+
+        Map<String, Object> entry = registry.snapshot(2000, 1_000_000).get(0);
+        assertEquals(-60 + DeviceRegistry.RSSI_ALPHA * 10, (Double) entry.get("rssi"), 1e-9);
+        assertEquals(-50, entry.get("lastRssi"));
+        assertEquals(2, entry.get("advertisements"));
+        // the elapsed realtime is converted to the wall clock
+        assertEquals(999_000L, entry.get("firstSeen"));
+        assertEquals(1_000_000L, entry.get("lastSeen"));
+    }
+
+    @Test
+    public void expiresTheDevicesNotSeen() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.setExpiry(10_000);
+        registry.update(device("A"), "E4 A", -60, 0);
+        registry.update(device("B"), "E4 B", -60, 5000);
+
+        assertEquals(2, registry.snapshot(10_000, 0).size());
+        List<Map<String, Object>> devices = registry.snapshot(10_001, 0);
+        assertEquals(1, devices.size());
+        assertEquals("B", devices.get(0).get("device"));
+        assertNull(registry.get("A"));
+
+        // an expired device is added again, without its former RSSI
+        assertTrue(registry.update(device("B"), "E4 B", -40, 20_000));
+        Map<String, Object> entry = registry.snapshot(20_000, 0).get(0);
+        assertEquals(-40, (Double) entry.get("rssi"), 1e-9);
+        assertEquals(1, entry.get("advertisements"));
+    }
+
+    @Test
+    public void ranksTheDevicesByRssiAndStaleness() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A"), "E4 A", -50, 0);
+        registry.update(device("B"), "E4 B", -60, 0);
+        registry.update(device("C"), "E4 C", -70, 0);
+
+        List<Map<String, Object>> devices = registry.snapshot(0, 0);
+        assertEquals("A", devices.get(0).get("device"));
+        assertEquals("B", devices.get(1).get("device"));
+        assertEquals("C", devices.get(2).get("device"));
+
+        // A, not seen for 15 s, ranks below B and C still advertising
+        registry.update(device("B"), "E4 B", -60, 15_000);
+        registry.update(device("C"), "E4 C", -70, 15_000);
+        devices = registry.snapshot(15_000, 0);
+        assertEquals("B", devices.get(0).get("device"));
+        assertEquals("A", devices.get(1).get("device"));
+        assertEquals("C", devices.get(2).get("device"));
+
+        // C, just seen again, now leads B, not seen for 11 s
+        registry.update(device("C"), "E4 C", -70, 26_000);
+        devices = registry.snapshot(26_000, 0);
+        assertEquals("C", devices.get(0).get("device"));
+        assertEquals("B", devices.get(1).get("device"));
+        assertEquals("A", devices.get(2).get("device"));
+    }
+
+    @Test
+    public void clearsTheDevices() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.update(device("A"), "E4 A", -50, 0);
+        registry.clear();
+        assertNull(registry.get("A"));
+        assertTrue(registry.snapshot(0, 0).isEmpty());
+        assertTrue(registry.update(device("A"), "E4 A", -50, 0));
+    }
+}
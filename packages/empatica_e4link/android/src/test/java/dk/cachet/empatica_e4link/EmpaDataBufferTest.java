@@ -0,0 +1,89 @@
+package dk.cachet.empatica_e4link;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EmpaDataBufferTest {
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> signal(Map<String, Object> drained, String signal) {
+        return ((Map<String, Map<String, Object>>) drained.get("signals")).get(signal);
+    }
+
+    @Test
+    public void drainsTheSamplesAfterASequenceNumber() {
+        EmpaDataBuffer buffer = new EmpaDataBuffer(1);
+        for (int i = 0; i < 5; i++) {
+            buffer.addGSR(i, i * 0.5f);
+            buffer.addBVP(i, -i);
+        }
+
+        Map<String, Object> all = buffer.drain(0, null);
+        assertEquals(10L, all.get("sequence"));
+        assertArrayEquals(new long[]{1, 3, 5, 7, 9}, (long[]) signal(all, EmpaDataBuffer.GSR).get("sequences"));
+
+        // the bisection finds the first sample after the sequence number, in each ring
+        Map<String, Object> later = buffer.drain(6, null);
+        assertArrayEquals(new long[]{7, 9}, (long[]) signal(later, EmpaDataBuffer.GSR).get("sequences"));
+        assertArrayEquals(new float[]{1.5f, 2f}, (float[]) signal(later, EmpaDataBuffer.GSR).get("values"), 0);
+        assertArrayEquals(new long[]{8, 10}, (long[]) signal(later, EmpaDataBuffer.BVP).get("sequences"));
+        assertFalse((Boolean) signal(later, EmpaDataBuffer.GSR).get("gap"));
+
+        Map<String, Object> none = buffer.drain(10, Collections.singletonList(EmpaDataBuffer.GSR));
+        assertEquals(0, ((long[]) signal(none, EmpaDataBuffer.GSR).get("sequences")).length);
+        assertNull(signal(none, EmpaDataBuffer.BVP));
+    }
+
+    @Test
+    public void keepsTheAccelerationChannelsTogether() {
+        EmpaDataBuffer buffer = new EmpaDataBuffer(1);
+        buffer.addAcceleration(1, 1, 2, 3);
+        buffer.addAcceleration(2, -4, -5, -6);
+
+        Map<String, Object> acceleration = signal(buffer.drain(1, null), EmpaDataBuffer.ACCELERATION);
+        assertEquals(3, acceleration.get("channels"));
+        assertArrayEquals(new double[]{2}, (double[]) acceleration.get("timestamps"), 0);
+        assertArrayEquals(new float[]{-4, -5, -6}, (float[]) acceleration.get("values"), 0);
+    }
+
+    @Test
+    public void reportsAGapWhenSamplesWereOverwritten() {
+        EmpaDataBuffer buffer = new EmpaDataBuffer(1);
+        int capacity = EmpaDataBuffer.MIN_CAPACITY;
+        for (int i = 1; i <= capacity + 4; i++) {
+            buffer.addTemperature(i, i);
+        }
+
+        Map<String, Object> all = signal(buffer.drain(0, null), EmpaDataBuffer.TEMPERATURE);
+        long[] sequences = (long[]) all.get("sequences");
+        assertEquals(capacity, sequences.length);
+        assertEquals(5, sequences[0]);
+        assertTrue((Boolean) all.get("gap"));
+
+        Map<String, Object> recent = signal(buffer.drain(4, null), EmpaDataBuffer.TEMPERATURE);
+        assertEquals(capacity, ((long[]) recent.get("sequences")).length);
+        assertFalse((Boolean) recent.get("gap"));
+    }
+
+    @Test
+    public void continuesTheSequenceOfAReplacedBuffer() {
+        EmpaDataBuffer buffer = new EmpaDataBuffer(1, 50);
+        buffer.addIBI(1, 0.8f);
+
+        assertEquals(51, buffer.getSequence());
+        Map<String, Object> upToDate = signal(buffer.drain(50, null), EmpaDataBuffer.IBI);
+        assertArrayEquals(new long[]{51}, (long[]) upToDate.get("sequences"));
+        assertFalse((Boolean) upToDate.get("gap"));
+
+        // the samples after 40 in the replaced buffer were not drained
+        assertTrue((Boolean) signal(buffer.drain(40, null), EmpaDataBuffer.IBI).get("gap"));
+    }
+}
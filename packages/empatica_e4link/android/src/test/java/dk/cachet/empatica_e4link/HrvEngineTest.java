@@ -0,0 +1,96 @@
+package dk.cachet.empatica_e4link;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HrvEngineTest {
+    private double time;
+
+    /**
+     * Adds beats with the given intervals, each beat following the previous one
+     */
+    private void beats(HrvEngine engine, float... ibis) {
+        for (float ibi : ibis) {
+            time += ibi;
+            engine.add(ibi, time);
+        }
+    }
+
+    private static double metric(HrvEngine engine, String name) {
+        return ((Number) engine.getLatest().get(name)).doubleValue();
+    }
+
+    @Test
+    public void computesTheMetricsOfARegularRhythm() {
+        HrvEngine engine = new HrvEngine(30, 1, null);
+        beats(engine, 1, 1, 1, 1, 1);
+
+        assertEquals(60, metric(engine, "meanHr"), 1e-6);
+        assertEquals(0, metric(engine, "sdnn"), 1e-3);
+        assertEquals(0, metric(engine, "rmssd"), 1e-3);
+        assertEquals(0, metric(engine, "pnn50"), 0);
+    }
+
+    @Test
+    public void computesTheSuccessiveDifferences() {
+        HrvEngine engine = new HrvEngine(30, 1, null);
+        beats(engine, 1, 0.9f, 1, 0.9f, 1, 0.9f);
+
+        assertEquals(100, metric(engine, "rmssd"), 0.01);
+        assertEquals(100, metric(engine, "pnn50"), 0);
+    }
+
+    @Test
+    public void rejectsArtifacts() {
+        HrvEngine engine = new HrvEngine(30, 10, null);
+        beats(engine, 1, 1, 1);
+        // too short, too long, and too different from the previous interval
+        beats(engine, 0.2f, 2.5f, 0.7f);
+        beats(engine, 1, 1, 1, 1, 1, 1, 1);
+
+        // reported 10 s after the first beat
+        assertEquals(3, ((Number) engine.getLatest().get("artifacts")).intValue());
+        assertEquals(8, ((Number) engine.getLatest().get("beats")).intValue());
+        // no difference is taken across the rejected beats
+        assertEquals(0, metric(engine, "rmssd"), 1e-3);
+    }
+
+    @Test
+    public void followsATrueChangeOfHeartRate() {
+        HrvEngine engine = new HrvEngine(300, 100, null);
+        beats(engine, 1, 1, 1);
+        beats(engine, 0.6f, 0.6f, 0.6f, 0.6f);
+        time += 100;
+        engine.add(0.6f, time);
+
+        // the fourth interval in a row at the new rate is accepted
+        HashMap<String, Object> latest = engine.getLatest();
+        assertEquals(5, ((Number) latest.get("beats")).intValue());
+        assertEquals(3, ((Number) latest.get("artifacts")).intValue());
+    }
+
+    @Test
+    public void evictsTheBeatsOutsideTheWindow() {
+        HrvEngine engine = new HrvEngine(5, 1, null);
+        for (int i = 0; i < 20; i++) {
+            beats(engine, 1);
+        }
+
+        assertEquals(5, ((Number) engine.getLatest().get("beats")).intValue());
+        assertEquals(60, metric(engine, "meanHr"), 1e-6);
+    }
+
+    @Test
+    public void needsTwoBeatsToReport() {
+        HrvEngine engine = new HrvEngine(30, 1, null);
+        beats(engine, 1);
+        time += 5;
+        engine.add(1, time);
+
+        assertNull(engine.getLatest());
+    }
+}
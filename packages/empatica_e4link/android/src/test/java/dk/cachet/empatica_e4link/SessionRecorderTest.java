@@ -0,0 +1,161 @@
+package dk.cachet.empatica_e4link;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRecorderTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("e4").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) delete(child);
+        }
+        file.delete();
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue("timed out", latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private SessionRecorder start() throws InterruptedException {
+        final CountDownLatch opened = new CountDownLatch(1);
+        SessionRecorder recorder = new SessionRecorder(directory, 0, (r, error) -> {
+            assertNull(error);
+            opened.countDown();
+        });
+        await(opened);
+        return recorder;
+    }
+
+    private static void close(SessionRecorder recorder) throws InterruptedException {
+        final CountDownLatch closed = new CountDownLatch(1);
+        recorder.close((r, error) -> closed.countDown());
+        await(closed);
+    }
+
+    private String manifest() throws IOException {
+        return new String(Files.readAllBytes(new File(directory, SessionRecorder.MANIFEST).toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits until the manifest lists the given number of segments, as it is replaced at the end of a rotation
+     */
+    private void awaitSegments(int segments) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!manifest().contains("\"segments\":" + segments)) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> signal(SessionRecorder recorder, String signal) {
+        return ((Map<String, Map<String, Object>>) recorder.toMap().get("signals")).get(signal);
+    }
+
+    @Test
+    public void writesTheRecordsAndTheFinalManifest() throws Exception {
+        SessionRecorder recorder = start();
+        assertTrue(manifest().contains("\"closed\":false"));
+        for (int i = 0; i < 3; i++) {
+            recorder.gsr.add(i, i * 0.5f);
+        }
+        recorder.acceleration.add(10, 1, 2, 3);
+        close(recorder);
+
+        byte[] gsr = Files.readAllBytes(new File(directory, "GSR.0000.bin").toPath());
+        assertEquals(SessionRecorder.HEADER_SIZE + 3 * 12, gsr.length);
+        ByteBuffer buffer = ByteBuffer.wrap(gsr).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(SessionRecorder.MAGIC, buffer.getInt());
+        assertEquals(SessionRecorder.VERSION, buffer.getShort());
+        assertEquals(1, buffer.getShort());
+        assertEquals(12, buffer.getInt());
+        buffer.position(SessionRecorder.HEADER_SIZE + 12);
+        assertEquals(1, buffer.getDouble(), 0);
+        assertEquals(0.5f, buffer.getFloat(), 0);
+
+        String manifest = manifest();
+        assertTrue(manifest.contains("\"closed\":true"));
+        assertTrue(manifest.contains("\"segments\":1"));
+        assertTrue(manifest.contains(
+                "\"GSR\":{\"channels\":1,\"recordSize\":12,\"files\":[\"GSR.0000.bin\"],\"records\":[3]}"));
+        assertTrue(manifest.contains(
+                "\"Acceleration\":{\"channels\":3,\"recordSize\":20,\"files\":[\"Acceleration.0000.bin\"],"
+                        + "\"records\":[1]}"));
+        assertEquals(3L, signal(recorder, EmpaDataBuffer.GSR).get("records"));
+        assertEquals(0L, signal(recorder, EmpaDataBuffer.GSR).get("dropped"));
+    }
+
+    @Test
+    public void rotatesToANewSegment() throws Exception {
+        SessionRecorder recorder = start();
+        recorder.gsr.add(0, 1);
+        recorder.gsr.add(1, 2);
+        recorder.rotate();
+        awaitSegments(2);
+        recorder.gsr.add(2, 3);
+        close(recorder);
+
+        assertEquals(SessionRecorder.HEADER_SIZE + 12, new File(directory, "GSR.0001.bin").length());
+        assertTrue(manifest().contains(
+                "\"files\":[\"GSR.0000.bin\",\"GSR.0001.bin\"],\"records\":[2,1]"));
+        assertEquals(3L, signal(recorder, EmpaDataBuffer.GSR).get("records"));
+    }
+
+    @Test
+    public void ignoresARotationAfterClosing() throws Exception {
+        SessionRecorder recorder = start();
+        close(recorder);
+        recorder.rotate();
+        assertTrue(manifest().contains("\"segments\":1"));
+    }
+
+    @Test
+    public void countsTheRecordsOfAFileWhichCannotBeOpenedAsDropped() throws Exception {
+        // a directory in the way of the next segment of one signal
+        assertTrue(new File(directory, "GSR.0001.bin").mkdir());
+        SessionRecorder recorder = start();
+        recorder.gsr.add(0, 1);
+        recorder.bvp.add(0, 1);
+        recorder.rotate();
+        awaitSegments(2);
+        for (int i = 1; i < 4; i++) {
+            recorder.gsr.add(i, 1);
+            recorder.bvp.add(i, 1);
+        }
+        close(recorder);
+
+        assertEquals(1L, signal(recorder, EmpaDataBuffer.GSR).get("records"));
+        assertEquals(3L, signal(recorder, EmpaDataBuffer.GSR).get("dropped"));
+        assertEquals(4L, signal(recorder, EmpaDataBuffer.BVP).get("records"));
+        assertTrue(manifest().contains("\"files\":[\"GSR.0000.bin\",\"GSR.0001.bin\"],\"records\":[1,0]"));
+        assertTrue(manifest().contains("\"files\":[\"BVP.0000.bin\",\"BVP.0001.bin\"],\"records\":[1,3]"));
+    }
+}
@@ -1,25 +1,36 @@
 library empaticae4;
 
 import 'dart:async';
+import 'dart:convert';
+import 'dart:io';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 
 part 'empatica_status_events.dart';
 part 'empatica_data_events.dart';
+part 'empatica_data_buffer.dart';
+part 'empatica_metrics_events.dart';
+part 'empatica_recording.dart';
 
 class EmpaticaPlugin {
   static const String methodChannelName = 'empatica.io/empatica_methodChannel';
   static const String statusEventSinkName =
       'empatica.io/empatica_statusEventSink';
   static const String dataEventSinkName = 'empatica.io/empatica_dataEventSink';
+  static const String metricsEventSinkName =
+      'empatica.io/empatica_metricsEventSink';
 
   final MethodChannel _methodChannel = const MethodChannel(methodChannelName);
   final EventChannel _statusEventChannel =
       const EventChannel(statusEventSinkName);
   final EventChannel _dataEventChannel = const EventChannel(dataEventSinkName);
+  final EventChannel _metricsEventChannel =
+      const EventChannel(metricsEventSinkName);
 
   Stream<EmpaticaStatusEvent>? _statusEventSink;
   Stream<EmpaticaDataEvent>? _dataEventSink;
+  Stream<EmpaticaMetricsEvent>? _metricsEventSink;
 
   /// The [EmpaStatus] of the device. For example, ready, connected, disconnected, etc.
   EmpaStatus status = EmpaStatus.initial;
@@ -85,11 +96,163 @@ class EmpaticaPlugin {
     await _methodChannel.invokeMethod('disconnect');
   }
 
+  /// Returns the devices discovered while scanning, ranked from the best
+  /// candidate to connect to: the strongest smoothed RSSI among the devices
+  /// still advertising.
+  ///
+  /// A [DiscoverDevice] event is only sent when a device is first seen in a
+  /// scan, so use this list to follow the RSSI of the devices around.
+  Future<List<DiscoveredDevice>> getDiscoveredDevices() async {
+    final List<dynamic> devices =
+        await _methodChannel.invokeMethod('getDiscoveredDevices');
+    return devices
+        .map((device) => DiscoveredDevice.fromMap(device as Map))
+        .toList();
+  }
+
+  /// Sets the time after which a discovered device which is not seen anymore
+  /// is forgotten. The default is 30 seconds.
+  Future<void> setDeviceExpiry(Duration expiry) async {
+    await _methodChannel
+        .invokeMethod('setDeviceExpiry', {'expiry': expiry.inMilliseconds});
+  }
+
+  /// Sets how the GSR, BVP, IBI, temperature and acceleration samples are
+  /// sent on the [dataEventSink].
+  ///
+  /// With a [batchSize] above 1, the samples of each signal are sent together
+  /// in [DataBatch] events of up to [batchSize] samples, and a partial batch is
+  /// sent at the latest after [maxLatency]. This is much cheaper than sending
+  /// each sample in its own event. A [batchSize] of 1 (the default) sends each
+  /// sample in its own event. The [batchSize] and [maxLatency] must be
+  /// positive, otherwise a [PlatformException] is thrown.
+  Future<void> setDataBatching({
+    int batchSize = 64,
+    Duration maxLatency = const Duration(milliseconds: 500),
+  }) async {
+    await _methodChannel.invokeMethod('setDataBatching', {
+      'batchSize': batchSize,
+      'maxLatency': maxLatency.inMilliseconds,
+    });
+  }
+
+  /// Starts keeping the latest samples of each signal in ring buffers on
+  /// Android, whether or not the [dataEventSink] is listened to.
+  ///
+  /// About [duration] of samples of each signal are kept, at the nominal
+  /// sampling rates of the E4. Use [drainDataBuffer] to get the samples at
+  /// the cadence of the app, e.g. once per second, instead of receiving each
+  /// sample as an event. Calling it again replaces the buffers, keeping the
+  /// sequence numbers, so the next drain reports a gap instead of repeating
+  /// samples.
+  Future<void> startDataBuffer(
+      {Duration duration = const Duration(minutes: 1)}) async {
+    await _methodChannel
+        .invokeMethod('startDataBuffer', {'duration': duration.inSeconds});
+  }
+
+  /// Returns the samples received after the sequence number [since], which is
+  /// the [DataBufferDrain.sequence] of the previous drain, or 0 to get all
+  /// the buffered samples. Only the [signals] given are drained, e.g.
+  /// `['BVP', 'Acceleration']`, or all signals if null.
+  ///
+  /// The signals are 'GSR', 'BVP', 'IBI', 'Temperature', 'Acceleration',
+  /// 'BatteryLevel' and 'Tag'. Returns null if the buffer is not started.
+  Future<DataBufferDrain?> drainDataBuffer(
+      {int since = 0, List<String>? signals}) async {
+    final Map<dynamic, dynamic>? map = await _methodChannel.invokeMethod(
+        'drainDataBuffer', {'since': since, 'signals': signals});
+    return map == null ? null : DataBufferDrain.fromMap(map);
+  }
+
+  /// Stops keeping samples in ring buffers, and discards them.
+  Future<void> stopDataBuffer() async {
+    await _methodChannel.invokeMethod('stopDataBuffer');
+  }
+
+  /// Sets what happens to the GSR, BVP, IBI, temperature and acceleration
+  /// samples while the band is not worn.
+  ///
+  /// With [DataGating.suppress], samples received while the band is not worn
+  /// never reach the [dataEventSink] nor the data buffer. With
+  /// [DataGating.flag], they are sent with a `wearing` flag. Both send
+  /// [SignalQuality] events on the [dataEventSink].
+  Future<void> setDataGating(DataGating mode) async {
+    await _methodChannel.invokeMethod('setDataGating', {'mode': mode.name});
+  }
+
+  /// Returns the current signal-quality indicators computed on Android.
+  Future<SignalQuality> getSignalQuality() async {
+    final Map<dynamic, dynamic> map =
+        await _methodChannel.invokeMethod('getSignalQuality');
+    return SignalQuality.fromMap(map);
+  }
+
+  /// Sets the sliding window over which the [HrvMetrics] on the
+  /// [metricsEventSink] are computed, and how often they are sent.
+  /// The beats in the current window are discarded. Both durations must be
+  /// positive, otherwise a [PlatformException] is thrown.
+  Future<void> setHrvWindow({
+    Duration window = const Duration(seconds: 60),
+    Duration interval = const Duration(seconds: 5),
+  }) async {
+    await _methodChannel.invokeMethod('setHrvWindow', {
+      'window': window.inMilliseconds / 1000,
+      'interval': interval.inMilliseconds / 1000,
+    });
+  }
+
+  /// Returns the last [HrvMetrics] computed on Android, or null if none were
+  /// computed yet.
+  Future<HrvMetrics?> getHrv() async {
+    final Map<dynamic, dynamic>? map =
+        await _methodChannel.invokeMethod('getHrv');
+    return map == null ? null : HrvMetrics.fromMap(map);
+  }
+
+  /// Starts recording all signals on Android to a session directory, without
+  /// going through the [dataEventSink].
+  ///
+  /// The session is written to [directory], or to a new directory in the app
+  /// files if null. With a [rotationInterval], the files are rotated
+  /// periodically so that a crash only affects the last segment. Read the
+  /// session with [EmpaticaSession]. A current recording is stopped first.
+  Future<SessionInfo> startRecording(
+      {String? directory, Duration? rotationInterval}) async {
+    final Map<dynamic, dynamic> map =
+        await _methodChannel.invokeMethod('startRecording', {
+      'directory': directory,
+      'rotationInterval': rotationInterval?.inMilliseconds ?? 0,
+    });
+    return SessionInfo.fromMap(map);
+  }
+
+  /// Continues the current recording in new files. Returns null if not
+  /// recording.
+  Future<SessionInfo?> rotateRecording() async {
+    final Map<dynamic, dynamic>? map =
+        await _methodChannel.invokeMethod('rotateRecording');
+    return map == null ? null : SessionInfo.fromMap(map);
+  }
+
+  /// Stops the current recording, once all samples are written. Returns null
+  /// if not recording.
+  Future<SessionInfo?> stopRecording() async {
+    final Map<dynamic, dynamic>? map =
+        await _methodChannel.invokeMethod('stopRecording');
+    return map == null ? null : SessionInfo.fromMap(map);
+  }
+
   // ------------    STREAM HANDLERS --------------------
 
+  // Events delivered together in a list on Android are flattened.
+  static Iterable<dynamic> _unbatch(dynamic event) =>
+      event is List ? event : [event];
+
   Stream<EmpaticaStatusEvent>? get statusEventSink {
     _statusEventSink = _statusEventChannel
         .receiveBroadcastStream()
+        .expand(_unbatch)
         .map((event) => EmpaticaStatusEvent.fromMap(event));
 
     _statusEventSink?.listen((event) {
@@ -103,7 +266,17 @@ class EmpaticaPlugin {
   Stream<EmpaticaDataEvent>? get dataEventSink {
     _dataEventSink = _dataEventChannel
         .receiveBroadcastStream()
+        .expand(_unbatch)
         .map((event) => EmpaticaDataEvent.fromMap(event));
     return _dataEventSink;
   }
+
+  /// Metrics derived on Android from the data, sent at a low rate, e.g. the
+  /// [HrvMetrics] computed from the interbeat intervals.
+  Stream<EmpaticaMetricsEvent>? get metricsEventSink {
+    _metricsEventSink = _metricsEventChannel
+        .receiveBroadcastStream()
+        .map((event) => EmpaticaMetricsEvent.fromMap(event));
+    return _metricsEventSink;
+  }
 }
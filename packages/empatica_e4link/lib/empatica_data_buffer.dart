@@ -0,0 +1,67 @@
+part of empaticae4;
+
+/// The samples of one signal returned by [EmpaticaPlugin.drainDataBuffer].
+///
+/// The values are stored in columns: the i'th sample has the sequence number
+/// `sequences[i]`, the timestamp `timestamps[i]` and the values
+/// `values[i * channels]` to `values[i * channels + channels - 1]`.
+class BufferedSignal {
+  /// The signal of the samples, e.g. 'BVP'.
+  final String signal;
+
+  /// The number of values per sample, 3 for the acceleration, 0 for the tags
+  /// and 1 otherwise.
+  final int channels;
+
+  final Int64List sequences;
+  final Float64List timestamps;
+  final Float32List values;
+
+  /// True if samples of this signal received after the requested sequence
+  /// number were overwritten before being drained.
+  final bool gap;
+
+  BufferedSignal(this.signal, this.channels, this.sequences, this.timestamps,
+      this.values, this.gap);
+
+  factory BufferedSignal.fromMap(String signal, Map<dynamic, dynamic> map) {
+    final int channels = map['channels'];
+    final Int64List sequences = map['sequences'];
+    final Float64List timestamps = map['timestamps'];
+    final Float32List values = map['values'];
+    final bool gap = map['gap'];
+    return BufferedSignal(signal, channels, sequences, timestamps, values, gap);
+  }
+
+  /// The number of samples.
+  int get length => timestamps.length;
+
+  @override
+  String toString() =>
+      'BufferedSignal{signal: $signal, length: $length, gap: $gap}';
+}
+
+/// The result of [EmpaticaPlugin.drainDataBuffer].
+class DataBufferDrain {
+  /// The sequence number of the last sample received, to pass to the next
+  /// drain.
+  final int sequence;
+
+  /// The samples of each drained signal, by signal name.
+  final Map<String, BufferedSignal> signals;
+
+  DataBufferDrain(this.sequence, this.signals);
+
+  factory DataBufferDrain.fromMap(Map<dynamic, dynamic> map) {
+    final int sequence = map['sequence'];
+    final Map<dynamic, dynamic> signals = map['signals'];
+    return DataBufferDrain(
+        sequence,
+        signals.map((signal, samples) => MapEntry(
+            signal as String, BufferedSignal.fromMap(signal, samples))));
+  }
+
+  @override
+  String toString() => 'DataBufferDrain{sequence: $sequence, '
+      'signals: ${signals.values.toList()}}';
+}
@@ -22,6 +22,10 @@ class EmpaticaDataEvent {
         return ReceiveTag.fromMap(map);
       case 'UpdateOnWristStatus':
         return UpdateOnWristStatus.fromMap(map);
+      case 'DataBatch':
+        return DataBatch.fromMap(map);
+      case 'SignalQuality':
+        return SignalQuality.fromMap(map);
       default:
         return EmpaticaDataEvent();
     }
@@ -35,12 +39,15 @@ class ReceiveBVP extends EmpaticaDataEvent {
   final double bvp;
   final double timestamp;
 
-  ReceiveBVP(this.timestamp, this.bvp);
+  /// Whether the band was worn, if gating is set to [DataGating.flag].
+  final bool? wearing;
+
+  ReceiveBVP(this.timestamp, this.bvp, {this.wearing});
 
   factory ReceiveBVP.fromMap(Map<dynamic, dynamic> map) {
     final double timestamp = map['timestamp'];
     final double bvp = map['bvp'];
-    return ReceiveBVP(timestamp, bvp);
+    return ReceiveBVP(timestamp, bvp, wearing: map['wearing']);
   }
 
   @override
@@ -51,12 +58,15 @@ class ReceiveGSR extends EmpaticaDataEvent {
   final double gsr;
   final double timestamp;
 
-  ReceiveGSR(this.timestamp, this.gsr);
+  /// Whether the band was worn, if gating is set to [DataGating.flag].
+  final bool? wearing;
+
+  ReceiveGSR(this.timestamp, this.gsr, {this.wearing});
 
   factory ReceiveGSR.fromMap(Map<dynamic, dynamic> map) {
     final double timestamp = map['timestamp'];
     final double gsr = map['gsr'];
-    return ReceiveGSR(timestamp, gsr);
+    return ReceiveGSR(timestamp, gsr, wearing: map['wearing']);
   }
 
   @override
@@ -67,12 +77,15 @@ class ReceiveIBI extends EmpaticaDataEvent {
   final double ibi;
   final double timestamp;
 
-  ReceiveIBI(this.timestamp, this.ibi);
+  /// Whether the band was worn, if gating is set to [DataGating.flag].
+  final bool? wearing;
+
+  ReceiveIBI(this.timestamp, this.ibi, {this.wearing});
 
   factory ReceiveIBI.fromMap(Map<dynamic, dynamic> map) {
     final double timestamp = map['timestamp'];
     final double ibi = map['ibi'];
-    return ReceiveIBI(timestamp, ibi);
+    return ReceiveIBI(timestamp, ibi, wearing: map['wearing']);
   }
 
   @override
@@ -83,12 +96,15 @@ class ReceiveTemperature extends EmpaticaDataEvent {
   final double temperature;
   final double timestamp;
 
-  ReceiveTemperature(this.timestamp, this.temperature);
+  /// Whether the band was worn, if gating is set to [DataGating.flag].
+  final bool? wearing;
+
+  ReceiveTemperature(this.timestamp, this.temperature, {this.wearing});
 
   factory ReceiveTemperature.fromMap(Map<dynamic, dynamic> map) {
     final double timestamp = map['timestamp'];
     final double temperature = map['temperature'];
-    return ReceiveTemperature(timestamp, temperature);
+    return ReceiveTemperature(timestamp, temperature, wearing: map['wearing']);
   }
 
   @override
@@ -101,14 +117,17 @@ class ReceiveAcceleration extends EmpaticaDataEvent {
   final int z;
   final double timestamp;
 
-  ReceiveAcceleration(this.timestamp, this.x, this.y, this.z);
+  /// Whether the band was worn, if gating is set to [DataGating.flag].
+  final bool? wearing;
+
+  ReceiveAcceleration(this.timestamp, this.x, this.y, this.z, {this.wearing});
 
   factory ReceiveAcceleration.fromMap(Map<dynamic, dynamic> map) {
     final double timestamp = map['timestamp'];
     final int x = map['x'];
     final int y = map['y'];
     final int z = map['z'];
-    return ReceiveAcceleration(timestamp, x, y, z);
+    return ReceiveAcceleration(timestamp, x, y, z, wearing: map['wearing']);
   }
 
   @override
@@ -156,3 +175,116 @@ class UpdateOnWristStatus extends EmpaticaDataEvent {
     return UpdateOnWristStatus(type, status);
   }
 }
+
+/// A batch of samples of one signal, sent instead of the individual events
+/// when batching is enabled with [EmpaticaPlugin.setDataBatching].
+///
+/// The values are stored in columns: the timestamp of the i'th sample is
+/// `timestamps[i]` and its values are `values[i * channels]` to
+/// `values[i * channels + channels - 1]`.
+class DataBatch extends EmpaticaDataEvent {
+  /// The signal of the samples, one of 'GSR', 'BVP', 'IBI', 'Temperature'
+  /// or 'Acceleration'.
+  final String signal;
+
+  /// The number of values per sample, 3 for the acceleration and 1 otherwise.
+  final int channels;
+
+  final Float64List timestamps;
+  final Float32List values;
+
+  /// Whether the band was worn during the whole batch, if gating is set to
+  /// [DataGating.flag].
+  final bool? wearing;
+
+  DataBatch(this.signal, this.channels, this.timestamps, this.values,
+      {this.wearing});
+
+  factory DataBatch.fromMap(Map<dynamic, dynamic> map) {
+    final String signal = map['signal'];
+    final int channels = map['channels'];
+    final Float64List timestamps = map['timestamps'];
+    final Float32List values = map['values'];
+    return DataBatch(signal, channels, timestamps, values,
+        wearing: map['wearing']);
+  }
+
+  /// The number of samples in the batch.
+  int get length => timestamps.length;
+
+  /// The samples of the batch as individual events, e.g. [ReceiveBVP].
+  Iterable<EmpaticaDataEvent> get events sync* {
+    for (int i = 0; i < length; i++) {
+      final double timestamp = timestamps[i];
+      switch (signal) {
+        case 'GSR':
+          yield ReceiveGSR(timestamp, values[i], wearing: wearing);
+          break;
+        case 'BVP':
+          yield ReceiveBVP(timestamp, values[i], wearing: wearing);
+          break;
+        case 'IBI':
+          yield ReceiveIBI(timestamp, values[i], wearing: wearing);
+          break;
+        case 'Temperature':
+          yield ReceiveTemperature(timestamp, values[i], wearing: wearing);
+          break;
+        case 'Acceleration':
+          yield ReceiveAcceleration(timestamp, values[i * 3].toInt(),
+              values[i * 3 + 1].toInt(), values[i * 3 + 2].toInt(),
+              wearing: wearing);
+          break;
+      }
+    }
+  }
+
+  @override
+  String toString() => 'DataBatch{signal: $signal, length: $length}';
+}
+
+/// What happens to the GSR, BVP, IBI, temperature and acceleration samples
+/// while the band is not worn, see [EmpaticaPlugin.setDataGating].
+enum DataGating {
+  /// The samples are sent as usual.
+  off,
+
+  /// The samples are sent with a `wearing` flag, and [SignalQuality] events
+  /// are sent.
+  flag,
+
+  /// The samples are dropped on Android, and [SignalQuality] events are sent.
+  suppress,
+}
+
+/// Rolling signal-quality indicators computed on Android, sent every second
+/// and whenever the band is put on or taken off, unless gating is off.
+class SignalQuality extends EmpaticaDataEvent {
+  /// Whether the band is worn, i.e. it did not report being off the wrist and
+  /// the EDA is not flat.
+  final bool wearing;
+
+  /// The last on-wrist status reported by the band, if any.
+  final int? onWristStatus;
+
+  /// The variance of the BVP over the last 4 seconds.
+  final double bvpVariance;
+
+  /// Whether the EDA has been flat or near zero over the last 10 seconds.
+  final bool edaFlatline;
+
+  /// The range of the EDA over the last 10 seconds, if any EDA was received.
+  final double? edaMin;
+  final double? edaMax;
+
+  SignalQuality(this.wearing, this.onWristStatus, this.bvpVariance,
+      this.edaFlatline, this.edaMin, this.edaMax);
+
+  factory SignalQuality.fromMap(Map<dynamic, dynamic> map) {
+    return SignalQuality(map['wearing'], map['onWristStatus'],
+        map['bvpVariance'], map['edaFlatline'], map['edaMin'], map['edaMax']);
+  }
+
+  @override
+  String toString() => 'SignalQuality{wearing: $wearing, '
+      'bvpVariance: $bvpVariance, edaFlatline: $edaFlatline}';
+}
@@ -0,0 +1,69 @@
+part of empaticae4;
+
+class EmpaticaMetricsEvent {
+  EmpaticaMetricsEvent();
+
+  factory EmpaticaMetricsEvent.fromMap(Map<dynamic, dynamic> map) {
+    final String type = map['type'];
+    switch (type) {
+      case 'Hrv':
+        return HrvMetrics.fromMap(map);
+      default:
+        return EmpaticaMetricsEvent();
+    }
+  }
+
+  @override
+  String toString() => '$runtimeType';
+}
+
+/// Heart rate variability computed on Android from the interbeat intervals
+/// of a sliding window, see [EmpaticaPlugin.setHrvWindow].
+class HrvMetrics extends EmpaticaMetricsEvent {
+  /// The time of the last beat in the window in UNIX time (seconds).
+  final double timestamp;
+
+  /// The length of the window in seconds.
+  final double window;
+
+  /// The number of beats in the window.
+  final int beats;
+
+  /// The mean heart rate in beats per minute.
+  final double meanHr;
+
+  /// The standard deviation of the interbeat intervals in milliseconds.
+  final double sdnn;
+
+  /// The root mean square of the successive differences in milliseconds.
+  final double rmssd;
+
+  /// The percentage of successive differences above 50 ms.
+  final double pnn50;
+
+  /// The number of intervals rejected as artifacts since the previous report.
+  final int artifacts;
+
+  /// The ratio of intervals rejected as artifacts since the previous report.
+  final double artifactRate;
+
+  HrvMetrics(this.timestamp, this.window, this.beats, this.meanHr, this.sdnn,
+      this.rmssd, this.pnn50, this.artifacts, this.artifactRate);
+
+  factory HrvMetrics.fromMap(Map<dynamic, dynamic> map) {
+    return HrvMetrics(
+        map['timestamp'],
+        map['window'],
+        map['beats'],
+        map['meanHr'],
+        map['sdnn'],
+        map['rmssd'],
+        map['pnn50'],
+        map['artifacts'],
+        map['artifactRate']);
+  }
+
+  @override
+  String toString() => 'HrvMetrics{meanHr: $meanHr, sdnn: $sdnn, '
+      'rmssd: $rmssd, pnn50: $pnn50}';
+}
@@ -0,0 +1,119 @@
+part of empaticae4;
+
+/// A summary of a session recorded on Android, see
+/// [EmpaticaPlugin.startRecording].
+class SessionInfo {
+  /// The path of the session directory.
+  final String directory;
+
+  final DateTime startTime;
+
+  /// The number of samples recorded per signal.
+  final Map<String, int> records;
+
+  /// The number of samples dropped per signal because the disk could not
+  /// keep up.
+  final Map<String, int> dropped;
+
+  SessionInfo(this.directory, this.startTime, this.records, this.dropped);
+
+  factory SessionInfo.fromMap(Map<dynamic, dynamic> map) {
+    final Map<dynamic, dynamic> signals = map['signals'];
+    return SessionInfo(
+        map['directory'],
+        DateTime.fromMillisecondsSinceEpoch(map['startTime']),
+        signals.map((signal, value) =>
+            MapEntry(signal as String, value['records'] as int)),
+        signals.map((signal, value) =>
+            MapEntry(signal as String, value['dropped'] as int)));
+  }
+
+  @override
+  String toString() => 'SessionInfo{directory: $directory, records: $records}';
+}
+
+/// The samples of one signal read from a recorded session.
+///
+/// The i'th sample has the timestamp `timestamps[i]` and the values
+/// `values[i * channels]` to `values[i * channels + channels - 1]`.
+class RecordedSignal {
+  final String signal;
+  final int channels;
+  final Float64List timestamps;
+  final Float32List values;
+
+  RecordedSignal(this.signal, this.channels, this.timestamps, this.values);
+
+  int get length => timestamps.length;
+}
+
+/// Reads a session recorded on Android by [EmpaticaPlugin.startRecording].
+///
+/// The session directory holds a `manifest.json` and, per signal and segment,
+/// an append-only file of little-endian records: a float64 timestamp followed
+/// by the float32 values of the sample, after a 16 bytes header. Incomplete
+/// trailing records, e.g. after a crash, are ignored.
+class EmpaticaSession {
+  static const int headerSize = 16;
+  static const int magic = 0x47533445;
+
+  final String directory;
+
+  /// The decoded manifest of the session.
+  final Map<String, dynamic> manifest;
+
+  EmpaticaSession(this.directory, this.manifest);
+
+  /// Opens the session in [directory] by reading its manifest.
+  static Future<EmpaticaSession> open(String directory) async {
+    final String json =
+        await File('$directory/manifest.json').readAsString();
+    return EmpaticaSession(directory, jsonDecode(json));
+  }
+
+  /// Whether the recording was stopped, rather than interrupted.
+  bool get closed => manifest['closed'] as bool;
+
+  /// The names of the recorded signals, e.g. 'BVP'.
+  Iterable<String> get signals =>
+      (manifest['signals'] as Map<String, dynamic>).keys;
+
+  /// Reads all the segments of a signal.
+  Future<RecordedSignal> read(String signal) async {
+    final Map<String, dynamic> info = manifest['signals'][signal];
+    final int channels = info['channels'];
+    final int recordSize = info['recordSize'];
+
+    final List<ByteData> segments = [];
+    int count = 0;
+    for (final String file in (info['files'] as List).cast<String>()) {
+      final File f = File('$directory/$file');
+      if (!await f.exists()) continue;
+      final Uint8List bytes = await f.readAsBytes();
+      if (bytes.length < headerSize) continue;
+      final ByteData data = ByteData.sublistView(bytes);
+      if (data.getInt32(0, Endian.little) != magic) {
+        throw FormatException('Not an E4 session file', file);
+      }
+      segments.add(data);
+      count += (bytes.length - headerSize) ~/ recordSize;
+    }
+
+    final Float64List timestamps = Float64List(count);
+    final Float32List values = Float32List(count * channels);
+    int i = 0;
+    for (final ByteData data in segments) {
+      for (int offset = headerSize;
+          offset + recordSize <= data.lengthInBytes;
+          offset += recordSize) {
+        timestamps[i] = data.getFloat64(offset, Endian.little);
+        for (int c = 0; c < channels; c++) {
+          values[i * channels + c] =
+              data.getFloat32(offset + 8 + 4 * c, Endian.little);
+        }
+        i++;
+      }
+    }
+    return RecordedSignal(signal, channels, timestamps, values);
+  }
+}
@@ -141,6 +141,47 @@ class DiscoverDevice extends EmpaticaStatusEvent {
   }
 }
 
+/// A device in the registry of discovered devices, see
+/// [EmpaticaPlugin.getDiscoveredDevices].
+class DiscoveredDevice {
+  /// The serial number of the device, to pass to
+  /// [EmpaticaPlugin.connectDevice].
+  final String device;
+  final String? name;
+  final String? label;
+
+  /// The RSSI smoothed over the advertisements of the device.
+  final double rssi;
+
+  /// The RSSI of the last advertisement.
+  final int lastRssi;
+
+  final DateTime firstSeen;
+  final DateTime lastSeen;
+
+  /// The number of advertisements received from the device.
+  final int advertisements;
+
+  DiscoveredDevice(this.device, this.name, this.label, this.rssi,
+      this.lastRssi, this.firstSeen, this.lastSeen, this.advertisements);
+
+  factory DiscoveredDevice.fromMap(Map<dynamic, dynamic> map) {
+    return DiscoveredDevice(
+        map['device'],
+        map['name'],
+        map['deviceLabel'],
+        map['rssi'],
+        map['lastRssi'],
+        DateTime.fromMillisecondsSinceEpoch(map['firstSeen']),
+        DateTime.fromMillisecondsSinceEpoch(map['lastSeen']),
+        map['advertisements']);
+  }
+
+  @override
+  String toString() =>
+      'DiscoveredDevice{device: $device, rssi: $rssi, lastSeen: $lastSeen}';
+}
+
 class FailedScanning extends EmpaticaStatusEvent {
   final dynamic errorCode;
   String type;
@@ -0,0 +1,54 @@
+import 'dart:typed_data';
+
+import 'package:empatica_e4link/empatica.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  group('DataBatch', () {
+    test('is decoded from its map', () {
+      final event = EmpaticaDataEvent.fromMap({
+        'type': 'DataBatch',
+        'signal': 'GSR',
+        'channels': 1,
+        'timestamps': Float64List.fromList([1.0, 1.25]),
+        'values': Float32List.fromList([0.5, 0.75]),
+        'wearing': true,
+      });
+      expect(event, isA<DataBatch>());
+      final batch = event as DataBatch;
+      expect(batch.signal, 'GSR');
+      expect(batch.length, 2);
+      expect(batch.wearing, isTrue);
+    });
+
+    test('splits single channel signals into events', () {
+      final batch = DataBatch('IBI', 1, Float64List.fromList([10.0, 10.8]),
+          Float32List.fromList([0.75, 0.8125]));
+      final events = batch.events.cast<ReceiveIBI>().toList();
+      expect(events.map((e) => e.timestamp), [10.0, 10.8]);
+      expect(events.map((e) => e.ibi), [0.75, 0.8125]);
+      expect(events.map((e) => e.wearing), [null, null]);
+    });
+
+    test('splits the acceleration into x, y and z', () {
+      final batch = DataBatch(
+          'Acceleration',
+          3,
+          Float64List.fromList([1.0, 1.03125]),
+          Float32List.fromList([1, -2, 64, 0, 5, -64]),
+          wearing: false);
+      final events = batch.events.cast<ReceiveAcceleration>().toList();
+      expect(events.length, 2);
+      expect([events[0].x, events[0].y, events[0].z], [1, -2, 64]);
+      expect([events[1].x, events[1].y, events[1].z], [0, 5, -64]);
+      expect(events[1].timestamp, 1.03125);
+      expect(events[1].wearing, isFalse);
+    });
+
+    test('has no events for an unknown signal', () {
+      final batch = DataBatch('Unknown', 1, Float64List.fromList([1.0]),
+          Float32List.fromList([1.0]));
+      expect(batch.events, isEmpty);
+    });
+  });
+}
@@ -1,9 +1,10 @@
 package dk.cachet.esense_flutter;
 
-import io.esense.esenselib.*;
+import java.util.HashMap;
+
 import io.flutter.plugin.common.EventChannel.*;
 
-public class ESenseConnectionEventStreamHandler implements StreamHandler, ESenseConnectionListener {
+public class ESenseConnectionEventStreamHandler implements StreamHandler {
 
     MainThreadEventSink eventSink;
 
@@ -26,47 +27,20 @@ public class ESenseConnectionEventStreamHandler implements StreamHandler, ESense
         this.eventSink = null;
     }
 
-    /* -----------------------------------
-       ESenseConnectionListener callbacks
-     ------------------------------------- */
-
-    /**
-     * Called when the device with the specified name has been found during a scan
-     *
-     * @param manager device manager
-     */
-    @Override
-    public void onDeviceFound(ESenseManager manager) {
-        if (eventSink != null) eventSink.success("device_found");
-    }
-
     /**
-     * Called when the device with the specified name has not been found during a scan
+     * Called when the connection state of a registered device has changed.
+     * The type is one of "device_found", "device_not_found", "connected" or "disconnected".
      *
-     * @param manager device manager
+     * @param deviceId name of the device in the registry
+     * @param type     type of connection event
      */
-    @Override
-    public void onDeviceNotFound(ESenseManager manager) {
-        if (eventSink != null) eventSink.success("device_not_found");
-    }
-
-    /**
-     * Called when the connection has been successfully made
-     *
-     * @param manager device manager
-     */
-    @Override
-    public void onConnected(ESenseManager manager) {
-        if (eventSink != null) eventSink.success("connected");
-    }
-
-    /**
-     * Called when the device has been disconnected
-     *
-     * @param manager device manager
-     */
-    @Override
-    public void onDisconnected(ESenseManager manager) {
-        if (eventSink != null) eventSink.success("disconnected");
+    void onConnectionEvent(String deviceId, String type) {
+        MainThreadEventSink eventSink = this.eventSink;
+        if (eventSink != null) {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("type", type);
+            map.put("deviceId", deviceId);
+            eventSink.success(map);
+        }
     }
 }
@@ -0,0 +1,251 @@
+package dk.cachet.esense_flutter;
+
+import android.content.Context;
+
+import java.io.File;
+
+import io.esense.esenselib.*;
+
+/**
+ * An entry in the {@link ESenseDeviceRegistry}, holding the manager and settings of a single eSense device.
+ * <p>
+ * Connection events of the manager are forwarded to the registry, tagged with the name of the device.
+ * <p>
+ * The samples of the device are shared by several consumers (sensor stream, ring buffer, feature extraction) through
+ * a {@link SensorListenerGroup}. Sampling is started when the first consumer is added, and stopped when the last one
+ * is removed.
+ */
+public class ESenseDevice implements ESenseConnectionListener {
+
+    private final String name;
+    private final ESenseDeviceRegistry registry;
+    final ESenseManager manager;
+
+    private int samplingRate = 10;  // default 10 Hz.
+    private final SensorListenerGroup sensorListeners = new SensorListenerGroup();
+    private SensorRingBuffer sensorBuffer;
+    private SensorRecorder recorder;
+    private volatile boolean calibrated = false;
+    private int featureWindowSize = 50;  // default 50 samples, i.e. 5 s at 10 Hz.
+    private int featureHopSize = 25;
+    private volatile SensorCalibration calibration;
+
+    ESenseDevice(String name, Context context, ESenseDeviceRegistry registry, GattOperationQueue operationQueue) {
+        this.name = name;
+        this.registry = registry;
+        this.manager = new ESenseManager(name, context, this, operationQueue);
+        this.manager.setReconnectPolicy(new ReconnectPolicy());
+    }
+
+    /**
+     * The name used to register this device, which is used to tag its events
+     */
+    public String getName() {return name;}
+
+    public ESenseManager getManager() {return manager;}
+
+    /**
+     * The current sampling rate as specified in the [setSamplingRate] method
+     *
+     * @return the sampling rate in Hz.
+     */
+    public int getSamplingRate() {return samplingRate;}
+
+    public void setSamplingRate(int samplingRate) {this.samplingRate = samplingRate;}
+
+    /**
+     * Sets the sampling rate, and restarts sampling at the new rate if the device is sampling.
+     *
+     * @param samplingRate sampling rate in Hz
+     */
+    synchronized void changeSamplingRate(int samplingRate) {
+        boolean changed = samplingRate != this.samplingRate;
+        this.samplingRate = samplingRate;
+        if (changed && manager.isConnected() && manager.getSensorListener() == sensorListeners) {
+            manager.registerSensorListener(sensorListeners, samplingRate);
+        }
+    }
+
+    /**
+     * Adds a consumer of the samples of this device, starting sampling if the device is connected and not
+     * sampling yet. Sampling is also started when the device connects.
+     *
+     * @param listener sensor listener, which must not modify the events
+     * @return <code>true</code> if the device is sampling
+     */
+    synchronized boolean addSensorListener(ESenseSensorListener listener) {
+        sensorListeners.add(listener);
+        return startSampling();
+    }
+
+    /**
+     * Removes a consumer of the samples of this device, stopping sampling if it was the last one.
+     *
+     * @param listener sensor listener
+     */
+    synchronized void removeSensorListener(ESenseSensorListener listener) {
+        sensorListeners.remove(listener);
+        if (sensorListeners.isEmpty() && manager.getSensorListener() == sensorListeners) {
+            manager.unregisterSensorListener();
+        }
+    }
+
+    private boolean startSampling() {
+        if (manager.getSensorListener() == sensorListeners) {
+            // already sampling, e.g. resumed after a reconnection
+            return true;
+        }
+        // consumers copy the samples they keep, so the event object can be reused
+        manager.setReuseSensorEvents(true);
+        return manager.registerSensorListener(sensorListeners, samplingRate) == SamplingStatus.STARTED;
+    }
+
+    /**
+     * The number of samples in the feature extraction window as specified in the [setFeatureWindow] method
+     */
+    public int getFeatureWindowSize() {return featureWindowSize;}
+
+    /**
+     * The number of samples between two feature vectors as specified in the [setFeatureWindow] method
+     */
+    public int getFeatureHopSize() {return featureHopSize;}
+
+    public void setFeatureWindow(int windowSize, int hopSize) {
+        this.featureWindowSize = windowSize;
+        this.featureHopSize = hopSize;
+    }
+
+    /**
+     * Whether samples are sent with calibrated values as specified in the [setSensorCalibration] method
+     */
+    public boolean isCalibrated() {return calibrated;}
+
+    public void setCalibrated(boolean calibrated) {this.calibrated = calibrated;}
+
+    /**
+     * The calibration for the current sensor configuration and factory accelerometer offsets of the device.
+     * It is recomputed when the configuration or the offsets have changed.
+     *
+     * @return the calibration, or <code>null</code> if calibration is disabled or the configuration is not known yet.
+     */
+    SensorCalibration getCalibration() {
+        if (!calibrated) return null;
+        ESenseConfig config = manager.getCurrentConfig();
+        if (config == null) return null;
+
+        int[] offset = manager.getCachedAccelerometerOffset();
+        SensorCalibration current = calibration;
+        if (current == null || !current.isFor(config, offset)) {
+            current = new SensorCalibration(config, offset);
+            calibration = current;
+        }
+        return current;
+    }
+
+    /**
+     * The ring buffer recording the samples of this device, if buffering has been started
+     *
+     * @return the ring buffer, or <code>null</code> if samples are not buffered.
+     */
+    public SensorRingBuffer getSensorBuffer() {return sensorBuffer;}
+
+    /**
+     * Starts sampling into a ring buffer, instead of pushing samples on the sensor stream.
+     *
+     * @param capacity maximum number of samples held
+     * @param policy   what to do when a sample arrives while the buffer is full
+     * @return <code>true</code> if sampling was started
+     */
+    boolean startSensorBuffer(int capacity, SensorRingBuffer.OverflowPolicy policy) {
+        if (sensorBuffer != null) removeSensorListener(sensorBuffer);
+        sensorBuffer = new SensorRingBuffer(capacity, policy);
+        return addSensorListener(sensorBuffer);
+    }
+
+    /**
+     * Stops sampling into the ring buffer and discards it.
+     */
+    void stopSensorBuffer() {
+        if (sensorBuffer != null) removeSensorListener(sensorBuffer);
+        sensorBuffer = null;
+    }
+
+    /**
+     * The recorder writing the samples of this device to a file, if recording has been started
+     *
+     * @return the recorder, or <code>null</code> if samples are not recorded.
+     */
+    public SensorRecorder getRecorder() {return recorder;}
+
+    /**
+     * Starts recording the samples of this device to a file. A recording in progress is stopped first. The file is
+     * created on the writer thread of the recorder.
+     *
+     * @param file     file to record to
+     * @param onOpened listener notified on the writer thread once the file is created
+     * @return the recorder
+     */
+    synchronized SensorRecorder startRecording(File file, SensorRecorder.CompletionListener onOpened) {
+        stopRecording(null);
+        recorder = new SensorRecorder(file, samplingRate, manager.getCurrentConfig(), onOpened);
+        addSensorListener(recorder);
+        return recorder;
+    }
+
+    /**
+     * Discards a recorder whose file could not be created, unless another recording was started since.
+     *
+     * @param failed the recorder
+     */
+    synchronized void discardRecording(SensorRecorder failed) {
+        if (recorder == failed) {
+            removeSensorListener(failed);
+            recorder = null;
+        }
+    }
+
+    /**
+     * Stops recording. The remaining samples are written and the file is closed on the writer thread of the
+     * recorder.
+     *
+     * @param onClosed listener notified on the writer thread once the file is closed, or <code>null</code>
+     * @return the stopped recorder, or <code>null</code> if samples were not recorded
+     */
+    synchronized SensorRecorder stopRecording(SensorRecorder.CompletionListener onClosed) {
+        SensorRecorder stopped = recorder;
+        if (stopped != null) {
+            removeSensorListener(stopped);
+            stopped.close(onClosed);
+            recorder = null;
+        }
+        return stopped;
+    }
+
+    /* -----------------------------------
+       ESenseConnectionListener callbacks
+     ------------------------------------- */
+
+    @Override
+    public void onDeviceFound(ESenseManager manager) {
+        registry.onConnectionEvent(this, "device_found");
+    }
+
+    @Override
+    public void onDeviceNotFound(ESenseManager manager) {
+        registry.onConnectionEvent(this, "device_not_found");
+    }
+
+    @Override
+    public void onConnected(ESenseManager manager) {
+        synchronized (this) {
+            if (!sensorListeners.isEmpty()) startSampling();
+        }
+        registry.onConnected(this);
+        registry.onConnectionEvent(this, "connected");
+    }
+
+    @Override
+    public void onDisconnected(ESenseManager manager) {
+        registry.onConnectionEvent(this, "disconnected");
+    }
+}
@@ -0,0 +1,87 @@
+package dk.cachet.esense_flutter;
+
+import android.content.Context;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.esense.esenselib.*;
+
+/**
+ * Registry of the eSense devices used by the plugin, keyed by the device name given when connecting.
+ * <p>
+ * Each device has its own {@link ESenseManager}, but all managers share one {@link GattOperationQueue}, so that
+ * GATT operations are scheduled across devices.
+ */
+public class ESenseDeviceRegistry {
+
+    /**
+     * Listener notified when a registered device has connected, e.g. to register sensor and event listeners
+     * on devices connecting while a stream is already being listened to.
+     */
+    interface DeviceListener {
+        void onDeviceConnected(ESenseDevice device);
+    }
+
+    private final Context context;
+    private final ESenseConnectionEventStreamHandler eSenseConnectionEventStreamHandler;
+    private final GattOperationQueue operationQueue = new GattOperationQueue();
+    private final ConcurrentHashMap<String, ESenseDevice> devices = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<DeviceListener> deviceListeners = new CopyOnWriteArrayList<>();
+    private volatile ESenseDevice lastDevice;
+
+    ESenseDeviceRegistry(Context context, ESenseConnectionEventStreamHandler eSenseConnectionEventStreamHandler) {
+        this.context = context;
+        this.eSenseConnectionEventStreamHandler = eSenseConnectionEventStreamHandler;
+    }
+
+    /**
+     * Gets the device with the given name, registering it if it is unknown.
+     *
+     * @param name name of the device
+     * @return the registered device
+     */
+    ESenseDevice getOrCreate(String name) {
+        ESenseDevice device = devices.get(name);
+        if (device == null) {
+            ESenseDevice created = new ESenseDevice(name, context, this, operationQueue);
+            device = devices.putIfAbsent(name, created);
+            if (device == null) device = created;
+        }
+        lastDevice = device;
+        return device;
+    }
+
+    /**
+     * Gets a registered device.
+     *
+     * @param name name of the device, or <code>null</code> for the most recently used device
+     * @return the device, or <code>null</code> if no such device is registered
+     */
+    ESenseDevice get(String name) {
+        return (name == null) ? lastDevice : devices.get(name);
+    }
+
+    Collection<ESenseDevice> getDevices() {
+        return devices.values();
+    }
+
+    void addDeviceListener(DeviceListener listener) {
+        deviceListeners.addIfAbsent(listener);
+    }
+
+    void removeDeviceListener(DeviceListener listener) {
+        deviceListeners.remove(listener);
+    }
+
+    void onConnected(ESenseDevice device) {
+        for (DeviceListener listener : deviceListeners) {
+            listener.onDeviceConnected(device);
+        }
+    }
+
+    void onConnectionEvent(ESenseDevice device, String type) {
+        eSenseConnectionEventStreamHandler.onConnectionEvent(device.getName(), type);
+    }
+}
@@ -1,14 +1,40 @@
 package dk.cachet.esense_flutter;
 
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.esense.esenselib.*;
 import io.flutter.plugin.common.EventChannel.*;
 
-public class ESenseEventStreamHandler implements StreamHandler, ESenseEventListener {
+public class ESenseEventStreamHandler implements StreamHandler, ESenseDeviceRegistry.DeviceListener {
 
     private ESenseManagerMethodCallHandler eSenseManagerMethodCallHandler;
     private MainThreadEventSink eventSink;
+    private final Map<String, DeviceEventListener> listeners = new ConcurrentHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int streamHealthInterval = 0;
+    private final Runnable streamHealthTask = new Runnable() {
+        @Override
+        public void run() {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null && streamHealthInterval > 0) {
+                for (ESenseDevice device : eSenseManagerMethodCallHandler.registry.getDevices()) {
+                    if (!device.getManager().isConnected()) continue;
+                    HashMap<String, Object> map = streamHealthToMap(device.getManager().getStreamHealth());
+                    map.put("type", "StreamHealth");
+                    map.put("deviceId", device.getName());
+                    eventSink.success(map);
+                }
+                handler.postDelayed(this, streamHealthInterval);
+            }
+        }
+    };
 
     ESenseEventStreamHandler(ESenseManagerMethodCallHandler eSenseManagerMethodCallHandler) {
         this.eSenseManagerMethodCallHandler = eSenseManagerMethodCallHandler;
@@ -20,128 +46,232 @@ public class ESenseEventStreamHandler implements StreamHandler, ESenseEventListe
 
     @Override
     public void onListen(Object o, EventSink rawEventSink) {
-        this.eventSink = new MainThreadEventSink(rawEventSink);
-        HashMap<String,Object> map = new HashMap<>();
-        map.put("type", "Listen");
-        boolean success = eSenseManagerMethodCallHandler.manager.registerEventListener(this);
-        map.put("success", success);
-        eventSink.success(map);
+        // only the latest stream health and battery level of each device matter, button events must all be sent
+        this.eventSink = new MainThreadEventSink(rawEventSink, MainThreadEventSink.Policy.COALESCE, Integer.MAX_VALUE,
+                "StreamHealth", "BatteryRead");
+        eSenseManagerMethodCallHandler.registry.addDeviceListener(this);
+        for (ESenseDevice device : eSenseManagerMethodCallHandler.registry.getDevices()) {
+            if (device.getManager().isConnected()) register(device, eventSink);
+        }
+        setStreamHealthInterval(streamHealthInterval);
     }
 
     @Override
     public void onCancel(Object o) {
+        handler.removeCallbacks(streamHealthTask);
+        eSenseManagerMethodCallHandler.registry.removeDeviceListener(this);
         eventSink.endOfStream();
-        eSenseManagerMethodCallHandler.manager.unregisterEventListener();
+        for (String deviceId : listeners.keySet()) {
+            ESenseDevice device = eSenseManagerMethodCallHandler.registry.get(deviceId);
+            if (device != null) device.getManager().unregisterEventListener();
+        }
+        listeners.clear();
         this.eventSink = null;
     }
 
-
-    /* -----------------------------------
-       ESenseEventListener callbacks
-     ------------------------------------- */
-
     /**
-     * Called when the information on battery voltage has been received
-     *
-     * @param voltage battery voltage in Volts
+     * Registers an event listener on devices connecting while this stream is listened to.
+     * Devices which have reconnected after an unexpected disconnection have kept their listener.
      */
     @Override
-    public void onBatteryRead(double voltage) {
-        if (eventSink != null) {
-            HashMap<String,Object> map = new HashMap<>();
-            map.put("type", "BatteryRead");
-            map.put("voltage", voltage);
-            eventSink.success(map);
-        }
+    public void onDeviceConnected(ESenseDevice device) {
+        MainThreadEventSink eventSink = this.eventSink;
+        if (eventSink != null && device.getManager().getEventListener() == null) register(device, eventSink);
     }
 
-    /**
-     * Called when the button event has changed
-     *
-     * @param pressed true if the button is pressed, false if it is released
-     */
-    @Override
-    public void onButtonEventChanged(boolean pressed) {
-        if (eventSink != null) {
-            HashMap<String,Object> map = new HashMap<>();
-            map.put("type", "ButtonEventChanged");
-            map.put("pressed", pressed);
-            eventSink.success(map);
-        }
+    private void register(ESenseDevice device, MainThreadEventSink eventSink) {
+        DeviceEventListener listener = new DeviceEventListener(device.getName());
+        listeners.put(device.getName(), listener);
+        HashMap<String,Object> map = new HashMap<>();
+        map.put("type", "Listen");
+        map.put("deviceId", device.getName());
+        boolean success = device.getManager().registerEventListener(listener);
+        map.put("success", success);
+        eventSink.success(map);
     }
 
     /**
-     * Called when the information on advertisement and connection interval has been received
+     * Sets the interval of the periodic stream health events.
      *
-     * @param minAdvertisementInterval minimum advertisement interval (unit: milliseconds)
-     * @param maxAdvertisementInterval maximum advertisement interval (unit: milliseconds)
-     * @param minConnectionInterval    minimum connection interval (unit: milliseconds)
-     * @param maxConnectionInterval    maximum connection interval (unit: milliseconds)
+     * @param interval interval in milliseconds, or 0 to disable stream health events
      */
-    @Override
-    public void onAdvertisementAndConnectionIntervalRead(int minAdvertisementInterval,
-                                                         int maxAdvertisementInterval,
-                                                         int minConnectionInterval,
-                                                         int maxConnectionInterval) {
-        if (eventSink != null) {
-            HashMap<String,Object> map = new HashMap<>();
-            map.put("type", "AdvertisementAndConnectionIntervalRead");
-            map.put("minAdvertisementInterval", minAdvertisementInterval);
-            map.put("maxAdvertisementInterval", maxAdvertisementInterval);
-            map.put("minConnectionInterval", minConnectionInterval);
-            map.put("maxConnectionInterval", maxConnectionInterval);
-            eventSink.success(map);
-        }
+    void setStreamHealthInterval(int interval) {
+        streamHealthInterval = interval;
+        handler.removeCallbacks(streamHealthTask);
+        if (interval > 0) handler.postDelayed(streamHealthTask, interval);
     }
 
     /**
-     * Called when the information on the device name has been received
+     * Serializes the current state of a stream health tracker.
      *
-     * @param deviceName name of the device
+     * @param health stream health tracker
+     * @return map with the packet counts and rolling histograms
      */
-    @Override
-    public void onDeviceNameRead(String deviceName) {
-        if (eventSink != null) {
-            HashMap<String,Object> map = new HashMap<>();
-            map.put("type", "DeviceNameRead");
-            map.put("deviceName", deviceName);
-            eventSink.success(map);
-        }
+    static HashMap<String, Object> streamHealthToMap(StreamHealthTracker health) {
+        long now = System.currentTimeMillis();
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("samplingRate", health.getSamplingRate());
+        map.put("received", health.getReceived());
+        map.put("dropped", health.getDropped());
+        map.put("duplicates", health.getDuplicates());
+        map.put("lossRatio", health.getLossRatio());
+        map.put("windowSeconds", StreamHealthTracker.WINDOW_SECONDS);
+        map.put("jitterBuckets", toList(StreamHealthTracker.JITTER_BUCKETS));
+        map.put("jitterHistogram", toList(health.getJitterHistogram(now)));
+        map.put("gapBuckets", toList(StreamHealthTracker.GAP_BUCKETS));
+        map.put("gapHistogram", toList(health.getGapHistogram(now)));
+        return map;
     }
 
     /**
-     * Called when the information on sensor configuration has been received
+     * Serializes a sensor configuration, with the enum values given by their names.
      *
-     * @param config current sensor configuration
+     * @param config sensor configuration
+     * @return map with the ranges, low pass filters and sensitivity factors
      */
-    @Override
-    public void onSensorConfigRead(ESenseConfig config) {
-        if (eventSink != null) {
-            HashMap<String,Object> map = new HashMap<>();
-            map.put("type", "SensorConfigRead");
-            // right now this event is empty, i.e. we do not serialize and send the config object across
-            eventSink.success(map);
-        }
+    static HashMap<String, Object> configToMap(ESenseConfig config) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("accRange", config.getAccRange().name());
+        map.put("gyroRange", config.getGyroRange().name());
+        map.put("accLPF", config.getAccLPF().name());
+        map.put("gyroLPF", config.getGyroLPF().name());
+        map.put("accSensitivityFactor", config.getAccSensitivityFactor());
+        map.put("gyroSensitivityFactor", config.getGyroSensitivityFactor());
+        return map;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>(values.length);
+        for (int v : values) list.add(v);
+        return list;
     }
 
     /**
-     * Called when the information on accelerometer offset has been received
-     *
-     * @param offsetX x-axis factory offset
-     * @param offsetY y-axis factory offset
-     * @param offsetZ z-axis factory offset
+     * Forwards the events of a single device, tagged with its name in the registry.
      */
-    @Override
-    public void onAccelerometerOffsetRead(int offsetX, int offsetY, int offsetZ) {
-        if (eventSink != null) {
-            HashMap<String,Object> map = new HashMap<>();
-            map.put("type", "AccelerometerOffsetRead");
-            map.put("offsetX", offsetX);
-            map.put("offsetY", offsetY);
-            map.put("offsetZ", offsetZ);
+    private class DeviceEventListener implements ESenseEventListener {
+        private final String deviceId;
+
+        DeviceEventListener(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        private void send(MainThreadEventSink eventSink, HashMap<String,Object> map) {
+            map.put("deviceId", deviceId);
             eventSink.success(map);
         }
-    }
 
+        /* -----------------------------------
+           ESenseEventListener callbacks
+         ------------------------------------- */
+
+        /**
+         * Called when the information on battery voltage has been received
+         *
+         * @param voltage battery voltage in Volts
+         */
+        @Override
+        public void onBatteryRead(double voltage) {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String,Object> map = new HashMap<>();
+                map.put("type", "BatteryRead");
+                map.put("voltage", voltage);
+                send(eventSink, map);
+            }
+        }
+
+        /**
+         * Called when the button event has changed
+         *
+         * @param pressed true if the button is pressed, false if it is released
+         */
+        @Override
+        public void onButtonEventChanged(boolean pressed) {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String,Object> map = new HashMap<>();
+                map.put("type", "ButtonEventChanged");
+                map.put("pressed", pressed);
+                send(eventSink, map);
+            }
+        }
+
+        /**
+         * Called when the information on advertisement and connection interval has been received
+         *
+         * @param minAdvertisementInterval minimum advertisement interval (unit: milliseconds)
+         * @param maxAdvertisementInterval maximum advertisement interval (unit: milliseconds)
+         * @param minConnectionInterval    minimum connection interval (unit: milliseconds)
+         * @param maxConnectionInterval    maximum connection interval (unit: milliseconds)
+         */
+        @Override
+        public void onAdvertisementAndConnectionIntervalRead(int minAdvertisementInterval,
+                                                             int maxAdvertisementInterval,
+                                                             int minConnectionInterval,
+                                                             int maxConnectionInterval) {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String,Object> map = new HashMap<>();
+                map.put("type", "AdvertisementAndConnectionIntervalRead");
+                map.put("minAdvertisementInterval", minAdvertisementInterval);
+                map.put("maxAdvertisementInterval", maxAdvertisementInterval);
+                map.put("minConnectionInterval", minConnectionInterval);
+                map.put("maxConnectionInterval", maxConnectionInterval);
+                send(eventSink, map);
+            }
+        }
 
+        /**
+         * Called when the information on the device name has been received
+         *
+         * @param deviceName name of the device
+         */
+        @Override
+        public void onDeviceNameRead(String deviceName) {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String,Object> map = new HashMap<>();
+                map.put("type", "DeviceNameRead");
+                map.put("deviceName", deviceName);
+                send(eventSink, map);
+            }
+        }
+
+        /**
+         * Called when the information on sensor configuration has been received
+         *
+         * @param config current sensor configuration
+         */
+        @Override
+        public void onSensorConfigRead(ESenseConfig config) {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String,Object> map = new HashMap<>();
+                map.put("type", "SensorConfigRead");
+                map.put("config", configToMap(config));
+                send(eventSink, map);
+            }
+        }
+
+        /**
+         * Called when the information on accelerometer offset has been received
+         *
+         * @param offsetX x-axis factory offset
+         * @param offsetY y-axis factory offset
+         * @param offsetZ z-axis factory offset
+         */
+        @Override
+        public void onAccelerometerOffsetRead(int offsetX, int offsetY, int offsetZ) {
+            MainThreadEventSink eventSink = ESenseEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String,Object> map = new HashMap<>();
+                map.put("type", "AccelerometerOffsetRead");
+                map.put("offsetX", offsetX);
+                map.put("offsetY", offsetY);
+                map.put("offsetZ", offsetZ);
+                send(eventSink, map);
+            }
+        }
+    }
 }
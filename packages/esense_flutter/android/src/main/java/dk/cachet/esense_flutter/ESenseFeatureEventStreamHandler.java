@@ -0,0 +1,96 @@
+package dk.cachet.esense_flutter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.esense.esenselib.*;
+import io.flutter.plugin.common.EventChannel.*;
+
+/**
+ * Sends the features computed natively over a sliding window of the samples of each connected device, instead of
+ * the samples themselves.
+ */
+public class ESenseFeatureEventStreamHandler implements StreamHandler, ESenseDeviceRegistry.DeviceListener {
+
+    /**
+     * Maximum number of feature vectors waiting for the main thread
+     */
+    static final int FEATURE_QUEUE_CAPACITY = 1024;
+
+    private ESenseManagerMethodCallHandler eSenseManagerMethodCallHandler;
+    private MainThreadEventSink eventSink;
+    private final Map<String, DeviceFeatureListener> listeners = new ConcurrentHashMap<>();
+
+    ESenseFeatureEventStreamHandler(ESenseManagerMethodCallHandler eSenseManagerMethodCallHandler) {
+        this.eSenseManagerMethodCallHandler = eSenseManagerMethodCallHandler;
+    }
+
+    @Override
+    public void onListen(Object o, EventSink rawEventSink) {
+        this.eventSink = new MainThreadEventSink(rawEventSink, MainThreadEventSink.Policy.BATCH, FEATURE_QUEUE_CAPACITY);
+        eSenseManagerMethodCallHandler.registry.addDeviceListener(this);
+        for (ESenseDevice device : eSenseManagerMethodCallHandler.registry.getDevices()) {
+            if (device.getManager().isConnected()) register(device);
+        }
+    }
+
+    @Override
+    public void onCancel(Object o) {
+        eSenseManagerMethodCallHandler.registry.removeDeviceListener(this);
+        for (DeviceFeatureListener listener : listeners.values()) {
+            listener.device.removeSensorListener(listener);
+        }
+        listeners.clear();
+        eventSink.endOfStream();
+        this.eventSink = null;
+    }
+
+    /**
+     * Starts feature extraction on devices connecting while this stream is listened to.
+     */
+    @Override
+    public void onDeviceConnected(ESenseDevice device) {
+        if (eventSink != null && !listeners.containsKey(device.getName())) register(device);
+    }
+
+    private void register(ESenseDevice device) {
+        DeviceFeatureListener listener = new DeviceFeatureListener(device);
+        listeners.put(device.getName(), listener);
+        device.addSensorListener(listener);
+    }
+
+    /**
+     * Extracts the features of a single device, and sends them tagged with its name in the registry.
+     */
+    private class DeviceFeatureListener implements ESenseSensorListener, FeatureExtractor.Listener {
+        private final ESenseDevice device;
+        private final FeatureExtractor extractor;
+
+        DeviceFeatureListener(ESenseDevice device) {
+            this.device = device;
+            this.extractor = new FeatureExtractor(device.getFeatureWindowSize(), device.getFeatureHopSize(), this);
+        }
+
+        @Override
+        public void onSensorChanged(ESenseEvent evt) {
+            extractor.setCalibration(device.getCalibration());
+            extractor.onSensorChanged(evt);
+        }
+
+        @Override
+        public void onFeatures(long timestamp, double[] features, boolean calibrated) {
+            MainThreadEventSink eventSink = ESenseFeatureEventStreamHandler.this.eventSink;
+            if (eventSink != null) {
+                HashMap<String, Object> map = new HashMap<>();
+                map.put("type", "Features");
+                map.put("deviceId", device.getName());
+                map.put("timestamp", timestamp);
+                map.put("windowSize", extractor.getWindowSize());
+                map.put("calibrated", calibrated);
+                map.put("features", features.clone());
+                eventSink.success(map);
+            }
+        }
+    }
+}
@@ -7,6 +7,10 @@
 
 package dk.cachet.esense_flutter;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel.*;
 import android.content.Context;
@@ -17,35 +21,74 @@ public class ESenseManagerMethodCallHandler implements MethodCallHandler {
     public static final int TIMEOUT = 5 * 1000;
 
     private boolean connected = false;
-    private Context context;
-    private ESenseConnectionEventStreamHandler eSenseConnectionEventStreamHandler;
+    private final Context context;
+    ESenseEventStreamHandler eSenseEventStreamHandler;
+    final ESenseDeviceRegistry registry;
 
-    private int samplingRate = 10;  // default 10 Hz.
-    ESenseManager manager;
+    private int sensorBatchSize = 0;  // default no batching
+    private int sensorMaxLatency = 100;  // default 100 ms.
 
     public ESenseManagerMethodCallHandler(
             Context context,
             ESenseConnectionEventStreamHandler eSenseConnectionEventStreamHandler) {
         this.context = context;
-        this.eSenseConnectionEventStreamHandler = eSenseConnectionEventStreamHandler;
+        this.registry = new ESenseDeviceRegistry(context, eSenseConnectionEventStreamHandler);
     }
 
     /**
-     * The current sampling rate as specified in the [setSamplingRate] method
+     * The number of sensor samples sent in each binary frame as specified in the [setSensorBatching] method
      *
-     * @return the sampling rate in Hz.
+     * @return the batch size, or 0 if batching is disabled.
      */
-    public int getSamplingRate() {return samplingRate;}
+    public int getSensorBatchSize() {return sensorBatchSize;}
+
+    /**
+     * The maximum time a sensor sample is held back before its frame is sent
+     *
+     * @return the maximum latency in milliseconds.
+     */
+    public int getSensorMaxLatency() {return sensorMaxLatency;}
 
     @Override
     public void onMethodCall(MethodCall call, Result rawResult) {
         Result result = new MainThreadResult(rawResult);
+
+        switch (call.method) {
+            case "setSensorBatching":
+                final Integer batchSize = call.argument("batchSize");
+                final Integer maxLatency = call.argument("maxLatency");
+                sensorBatchSize = (batchSize != null) ? batchSize : 0;
+                if (maxLatency != null) sensorMaxLatency = maxLatency;
+                result.success(true);
+                break;
+            case "setStreamHealthInterval":
+                final Integer interval = call.argument("interval");
+                eSenseEventStreamHandler.setStreamHealthInterval(interval != null ? interval : 0);
+                result.success(true);
+                break;
+            default:
+                onDeviceMethodCall(call, result);
+        }
+    }
+
+    /**
+     * Handles the calls addressed to a single device, given by its name, or to the most recently used device
+     * if no name is given.
+     */
+    private void onDeviceMethodCall(MethodCall call, Result result) {
         boolean success;
 
+        final String name = call.argument("name");
+        final boolean register = call.method.equals("connect") || call.method.equals("setSamplingRate") || call.method.equals("setFeatureWindow");
+        final ESenseDevice device = (register && name != null) ? registry.getOrCreate(name) : registry.get(name);
+        if (device == null) {
+            result.error("UNKNOWN_DEVICE", "No eSense device named '" + name + "' has been connected", null);
+            return;
+        }
+        final ESenseManager manager = device.getManager();
+
         switch (call.method) {
             case "connect":
-                final String name = call.argument("name");
-                manager = new ESenseManager(name, context, eSenseConnectionEventStreamHandler);
                 connected = manager.connect(TIMEOUT);
                 result.success(connected);
                 break;
@@ -59,9 +102,137 @@ public class ESenseManagerMethodCallHandler implements MethodCallHandler {
                 break;
             case "setSamplingRate":
                 // the rate is passed as a string
-                samplingRate = Integer.parseInt(call.argument("rate"));
+                device.setSamplingRate(Integer.parseInt(call.argument("rate")));
+                result.success(true);
+                break;
+            case "setReconnectPolicy":
+                final Boolean enabled = call.argument("enabled");
+                if (enabled != null && enabled) {
+                    final Integer initialDelay = call.argument("initialDelay");
+                    final Integer maxDelay = call.argument("maxDelay");
+                    final Integer maxAttempts = call.argument("maxAttempts");
+                    manager.setReconnectPolicy(new ReconnectPolicy(initialDelay, maxDelay, maxAttempts));
+                } else {
+                    manager.setReconnectPolicy(null);
+                }
+                result.success(true);
+                break;
+            case "applyStreamingProfile":
+                final Integer samplingRate = call.argument("samplingRate");
+                final Integer latencyBudget = call.argument("latencyBudget");
+                if (samplingRate == null || samplingRate < 1 || samplingRate > 100) {
+                    result.error("INVALID_PROFILE", "The sampling rate must be between 1 and 100 Hz", null);
+                    break;
+                }
+                // a sampling stream continues at the rate of the profile
+                device.changeSamplingRate(samplingRate);
+                final Result profileResult = result;
+                success = manager.applyStreamingProfile(new StreamingProfile(samplingRate, (latencyBudget != null) ? latencyBudget : 100), new StreamingProfile.Callback() {
+                    @Override
+                    public void onStreamingProfileApplied(StreamingProfile.Result applied) {
+                        profileResult.success(streamingProfileResultToMap(applied));
+                    }
+                });
+                if (!success) result.success(null);
+                break;
+            case "setFeatureWindow":
+                final Integer windowSize = call.argument("windowSize");
+                final Integer hopSize = call.argument("hopSize");
+                if (windowSize == null || hopSize == null || windowSize < 3 || hopSize < 1) {
+                    result.error("INVALID_WINDOW", "The window size must be at least 3 and the hop size at least 1", null);
+                    break;
+                }
+                device.setFeatureWindow(windowSize, hopSize);
+                result.success(true);
+                break;
+            case "setSensorCalibration":
+                final Boolean calibrated = call.argument("enabled");
+                device.setCalibrated(calibrated != null && calibrated);
                 result.success(true);
                 break;
+            case "startSensorBuffer":
+                final Integer capacity = call.argument("capacity");
+                final String policy = call.argument("policy");
+                if (capacity != null && capacity <= 0) {
+                    result.error("INVALID_BUFFER", "The capacity must be positive", null);
+                    break;
+                }
+                final SensorRingBuffer.OverflowPolicy overflowPolicy;
+                try {
+                    overflowPolicy = (policy != null) ? SensorRingBuffer.OverflowPolicy.valueOf(policy) : SensorRingBuffer.OverflowPolicy.DROP_OLDEST;
+                } catch (IllegalArgumentException e) {
+                    result.error("INVALID_BUFFER", "Unknown overflow policy " + policy, null);
+                    break;
+                }
+                success = device.startSensorBuffer((capacity != null) ? capacity : 6000, overflowPolicy);
+                result.success(success);
+                break;
+            case "drainSensorBuffer":
+                final SensorRingBuffer buffer = device.getSensorBuffer();
+                if (buffer == null) {
+                    result.error("NO_BUFFER", "Sensor buffering has not been started", null);
+                    break;
+                }
+                final Integer maxSamples = call.argument("maxSamples");
+                if (maxSamples != null && maxSamples < 0) {
+                    result.error("INVALID_BUFFER", "The maximum number of samples must not be negative", null);
+                    break;
+                }
+                HashMap<String, Object> drained = new HashMap<>();
+                drained.put("frame", buffer.drain((maxSamples != null) ? maxSamples : Integer.MAX_VALUE));
+                drained.put("dropped", buffer.getDropped());
+                drained.put("remaining", buffer.size());
+                result.success(drained);
+                break;
+            case "stopSensorBuffer":
+                device.stopSensorBuffer();
+                result.success(true);
+                break;
+            case "startRecording":
+                // the file is created on the writer thread of the recorder, the result replies on the main thread
+                final Result opened = result;
+                device.startRecording(recordingFile(device, (String) call.argument("path")),
+                        new SensorRecorder.CompletionListener() {
+                            @Override
+                            public void onComplete(SensorRecorder recorder, IOException error) {
+                                if (error != null) {
+                                    device.discardRecording(recorder);
+                                    opened.error("RECORDING_FAILED",
+                                            "Cannot create the recording file: " + error.getMessage(), null);
+                                } else {
+                                    opened.success(recordingToMap(recorder, recorder.getFile()));
+                                }
+                            }
+                        });
+                break;
+            case "rotateRecording":
+                final SensorRecorder rotated = device.getRecorder();
+                if (rotated == null) {
+                    result.error("NO_RECORDING", "Recording has not been started", null);
+                    break;
+                }
+                if (rotated.getError() != null) {
+                    result.error("RECORDING_FAILED", "Recording failed: " + rotated.getError().getMessage(), null);
+                    break;
+                }
+                final File previous = rotated.rotate(recordingFile(device, (String) call.argument("path")));
+                result.success(recordingToMap(rotated, previous));
+                break;
+            case "stopRecording":
+                final Result closed = result;
+                final SensorRecorder stopped = device.stopRecording(new SensorRecorder.CompletionListener() {
+                    @Override
+                    public void onComplete(SensorRecorder recorder, IOException error) {
+                        closed.success(recordingToMap(recorder, recorder.getFile()));
+                    }
+                });
+                if (stopped == null) {
+                    result.success(null);
+                }
+                break;
+            case "getStreamHealth":
+                result.success(ESenseEventStreamHandler.streamHealthToMap(manager.getStreamHealth()));
+                break;
             case "getDeviceName":
                 success = manager.getDeviceName();
                 result.success(success);
@@ -100,14 +271,69 @@ public class ESenseManagerMethodCallHandler implements MethodCallHandler {
                 result.success(success);
                 break;
             case "setSensorConfig":
-                // TODO - implement serialization of ESenseConfig object btw. Java and Dart.
-                // ESenseConfig config = call.argument("config");
-                // success = manager.setSensorConfig(config);
-                // result.success(success);
-                result.notImplemented();
+                try {
+                    success = manager.setSensorConfig(configFromArguments(call));
+                    result.success(success);
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    result.error("INVALID_CONFIG", "Invalid sensor configuration: " + e.getMessage(), null);
+                }
+                break;
+            case "getCurrentSensorConfig":
+                final ESenseConfig current = manager.getCurrentConfig();
+                result.success((current != null) ? ESenseEventStreamHandler.configToMap(current) : null);
                 break;
             default:
                 result.notImplemented();
         }
     }
+
+    /**
+     * Gets the file to record to, by default a new file named after the device and the time in the
+     * "esense" folder of the files directory of the app.
+     *
+     * @param path path given by the app, or <code>null</code>
+     */
+    private File recordingFile(ESenseDevice device, String path) {
+        if (path != null) return new File(path);
+        // the folder is created by the recorder, on its writer thread
+        File folder = new File(context.getFilesDir(), "esense");
+        String name = device.getName().replaceAll("[^A-Za-z0-9_-]", "_");
+        return new File(folder, name + "-" + System.currentTimeMillis() + ".esr");
+    }
+
+    private static HashMap<String, Object> recordingToMap(SensorRecorder recorder, File file) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("path", file.getAbsolutePath());
+        map.put("records", recorder.getRecords());
+        map.put("dropped", recorder.getDropped());
+        map.put("error", recorder.getError() != null ? recorder.getError().getMessage() : null);
+        return map;
+    }
+
+    /**
+     * Deserializes a sensor configuration from the arguments of a call, with the enum values given by their names.
+     */
+    static ESenseConfig configFromArguments(MethodCall call) {
+        return new ESenseConfig(
+                ESenseConfig.AccRange.valueOf((String) call.argument("accRange")),
+                ESenseConfig.GyroRange.valueOf((String) call.argument("gyroRange")),
+                ESenseConfig.AccLPF.valueOf((String) call.argument("accLPF")),
+                ESenseConfig.GyroLPF.valueOf((String) call.argument("gyroLPF")));
+    }
+
+    static HashMap<String, Object> streamingProfileResultToMap(StreamingProfile.Result applied) {
+        StreamingProfile profile = applied.getProfile();
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("samplingRate", profile.getSamplingRate());
+        map.put("latencyBudget", profile.getLatencyBudget());
+        map.put("connectionPriority", profile.getConnectionPriority());
+        map.put("priorityAccepted", applied.isPriorityAccepted());
+        map.put("requestedMtu", profile.getMtu());
+        map.put("mtu", applied.getMtu());
+        map.put("requestedMinConnectionInterval", profile.getMinConnectionInterval());
+        map.put("requestedMaxConnectionInterval", profile.getMaxConnectionInterval());
+        map.put("minConnectionInterval", applied.getMinConnectionInterval());
+        map.put("maxConnectionInterval", applied.getMaxConnectionInterval());
+        return map;
+    }
 }
@@ -1,14 +1,23 @@
 package dk.cachet.esense_flutter;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.esense.esenselib.*;
 import io.flutter.plugin.common.EventChannel.*;
 
-public class ESenseSensorEventStreamHandler implements StreamHandler, ESenseSensorListener {
+public class ESenseSensorEventStreamHandler implements StreamHandler, ESenseDeviceRegistry.DeviceListener {
+
+    /**
+     * Maximum number of sensor events or frames waiting for the main thread, i.e. about 20 seconds of samples of two
+     * devices at 100 Hz
+     */
+    static final int SENSOR_QUEUE_CAPACITY = 4096;
 
     private ESenseManagerMethodCallHandler eSenseManagerMethodCallHandler;
     private MainThreadEventSink eventSink;
+    private final Map<String, DeviceSensorListener> listeners = new ConcurrentHashMap<>();
 
     ESenseSensorEventStreamHandler(ESenseManagerMethodCallHandler eSenseManagerMethodCallHandler) {
         this.eSenseManagerMethodCallHandler = eSenseManagerMethodCallHandler;
@@ -16,35 +25,94 @@ public class ESenseSensorEventStreamHandler implements StreamHandler, ESenseSens
 
     @Override
     public void onListen(Object o, EventSink rawEventSink) {
-        this.eventSink = new MainThreadEventSink(rawEventSink);
-        eSenseManagerMethodCallHandler.manager.registerSensorListener(this,
-                eSenseManagerMethodCallHandler.getSamplingRate());
+        this.eventSink = new MainThreadEventSink(rawEventSink, MainThreadEventSink.Policy.BATCH, SENSOR_QUEUE_CAPACITY);
+        eSenseManagerMethodCallHandler.registry.addDeviceListener(this);
+        for (ESenseDevice device : eSenseManagerMethodCallHandler.registry.getDevices()) {
+            if (device.getManager().isConnected()) register(device, eventSink);
+        }
     }
 
     @Override
     public void onCancel(Object o) {
+        eSenseManagerMethodCallHandler.registry.removeDeviceListener(this);
+        for (DeviceSensorListener listener : listeners.values()) {
+            if (listener.batcher != null) listener.batcher.flush();
+            listener.device.removeSensorListener(listener);
+        }
+        listeners.clear();
         eventSink.endOfStream();
-        eSenseManagerMethodCallHandler.manager.unregisterSensorListener();
         this.eventSink = null;
     }
 
     /**
-     * Called when there is new sensor data available
+     * Starts sampling on devices connecting while this stream is listened to.
+     * Devices which were already sampling for this stream keep their listener.
      */
     @Override
-    public void onSensorChanged(ESenseEvent evt) {
-        if (eventSink != null) {
-            HashMap<String, Object> map = new HashMap<>();
-            map.put("type", "SensorChanged");
-            map.put("timestamp", evt.getTimestamp());
-            map.put("packetIndex", evt.getPacketIndex());
-            map.put("accel.x", evt.getAccel()[0]);
-            map.put("accel.y", evt.getAccel()[1]);
-            map.put("accel.z", evt.getAccel()[2]);
-            map.put("gyro.x", evt.getGyro()[0]);
-            map.put("gyro.y", evt.getGyro()[1]);
-            map.put("gyro.z", evt.getGyro()[2]);
-            eventSink.success(map);
+    public void onDeviceConnected(ESenseDevice device) {
+        MainThreadEventSink eventSink = this.eventSink;
+        if (eventSink != null && !listeners.containsKey(device.getName())) register(device, eventSink);
+    }
+
+    private void register(ESenseDevice device, MainThreadEventSink eventSink) {
+        int batchSize = eSenseManagerMethodCallHandler.getSensorBatchSize();
+        SensorEventBatcher batcher = (batchSize > 1)
+                ? new SensorEventBatcher(eventSink, device.getName(), batchSize, eSenseManagerMethodCallHandler.getSensorMaxLatency(), device.isCalibrated())
+                : null;
+        DeviceSensorListener listener = new DeviceSensorListener(device, batcher);
+        listeners.put(device.getName(), listener);
+        device.addSensorListener(listener);
+    }
+
+    /**
+     * Forwards the samples of a single device, tagged with its name in the registry.
+     */
+    private class DeviceSensorListener implements ESenseSensorListener {
+        private final ESenseDevice device;
+        private final String deviceId;
+        private final SensorEventBatcher batcher;
+        private final double[] values = new double[6];  // calibrated acc and gyro, reused for all samples
+
+        DeviceSensorListener(ESenseDevice device, SensorEventBatcher batcher) {
+            this.device = device;
+            this.deviceId = device.getName();
+            this.batcher = batcher;
+        }
+
+        /**
+         * Called when there is new sensor data available
+         */
+        @Override
+        public void onSensorChanged(ESenseEvent evt) {
+            SensorCalibration calibration = device.getCalibration();
+            MainThreadEventSink eventSink = ESenseSensorEventStreamHandler.this.eventSink;
+            if (batcher != null) {
+                batcher.add(evt, calibration);
+            } else if (eventSink != null) {
+                HashMap<String, Object> map = new HashMap<>();
+                map.put("type", "SensorChanged");
+                map.put("deviceId", deviceId);
+                map.put("timestamp", evt.getTimestamp());
+                map.put("sampleTimestamp", evt.getSampleTimestamp());
+                map.put("packetIndex", evt.getPacketIndex());
+                map.put("accel.x", evt.getAccel()[0]);
+                map.put("accel.y", evt.getAccel()[1]);
+                map.put("accel.z", evt.getAccel()[2]);
+                map.put("gyro.x", evt.getGyro()[0]);
+                map.put("gyro.y", evt.getGyro()[1]);
+                map.put("gyro.z", evt.getGyro()[2]);
+                if (calibration != null) {
+                    calibration.convertAcc(evt, values, 0);
+                    calibration.convertGyro(evt, values, 3);
+                    map.put("calibratedAccel.x", values[0]);
+                    map.put("calibratedAccel.y", values[1]);
+                    map.put("calibratedAccel.z", values[2]);
+                    map.put("calibratedGyro.x", values[3]);
+                    map.put("calibratedGyro.y", values[4]);
+                    map.put("calibratedGyro.z", values[5]);
+                }
+                eventSink.success(map);
+            }
         }
     }
 }
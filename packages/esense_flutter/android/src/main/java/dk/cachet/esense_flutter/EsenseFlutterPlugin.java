@@ -19,12 +19,14 @@ public class EsenseFlutterPlugin implements FlutterPlugin {
   public static final String ESenseConnectionEventChannelName = "esense.io/esense_connection";
   public static final String ESenseEventEventChannelName = "esense.io/esense_events";
   public static final String ESenseSensorEventChannelName = "esense.io/esense_sensor";
+  public static final String ESenseFeatureEventChannelName = "esense.io/esense_features";
 
   /// The MethodChannel and EventChannels that will the communication between Flutter and native Android
   private MethodChannel eSenseManagerMethodChannel;
   private EventChannel eSenseConnectionEventChannel;
   private EventChannel eSenseEventChannel;
   private EventChannel eSenseSensorEventChannel;
+  private EventChannel eSenseFeatureEventChannel;
 
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
@@ -38,10 +40,14 @@ public class EsenseFlutterPlugin implements FlutterPlugin {
     eSenseConnectionEventChannel.setStreamHandler(eSenseConnectionEventStreamHandler);
 
     eSenseEventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), ESenseEventEventChannelName);
-    eSenseEventChannel.setStreamHandler(new ESenseEventStreamHandler(eSenseManagerMethodCallHandler));
+    eSenseManagerMethodCallHandler.eSenseEventStreamHandler = new ESenseEventStreamHandler(eSenseManagerMethodCallHandler);
+    eSenseEventChannel.setStreamHandler(eSenseManagerMethodCallHandler.eSenseEventStreamHandler);
 
     eSenseSensorEventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), ESenseSensorEventChannelName);
     eSenseSensorEventChannel.setStreamHandler(new ESenseSensorEventStreamHandler(eSenseManagerMethodCallHandler));
+
+    eSenseFeatureEventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), ESenseFeatureEventChannelName);
+    eSenseFeatureEventChannel.setStreamHandler(new ESenseFeatureEventStreamHandler(eSenseManagerMethodCallHandler));
   }
 
   @Override
@@ -50,5 +56,6 @@ public class EsenseFlutterPlugin implements FlutterPlugin {
     eSenseConnectionEventChannel.setStreamHandler(null);
     eSenseEventChannel.setStreamHandler(null);
     eSenseSensorEventChannel.setStreamHandler(null);
+    eSenseFeatureEventChannel.setStreamHandler(null);
   }
 }
@@ -3,43 +3,241 @@ package dk.cachet.esense_flutter;
 import io.flutter.plugin.common.EventChannel.*;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forwards events from any thread to an event sink on the main thread.
+ * <p>
+ * Events are appended to a lock-free queue, and a single task per frame drains the queue on the main thread, so
+ * that a high event rate does not flood the main looper with one message per event. The {@link Policy} of the sink
+ * decides how the drained events are delivered, and a capacity bounds the number of pending events: events arriving
+ * while the queue is full are dropped and counted in {@link #getDropped()}. Errors and end of stream are delivered in
+ * order with the events and are never dropped.
+ * </p>
+ */
 public class MainThreadEventSink implements EventSink {
-    private EventSink eventSink;
-    private Handler handler;
+    private static final String TAG = "MainThreadEventSink";
+
+    /**
+     * Minimum time in milliseconds between two drains of the queue, i.e. one frame at 60 Hz
+     */
+    public static final long FRAME_INTERVAL = 16;
+
+    /**
+     * How the pending events are delivered
+     */
+    public enum Policy {
+        /**
+         * Every event is delivered on its own
+         */
+        QUEUE,
+        /**
+         * Only the latest pending event of each type and device is delivered, for status-like events
+         */
+        COALESCE,
+        /**
+         * The pending events are delivered together in a single list, for data events
+         */
+        BATCH
+    }
+
+    private final EventSink eventSink;
+    private final Handler handler;
+    private final Policy policy;
+    private final int capacity;
+    private final Set<String> coalescedTypes;
+
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Map<String, Object> latest = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private long reportedDropped;  // only used on the main thread
+    private volatile long lastDrain;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
 
     MainThreadEventSink(EventSink eventSink) {
+        this(eventSink, Policy.QUEUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param eventSink      event sink to deliver the events to
+     * @param policy         how the pending events are delivered
+     * @param capacity       maximum number of pending events
+     * @param coalescedTypes types of the events coalesced with the {@link Policy#COALESCE} policy, all if none are given
+     */
+    MainThreadEventSink(EventSink eventSink, Policy policy, int capacity, String... coalescedTypes) {
         this.eventSink = eventSink;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.coalescedTypes = (coalescedTypes.length > 0) ? new HashSet<>(Arrays.asList(coalescedTypes)) : null;
         handler = new Handler(Looper.getMainLooper());
     }
 
     @Override
     public void success(final Object o) {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                eventSink.success(o);
+        String key = (policy == Policy.COALESCE) ? coalescingKey(o) : null;
+        if (key != null) {
+            // a pending event with the same key is replaced in place, and keeps its position in the queue
+            if (latest.put(key, o) == null) {
+                queue.offer(new Coalesced(key));
+            }
+        } else {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
             }
-        });
+            queue.offer(o);
+        }
+        schedule();
     }
 
     @Override
     public void error(final String s, final String s1, final Object o) {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                eventSink.error(s, s1, o);
-            }
-        });
+        queue.offer(new Marker(s, s1, o, false));
+        schedule();
     }
 
     @Override
     public void endOfStream() {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                eventSink.endOfStream();
+        queue.offer(new Marker(null, null, null, true));
+        schedule();
+    }
+
+    /**
+     * @return number of events dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of events waiting to be delivered
+     */
+    public int getPending() {
+        return size.get() + latest.size();
+    }
+
+    private String coalescingKey(Object o) {
+        if (!(o instanceof Map)) return null;
+        Object type = ((Map<?, ?>) o).get("type");
+        if (type == null || (coalescedTypes != null && !coalescedTypes.contains(type))) return null;
+        return type + "/" + ((Map<?, ?>) o).get("deviceId");
+    }
+
+    /**
+     * Posts the drain task, unless it is already pending, no earlier than one frame after the last drain
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            long delay = lastDrain + FRAME_INTERVAL - SystemClock.uptimeMillis();
+            if (delay > 0) {
+                handler.postDelayed(drainTask, delay);
+            } else {
+                handler.post(drainTask);
+            }
+        }
+    }
+
+    /**
+     * Delivers the pending events. Runs on the main thread.
+     */
+    private void drain() {
+        // events offered from now on schedule the next drain
+        scheduled.set(false);
+        lastDrain = SystemClock.uptimeMillis();
+
+        List<Object> batch = null;
+        Object o;
+        while ((o = queue.poll()) != null) {
+            if (o instanceof Marker) {
+                batch = deliver(batch);
+                Marker marker = (Marker) o;
+                if (marker.end) {
+                    eventSink.endOfStream();
+                } else {
+                    eventSink.error(marker.code, marker.message, marker.details);
+                }
+                continue;
+            }
+            if (o instanceof Coalesced) {
+                o = latest.remove(((Coalesced) o).key);
+                if (o == null) continue;
+            } else {
+                size.decrementAndGet();
+            }
+            if (policy == Policy.BATCH) {
+                if (batch == null) batch = new ArrayList<>();
+                batch.add(o);
+            } else {
+                eventSink.success(o);
             }
-        });
+        }
+        deliver(batch);
+
+        long total = dropped.get();
+        if (total > reportedDropped) {
+            Log.w(TAG, (total - reportedDropped) + " events dropped, the main thread is not keeping up");
+            reportedDropped = total;
+        }
+    }
+
+    /**
+     * Delivers a batch as a list, or as a single event if it only holds one
+     * @return <code>null</code>, as the batch is consumed
+     */
+    private List<Object> deliver(List<Object> batch) {
+        if (batch != null) {
+            eventSink.success((batch.size() == 1) ? batch.get(0) : batch);
+        }
+        return null;
+    }
+
+    /**
+     * Position in the queue of the latest event with a given key
+     */
+    private static class Coalesced {
+        final String key;
+
+        Coalesced(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Error or end of stream, delivered in order with the events
+     */
+    private static class Marker {
+        final String code;
+        final String message;
+        final Object details;
+        final boolean end;
+
+        Marker(String code, String message, Object details, boolean end) {
+            this.code = code;
+            this.message = message;
+            this.details = details;
+            this.end = end;
+        }
     }
 }
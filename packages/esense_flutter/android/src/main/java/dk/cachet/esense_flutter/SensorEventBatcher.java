@@ -0,0 +1,115 @@
+package dk.cachet.esense_flutter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+import io.esense.esenselib.*;
+import io.flutter.plugin.common.EventChannel.*;
+
+/**
+ * Packs sensor events of a device into binary frames which are sent as a single event on the sensor channel.
+ * <p>
+ * Each frame is sent as a "SensorBatch" map with the id of the device and the frame bytes.
+ * Each sample is stored as a little-endian record of {@link #RECORD_SIZE} bytes:
+ * timestamp (int64), sample timestamp (int64), packet index (int32), accel x, y, z (int16) and gyro x, y, z (int16).
+ * When calibration is enabled, each record is followed by the calibrated accel x, y, z in g and gyro x, y, z in deg/s
+ * (float32), making records of {@link #CALIBRATED_RECORD_SIZE} bytes. The record size is sent with each frame.
+ * A frame is flushed when it holds the configured number of samples, or when the oldest sample in it
+ * has waited for the maximum latency.
+ */
+class SensorEventBatcher {
+    static final int RECORD_SIZE = SensorRingBuffer.RECORD_SIZE;
+    static final int CALIBRATED_RECORD_SIZE = RECORD_SIZE + 6 * 4;
+
+    private final EventSink eventSink;
+    private final String deviceId;
+    private final int batchSize;
+    private final long maxLatency;
+    private final boolean calibrated;
+    private final int recordSize;
+    private final double[] values = new double[6];
+    private final ByteBuffer buffer;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private int count = 0;
+
+    /**
+     * @param eventSink  sink receiving the frames
+     * @param deviceId   name of the device in the registry
+     * @param batchSize  number of samples in a full frame
+     * @param maxLatency maximum time in milliseconds a sample is held back before its frame is flushed
+     * @param calibrated whether calibrated values are added to the records
+     */
+    SensorEventBatcher(EventSink eventSink, String deviceId, int batchSize, long maxLatency, boolean calibrated) {
+        this.eventSink = eventSink;
+        this.deviceId = deviceId;
+        this.batchSize = batchSize;
+        this.maxLatency = maxLatency;
+        this.calibrated = calibrated;
+        this.recordSize = calibrated ? CALIBRATED_RECORD_SIZE : RECORD_SIZE;
+        this.buffer = ByteBuffer.allocate(batchSize * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Adds a sample to the current frame.
+     *
+     * @param evt         sensor sample
+     * @param calibration calibration of the device, or <code>null</code> if it is not available yet,
+     *                    in which case the calibrated values are NaN
+     */
+    synchronized void add(ESenseEvent evt, SensorCalibration calibration) {
+        short[] accel = evt.getAccel();
+        short[] gyro = evt.getGyro();
+        buffer.putLong(evt.getTimestamp())
+                .putLong(evt.getSampleTimestamp())
+                .putInt(evt.getPacketIndex())
+                .putShort(accel[0]).putShort(accel[1]).putShort(accel[2])
+                .putShort(gyro[0]).putShort(gyro[1]).putShort(gyro[2]);
+        if (calibrated) {
+            if (calibration != null) {
+                calibration.convertAcc(evt, values, 0);
+                calibration.convertGyro(evt, values, 3);
+                for (double v : values) buffer.putFloat((float) v);
+            } else {
+                for (int i = 0; i < 6; i++) buffer.putFloat(Float.NaN);
+            }
+        }
+        count++;
+
+        if (count >= batchSize) {
+            flush();
+        } else if (count == 1 && maxLatency > 0) {
+            handler.postDelayed(flushTask, maxLatency);
+        }
+    }
+
+    /**
+     * Sends the samples collected so far, if any.
+     */
+    synchronized void flush() {
+        handler.removeCallbacks(flushTask);
+        if (count == 0) return;
+
+        byte[] frame = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(frame);
+        buffer.clear();
+        count = 0;
+
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("type", "SensorBatch");
+        map.put("deviceId", deviceId);
+        map.put("frame", frame);
+        map.put("recordSize", recordSize);
+        eventSink.success(map);
+    }
+}
@@ -3,6 +3,8 @@ package io.esense.esenselib;
 public class ESenseEvent {
     private long timestamp;  //phone's timestamp
     private int packetIndex;
+    private long sequenceNumber;  //packet index unwrapped across its 256 wraparound
+    private long sampleTimestamp;  //timestamp reconstructed from the sequence number and sampling rate
     private short[] accel;   //3-elements array with X, Y and Z axis for accelerometer
     private short[] gyro;    //3-elements array with X, Y and Z axis for gyroscope
 
@@ -23,6 +25,21 @@ public class ESenseEvent {
         this.gyro = gyro;
     }
 
+    /**
+     * Fills this event in place with the values of a sensor notification packet received from the device
+     * @param bytes value of the sensor characteristic
+     * @param timestamp phone's timestamp of the packet
+     */
+    void decode(byte[] bytes, long timestamp){
+        for (int i = 0; i < 3; i++) {
+            accel[i] = (short) ((bytes[i*2+10] * 256) + bytes[i*2+11]);
+            gyro[i] = (short) ((bytes[i*2+4] * 256) + bytes[i*2+5]);
+        }
+        this.timestamp = timestamp;
+        this.sampleTimestamp = timestamp;
+        this.packetIndex = bytes[1] & 0xff;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -39,6 +56,22 @@ public class ESenseEvent {
         this.packetIndex = packetIndex;
     }
 
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public long getSampleTimestamp() {
+        return sampleTimestamp;
+    }
+
+    public void setSampleTimestamp(long sampleTimestamp) {
+        this.sampleTimestamp = sampleTimestamp;
+    }
+
     public short[] getAccel() {
         return accel;
     }
@@ -61,9 +94,19 @@ public class ESenseEvent {
      * @return acceleration in g on X, Y and Z axis
      */
     public double[] convertAccToG(ESenseConfig config){
-        double[] data = new double[3];
+        return convertAccToG(config, new double[3]);
+    }
+
+    /**
+     * Converts current ADC accelerometer values to acceleration in g, without allocating
+     * @param config device configuration
+     * @param data 3-elements array receiving the acceleration in g on X, Y and Z axis
+     * @return the data array
+     */
+    public double[] convertAccToG(ESenseConfig config, double[] data){
+        double scale = 1 / config.getAccSensitivityFactor();
         for (int i = 0; i < 3; i++) {
-            data[i] = (accel[i] / config.getAccSensitivityFactor());
+            data[i] = accel[i] * scale;
         }
 
         return(data);
@@ -75,9 +118,19 @@ public class ESenseEvent {
      * @return rotational speed in deg/s on X, Y and Z axis
      */
     public double[] convertGyroToDegPerSecond(ESenseConfig config){
-        double[] data = new double[3];
+        return convertGyroToDegPerSecond(config, new double[3]);
+    }
+
+    /**
+     * Converts current ADC gyroscope values to rotational speed in degrees/second, without allocating
+     * @param config device configuration
+     * @param data 3-elements array receiving the rotational speed in deg/s on X, Y and Z axis
+     * @return the data array
+     */
+    public double[] convertGyroToDegPerSecond(ESenseConfig config, double[] data){
+        double scale = 1 / config.getGyroSensitivityFactor();
         for (int i = 0; i < 3; i++) {
-            data[i] = (gyro[i] / config.getGyroSensitivityFactor());
+            data[i] = gyro[i] * scale;
         }
 
         return(data);
@@ -15,7 +15,8 @@ import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -40,6 +41,7 @@ public class ESenseManager {
     private Map<String, BluetoothGattCharacteristic> mCharacteristicMap;
     private BluetoothGatt mGatt;
     private Context mContext;
+    private GattOperationQueue mOperationQueue;
 
     private final String CONFIG_CHARACTERISTIC = "0000ff07-0000-1000-8000-00805f9b34fb";
     private final String SENSOR_CHARACTERISTIC = "0000ff08-0000-1000-8000-00805f9b34fb";
@@ -51,6 +53,45 @@ public class ESenseManager {
     private final String SENSOR_CONFIG_CHARACTERISTIC = "0000ff0e-0000-1000-8000-00805f9b34fb";
     private final String ACCELEROMETER_OFFSET_CHARACTERISTIC = "0000ff0d-0000-1000-8000-00805f9b34fb";
     private final UUID NOTIFICATION_DESCRIPTOR = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private final UUID SENSOR_UUID = UUID.fromString(SENSOR_CHARACTERISTIC);
+    private final UUID BUTTON_UUID = UUID.fromString(BUTTON_CHARACTERISTIC);
+
+    // Notification characteristics resolved at service discovery, so that notifications can be dispatched by identity
+    private BluetoothGattCharacteristic mSensorCharacteristic;
+    private BluetoothGattCharacteristic mButtonCharacteristic;
+
+    // Event filled in place for every sensor notification when event reuse is enabled
+    private final ESenseEvent mSensorEvent = new ESenseEvent();
+    private volatile boolean mReuseSensorEvents = false;
+
+    private final StreamHealthTracker mStreamHealth = new StreamHealthTracker();
+
+    // State kept across unexpected disconnections, so that sampling can be resumed after reconnecting
+    private ReconnectPolicy mReconnectPolicy;
+    private volatile boolean mDisconnectRequested;
+    private volatile boolean mResuming;
+    private int mReconnectAttempt;
+    private ScheduledFuture<?> mReconnectTask;
+    private int mSamplingRate;
+    private ESenseConfig mLastConfig;
+    private volatile ESenseConfig mCurrentConfig;
+    private volatile int[] mAccelerometerOffset;
+
+    private volatile int mMtu = StreamingProfile.DEFAULT_MTU;
+
+    // Executor shared by all managers for scanning, scan timeouts and reconnection attempts
+    private static final ScheduledThreadPoolExecutor sScanExecutor = new ScheduledThreadPoolExecutor(1);
+    static {
+        sScanExecutor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        sScanExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Executor shared by all managers for applying streaming profiles, which wait for several GATT operations
+    private static final ScheduledThreadPoolExecutor sProfileExecutor = new ScheduledThreadPoolExecutor(1);
+    static {
+        sProfileExecutor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        sProfileExecutor.allowCoreThreadTimeOut(true);
+    }
 
     /**
      * Constructs an eSense manager for a given device
@@ -58,11 +99,7 @@ public class ESenseManager {
      * @param context application environment to access Bluetooth/BLE interface
      */
     public ESenseManager(String deviceName, Context context) {
-        mDeviceName = deviceName;
-        mContext = context;
-        mGattCallback = new ESenseBGattCallback();
-        mBluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
-        mCharacteristicMap = new HashMap<>();
+        this(deviceName, context, null, new GattOperationQueue());
     }
 
     /**
@@ -72,7 +109,24 @@ public class ESenseManager {
      * @param listener connection listener
      */
     public ESenseManager(String deviceName, Context context, ESenseConnectionListener listener){
-        this(deviceName, context);
+        this(deviceName, context, listener, new GattOperationQueue());
+    }
+
+    /**
+     * Constructs an eSense manager for a given device with the connection listener and a GATT operation queue,
+     * which can be shared between the managers of several devices
+     * @param deviceName name of the eSense device to look for during a scan
+     * @param context application environment to access Bluetooth interface
+     * @param listener connection listener
+     * @param operationQueue queue used to serialize the GATT operations of this device
+     */
+    public ESenseManager(String deviceName, Context context, ESenseConnectionListener listener, GattOperationQueue operationQueue){
+        mDeviceName = deviceName;
+        mContext = context;
+        mGattCallback = new ESenseBGattCallback();
+        mBluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        mCharacteristicMap = new HashMap<>();
+        mOperationQueue = operationQueue;
 
         if(listener != null)
             mConnectionListener = listener;
@@ -106,34 +160,84 @@ public class ESenseManager {
     }
 
     /**
-     * Initiates a characteristic read on the connected device
+     * Queues a characteristic read on the connected device
      * @param charName name of the characteristic to read
-     * @return <code>true</code> if the read operation has been successfully initiated,
+     * @return <code>true</code> if the read operation has been successfully queued,
      *         <code>false</code> otherwise
      */
     private boolean readCharacteristic(String charName){
+        return readOperation(charName) != null;
+    }
+
+    /**
+     * Queues a characteristic read on the connected device
+     * @param charName name of the characteristic to read
+     * @return the queued operation, or <code>null</code> if the characteristic is not available
+     */
+    private GattOperationQueue.GattOperation readOperation(String charName){
         if(isConnected() && !mCharacteristicMap.isEmpty()) {
             BluetoothGattCharacteristic c = mCharacteristicMap.get(charName);
-            return mGatt.readCharacteristic(c);
+            if (c != null) {
+                return mOperationQueue.read(mGatt, c);
+            }
         }
 
+        return null;
+    }
+
+    /**
+     * Queues a characteristic read on the connected device, which only updates the cached values and fires no
+     * event
+     * @param charName name of the characteristic to read
+     * @return <code>true</code> if the read was queued
+     */
+    private boolean readCharacteristicSilently(String charName){
+        if(isConnected() && !mCharacteristicMap.isEmpty()) {
+            BluetoothGattCharacteristic c = mCharacteristicMap.get(charName);
+            if (c != null) {
+                mOperationQueue.readSilently(mGatt, c);
+                return true;
+            }
+        }
         return false;
     }
 
+    /**
+     * Queues a characteristic write on the connected device
+     * @param charName name of the characteristic to write
+     * @param value bytes to write
+     * @return the queued operation, or <code>null</code> if the characteristic is not available
+     */
+    private GattOperationQueue.GattOperation writeCharacteristic(String charName, byte[] value){
+        BluetoothGattCharacteristic c = mCharacteristicMap.get(charName);
+        if (mGatt == null || c == null) {
+            return null;
+        }
+
+        return mOperationQueue.write(mGatt, c, value);
+    }
+
     /**
      * Enables or disables notifications on the given characteristic
      * @param characteristic_uuid Characteristic's UUID
      * @param enable <code>true</code> to enable notifications,
      *               <code>false</code> to disable notifications
+     * @return the queued descriptor write, or <code>null</code> if notifications could not be changed
      */
-    private void enableNotification(String characteristic_uuid, boolean enable){
+    private GattOperationQueue.GattOperation enableNotification(String characteristic_uuid, boolean enable){
         BluetoothGattCharacteristic characteristic = mCharacteristicMap.get(characteristic_uuid);
+        if (mGatt == null || characteristic == null) {
+            return null;
+        }
+
         boolean registered = mGatt.setCharacteristicNotification(characteristic, enable);
         if (registered) {
             BluetoothGattDescriptor descriptor = characteristic.getDescriptor(NOTIFICATION_DESCRIPTOR);
-            descriptor.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-            mGatt.writeDescriptor(descriptor);
+            return mOperationQueue.writeDescriptor(mGatt, descriptor,
+                    enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
         }
+
+        return null;
     }
 
     /**
@@ -155,9 +259,7 @@ public class ESenseManager {
     public boolean setDeviceName(String deviceName) {
         int length = deviceName.length();
         if (1 <= length && length <= 22) {
-            BluetoothGattCharacteristic c = mCharacteristicMap.get(NAME_WRITE_CHARACTERISTIC);
-            c.setValue(deviceName.getBytes(Charset.forName("ASCII")));
-            return mGatt.writeCharacteristic(c);
+            return writeCharacteristic(NAME_WRITE_CHARACTERISTIC, deviceName.getBytes(Charset.forName("ASCII"))) != null;
         } else {
             Log.e(TAG, "In setDeviceName(), the length of deviceName should be between 1 and 22, but is set to " + length);
             return false;
@@ -192,17 +294,33 @@ public class ESenseManager {
      */
     public boolean setSensorConfig(ESenseConfig config) {
         if(config != null) {
-            BluetoothGattCharacteristic c = mCharacteristicMap.get(SENSOR_CONFIG_CHARACTERISTIC);
             byte[] bytes = config.prepareCharacteristicData();
             bytes[1] = getCheckSum(bytes,1);
-            c.setValue(bytes);
-            return mGatt.writeCharacteristic(c);
+            return writeCharacteristic(SENSOR_CONFIG_CHARACTERISTIC, bytes) != null;
         } else {
             Log.e(TAG, "In setSensorConfig(), config is set to null!!");
             return false;
         }
     }
 
+    /**
+     * Gets the sensor configuration of the connected device, as last read from or written to the device. The
+     * configuration is read when the connection is established, so that samples can be converted without a request.
+     * @return the current configuration, or <code>null</code> if it is not known yet
+     */
+    public ESenseConfig getCurrentConfig() {
+        return mCurrentConfig;
+    }
+
+    /**
+     * Gets the factory accelerometer offsets of the device, as last read from the device. The offsets are read when
+     * the connection is established, if they are not known yet.
+     * @return offsets on X, Y and Z axis in the +-16g format, or <code>null</code> if they are not known yet
+     */
+    public int[] getCachedAccelerometerOffset() {
+        return mAccelerometerOffset;
+    }
+
     /**
      * Requests a read of the parameter values of advertisement and connection interval on the connected device
      * The event {@link ESenseEventListener#onAdvertisementAndConnectionIntervalRead(int, int, int, int)} is fired when the parameter values have been read from the connected device.
@@ -230,6 +348,14 @@ public class ESenseManager {
      *         <code>false</code> otherwise
      */
     public boolean setAdvertisementAndConnectiontInterval(int advMinInterval, int advMaxInterval, int connMinInterval, int connMaxInterval) {
+        return writeAdvertisementAndConnectionInterval(advMinInterval, advMaxInterval, connMinInterval, connMaxInterval) != null;
+    }
+
+    /**
+     * Queues a write of the advertisement and connection intervals, see {@link #setAdvertisementAndConnectiontInterval(int, int, int, int)}
+     * @return the queued operation, or <code>null</code> if the parameters are incorrect or the device is not connected
+     */
+    private GattOperationQueue.GattOperation writeAdvertisementAndConnectionInterval(int advMinInterval, int advMaxInterval, int connMinInterval, int connMaxInterval) {
         short adv_min_interval;
         short adv_max_interval;
         short conn_min_interval;
@@ -246,7 +372,7 @@ public class ESenseManager {
             if (advMinInterval > advMaxInterval)
                 Log.e(TAG, "In setAdvertisementAndConnectionInterval(), advMaxInterval should be greater than or equal to advMinInterval, but advMinInterval is set to " + advMinInterval + " and advMaxInterval is set to " + advMaxInterval);
 
-            return false;
+            return null;
         }
 
         if (20 <= connMinInterval && connMaxInterval <= 2000 && (connMaxInterval-connMinInterval) >= 20) {
@@ -260,7 +386,7 @@ public class ESenseManager {
             if ((connMinInterval-connMaxInterval) < 20)
                 Log.e(TAG, "In setAdvertisementAndConnectionInterval(), the difference between connMaxInterval and connMinInterval should be greater than or equal to 20, but connMinInterval is set to " + connMinInterval + " and connMaxInterval is set to " + connMaxInterval);
 
-            return false;
+            return null;
         }
 
         byte[] bytes = new byte[]{0x57, 0x00, 0x08,
@@ -268,9 +394,100 @@ public class ESenseManager {
                 (byte) (conn_min_interval / 256), (byte) (conn_min_interval % 256), (byte) (conn_max_interval / 256), (byte)(conn_max_interval % 256)};
 
         bytes[1] = getCheckSum(bytes,1);
-        BluetoothGattCharacteristic c = mCharacteristicMap.get(CONFIG_CHARACTERISTIC);
-        c.setValue(bytes);
-        return mGatt.writeCharacteristic(c);
+        return writeCharacteristic(CONFIG_CHARACTERISTIC, bytes);
+    }
+
+    /**
+     * Decodes the value of the advertisement and connection interval characteristic
+     * @param b value of the characteristic
+     * @return minimum and maximum advertisement intervals followed by minimum and maximum connection intervals
+     *         (unit: milliseconds), or <code>null</code> if the checksum is incorrect
+     */
+    private int[] decodeIntervals(byte[] b) {
+        if (b == null || b.length < 11 || !checkCheckSum(b, 1)) {
+            return null;
+        }
+        return new int[]{
+                (int) (((b[3] & 0xff) * 256 + (b[4] & 0xff)) * 0.625),
+                (int) (((b[5] & 0xff) * 256 + (b[6] & 0xff)) * 0.625),
+                (int) (((b[7] & 0xff) * 256 + (b[8] & 0xff)) * 1.25),
+                (int) (((b[9] & 0xff) * 256 + (b[10] & 0xff)) * 1.25)};
+    }
+
+    /**
+     * Reads the advertisement and connection intervals of the connected device and waits for the result, without
+     * notifying the event listener
+     * @return the intervals as returned by {@link #decodeIntervals(byte[])}, or <code>null</code> if the read failed
+     */
+    private int[] awaitIntervals() throws InterruptedException {
+        BluetoothGattCharacteristic c = mCharacteristicMap.get(ADV_CONN_CHARACTERISTIC);
+        if (!isConnected() || c == null) {
+            return null;
+        }
+        GattOperationQueue.GattOperation op = mOperationQueue.readSilently(mGatt, c);
+        if (!op.get()) {
+            return null;
+        }
+        return decodeIntervals(c.getValue());
+    }
+
+    /**
+     * Gets the MTU of the connection, as negotiated by the last MTU request
+     * @return MTU in bytes
+     */
+    public int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * Applies a streaming profile to the connection: requests the connection priority and the MTU from the phone,
+     * and writes the connection interval of the profile to the connected device, keeping its advertisement interval.
+     * The intervals are read back from the device, without firing
+     * {@link ESenseEventListener#onAdvertisementAndConnectionIntervalRead(int, int, int, int)}, and the settings
+     * actually obtained are delivered to the callback, on a background thread. The sampling rate of the profile only
+     * sizes the connection: it does not change the rate of the sampling in progress.
+     * @param profile streaming profile to apply
+     * @param callback callback fired when the profile has been applied
+     * @return <code>true</code> if the request was successfully made,
+     *         <code>false</code> otherwise
+     */
+    public boolean applyStreamingProfile(final StreamingProfile profile, final StreamingProfile.Callback callback) {
+        final BluetoothGatt gatt = mGatt;
+        if (!isConnected() || gatt == null || mCharacteristicMap.isEmpty()) {
+            Log.e(TAG, "eSense device is not connected");
+            return false;
+        }
+
+        sProfileExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    boolean accepted = mOperationQueue.requestConnectionPriority(gatt, profile.getConnectionPriority()).get();
+                    if (profile.getMtu() > mMtu) {
+                        mOperationQueue.requestMtu(gatt, profile.getMtu()).get();
+                    }
+
+                    int[] intervals = awaitIntervals();
+                    if (intervals != null) {
+                        GattOperationQueue.GattOperation write = writeAdvertisementAndConnectionInterval(
+                                intervals[0], intervals[1], profile.getMinConnectionInterval(), profile.getMaxConnectionInterval());
+                        if (write != null && write.get()) {
+                            intervals = awaitIntervals();
+                        }
+                    }
+
+                    StreamingProfile.Result result = new StreamingProfile.Result(profile, accepted, mMtu,
+                            intervals != null ? intervals[2] : -1, intervals != null ? intervals[3] : -1);
+                    Log.i(TAG, "Streaming profile applied to " + mDeviceName + ": mtu " + result.getMtu()
+                            + ", connection interval " + result.getMinConnectionInterval() + "-" + result.getMaxConnectionInterval() + " ms");
+                    if (callback != null) {
+                        callback.onStreamingProfileApplied(result);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return true;
     }
 
     /**
@@ -283,6 +500,26 @@ public class ESenseManager {
         return readCharacteristic(BATTERY_CHARACTERISTIC);
     }
 
+    /**
+     * Enables or disables the reuse of a single {@link ESenseEvent} for all sensor notifications.
+     * When enabled, no objects are allocated when decoding sensor samples, but the event passed to
+     * {@link ESenseSensorListener#onSensorChanged(ESenseEvent)} is only valid for the duration of the callback and
+     * must be copied if it is needed afterwards.
+     * @param reuse <code>true</code> to reuse the same event for all samples,
+     *              <code>false</code> to allocate a new event for every sample (default)
+     */
+    public void setReuseSensorEvents(boolean reuse) {
+        mReuseSensorEvents = reuse;
+    }
+
+    /**
+     * Gets the health tracker of the sensor stream, which is reset every time a sensor listener is registered.
+     * @return stream health tracker
+     */
+    public StreamHealthTracker getStreamHealth() {
+        return mStreamHealth;
+    }
+
     /**
      * Registers a sensor listener and starts sensor sampling on the connected device.
      * The event {@link ESenseSensorListener#onSensorChanged(ESenseEvent)} is fired every time a new sample is available from the connected device.
@@ -305,26 +542,38 @@ public class ESenseManager {
             Log.e(TAG, "In registerSensorListener(), samplingRate should be set between 1 and 100, but is set to " + samplingRate);
             return SamplingStatus.ERROR;
         }
-        BluetoothGattCharacteristic c = mCharacteristicMap.get(CONFIG_CHARACTERISTIC);
+        mStreamHealth.reset(samplingRate);
+        mSensorListener = listener;
+        mSamplingRate = samplingRate;
+        startSampling(samplingRate);
+        return SamplingStatus.STARTED;
+    }
+
+    /**
+     * Starts sensor sampling on the connected device and enables notifications on sensor samples
+     * @param samplingRate sensor sampling rate in Hz
+     */
+    private void startSampling(int samplingRate) {
         byte[] bytes = new byte[]{0x53, 0x00, 0x02, 0x01, (byte) samplingRate};
         bytes[1] = getCheckSum(bytes,1);
-        c.setValue(bytes);
-        mGatt.writeCharacteristic(c);
-
-        mSensorListener = listener;
+        writeCharacteristic(CONFIG_CHARACTERISTIC, bytes);
         enableNotification(SENSOR_CHARACTERISTIC,true);
-        return SamplingStatus.STARTED;
+    }
+
+    /**
+     * Gets the registered sensor listener
+     * @return sensor listener, or <code>null</code> if no listener is registered
+     */
+    public ESenseSensorListener getSensorListener() {
+        return mSensorListener;
     }
 
     /**
      * Unregisters a sensor listener and stops sensor sampling on the connected device
      */
     public void unregisterSensorListener(){
-        BluetoothGattCharacteristic c = mCharacteristicMap.get(CONFIG_CHARACTERISTIC);
-
         byte[] IMU_STOP_CMD = new byte[]{0x53, 0x02, 0x02, 0x00, 0x00};
-        c.setValue(IMU_STOP_CMD);
-        mGatt.writeCharacteristic(c);
+        writeCharacteristic(CONFIG_CHARACTERISTIC, IMU_STOP_CMD);
 
         enableNotification(SENSOR_CHARACTERISTIC,false);
         mSensorListener = null;
@@ -346,6 +595,14 @@ public class ESenseManager {
         return true;
     }
 
+    /**
+     * Gets the registered event listener
+     * @return event listener, or <code>null</code> if no listener is registered
+     */
+    public ESenseEventListener getEventListener() {
+        return mEventListener;
+    }
+
     /**
      * Unregisters a sensor listener and stops notifications on button events
      */
@@ -360,7 +617,7 @@ public class ESenseManager {
      *         <code>false</code> otherwise
      */
     public boolean isConnected() {
-        return (mBluetoothManager.getConnectionState(mDevice, BluetoothProfile.GATT) == BluetoothProfile.STATE_CONNECTED);
+        return mDevice != null && (mBluetoothManager.getConnectionState(mDevice, BluetoothProfile.GATT) == BluetoothProfile.STATE_CONNECTED);
     }
 
     /**
@@ -370,67 +627,158 @@ public class ESenseManager {
      *         <code>false</code> otherwise
      */
     public boolean disconnect(){
+        mDisconnectRequested = true;
+        if (mReconnectTask != null) {
+            mReconnectTask.cancel(false);
+        }
+
         if(isConnected()) {
             mGatt.disconnect();
             return true;
         }
+        else if(mResuming) {
+            // cancel a pending reconnection
+            mResuming = false;
+            if (mGatt != null) {
+                mGatt.disconnect();
+                mGatt.close();
+            }
+            mSensorListener = null;
+            mEventListener = null;
+            // the closed connection fires no more callbacks
+            if(mConnectionListener != null) {
+                mConnectionListener.onDisconnected(ESenseManager.this);
+            }
+            return true;
+        }
         else {
             return false;
         }
     }
 
     /**
-     * Initiates a connection procedure. The phone will first scan for the device with a given name and. Then, if found, it will try to connect.
+     * Sets the policy used to reconnect after an unexpected disconnection. After reconnecting, the last sensor
+     * configuration is written again, and sensor sampling and button notifications are resumed for the registered
+     * listeners. The event {@link ESenseConnectionListener#onDisconnected(ESenseManager manager)} is fired once for
+     * the unexpected disconnection, not for each failed reconnection attempt.
+     * @param policy reconnect policy, or <code>null</code> to disable automatic reconnection (default)
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * Initiates a connection procedure. The phone will first scan for the device with a given name, unless it has recently been seen. Then, if found, it will try to connect.
      * The events {@link ESenseConnectionListener#onDeviceFound(ESenseManager manager)}, {@link ESenseConnectionListener#onDeviceNotFound(ESenseManager manager)} or {@link ESenseConnectionListener#onConnected(ESenseManager manager)} are fired at different stages of the procedure.
      * @param timeout scan timeout in milli seconds
      * @return <code>true</code> if the procedure started successfully
      *         <code>false</code> otherwise
      */
     public boolean connect(int timeout){
+        mDisconnectRequested = false;
+        final ESenseScanner scanner;
         try {
-            findDevice(timeout);
-            return true;
+            // the name and the state of Bluetooth are checked here, as the scan runs on the scan thread
+            scanner = new ESenseScanner(mDeviceName, mBluetoothManager, new ESenseScanner.Callback() {
+                @Override
+                public void onDeviceFound(BluetoothDevice device) {
+                    ESenseManager.this.onDeviceFound(device);
+                }
+            });
         } catch(RuntimeException e) {
             e.printStackTrace();
             return false;
         }
+        findDevice(scanner, timeout);
+        return true;
     }
 
     /**
-     * Scans for the device with the name specified when the manager was constructed.
+     * Scans for the device with the name specified when the manager was constructed. If the device has recently been
+     * seen, it is connected to without scanning.
      * The events {@link ESenseConnectionListener#onDeviceFound(ESenseManager manager)}, {@link ESenseConnectionListener#onDeviceNotFound(ESenseManager manager)} are fired if the device has been found or if it was not found.
+     * @param scanner scanner for the device
      * @param timeout in milliseconds
      */
-    private void findDevice(final int timeout) {
-        new Thread(new Runnable() {
+    private void findDevice(final ESenseScanner scanner, final int timeout) {
+        sScanExecutor.execute(new Runnable() {
             public void run() {
-                CountDownLatch deviceFoundLatch = new CountDownLatch(1);
-                ESenseScanner scanner = new ESenseScanner(mDeviceName, mBluetoothManager, deviceFoundLatch);
-                scanner.scan();
-                try {
-                    deviceFoundLatch.await(timeout, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    scanner.stopScan();
-                    e.printStackTrace();
+                BluetoothDevice cached = ESenseScanner.getCachedDevice(mDeviceName);
+                if (cached != null) {
+                    Log.i(TAG, "Connecting to cached device " + cached.getAddress());
+                    onDeviceFound(cached);
+                    return;
                 }
 
-                if(deviceFoundLatch.getCount() == 0){
-                    mDevice = scanner.getDevice();
-                    if(mConnectionListener != null) {
-                        mConnectionListener.onDeviceFound(ESenseManager.this);
+                try {
+                    scanner.scan();
+                } catch(RuntimeException e) {
+                    // e.g. Bluetooth was turned off since connect was called
+                    Log.e(TAG, "Starting the scan failed", e);
+                    if (scanner.finish() && mConnectionListener != null) {
+                        mConnectionListener.onDeviceNotFound(ESenseManager.this);
                     }
+                    return;
+                }
+                sScanExecutor.schedule(new Runnable() {
+                    public void run() {
+                        if (scanner.finish() && mConnectionListener != null) {
+                            mConnectionListener.onDeviceNotFound(ESenseManager.this);
+                        }
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Initiates the connection to a device found in a scan or in the cache of recently seen devices
+     * @param device device to connect to
+     */
+    private void onDeviceFound(BluetoothDevice device) {
+        mDevice = device;
+        if(mConnectionListener != null) {
+            mConnectionListener.onDeviceFound(ESenseManager.this);
+        }
 
-                    // Device found so initiate connection
-                    mGatt = mDevice.connectGatt(mContext, false, mGattCallback, BluetoothDevice.TRANSPORT_LE);
+        // Device found so initiate connection
+        mGatt = mDevice.connectGatt(mContext, false, mGattCallback, BluetoothDevice.TRANSPORT_LE);
+    }
 
-                } else {
-                    scanner.stopScan();
-                    if(mConnectionListener != null) {
-                        mConnectionListener.onDeviceNotFound(ESenseManager.this);
-                    }
+    /**
+     * Schedules the next attempt to reconnect to the device, with an exponentially growing delay. When the direct
+     * connection attempts are exhausted, a background connection is made, which completes when the device is in range.
+     */
+    private void scheduleReconnect() {
+        final int attempt = mReconnectAttempt++;
+        final boolean autoConnect = attempt >= mReconnectPolicy.getMaxAttempts();
+        long delay = autoConnect ? mReconnectPolicy.getMaxDelay() : mReconnectPolicy.getDelay(attempt);
+
+        Log.i(TAG, "Reconnecting to " + mDeviceName + " in " + delay + " ms (attempt " + (attempt + 1) + ")");
+        mReconnectTask = sScanExecutor.schedule(new Runnable() {
+            public void run() {
+                if (!mDisconnectRequested && mResuming) {
+                    mGatt = mDevice.connectGatt(mContext, autoConnect, mGattCallback, BluetoothDevice.TRANSPORT_LE);
                 }
             }
-        }).start();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays the sensor configuration and the subscriptions which were active before an unexpected disconnection
+     */
+    private void resumeStreams() {
+        mResuming = false;
+        if (mLastConfig != null) {
+            setSensorConfig(mLastConfig);
+        }
+        if (mSensorListener != null) {
+            startSampling(mSamplingRate);
+        }
+        if (mEventListener != null) {
+            enableNotification(BUTTON_CHARACTERISTIC,true);
+        }
+        Log.i(TAG, "Resumed streams of " + mDeviceName);
     }
 
     /**
@@ -450,11 +798,36 @@ public class ESenseManager {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             if (newState == BluetoothProfile.STATE_CONNECTED) {
+                mReconnectAttempt = 0;
                 gatt.discoverServices();
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    // the device was just seen, so a reconnect does not need to scan for it
+                    ESenseScanner.cacheDevice(mDeviceName, gatt.getDevice());
+                } else {
+                    ESenseScanner.forgetDevice(mDeviceName);
+                }
+                mOperationQueue.cancel(gatt);
                 gatt.close();
                 mCharacteristicMap.clear();
-                if(mConnectionListener != null) {
+                mSensorCharacteristic = null;
+                mButtonCharacteristic = null;
+                mMtu = StreamingProfile.DEFAULT_MTU;
+                mCurrentConfig = null;
+
+                // a failed reconnection attempt, the disconnection has already been notified
+                boolean notified = mResuming;
+                if (!mDisconnectRequested && mReconnectPolicy != null && mDevice != null) {
+                    // keep the listeners, sampling rate and configuration, to resume once reconnected
+                    mResuming = true;
+                    scheduleReconnect();
+                } else {
+                    mResuming = false;
+                    mSensorListener = null;
+                    mEventListener = null;
+                }
+
+                if(mConnectionListener != null && !notified) {
                     mConnectionListener.onDisconnected(ESenseManager.this);
                 }
             }
@@ -468,6 +841,18 @@ public class ESenseManager {
                     mCharacteristicMap.put(getKey(c), c);
                 }
             }
+            mSensorCharacteristic = mCharacteristicMap.get(SENSOR_CHARACTERISTIC);
+            mButtonCharacteristic = mCharacteristicMap.get(BUTTON_CHARACTERISTIC);
+
+            if (mResuming) {
+                resumeStreams();
+            }
+            // cache the current sensor configuration and the factory offsets, used to calibrate samples, without
+            // firing events the app did not ask for
+            readCharacteristicSilently(SENSOR_CONFIG_CHARACTERISTIC);
+            if (mAccelerometerOffset == null) {
+                readCharacteristicSilently(ACCELEROMETER_OFFSET_CHARACTERISTIC);
+            }
 
             // Fire onConnected event after all the services have been discovered
             if(mConnectionListener != null) {
@@ -476,15 +861,18 @@ public class ESenseManager {
         }
 
         /**
-         * Delivers appropriate events after each read operation
+         * Updates the cached values and delivers appropriate events after each read operation. Silent reads only
+         * update the cached values.
          */
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic c, int status) {
+            GattOperationQueue.GattOperation op = mOperationQueue.onCompleted(gatt, GattOperationQueue.Type.READ, c.getUuid(), status);
             if(status == BluetoothGatt.GATT_SUCCESS) {
+                boolean notify = op == null || !op.isSilent();
                 String key = getKey(c);
                 switch (key) {
                     case DEVICE_NAME_CHARACTERISTIC:
-                        if (mEventListener != null) {
+                        if (notify && mEventListener != null) {
                             StringBuilder deviceName = new StringBuilder();
                             for (byte b : c.getValue()) {
                                 deviceName.append((char) b);
@@ -495,20 +883,17 @@ public class ESenseManager {
                         break;
 
                     case ADV_CONN_CHARACTERISTIC:
-                        if (mEventListener != null) {
-                            byte[] b = c.getValue();
-                            if (checkCheckSum(b, 1)) {
+                        if (notify && mEventListener != null) {
+                            int[] intervals = decodeIntervals(c.getValue());
+                            if (intervals != null) {
                                 mEventListener.onAdvertisementAndConnectionIntervalRead(
-                                        (int) (((b[3] & 0xff) * 256 + (b[4] & 0xff)) * 0.625),
-                                        (int) (((b[5] & 0xff) * 256 + (b[6] & 0xff)) * 0.625),
-                                        (int) (((b[7] & 0xff) * 256 + (b[8] & 0xff)) * 1.25),
-                                        (int) (((b[9] & 0xff) * 256 + (b[10] & 0xff)) * 1.25));
+                                        intervals[0], intervals[1], intervals[2], intervals[3]);
                             }
                         }
                         break;
 
                     case BATTERY_CHARACTERISTIC:
-                        if (mEventListener != null) {
+                        if (notify && mEventListener != null) {
                             byte[] bytes = c.getValue();
                             if (checkCheckSum(bytes, 1)) {
                                 mEventListener.onBatteryRead(((bytes[3] & 0xff) * 256 + (bytes[4] & 0xff)) / 1000.0);
@@ -516,35 +901,39 @@ public class ESenseManager {
                         }
                         break;
 
-                    case SENSOR_CONFIG_CHARACTERISTIC:
-                        if (mEventListener != null) {
-                            byte[] bytes = c.getValue();
-                            if (checkCheckSum(bytes, 1)) {
-                                ESenseConfig config = new ESenseConfig(bytes);
+                    case SENSOR_CONFIG_CHARACTERISTIC: {
+                        byte[] bytes = c.getValue();
+                        if (checkCheckSum(bytes, 1)) {
+                            ESenseConfig config = new ESenseConfig(bytes);
+                            mCurrentConfig = config;
+                            if (notify && mEventListener != null) {
                                 mEventListener.onSensorConfigRead(config);
                             }
                         }
                         break;
+                    }
 
-                    case ACCELEROMETER_OFFSET_CHARACTERISTIC:
-                        if (mEventListener != null) {
-                            byte[] bytes = c.getValue();
-                            if (checkCheckSum(bytes, 1)) {
-                                // Format is in +-16G in which 1g = 2048
-                                int offsetX = ((int) (bytes[9]) << 8) | (bytes[10] & 0xff);
-                                int offsetY = ((int) (bytes[11]) << 8) | (bytes[12] & 0xff);
-                                int offsetZ = ((int) (bytes[13]) << 8) | (bytes[14] & 0xff);
+                    case ACCELEROMETER_OFFSET_CHARACTERISTIC: {
+                        byte[] bytes = c.getValue();
+                        if (checkCheckSum(bytes, 1)) {
+                            // Format is in +-16G in which 1g = 2048
+                            int offsetX = ((int) (bytes[9]) << 8) | (bytes[10] & 0xff);
+                            int offsetY = ((int) (bytes[11]) << 8) | (bytes[12] & 0xff);
+                            int offsetZ = ((int) (bytes[13]) << 8) | (bytes[14] & 0xff);
+                            mAccelerometerOffset = new int[]{offsetX, offsetY, offsetZ};
+                            if (notify && mEventListener != null) {
                                 mEventListener.onAccelerometerOffsetRead(offsetX, offsetY, offsetZ);
-
                             }
                         }
                         break;
+                    }
                 }
             }
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic c, int status){
+            mOperationQueue.onCompleted(gatt, GattOperationQueue.Type.WRITE, c.getUuid(), status);
             if(status == BluetoothGatt.GATT_SUCCESS) {
                 String key = getKey(c);
                 switch (key) {
@@ -557,45 +946,67 @@ public class ESenseManager {
                         // Update the internal name if the write operation was successful
                         mDeviceName = deviceName.toString();
                         break;
+
+                    case SENSOR_CONFIG_CHARACTERISTIC:
+                        // the written bytes have the same layout as the bytes read
+                        mCurrentConfig = new ESenseConfig(c.getValue());
+                        // only an acknowledged configuration is written again after reconnecting
+                        mLastConfig = mCurrentConfig;
+                        break;
                 }
             }
         }
 
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            mOperationQueue.onCompleted(gatt, GattOperationQueue.Type.WRITE_DESCRIPTOR, descriptor.getUuid(), status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mMtu = mtu;
+            }
+            mOperationQueue.onCompleted(gatt, GattOperationQueue.Type.MTU, null, status);
+        }
+
         /**
-         * Delivers appropriate events when notification events are received from the connected device
+         * Checks if a characteristic is the one resolved at service discovery, falling back to comparing UUIDs
+         * @param c characteristic received in a callback
+         * @param resolved characteristic resolved at service discovery
+         * @param uuid UUID of the expected characteristic
+         * @return <code>true</code> if the characteristics match
+         */
+        private boolean isCharacteristic(BluetoothGattCharacteristic c, BluetoothGattCharacteristic resolved, UUID uuid){
+            return c == resolved || uuid.equals(c.getUuid());
+        }
+
+        /**
+         * Delivers appropriate events when notification events are received from the connected device.
+         * This is called for every sensor sample, so it avoids allocations when event reuse is enabled.
          */
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic c){
-            String key = getKey(c);
-            switch(key){
-                case SENSOR_CHARACTERISTIC:
-                    if(mSensorListener != null){
-                        byte[] bytes = c.getValue();
-                        if(checkCheckSum(bytes, 2)) {
-                            short[] acc = new short[3];
-                            short[] gyro = new short[3];
-                            for (int i = 0; i < 3; i++) {
-                                acc[i] = (short) ((bytes[i*2+10] * 256) + bytes[i*2+11]);
-                                gyro[i] = (short) ((bytes[i*2+4] * 256) + bytes[i*2+5]);
-                            }
-
-                            ESenseEvent eSenseEvent = new ESenseEvent(acc, gyro);
-                            eSenseEvent.setTimestamp(System.currentTimeMillis());
-                            eSenseEvent.setPacketIndex(bytes[1] < 0 ? bytes[1] + 256 : bytes[1]);
-                            mSensorListener.onSensorChanged(eSenseEvent);
+            if(isCharacteristic(c, mSensorCharacteristic, SENSOR_UUID)) {
+                ESenseSensorListener listener = mSensorListener;
+                if(listener != null){
+                    byte[] bytes = c.getValue();
+                    if(checkCheckSum(bytes, 2)) {
+                        ESenseEvent eSenseEvent = mReuseSensorEvents ? mSensorEvent : new ESenseEvent();
+                        eSenseEvent.decode(bytes, System.currentTimeMillis());
+                        if(mStreamHealth.onPacket(eSenseEvent)) {
+                            listener.onSensorChanged(eSenseEvent);
                         }
                     }
-                    break;
-
-                case BUTTON_CHARACTERISTIC:
-                    if(mEventListener != null) {
-                        byte[] bytes = c.getValue();
-                        if(checkCheckSum(bytes,1)) {
-                            int value = bytes[3];
-                            mEventListener.onButtonEventChanged(value == 1);
-                        }
+                }
+            } else if(isCharacteristic(c, mButtonCharacteristic, BUTTON_UUID)) {
+                if(mEventListener != null) {
+                    byte[] bytes = c.getValue();
+                    if(checkCheckSum(bytes,1)) {
+                        int value = bytes[3];
+                        mEventListener.onButtonEventChanged(value == 1);
                     }
-                    break;
+                }
             }
         }
     }
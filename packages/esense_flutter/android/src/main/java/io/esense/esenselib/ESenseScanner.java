@@ -4,56 +4,130 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
+/**
+ * Scans for an eSense device, given by its name or by its MAC address.
+ * <p>
+ * The name may be a regular expression. It is compiled once, and if it is a plain name, or if a MAC address is
+ * given, the scan is filtered in hardware so that only matching advertisements are delivered.
+ * </p>
+ *
+ * <p>
+ *     Devices found are cached for {@link #CACHE_TTL} milliseconds, so that reconnecting to a device which has
+ *     recently been seen does not need a new scan.
+ * </p>
+ */
 public class ESenseScanner extends ScanCallback {
     private final String TAG = "ESenseScanner";
 
-    private CountDownLatch mDeviceFoundLatch;
+    /**
+     * Time in milliseconds a device found in a scan is kept in the cache
+     */
+    public static final long CACHE_TTL = 30 * 1000;
+
+    private static final Pattern MAC_ADDRESS = Pattern.compile("([0-9A-Fa-f]{2}:){5}[0-9A-Fa-f]{2}");
+    private static final Pattern REGEX_META_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+    private static final Map<String, CachedDevice> sDeviceCache = new ConcurrentHashMap<>();
+
+    /**
+     * Callback fired once when the device has been found
+     */
+    interface Callback {
+        void onDeviceFound(BluetoothDevice device);
+    }
+
+    private final Callback mCallback;
     private BluetoothLeScanner mBluetoothLeScanner;
     private BluetoothDevice mDevice;
     private boolean mScanning;
+    private boolean mFinished;
     private String mDeviceName;
+    private Pattern mNamePattern;
+    private String mAddress;
 
     /**
      * Constructs an eSense scanner
-     * @param name name of the eSense device to look for during a scan
+     * @param name name of the eSense device to look for during a scan, or its MAC address
      * @param bluetoothManager BluetoothManager object
-     * @param deviceFoundLatch CountDownLatch object
+     * @param callback callback fired when the device has been found
+     * @throws java.util.regex.PatternSyntaxException if the name is not a valid regular expression
+     * @throws IllegalStateException if Bluetooth is off
      */
-    protected ESenseScanner(String name, BluetoothManager bluetoothManager, CountDownLatch deviceFoundLatch){
+    protected ESenseScanner(String name, BluetoothManager bluetoothManager, Callback callback){
         mDeviceName = name;
+        if (MAC_ADDRESS.matcher(name).matches()) {
+            mAddress = name.toUpperCase();
+        } else {
+            mNamePattern = Pattern.compile(name);
+        }
         mBluetoothLeScanner = bluetoothManager.getAdapter().getBluetoothLeScanner();
-        this.mDeviceFoundLatch = deviceFoundLatch;
+        if (mBluetoothLeScanner == null) {
+            throw new IllegalStateException("Bluetooth is off");
+        }
+        mCallback = callback;
     }
 
     /**
      * Performs eSense scanning
      */
     protected void scan(){
+        List<ScanFilter> filters = null;
+        if (mAddress != null) {
+            filters = new ArrayList<>();
+            filters.add(new ScanFilter.Builder().setDeviceAddress(mAddress).build());
+        } else if (!REGEX_META_CHARACTERS.matcher(mDeviceName).find()) {
+            filters = new ArrayList<>();
+            filters.add(new ScanFilter.Builder().setDeviceName(mDeviceName).build());
+        }
+
         ScanSettings settings = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
-        mBluetoothLeScanner.startScan(null, settings, this);
+        mBluetoothLeScanner.startScan(filters, settings, this);
         mScanning = true;
-        Log.d(TAG,"Start scan");
+        Log.d(TAG,"Start scan" + (filters != null ? " (filtered)" : ""));
     }
 
     @Override
     public void onScanResult(int callbackType, ScanResult result) {
         super.onScanResult(callbackType, result);
         BluetoothDevice _device = result.getDevice();
-        if (_device != null && _device.getName() != null && _device.getName().matches(mDeviceName)) {
-            stopScan();
+        if (_device != null && matches(_device, result.getScanRecord()) && finish()) {
             mDevice = _device;
+            sDeviceCache.put(mDeviceName, new CachedDevice(_device));
 
             Log.i(TAG,"mac address : " + mDevice.getAddress() + ", name : " + mDevice.getName());
-            mDeviceFoundLatch.countDown();
+            mCallback.onDeviceFound(_device);
         }
     }
 
+    @Override
+    public void onScanFailed(int errorCode) {
+        Log.e(TAG, "Scan failed with error code " + errorCode);
+        mScanning = false;
+    }
+
+    private boolean matches(BluetoothDevice device, ScanRecord record) {
+        if (mAddress != null) {
+            return mAddress.equalsIgnoreCase(device.getAddress());
+        }
+        String name = device.getName();
+        if (name == null && record != null) {
+            name = record.getDeviceName();
+        }
+        return name != null && mNamePattern.matcher(name).matches();
+    }
+
     /**
      * Stops eSense scanning
      */
@@ -65,6 +139,20 @@ public class ESenseScanner extends ScanCallback {
         }
     }
 
+    /**
+     * Stops scanning, once. Used to settle the race between the device being found and the scan timing out.
+     * @return <code>true</code> the first time it is called
+     *         <code>false</code> otherwise
+     */
+    protected synchronized boolean finish() {
+        if (mFinished) {
+            return false;
+        }
+        mFinished = true;
+        stopScan();
+        return true;
+    }
+
     /**
      * Checks if scanning is being performed.
      * @return <code>true</code> if scanning is being performed
@@ -80,4 +168,48 @@ public class ESenseScanner extends ScanCallback {
     protected BluetoothDevice getDevice(){
         return(mDevice);
     }
+
+    /**
+     * Gets a device recently found in a scan
+     * @param name name or MAC address used when scanning for the device
+     * @return the device, or <code>null</code> if it has not been seen for {@link #CACHE_TTL} milliseconds
+     */
+    static BluetoothDevice getCachedDevice(String name) {
+        CachedDevice cached = sDeviceCache.get(name);
+        if (cached == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - cached.seen > CACHE_TTL) {
+            sDeviceCache.remove(name);
+            return null;
+        }
+        return cached.device;
+    }
+
+    /**
+     * Marks a device as seen, e.g. when it has just been disconnected
+     * @param name name or MAC address used when scanning for the device
+     * @param device the device
+     */
+    static void cacheDevice(String name, BluetoothDevice device) {
+        sDeviceCache.put(name, new CachedDevice(device));
+    }
+
+    /**
+     * Removes a device from the cache, e.g. when connecting to it failed
+     * @param name name or MAC address used when scanning for the device
+     */
+    static void forgetDevice(String name) {
+        sDeviceCache.remove(name);
+    }
+
+    private static class CachedDevice {
+        final BluetoothDevice device;
+        final long seen;
+
+        CachedDevice(BluetoothDevice device) {
+            this.device = device;
+            this.seen = SystemClock.elapsedRealtime();
+        }
+    }
 }
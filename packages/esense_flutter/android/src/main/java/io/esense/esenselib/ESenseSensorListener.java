@@ -2,7 +2,9 @@ package io.esense.esenselib;
 
 public interface ESenseSensorListener {
     /**
-     * Called when there is new sensor data available
+     * Called when there is new sensor data available.
+     * If event reuse is enabled with {@link ESenseManager#setReuseSensorEvents(boolean)}, the event is only valid
+     * for the duration of this call and must be copied if it is needed afterwards.
      * @param evt object containing the sensor samples received
      */
     void onSensorChanged(ESenseEvent evt);
@@ -0,0 +1,235 @@
+package io.esense.esenselib;
+
+import java.util.Arrays;
+
+/**
+ * Computes features over a sliding window of sensor samples, e.g. to detect head motion, steps or nods without
+ * shipping every sample to the consumer.
+ * <p>
+ * The window holds the last <code>windowSize</code> samples, and a feature vector is delivered to the
+ * {@link Listener} every <code>hopSize</code> samples once the window is full. Features are computed for
+ * {@link #CHANNELS} channels: accel x, y, z, accel magnitude, gyro x, y, z and gyro magnitude, in raw ADC units, or
+ * in g and deg/s when a {@link SensorCalibration} is set.
+ * </p>
+ *
+ * <p>
+ *     All features are maintained incrementally when a sample enters or leaves the window, so the cost of a sample
+ *     does not depend on the window size:
+ *     <ul>
+ *         <li>mean, variance and energy (mean of squares), from running sums</li>
+ *         <li>zero crossings of the signal detrended by an exponential moving average with a time constant of one
+ *         window</li>
+ *         <li>peaks, i.e. local maxima of the detrended signal above one standard deviation of the window</li>
+ *     </ul>
+ *     Each feature vector holds {@link #FEATURES_PER_CHANNEL} values per channel, channel after channel, in the
+ *     order {@link #MEAN}, {@link #VARIANCE}, {@link #ENERGY}, {@link #ZERO_CROSSINGS}, {@link #PEAKS}.
+ * </p>
+ */
+public class FeatureExtractor implements ESenseSensorListener {
+
+    public static final int CHANNELS = 8;
+    public static final int FEATURES_PER_CHANNEL = 5;
+
+    public static final int MEAN = 0;
+    public static final int VARIANCE = 1;
+    public static final int ENERGY = 2;
+    public static final int ZERO_CROSSINGS = 3;
+    public static final int PEAKS = 4;
+
+    /**
+     * Listener receiving the feature vectors
+     */
+    public interface Listener {
+        /**
+         * Called when the window has moved by the hop size
+         * @param timestamp sample timestamp of the newest sample in the window
+         * @param features feature vector, only valid for the duration of this call
+         * @param calibrated <code>true</code> if the features are computed from calibrated values
+         */
+        void onFeatures(long timestamp, double[] features, boolean calibrated);
+    }
+
+    private final int mWindowSize;
+    private final int mHopSize;
+    private final Listener mListener;
+    private final double mAlpha;
+
+    // ring buffers of CHANNELS * windowSize values, channel after channel
+    private final double[] mWindow;
+    private final boolean[] mCrossing;
+    private final boolean[] mPeak;
+
+    private final double[] mSum = new double[CHANNELS];
+    private final double[] mSumSq = new double[CHANNELS];
+    private final double[] mBaseline = new double[CHANNELS];
+    private final double[] mPrevDeviation = new double[CHANNELS];
+    private final double[] mPrevPrevDeviation = new double[CHANNELS];
+    private final int[] mLastSign = new int[CHANNELS];
+    private final int[] mCrossings = new int[CHANNELS];
+    private final int[] mPeaks = new int[CHANNELS];
+
+    private final double[] mSample = new double[CHANNELS];
+    private final double[] mFeatures = new double[CHANNELS * FEATURES_PER_CHANNEL];
+
+    private SensorCalibration mCalibration;
+    private int mHead;  // position of the next sample
+    private int mCount;  // number of samples in the window
+    private long mTotal;  // number of samples since the last reset
+    private int mSinceEmit;
+
+    /**
+     * Constructs a feature extractor
+     * @param windowSize number of samples in the window (min: 3)
+     * @param hopSize number of samples between two feature vectors
+     * @param listener listener receiving the feature vectors
+     */
+    public FeatureExtractor(int windowSize, int hopSize, Listener listener) {
+        if (windowSize < 3 || hopSize < 1) {
+            throw new IllegalArgumentException("windowSize should be at least 3 and hopSize at least 1, but are "
+                    + windowSize + " and " + hopSize);
+        }
+        mWindowSize = windowSize;
+        mHopSize = hopSize;
+        mListener = listener;
+        mAlpha = 1.0 / windowSize;
+        mWindow = new double[CHANNELS * windowSize];
+        mCrossing = new boolean[CHANNELS * windowSize];
+        mPeak = new boolean[CHANNELS * windowSize];
+    }
+
+    /**
+     * Sets the calibration used to convert samples. The window is cleared when the calibration changes, so that
+     * a window never mixes units.
+     * @param calibration calibration, or <code>null</code> to use raw ADC values
+     */
+    public synchronized void setCalibration(SensorCalibration calibration) {
+        if (calibration != mCalibration) {
+            mCalibration = calibration;
+            reset();
+        }
+    }
+
+    /**
+     * Clears the window
+     */
+    public synchronized void reset() {
+        Arrays.fill(mCrossing, false);
+        Arrays.fill(mPeak, false);
+        Arrays.fill(mSum, 0);
+        Arrays.fill(mSumSq, 0);
+        Arrays.fill(mLastSign, 0);
+        Arrays.fill(mCrossings, 0);
+        Arrays.fill(mPeaks, 0);
+        mHead = 0;
+        mCount = 0;
+        mTotal = 0;
+        mSinceEmit = 0;
+    }
+
+    @Override
+    public synchronized void onSensorChanged(ESenseEvent evt) {
+        double[] s = mSample;
+        if (mCalibration != null) {
+            mCalibration.convertAcc(evt, s, 0);
+            mCalibration.convertGyro(evt, s, 4);
+        } else {
+            short[] accel = evt.getAccel();
+            short[] gyro = evt.getGyro();
+            s[0] = accel[0];
+            s[1] = accel[1];
+            s[2] = accel[2];
+            s[4] = gyro[0];
+            s[5] = gyro[1];
+            s[6] = gyro[2];
+        }
+        s[3] = Math.sqrt(s[0] * s[0] + s[1] * s[1] + s[2] * s[2]);
+        s[7] = Math.sqrt(s[4] * s[4] + s[5] * s[5] + s[6] * s[6]);
+
+        boolean full = mCount == mWindowSize;
+        if (!full) {
+            mCount++;
+        }
+        int prev = (mHead + mWindowSize - 1) % mWindowSize;
+        for (int c = 0; c < CHANNELS; c++) {
+            addSample(c, s[c], full, prev);
+        }
+        mHead = (mHead + 1) % mWindowSize;
+        mTotal++;
+        mSinceEmit++;
+
+        if (mCount == mWindowSize && mSinceEmit >= mHopSize) {
+            mSinceEmit = 0;
+            emit(evt.getSampleTimestamp());
+        }
+    }
+
+    private void addSample(int c, double x, boolean full, int prev) {
+        int base = c * mWindowSize;
+        int i = base + mHead;
+
+        // the sample at the head leaves the window
+        if (full) {
+            double old = mWindow[i];
+            mSum[c] -= old;
+            mSumSq[c] -= old * old;
+            if (mCrossing[i]) mCrossings[c]--;
+            if (mPeak[i]) mPeaks[c]--;
+        }
+        mCrossing[i] = false;
+        mPeak[i] = false;
+
+        mWindow[i] = x;
+        mSum[c] += x;
+        mSumSq[c] += x * x;
+
+        mBaseline[c] = (mTotal == 0) ? x : mBaseline[c] + mAlpha * (x - mBaseline[c]);
+        double deviation = x - mBaseline[c];
+
+        int sign = (deviation > 0) ? 1 : (deviation < 0) ? -1 : 0;
+        if (sign != 0) {
+            if (mLastSign[c] != 0 && sign != mLastSign[c]) {
+                mCrossing[i] = true;
+                mCrossings[c]++;
+            }
+            mLastSign[c] = sign;
+        }
+
+        // the previous sample is a peak if it is a local maximum above one standard deviation
+        if (mTotal >= 2) {
+            double p = mPrevDeviation[c];
+            if (p > mPrevPrevDeviation[c] && p >= deviation && p * p > variance(c)) {
+                mPeak[base + prev] = true;
+                mPeaks[c]++;
+            }
+        }
+        mPrevPrevDeviation[c] = mPrevDeviation[c];
+        mPrevDeviation[c] = deviation;
+    }
+
+    private double variance(int c) {
+        double mean = mSum[c] / mCount;
+        return Math.max(0, mSumSq[c] / mCount - mean * mean);
+    }
+
+    private void emit(long timestamp) {
+        for (int c = 0; c < CHANNELS; c++) {
+            int f = c * FEATURES_PER_CHANNEL;
+            mFeatures[f + MEAN] = mSum[c] / mCount;
+            mFeatures[f + VARIANCE] = variance(c);
+            mFeatures[f + ENERGY] = mSumSq[c] / mCount;
+            mFeatures[f + ZERO_CROSSINGS] = mCrossings[c];
+            mFeatures[f + PEAKS] = mPeaks[c];
+        }
+        if (mListener != null) {
+            mListener.onFeatures(timestamp, mFeatures, mCalibration != null);
+        }
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    public int getHopSize() {
+        return mHopSize;
+    }
+}
@@ -0,0 +1,359 @@
+package io.esense.esenselib;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serializes GATT operations.
+ * <p>
+ * Android only allows one GATT operation (read, write, descriptor write, MTU request) in flight at a time, and silently drops
+ * any operation issued while another is pending. This queue keeps operations in order and only starts the next one
+ * when the GATT callback for the previous one has been received, or when it has timed out.
+ * </p>
+ *
+ * <p>
+ *     Duplicate reads of the same characteristic which are still waiting in the queue are coalesced into a single
+ *     operation. Each operation is returned as a {@link GattOperation}, which can be used to wait for its completion.
+ * </p>
+ */
+public class GattOperationQueue {
+    private final String TAG = "GattOperationQueue";
+
+    /**
+     * Default time in milliseconds to wait for the GATT callback of an operation before giving up on it
+     */
+    public static final long DEFAULT_TIMEOUT = 2 * 1000;
+
+    /**
+     * Types of GATT operations handled by the queue
+     */
+    public enum Type {
+        READ, WRITE, WRITE_DESCRIPTOR, MTU, CONNECTION_PRIORITY
+    }
+
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<>();
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final long mTimeout;
+    private GattOperation mCurrent;
+    private ScheduledFuture<?> mCurrentTimeout;
+
+    /**
+     * Constructs an operation queue with the default timeout
+     */
+    public GattOperationQueue() {
+        this(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs an operation queue
+     * @param timeout time in milliseconds to wait for the completion of each operation
+     */
+    public GattOperationQueue(long timeout) {
+        mTimeout = timeout;
+        mExecutor = new ScheduledThreadPoolExecutor(1);
+        // let the worker thread die when the connection is idle
+        mExecutor.setKeepAliveTime(timeout, TimeUnit.MILLISECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Enqueues a characteristic read. If a read of the same characteristic is already waiting in the queue, that
+     * operation is returned instead.
+     * @param gatt GATT connection
+     * @param characteristic characteristic to read
+     * @return the queued operation
+     */
+    public synchronized GattOperation read(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        if (characteristic != null) {
+            for (GattOperation op : mPending) {
+                if (!op.mSilent && op.matches(gatt, Type.READ, characteristic.getUuid())) {
+                    return op;
+                }
+            }
+        }
+        return enqueue(new GattOperation(gatt, Type.READ, characteristic, null, null, 0, false));
+    }
+
+    /**
+     * Enqueues a characteristic read whose result is only used by the caller, see {@link GattOperation#isSilent()}.
+     * It is never coalesced with other reads.
+     * @param gatt GATT connection
+     * @param characteristic characteristic to read
+     * @return the queued operation
+     */
+    public synchronized GattOperation readSilently(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        return enqueue(new GattOperation(gatt, Type.READ, characteristic, null, null, 0, true));
+    }
+
+    /**
+     * Enqueues a characteristic write. The value is set on the characteristic when the operation is started, so
+     * several writes to the same characteristic can be queued.
+     * @param gatt GATT connection
+     * @param characteristic characteristic to write
+     * @param value bytes to write
+     * @return the queued operation
+     */
+    public synchronized GattOperation write(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+        return enqueue(new GattOperation(gatt, Type.WRITE, characteristic, null, value, 0, false));
+    }
+
+    /**
+     * Enqueues a descriptor write
+     * @param gatt GATT connection
+     * @param descriptor descriptor to write
+     * @param value bytes to write
+     * @return the queued operation
+     */
+    public synchronized GattOperation writeDescriptor(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, byte[] value) {
+        return enqueue(new GattOperation(gatt, Type.WRITE_DESCRIPTOR, null, descriptor, value, 0, false));
+    }
+
+    /**
+     * Enqueues an MTU request. The operation completes when {@link #onCompleted(BluetoothGatt, Type, UUID, int)} is
+     * called with the {@link Type#MTU} type and a <code>null</code> UUID from the <code>onMtuChanged</code> callback.
+     * @param gatt GATT connection
+     * @param mtu requested MTU
+     * @return the queued operation
+     */
+    public synchronized GattOperation requestMtu(BluetoothGatt gatt, int mtu) {
+        return enqueue(new GattOperation(gatt, Type.MTU, null, null, null, mtu, false));
+    }
+
+    /**
+     * Enqueues a connection priority request. There is no callback for this request, so the operation completes as
+     * soon as the request has been accepted, but it is still queued so that it is not issued while another operation
+     * is in flight.
+     * @param gatt GATT connection
+     * @param priority one of the <code>BluetoothGatt.CONNECTION_PRIORITY_*</code> values
+     * @return the queued operation
+     */
+    public synchronized GattOperation requestConnectionPriority(BluetoothGatt gatt, int priority) {
+        return enqueue(new GattOperation(gatt, Type.CONNECTION_PRIORITY, null, null, null, priority, false));
+    }
+
+    /**
+     * Signals the completion of an operation. Must be called from the corresponding GATT callback.
+     * @param gatt GATT connection
+     * @param type type of the completed operation
+     * @param uuid UUID of the characteristic or descriptor
+     * @param status GATT status
+     * @return the completed operation, or <code>null</code> if the callback does not match the operation in flight
+     */
+    public synchronized GattOperation onCompleted(BluetoothGatt gatt, Type type, UUID uuid, int status) {
+        if (mCurrent == null || !mCurrent.matches(gatt, type, uuid)) {
+            return null;
+        }
+        GattOperation op = mCurrent;
+        finishCurrent(status == BluetoothGatt.GATT_SUCCESS);
+        return op;
+    }
+
+    /**
+     * Fails the in-flight operation and all pending operations for the given connection, e.g. after a disconnection.
+     * @param gatt GATT connection
+     */
+    public synchronized void cancel(BluetoothGatt gatt) {
+        Iterator<GattOperation> it = mPending.iterator();
+        while (it.hasNext()) {
+            GattOperation op = it.next();
+            if (op.mGatt == gatt) {
+                it.remove();
+                op.complete(false);
+            }
+        }
+        if (mCurrent != null && mCurrent.mGatt == gatt) {
+            finishCurrent(false);
+        }
+    }
+
+    private GattOperation enqueue(GattOperation op) {
+        mPending.add(op);
+        if (mCurrent == null) {
+            scheduleNext();
+        }
+        return op;
+    }
+
+    private void finishCurrent(boolean success) {
+        if (mCurrentTimeout != null) {
+            mCurrentTimeout.cancel(false);
+            mCurrentTimeout = null;
+        }
+        GattOperation op = mCurrent;
+        mCurrent = null;
+        op.complete(success);
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                next();
+            }
+        });
+    }
+
+    private synchronized void next() {
+        if (mCurrent != null) {
+            return;
+        }
+
+        GattOperation op;
+        while ((op = mPending.poll()) != null) {
+            if (op.start()) {
+                if (op.mType == Type.CONNECTION_PRIORITY) {
+                    op.complete(true);
+                    continue;
+                }
+                mCurrent = op;
+                final GattOperation started = op;
+                mCurrentTimeout = mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTimeout(started);
+                    }
+                }, mTimeout, TimeUnit.MILLISECONDS);
+                return;
+            }
+            op.complete(false);
+        }
+    }
+
+    private synchronized void onTimeout(GattOperation op) {
+        if (mCurrent == op) {
+            Log.w(TAG, "GATT operation " + op.mType + " on " + op.getUuid() + " timed out");
+            mCurrentTimeout = null;
+            finishCurrent(false);
+        }
+    }
+
+    /**
+     * A single GATT operation. The operation completes when the GATT callback has been received, when it has timed
+     * out, or when it could not be started.
+     */
+    public static class GattOperation implements Future<Boolean> {
+        private final BluetoothGatt mGatt;
+        private final Type mType;
+        private final BluetoothGattCharacteristic mCharacteristic;
+        private final BluetoothGattDescriptor mDescriptor;
+        private final byte[] mValue;
+        private final int mParameter;
+        private final boolean mSilent;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mSuccess;
+
+        private GattOperation(BluetoothGatt gatt, Type type, BluetoothGattCharacteristic characteristic,
+                              BluetoothGattDescriptor descriptor, byte[] value, int parameter, boolean silent) {
+            mGatt = gatt;
+            mType = type;
+            mCharacteristic = characteristic;
+            mDescriptor = descriptor;
+            mValue = value;
+            mParameter = parameter;
+            mSilent = silent;
+        }
+
+        public Type getType() {
+            return mType;
+        }
+
+        /**
+         * @return <code>true</code> if the result of this read is only used by the caller, and must not be delivered
+         *         to the event listeners
+         */
+        public boolean isSilent() {
+            return mSilent;
+        }
+
+        /**
+         * @return UUID of the characteristic or descriptor targeted by this operation, <code>null</code> if unknown
+         */
+        public UUID getUuid() {
+            if (mCharacteristic != null) return mCharacteristic.getUuid();
+            if (mDescriptor != null) return mDescriptor.getUuid();
+            return null;
+        }
+
+        /**
+         * @return <code>true</code> if the operation has completed successfully,
+         *         <code>false</code> if it failed or has not completed yet
+         */
+        public boolean isSuccess() {
+            return mSuccess;
+        }
+
+        private boolean matches(BluetoothGatt gatt, Type type, UUID uuid) {
+            if (mGatt != gatt || mType != type) {
+                return false;
+            }
+            // MTU requests do not target a characteristic
+            return (type == Type.MTU) || (uuid != null && uuid.equals(getUuid()));
+        }
+
+        private boolean start() {
+            if (mGatt == null) {
+                return false;
+            }
+            switch (mType) {
+                case READ:
+                    return mCharacteristic != null && mGatt.readCharacteristic(mCharacteristic);
+                case WRITE:
+                    return mCharacteristic != null && mCharacteristic.setValue(mValue) && mGatt.writeCharacteristic(mCharacteristic);
+                case WRITE_DESCRIPTOR:
+                    return mDescriptor != null && mDescriptor.setValue(mValue) && mGatt.writeDescriptor(mDescriptor);
+                case MTU:
+                    return mGatt.requestMtu(mParameter);
+                case CONNECTION_PRIORITY:
+                    return mGatt.requestConnectionPriority(mParameter);
+            }
+            return false;
+        }
+
+        private void complete(boolean success) {
+            mSuccess = success;
+            mDone.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException {
+            mDone.await();
+            return mSuccess;
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return mSuccess;
+        }
+    }
+}
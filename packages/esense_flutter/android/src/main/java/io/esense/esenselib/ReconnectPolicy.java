@@ -0,0 +1,59 @@
+package io.esense.esenselib;
+
+/**
+ * Policy for reconnecting to an eSense device after an unexpected disconnection.
+ * <p>
+ * Reconnection is first attempted with direct connections, spaced by an exponentially growing delay. When all these
+ * attempts have failed, the manager falls back to a background (<code>autoConnect</code>) connection, which completes
+ * whenever the device is back in range.
+ * </p>
+ */
+public class ReconnectPolicy {
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    /**
+     * Constructs a reconnect policy
+     * @param initialDelay delay in milliseconds before the first attempt
+     * @param maxDelay maximum delay in milliseconds between two attempts
+     * @param maxAttempts number of direct connection attempts before falling back to a background connection
+     */
+    public ReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Constructs a default reconnect policy
+     * Initial delay = 500ms
+     * Maximum delay = 30s
+     * Maximum attempts = 5
+     */
+    public ReconnectPolicy() {
+        this(500, 30 * 1000, 5);
+    }
+
+    /**
+     * Gets the delay before a reconnection attempt, doubling with every attempt up to the maximum delay
+     * @param attempt number of the attempt, starting at 0
+     * @return delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        if (attempt >= 31) return maxDelay;
+        return Math.min(maxDelay, initialDelay << attempt);
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,94 @@
+package io.esense.esenselib;
+
+/**
+ * Converts sensor samples to calibrated physical units: acceleration in g, corrected with the factory accelerometer
+ * offsets, and rotational speed in degrees/second.
+ * <p>
+ * The scale factors are computed once for a given configuration, so that converting a sample only takes
+ * multiplications. Results are written into arrays provided by the caller, at a given position, so that samples can
+ * be converted one after the other into a single buffer without allocating.
+ * </p>
+ */
+public class SensorCalibration {
+
+    /**
+     * Raw value of 1g in the factory accelerometer offsets, which are given in the +-16g format
+     */
+    public static final double OFFSET_SENSITIVITY_FACTOR = 2048;
+
+    private final ESenseConfig mConfig;
+    private final int[] mRawOffset;
+    private final double mAccScale;
+    private final double mGyroScale;
+    private final double mOffsetX;
+    private final double mOffsetY;
+    private final double mOffsetZ;
+
+    /**
+     * Constructs a calibration
+     * @param config sensor configuration of the device
+     * @param accelerometerOffset factory accelerometer offsets on X, Y and Z axis, or <code>null</code> if unknown
+     */
+    public SensorCalibration(ESenseConfig config, int[] accelerometerOffset) {
+        mConfig = config;
+        mRawOffset = accelerometerOffset;
+        mAccScale = 1 / config.getAccSensitivityFactor();
+        mGyroScale = 1 / config.getGyroSensitivityFactor();
+        if (accelerometerOffset != null) {
+            mOffsetX = accelerometerOffset[0] / OFFSET_SENSITIVITY_FACTOR;
+            mOffsetY = accelerometerOffset[1] / OFFSET_SENSITIVITY_FACTOR;
+            mOffsetZ = accelerometerOffset[2] / OFFSET_SENSITIVITY_FACTOR;
+        } else {
+            mOffsetX = 0;
+            mOffsetY = 0;
+            mOffsetZ = 0;
+        }
+    }
+
+    /**
+     * Checks if this calibration was computed from the given configuration and offsets
+     * @param config sensor configuration
+     * @param accelerometerOffset factory accelerometer offsets
+     * @return <code>true</code> if the same objects were used to construct this calibration
+     */
+    public boolean isFor(ESenseConfig config, int[] accelerometerOffset) {
+        return mConfig == config && mRawOffset == accelerometerOffset;
+    }
+
+    /**
+     * Writes the calibrated acceleration of a sample in g
+     * @param evt sensor sample
+     * @param data array receiving the acceleration on X, Y and Z axis
+     * @param offset position in the array of the X value
+     */
+    public void convertAcc(ESenseEvent evt, double[] data, int offset) {
+        short[] accel = evt.getAccel();
+        data[offset] = accel[0] * mAccScale - mOffsetX;
+        data[offset + 1] = accel[1] * mAccScale - mOffsetY;
+        data[offset + 2] = accel[2] * mAccScale - mOffsetZ;
+    }
+
+    /**
+     * Writes the rotational speed of a sample in degrees/second
+     * @param evt sensor sample
+     * @param data array receiving the rotational speed on X, Y and Z axis
+     * @param offset position in the array of the X value
+     */
+    public void convertGyro(ESenseEvent evt, double[] data, int offset) {
+        short[] gyro = evt.getGyro();
+        data[offset] = gyro[0] * mGyroScale;
+        data[offset + 1] = gyro[1] * mGyroScale;
+        data[offset + 2] = gyro[2] * mGyroScale;
+    }
+
+    public ESenseConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * @return factory accelerometer offsets, <code>null</code> if they were not known
+     */
+    public int[] getAccelerometerOffset() {
+        return mRawOffset;
+    }
+}
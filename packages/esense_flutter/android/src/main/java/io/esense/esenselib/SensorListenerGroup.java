@@ -0,0 +1,48 @@
+package io.esense.esenselib;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sensor listener forwarding every sample to several listeners, so that several consumers can share the samples of
+ * a device, which only accepts one sensor listener.
+ * <p>
+ * The same event is passed to all the listeners, so when event reuse is enabled with
+ * {@link ESenseManager#setReuseSensorEvents(boolean)}, no listener may modify it.
+ * </p>
+ */
+public class SensorListenerGroup implements ESenseSensorListener {
+    private final CopyOnWriteArrayList<ESenseSensorListener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a listener to the group
+     * @param listener sensor listener
+     * @return <code>true</code> if the listener was not in the group yet
+     */
+    public boolean add(ESenseSensorListener listener) {
+        return mListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Removes a listener from the group
+     * @param listener sensor listener
+     * @return <code>true</code> if the listener was in the group
+     */
+    public boolean remove(ESenseSensorListener listener) {
+        return mListeners.remove(listener);
+    }
+
+    public boolean contains(ESenseSensorListener listener) {
+        return mListeners.contains(listener);
+    }
+
+    public boolean isEmpty() {
+        return mListeners.isEmpty();
+    }
+
+    @Override
+    public void onSensorChanged(ESenseEvent evt) {
+        for (ESenseSensorListener listener : mListeners) {
+            listener.onSensorChanged(evt);
+        }
+    }
+}
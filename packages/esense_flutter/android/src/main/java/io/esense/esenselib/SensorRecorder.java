@@ -0,0 +1,405 @@
+package io.esense.esenselib;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records sensor samples to an append-only binary file.
+ * <p>
+ * The recorder is registered as a sensor listener, and copies each sample as a fixed-size record into a direct
+ * buffer. Full buffers are written through a {@link FileChannel} on a background thread, while the sensor callback
+ * keeps filling a second buffer, so that the callback never waits for the disk. Partially filled buffers are written
+ * every {@link #FLUSH_INTERVAL} milliseconds, and the file is synced to the storage device every
+ * {@link #SYNC_INTERVAL} milliseconds, so that at most a few seconds of samples are lost if the app is killed.
+ * </p>
+ *
+ * <p>
+ *     The file starts with a little-endian header of {@link #HEADER_SIZE} bytes: magic "ESNS" (int32), version
+ *     (int16), record size (int16), sampling rate (int32), accelerometer and gyroscope sensitivity factors (float32,
+ *     0 if unknown), start time (int64) and a reserved int32. It is followed by records of {@link #RECORD_SIZE} bytes,
+ *     in the same layout as {@link SensorRingBuffer}: timestamp (int64), sample timestamp (int64), packet index
+ *     (int32), accel x, y, z (int16) and gyro x, y, z (int16).
+ * </p>
+ */
+public class SensorRecorder implements ESenseSensorListener {
+    private final String TAG = "SensorRecorder";
+
+    /**
+     * Listener notified on the writer thread when the file has been opened or closed
+     */
+    public interface CompletionListener {
+        /**
+         * @param recorder the recorder
+         * @param error the error if the file could not be opened or written, <code>null</code> otherwise
+         */
+        void onComplete(SensorRecorder recorder, IOException error);
+    }
+
+    public static final int MAGIC = 0x534e5345;  // "ESNS" in little-endian
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = SensorRingBuffer.RECORD_SIZE;
+
+    /**
+     * Number of records held by each of the two buffers
+     */
+    public static final int BUFFER_RECORDS = 512;
+
+    /**
+     * Time in milliseconds after which a partially filled buffer is written
+     */
+    public static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * Time in milliseconds between two syncs of the file to the storage device
+     */
+    public static final long SYNC_INTERVAL = 5 * 1000;
+
+    private final int mSamplingRate;
+    private final ESenseConfig mConfig;
+    private final ScheduledThreadPoolExecutor mWriter = new ScheduledThreadPoolExecutor(1);
+    private final ScheduledFuture<?> mFlushTask;
+    private final ScheduledFuture<?> mSyncTask;
+
+    private File mFile;
+    private FileChannel mChannel;  // only used on the writer thread
+    private ByteBuffer mActive;
+    private ByteBuffer mSpare;  // null while it is being written
+    private boolean mClosed;
+    private long mRecords;
+    private long mDropped;
+    private IOException mError;
+
+    /**
+     * Constructs a recorder and creates the file on the writer thread. Samples received before the file is created
+     * are kept in the active buffer.
+     * @param file file to record to, which is overwritten if it exists
+     * @param samplingRate sensor sampling rate in Hz, written in the header
+     * @param config sensor configuration, whose sensitivity factors are written in the header, or <code>null</code>
+     * @param onOpened listener notified on the writer thread once the file is created, or <code>null</code>. If the
+     *                 file cannot be created, the recorder is closed.
+     */
+    public SensorRecorder(final File file, int samplingRate, ESenseConfig config,
+                          final CompletionListener onOpened) {
+        mSamplingRate = samplingRate;
+        mConfig = config;
+        mActive = allocate();
+        mSpare = allocate();
+        mFile = file;
+
+        mFlushTask = mWriter.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        mSyncTask = mWriter.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+
+        // the tasks above are delayed, so the file is created first
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    mChannel = open(file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Creating " + file + " failed", e);
+                    error = e;
+                    fail(e);
+                }
+                if (onOpened != null) {
+                    onOpened.onComplete(SensorRecorder.this, error);
+                }
+            }
+        });
+    }
+
+    private static ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a file, and its folder if needed, and writes its header. Runs on the writer thread.
+     * @return channel of the file, positioned after the header
+     */
+    private FileChannel open(File file) throws IOException {
+        File folder = file.getAbsoluteFile().getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) RECORD_SIZE)
+                .putInt(mSamplingRate)
+                .putFloat(mConfig != null ? (float) mConfig.getAccSensitivityFactor() : 0)
+                .putFloat(mConfig != null ? (float) mConfig.getGyroSensitivityFactor() : 0)
+                .putLong(System.currentTimeMillis())
+                .putInt(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return channel;
+    }
+
+    /**
+     * Copies the sample into the active buffer, handing the buffer over to the writer thread when it is full
+     * @param evt object containing the sensor samples received
+     */
+    @Override
+    public synchronized void onSensorChanged(ESenseEvent evt) {
+        if (mClosed) {
+            return;
+        }
+        if (mActive.remaining() < RECORD_SIZE) {
+            if (mSpare == null) {
+                // the writer has not finished writing the other buffer
+                mDropped++;
+                return;
+            }
+            submitActive();
+        }
+
+        short[] accel = evt.getAccel();
+        short[] gyro = evt.getGyro();
+        mActive.putLong(evt.getTimestamp())
+                .putLong(evt.getSampleTimestamp())
+                .putInt(evt.getPacketIndex())
+                .putShort(accel[0]).putShort(accel[1]).putShort(accel[2])
+                .putShort(gyro[0]).putShort(gyro[1]).putShort(gyro[2]);
+        mRecords++;
+    }
+
+    /**
+     * Swaps the buffers and writes the active one on the writer thread. Must be called holding the lock, with the
+     * spare buffer available.
+     */
+    private void submitActive() {
+        final ByteBuffer full = mActive;
+        mActive = mSpare;
+        mSpare = null;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(full);
+            }
+        });
+    }
+
+    /**
+     * Writes a buffer to the file and gives it back as the spare buffer, unless there already is one. The records
+     * which could not be written, e.g. as the file could not be created, are counted as dropped. Runs on the writer
+     * thread.
+     */
+    private void write(ByteBuffer buffer) {
+        buffer.flip();
+        IOException error = null;
+        try {
+            while (mChannel != null && buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Writing to " + mFile + " failed", e);
+            error = e;
+        }
+        int lost = (buffer.remaining() + RECORD_SIZE - 1) / RECORD_SIZE;
+        buffer.clear();
+        synchronized (this) {
+            if (mSpare == null) {
+                mSpare = buffer;
+            }
+            mRecords -= lost;
+            mDropped += lost;
+            if (error != null && mError == null) {
+                mError = error;
+            }
+        }
+    }
+
+    /**
+     * Records the error and stops recording. Runs on the writer thread.
+     */
+    private void fail(IOException error) {
+        synchronized (this) {
+            if (mError == null) {
+                mError = error;
+            }
+        }
+        close(null);
+    }
+
+    /**
+     * Writes the samples collected so far, if the writer is not busy. Runs on the writer thread.
+     */
+    private void flush() {
+        synchronized (this) {
+            if (mClosed || mSpare == null || mActive.position() == 0) {
+                return;
+            }
+            submitActive();
+        }
+    }
+
+    /**
+     * Syncs the file to the storage device. Runs on the writer thread.
+     */
+    private void sync() {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            mChannel.force(false);
+        } catch (IOException e) {
+            Log.e(TAG, "Syncing " + mFile + " failed", e);
+        }
+    }
+
+    /**
+     * Writes the remaining samples to the current file, closes it and continues recording to a new file. Samples
+     * received while rotating are written to the new file. If the new file cannot be created, the recorder is
+     * closed with the error given by {@link #getError()}.
+     * @param next new file to record to
+     * @return the previous file
+     */
+    public synchronized File rotate(final File next) {
+        final File previous = mFile;
+        if (mClosed) {
+            return previous;
+        }
+        mFile = next;
+        if (mActive.position() > 0) {
+            if (mSpare != null) {
+                submitActive();
+            } else {
+                // write the active buffer after the one being written, and continue in a new buffer
+                final ByteBuffer last = mActive;
+                mActive = allocate();
+                mWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        write(last);
+                    }
+                });
+            }
+        }
+        // the writer thread runs its tasks in order, so the new file is opened after the pending writes
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileChannel channel = mChannel;
+                try {
+                    if (channel != null) {
+                        channel.force(false);
+                        channel.close();
+                    }
+                    mChannel = open(next);
+                } catch (IOException e) {
+                    Log.e(TAG, "Rotating to " + next + " failed", e);
+                    mChannel = null;
+                    // the samples received since the rotation cannot be written
+                    fail(e);
+                }
+            }
+        });
+        return previous;
+    }
+
+    /**
+     * Stops recording, and writes the remaining samples, syncs and closes the file on the writer thread, without
+     * waiting for it
+     * @param onClosed listener notified on the writer thread once the file is closed, or <code>null</code>
+     */
+    public void close(final CompletionListener onClosed) {
+        synchronized (this) {
+            if (mClosed) {
+                if (onClosed != null) {
+                    onClosed.onComplete(this, null);
+                }
+                return;
+            }
+            mClosed = true;
+            mFlushTask.cancel(false);
+            mSyncTask.cancel(false);
+            if (mActive.position() > 0) {
+                if (mSpare == null) {
+                    // write the active buffer after the one being written
+                    final ByteBuffer last = mActive;
+                    mWriter.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            write(last);
+                        }
+                    });
+                } else {
+                    submitActive();
+                }
+            }
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                if (mChannel != null) {
+                    try {
+                        mChannel.force(false);
+                        mChannel.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Closing " + mFile + " failed", e);
+                        error = e;
+                    }
+                    mChannel = null;
+                }
+                if (onClosed != null) {
+                    onClosed.onComplete(SensorRecorder.this, error);
+                }
+            }
+        });
+        // the tasks already submitted still run
+        mWriter.shutdown();
+    }
+
+    /**
+     * @return the file currently recorded to
+     */
+    public synchronized File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return number of samples recorded since the recorder was constructed, excluding the samples which could not
+     * be written
+     */
+    public synchronized long getRecords() {
+        return mRecords;
+    }
+
+    /**
+     * @return number of samples dropped because the disk could not keep up, or the file could not be written
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return the first error creating or writing a file, <code>null</code> if there was none
+     */
+    public synchronized IOException getError() {
+        return mError;
+    }
+}
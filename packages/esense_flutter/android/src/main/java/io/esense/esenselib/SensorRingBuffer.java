@@ -0,0 +1,150 @@
+package io.esense.esenselib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-capacity ring buffer of sensor samples, stored in primitive arrays.
+ * <p>
+ * The buffer can be registered as the sensor listener of a manager with
+ * {@link ESenseManager#registerSensorListener(ESenseSensorListener, int)}, and then drained in bulk by the consumer
+ * at its own pace. What happens when a sample arrives while the buffer is full is given by its {@link OverflowPolicy}.
+ * </p>
+ *
+ * <p>
+ *     Samples are drained as little-endian records of {@link #RECORD_SIZE} bytes: timestamp (int64),
+ *     sample timestamp (int64), packet index (int32), accel x, y, z (int16) and gyro x, y, z (int16).
+ * </p>
+ */
+public class SensorRingBuffer implements ESenseSensorListener {
+
+    /**
+     * Size in bytes of a drained sample
+     */
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * What to do with a new sample when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /** overwrite the oldest sample */
+        DROP_OLDEST,
+        /** discard the new sample */
+        DROP_NEWEST
+        // there is no blocking policy: samples arrive on the GATT callback thread, shared by all the listeners
+    }
+
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+    private final long[] mTimestamps;
+    private final long[] mSampleTimestamps;
+    private final int[] mPacketIndices;
+    private final short[] mAccel;
+    private final short[] mGyro;
+
+    private int mHead;  // index of the oldest sample
+    private int mSize;
+    private long mDropped;
+
+    /**
+     * Constructs a ring buffer
+     * @param capacity maximum number of samples held
+     * @param policy overflow policy
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public SensorRingBuffer(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, but is " + capacity);
+        }
+        mCapacity = capacity;
+        mPolicy = policy;
+        mTimestamps = new long[capacity];
+        mSampleTimestamps = new long[capacity];
+        mPacketIndices = new int[capacity];
+        mAccel = new short[capacity * 3];
+        mGyro = new short[capacity * 3];
+    }
+
+    /**
+     * Copies the sample into the buffer
+     * @param evt object containing the sensor samples received
+     */
+    @Override
+    public synchronized void onSensorChanged(ESenseEvent evt) {
+        if (mSize == mCapacity) {
+            switch (mPolicy) {
+                case DROP_OLDEST:
+                    mHead = (mHead + 1) % mCapacity;
+                    mSize--;
+                    mDropped++;
+                    break;
+                case DROP_NEWEST:
+                    mDropped++;
+                    return;
+            }
+        }
+
+        int i = (mHead + mSize) % mCapacity;
+        short[] accel = evt.getAccel();
+        short[] gyro = evt.getGyro();
+        mTimestamps[i] = evt.getTimestamp();
+        mSampleTimestamps[i] = evt.getSampleTimestamp();
+        mPacketIndices[i] = evt.getPacketIndex();
+        System.arraycopy(accel, 0, mAccel, i * 3, 3);
+        System.arraycopy(gyro, 0, mGyro, i * 3, 3);
+        mSize++;
+    }
+
+    /**
+     * Removes the oldest samples from the buffer and writes them as records into a byte array
+     * @param maxSamples maximum number of samples to drain
+     * @return the drained records, {@link #RECORD_SIZE} bytes per sample
+     * @throws IllegalArgumentException if the maximum number of samples is negative
+     */
+    public synchronized byte[] drain(int maxSamples) {
+        if (maxSamples < 0) {
+            throw new IllegalArgumentException("maxSamples must not be negative, but is " + maxSamples);
+        }
+        int count = Math.min(mSize, maxSamples);
+        ByteBuffer out = ByteBuffer.allocate(count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int n = 0; n < count; n++) {
+            int i = mHead;
+            out.putLong(mTimestamps[i])
+                    .putLong(mSampleTimestamps[i])
+                    .putInt(mPacketIndices[i])
+                    .putShort(mAccel[i * 3]).putShort(mAccel[i * 3 + 1]).putShort(mAccel[i * 3 + 2])
+                    .putShort(mGyro[i * 3]).putShort(mGyro[i * 3 + 1]).putShort(mGyro[i * 3 + 2]);
+            mHead = (mHead + 1) % mCapacity;
+        }
+        mSize -= count;
+        return out.array();
+    }
+
+    /**
+     * Discards all samples and resets the drop counter
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        mDropped = 0;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return number of samples dropped because the buffer was full
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+}
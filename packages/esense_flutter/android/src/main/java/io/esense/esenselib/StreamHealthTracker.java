@@ -0,0 +1,196 @@
+package io.esense.esenselib;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the health of a sensor stream.
+ * <p>
+ * The eSense packet index is only 8 bits, so it wraps at 256. The tracker unwraps it into a continuous sequence
+ * number, using the arrival time to tell a wraparound from a burst of more than 255 lost packets, and counts the
+ * packets dropped in each gap. From the sequence number and the configured sampling rate it reconstructs evenly
+ * spaced sample timestamps, which are not affected by bursty BLE delivery.
+ * </p>
+ *
+ * <p>
+ *     Rolling histograms of inter-arrival jitter and gap sizes are kept over the last {@link #WINDOW_SECONDS} seconds.
+ * </p>
+ */
+public class StreamHealthTracker {
+
+    /**
+     * Length of the rolling window in seconds
+     */
+    public static final int WINDOW_SECONDS = 10;
+
+    /**
+     * Upper bounds (inclusive, in milliseconds) of the jitter histogram buckets. The last bucket is unbounded.
+     */
+    public static final int[] JITTER_BUCKETS = {5, 10, 20, 50, 100, 200, 500};
+
+    /**
+     * Upper bounds (inclusive, in packets) of the gap size histogram buckets. The last bucket is unbounded.
+     */
+    public static final int[] GAP_BUCKETS = {1, 2, 4, 8, 16, 32};
+
+    private final int[][] mJitter = new int[WINDOW_SECONDS][JITTER_BUCKETS.length + 1];
+    private final int[][] mGaps = new int[WINDOW_SECONDS][GAP_BUCKETS.length + 1];
+    private final long[] mSlotSecond = new long[WINDOW_SECONDS];
+
+    private int mSamplingRate;
+    private double mPeriod;
+    private boolean mStarted;
+    private int mLastIndex;
+    private long mLastArrival;
+    private long mFirstArrival;
+    private long mSequence;
+
+    private long mReceived;
+    private long mDropped;
+    private long mDuplicates;
+
+    /**
+     * Resets the tracker for a new sensor stream
+     * @param samplingRate sampling rate configured on the device in Hz
+     */
+    public synchronized void reset(int samplingRate) {
+        mSamplingRate = samplingRate;
+        mPeriod = 1000.0 / samplingRate;
+        mStarted = false;
+        mSequence = 0;
+        mReceived = 0;
+        mDropped = 0;
+        mDuplicates = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            clearSlot(i, -1);
+        }
+    }
+
+    /**
+     * Accounts for a received sensor packet, and sets its sequence number and reconstructed sample timestamp
+     * @param evt event decoded from the packet, with the arrival timestamp set
+     * @return <code>false</code> if the packet is a duplicate of the previous one,
+     *         <code>true</code> otherwise
+     */
+    synchronized boolean onPacket(ESenseEvent evt) {
+        long arrival = evt.getTimestamp();
+        int index = evt.getPacketIndex();
+
+        if (!mStarted) {
+            mStarted = true;
+            mFirstArrival = arrival;
+        } else {
+            int delta = (index - mLastIndex) & 0xff;
+            if (delta == 0) {
+                mDuplicates++;
+                return false;
+            }
+
+            // the number of 256-packet wraps that best explains the time elapsed since the last packet
+            long interArrival = arrival - mLastArrival;
+            long wraps = Math.max(0, Math.round((interArrival / mPeriod - delta) / 256.0));
+            long step = delta + 256 * wraps;
+
+            int[] jitter = slot(arrival, mJitter);
+            jitter[bucket(JITTER_BUCKETS, Math.abs(interArrival - step * mPeriod))]++;
+            if (step > 1) {
+                mDropped += step - 1;
+                slot(arrival, mGaps)[bucket(GAP_BUCKETS, step - 1)]++;
+            }
+            mSequence += step;
+        }
+
+        mReceived++;
+        mLastIndex = index;
+        mLastArrival = arrival;
+        evt.setSequenceNumber(mSequence);
+        evt.setSampleTimestamp(mFirstArrival + Math.round(mSequence * mPeriod));
+        return true;
+    }
+
+    public synchronized int getSamplingRate() {
+        return mSamplingRate;
+    }
+
+    /**
+     * @return number of packets received since the stream was started
+     */
+    public synchronized long getReceived() {
+        return mReceived;
+    }
+
+    /**
+     * @return number of packets lost since the stream was started
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return number of duplicate packets received since the stream was started
+     */
+    public synchronized long getDuplicates() {
+        return mDuplicates;
+    }
+
+    /**
+     * @return fraction of packets lost since the stream was started
+     */
+    public synchronized double getLossRatio() {
+        long expected = mReceived + mDropped;
+        return expected == 0 ? 0 : (double) mDropped / expected;
+    }
+
+    /**
+     * Rolling histogram of the deviation between the inter-arrival time and the sampling period,
+     * bucketed by {@link #JITTER_BUCKETS}
+     * @param now current time in milliseconds
+     * @return counts per bucket over the last {@link #WINDOW_SECONDS} seconds
+     */
+    public synchronized int[] getJitterHistogram(long now) {
+        return sumWindow(mJitter, now);
+    }
+
+    /**
+     * Rolling histogram of the number of consecutive packets lost in each gap, bucketed by {@link #GAP_BUCKETS}
+     * @param now current time in milliseconds
+     * @return counts per bucket over the last {@link #WINDOW_SECONDS} seconds
+     */
+    public synchronized int[] getGapHistogram(long now) {
+        return sumWindow(mGaps, now);
+    }
+
+    private int[] slot(long time, int[][] histograms) {
+        long second = time / 1000;
+        int i = (int) (second % WINDOW_SECONDS);
+        if (mSlotSecond[i] != second) {
+            clearSlot(i, second);
+        }
+        return histograms[i];
+    }
+
+    private void clearSlot(int i, long second) {
+        mSlotSecond[i] = second;
+        Arrays.fill(mJitter[i], 0);
+        Arrays.fill(mGaps[i], 0);
+    }
+
+    private int[] sumWindow(int[][] histograms, long now) {
+        long second = now / 1000;
+        int[] sum = new int[histograms[0].length];
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (mSlotSecond[i] > second - WINDOW_SECONDS && mSlotSecond[i] <= second) {
+                for (int b = 0; b < sum.length; b++) {
+                    sum[b] += histograms[i][b];
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static int bucket(int[] bounds, double value) {
+        for (int b = 0; b < bounds.length; b++) {
+            if (value <= bounds[b]) return b;
+        }
+        return bounds.length;
+    }
+}
@@ -0,0 +1,185 @@
+package io.esense.esenselib;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * Connection settings suited to streaming sensor samples at a given rate within a given latency budget.
+ * <p>
+ * A profile is applied with {@link ESenseManager#applyStreamingProfile(StreamingProfile, Callback)}, which requests
+ * the connection priority and the MTU from the phone, and writes the connection interval to the eSense device.
+ * The settings actually obtained are reported in a {@link Result}.
+ * </p>
+ *
+ * <p>
+ *     The connection interval is chosen so that at most {@link #SAMPLES_PER_CONNECTION_EVENT} samples are waiting
+ *     for a connection event, since many phones only accept a few notifications per event, and so that a sample
+ *     never waits longer than the latency budget.
+ * </p>
+ */
+public class StreamingProfile {
+
+    /**
+     * Maximum number of sensor notifications expected to be delivered in a single connection event
+     */
+    public static final int SAMPLES_PER_CONNECTION_EVENT = 4;
+
+    /**
+     * Minimum connection interval in milliseconds accepted by the eSense device
+     */
+    public static final int MIN_CONNECTION_INTERVAL = 20;
+
+    /**
+     * Maximum connection interval in milliseconds accepted by the eSense device
+     */
+    public static final int MAX_CONNECTION_INTERVAL = 2000;
+
+    /**
+     * Default MTU of a BLE connection
+     */
+    public static final int DEFAULT_MTU = 23;
+
+    /**
+     * MTU requested for high-rate streaming, the largest payload fitting a single link-layer packet with data
+     * length extension
+     */
+    public static final int STREAMING_MTU = 247;
+
+    /**
+     * Callback fired once the profile has been applied
+     */
+    public interface Callback {
+        void onStreamingProfileApplied(Result result);
+    }
+
+    private final int mSamplingRate;
+    private final int mLatencyBudget;
+    private final int mConnectionPriority;
+    private final int mMtu;
+    private final int mMinConnectionInterval;
+    private final int mMaxConnectionInterval;
+
+    /**
+     * Constructs a streaming profile
+     * @param samplingRate sensor sampling rate in Hz (min: 1 - max: 100)
+     * @param latencyBudget maximum time in milliseconds a sample may wait before it is sent
+     */
+    public StreamingProfile(int samplingRate, int latencyBudget) {
+        mSamplingRate = samplingRate;
+        mLatencyBudget = latencyBudget;
+
+        int interval = Math.min(latencyBudget, SAMPLES_PER_CONNECTION_EVENT * 1000 / Math.max(1, samplingRate));
+        // multiples of 5 ms are exact in the 1.25 ms units of the device
+        interval = interval / 5 * 5;
+        // the device needs a window of at least 20 ms between the minimum and maximum intervals
+        mMaxConnectionInterval = Math.max(2 * MIN_CONNECTION_INTERVAL, Math.min(MAX_CONNECTION_INTERVAL, interval));
+        mMinConnectionInterval = mMaxConnectionInterval - MIN_CONNECTION_INTERVAL;
+
+        if (samplingRate >= 50 || latencyBudget < 100) {
+            mConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+            mMtu = STREAMING_MTU;
+        } else if (samplingRate <= 10 && latencyBudget >= 500) {
+            mConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+            mMtu = DEFAULT_MTU;
+        } else {
+            mConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+            mMtu = DEFAULT_MTU;
+        }
+    }
+
+    public int getSamplingRate() {
+        return mSamplingRate;
+    }
+
+    public int getLatencyBudget() {
+        return mLatencyBudget;
+    }
+
+    /**
+     * @return connection priority requested from the phone, one of the <code>BluetoothGatt.CONNECTION_PRIORITY_*</code> values
+     */
+    public int getConnectionPriority() {
+        return mConnectionPriority;
+    }
+
+    /**
+     * @return MTU requested from the phone, no request is made if it is the default MTU
+     */
+    public int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * @return minimum connection interval written to the device (unit: milliseconds)
+     */
+    public int getMinConnectionInterval() {
+        return mMinConnectionInterval;
+    }
+
+    /**
+     * @return maximum connection interval written to the device (unit: milliseconds)
+     */
+    public int getMaxConnectionInterval() {
+        return mMaxConnectionInterval;
+    }
+
+    /**
+     * The settings obtained when applying a streaming profile
+     */
+    public static class Result {
+        private final StreamingProfile mProfile;
+        private final boolean mPriorityAccepted;
+        private final int mMtu;
+        private final int mMinConnectionInterval;
+        private final int mMaxConnectionInterval;
+
+        Result(StreamingProfile profile, boolean priorityAccepted, int mtu, int minConnectionInterval, int maxConnectionInterval) {
+            mProfile = profile;
+            mPriorityAccepted = priorityAccepted;
+            mMtu = mtu;
+            mMinConnectionInterval = minConnectionInterval;
+            mMaxConnectionInterval = maxConnectionInterval;
+        }
+
+        public StreamingProfile getProfile() {
+            return mProfile;
+        }
+
+        /**
+         * @return <code>true</code> if the phone accepted the connection priority request
+         */
+        public boolean isPriorityAccepted() {
+            return mPriorityAccepted;
+        }
+
+        /**
+         * @return MTU of the connection
+         */
+        public int getMtu() {
+            return mMtu;
+        }
+
+        /**
+         * @return minimum connection interval read back from the device (unit: milliseconds), -1 if unknown
+         */
+        public int getMinConnectionInterval() {
+            return mMinConnectionInterval;
+        }
+
+        /**
+         * @return maximum connection interval read back from the device (unit: milliseconds), -1 if unknown
+         */
+        public int getMaxConnectionInterval() {
+            return mMaxConnectionInterval;
+        }
+
+        /**
+         * @return <code>true</code> if all the settings of the profile were obtained
+         */
+        public boolean isComplete() {
+            return mPriorityAccepted
+                    && mMtu >= mProfile.getMtu()
+                    && mMinConnectionInterval == mProfile.getMinConnectionInterval()
+                    && mMaxConnectionInterval == mProfile.getMaxConnectionInterval();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.esense.esenselib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FeatureExtractorTest {
+    private final List<double[]> vectors = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+
+    private FeatureExtractor extractor(int windowSize, int hopSize) {
+        return new FeatureExtractor(windowSize, hopSize, new FeatureExtractor.Listener() {
+            @Override
+            public void onFeatures(long timestamp, double[] features, boolean calibrated) {
+                assertFalse(calibrated);
+                timestamps.add(timestamp);
+                vectors.add(features.clone());
+            }
+        });
+    }
+
+    private static void add(FeatureExtractor extractor, long timestamp, int x, int y, int z) {
+        ESenseEvent evt = new ESenseEvent(new short[]{(short) x, (short) y, (short) z}, new short[3]);
+        evt.setSampleTimestamp(timestamp);
+        extractor.onSensorChanged(evt);
+    }
+
+    private static double feature(double[] features, int channel, int feature) {
+        return features[channel * FeatureExtractor.FEATURES_PER_CHANNEL + feature];
+    }
+
+    @Test
+    void rejectsTooSmallWindows() {
+        assertThrows(IllegalArgumentException.class, () -> extractor(2, 1));
+        assertThrows(IllegalArgumentException.class, () -> extractor(3, 0));
+    }
+
+    @Test
+    void emitsEveryHopOnceTheWindowIsFull() {
+        FeatureExtractor extractor = extractor(4, 2);
+        for (int i = 1; i <= 8; i++) {
+            add(extractor, i, i, 0, 0);
+        }
+        assertEquals(3, vectors.size());
+        assertEquals(4L, (long) timestamps.get(0));
+        assertEquals(8L, (long) timestamps.get(2));
+    }
+
+    @Test
+    void computesTheStatisticsOfTheSlidingWindow() {
+        FeatureExtractor extractor = extractor(4, 1);
+        int[] xs = {7, 1, 3, 4, 6, 9};
+        for (int i = 0; i < xs.length; i++) {
+            add(extractor, i, xs[i], 0, 0);
+        }
+        // the window holds 3, 4, 6, 9
+        double[] features = vectors.get(vectors.size() - 1);
+        assertEquals(5.5, feature(features, 0, FeatureExtractor.MEAN), 1e-9);
+        assertEquals(5.25, feature(features, 0, FeatureExtractor.VARIANCE), 1e-9);
+        assertEquals(35.5, feature(features, 0, FeatureExtractor.ENERGY), 1e-9);
+    }
+
+    @Test
+    void computesTheMagnitude() {
+        FeatureExtractor extractor = extractor(3, 1);
+        for (int i = 0; i < 3; i++) {
+            add(extractor, i, 3, 4, 0);
+        }
+        assertEquals(5, feature(vectors.get(0), 3, FeatureExtractor.MEAN), 1e-9);
+        assertEquals(0, feature(vectors.get(0), 3, FeatureExtractor.VARIANCE), 1e-9);
+    }
+
+    @Test
+    void countsZeroCrossingsAndPeaksInTheWindow() {
+        FeatureExtractor extractor = extractor(4, 1);
+        for (int i = 0; i < 8; i++) {
+            add(extractor, i, (i % 2 == 0) ? 100 : -100, 0, 0);
+        }
+        // every sample of the window crosses the detrended baseline
+        assertEquals(4, feature(vectors.get(vectors.size() - 1), 0, FeatureExtractor.ZERO_CROSSINGS), 0);
+
+        vectors.clear();
+        extractor.reset();
+        int[] xs = {0, 0, 0, 0, 0, 100, 0, 0};
+        for (int i = 0; i < xs.length; i++) {
+            add(extractor, i, xs[i], 0, 0);
+        }
+        assertEquals(1, feature(vectors.get(vectors.size() - 1), 0, FeatureExtractor.PEAKS), 0);
+    }
+}
@@ -0,0 +1,63 @@
+package io.esense.esenselib;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SensorCalibrationTest {
+    private static final ESenseConfig CONFIG = new ESenseConfig(ESenseConfig.AccRange.G_4,
+            ESenseConfig.GyroRange.DEG_500, ESenseConfig.AccLPF.BW_5, ESenseConfig.GyroLPF.BW_5);
+
+    private static ESenseEvent sample(short[] accel, short[] gyro) {
+        return new ESenseEvent(accel, gyro);
+    }
+
+    @Test
+    void scalesTheAccelerationToG() {
+        SensorCalibration calibration = new SensorCalibration(CONFIG, null);
+        double[] data = new double[3];
+        calibration.convertAcc(sample(new short[]{8192, -4096, 0}, new short[3]), data, 0);
+        assertArrayEquals(new double[]{1, -0.5, 0}, data, 1e-12);
+        assertNull(calibration.getAccelerometerOffset());
+    }
+
+    @Test
+    void subtractsTheFactoryOffsets() {
+        // the offsets are given in the +-16g format, in which 1g = 2048
+        SensorCalibration calibration = new SensorCalibration(CONFIG, new int[]{1024, -512, 2048});
+        double[] data = new double[3];
+        calibration.convertAcc(sample(new short[]{8192, 0, 8192}, new short[3]), data, 0);
+        assertArrayEquals(new double[]{0.5, 0.25, 0}, data, 1e-12);
+    }
+
+    @Test
+    void scalesTheRotationalSpeedToDegreesPerSecond() {
+        SensorCalibration calibration = new SensorCalibration(CONFIG, new int[]{1024, 0, 0});
+        double[] data = new double[3];
+        calibration.convertGyro(sample(new short[3], new short[]{131, -655, 0}), data, 0);
+        // the offsets only apply to the acceleration
+        assertArrayEquals(new double[]{2, -10, 0}, data, 1e-12);
+    }
+
+    @Test
+    void writesAtTheGivenPosition() {
+        SensorCalibration calibration = new SensorCalibration(CONFIG, null);
+        ESenseEvent evt = sample(new short[]{8192, 8192, 8192}, new short[]{655, 655, 655});
+        double[] data = new double[8];
+        calibration.convertAcc(evt, data, 1);
+        calibration.convertGyro(evt, data, 4);
+        assertArrayEquals(new double[]{0, 1, 1, 1, 10, 10, 10, 0}, data, 1e-12);
+    }
+
+    @Test
+    void matchesItsConfigurationAndOffsets() {
+        int[] offset = {1, 2, 3};
+        SensorCalibration calibration = new SensorCalibration(CONFIG, offset);
+        assertTrue(calibration.isFor(CONFIG, offset));
+        assertFalse(calibration.isFor(CONFIG, new int[]{1, 2, 3}));
+        assertFalse(calibration.isFor(new ESenseConfig(), offset));
+    }
+}
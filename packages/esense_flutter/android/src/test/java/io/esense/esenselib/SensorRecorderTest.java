@@ -0,0 +1,194 @@
+package io.esense.esenselib;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SensorRecorderTest {
+    private File directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("esense").toFile();
+    }
+
+    @AfterEach
+    void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    private static ESenseEvent sample(int index) {
+        ESenseEvent evt = new ESenseEvent(
+                new short[]{(short) index, (short) -index, 1000},
+                new short[]{(short) (10 * index), 20, (short) -30});
+        evt.setPacketIndex(index);
+        evt.setTimestamp(1_000_000 + 20 * index);
+        evt.setSampleTimestamp(2_000_000 + 20 * index);
+        return evt;
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "timed out");
+    }
+
+    private static void close(SensorRecorder recorder) throws InterruptedException {
+        final CountDownLatch closed = new CountDownLatch(1);
+        recorder.close(new SensorRecorder.CompletionListener() {
+            @Override
+            public void onComplete(SensorRecorder recorder, IOException error) {
+                assertNull(error);
+                closed.countDown();
+            }
+        });
+        await(closed);
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void assertRecord(ByteBuffer buffer, int index) {
+        assertEquals(1_000_000 + 20 * index, buffer.getLong());
+        assertEquals(2_000_000 + 20 * index, buffer.getLong());
+        assertEquals(index, buffer.getInt());
+        assertEquals(index, buffer.getShort());
+        assertEquals(-index, buffer.getShort());
+        assertEquals(1000, buffer.getShort());
+        assertEquals(10 * index, buffer.getShort());
+        assertEquals(20, buffer.getShort());
+        assertEquals(-30, buffer.getShort());
+    }
+
+    @Test
+    void writesTheHeaderAndTheRecords() throws Exception {
+        File file = new File(directory, "session.esr");
+        ESenseConfig config = new ESenseConfig(ESenseConfig.AccRange.G_4, ESenseConfig.GyroRange.DEG_500,
+                ESenseConfig.AccLPF.BW_5, ESenseConfig.GyroLPF.BW_5);
+        final CountDownLatch opened = new CountDownLatch(1);
+        long before = System.currentTimeMillis();
+        SensorRecorder recorder = new SensorRecorder(file, 50, config, new SensorRecorder.CompletionListener() {
+            @Override
+            public void onComplete(SensorRecorder recorder, IOException error) {
+                assertNull(error);
+                opened.countDown();
+            }
+        });
+        await(opened);
+        for (int i = 0; i < 3; i++) {
+            recorder.onSensorChanged(sample(i));
+        }
+        close(recorder);
+
+        ByteBuffer buffer = read(file);
+        assertEquals(SensorRecorder.HEADER_SIZE + 3 * SensorRecorder.RECORD_SIZE, buffer.remaining());
+        assertEquals(SensorRecorder.MAGIC, buffer.getInt());
+        assertEquals(SensorRecorder.VERSION, buffer.getShort());
+        assertEquals(SensorRecorder.RECORD_SIZE, buffer.getShort());
+        assertEquals(50, buffer.getInt());
+        assertEquals(8192, buffer.getFloat(), 0);
+        assertEquals(65.5, buffer.getFloat(), 0);
+        long start = buffer.getLong();
+        assertTrue(start >= before && start <= System.currentTimeMillis());
+        assertEquals(0, buffer.getInt());
+        for (int i = 0; i < 3; i++) {
+            assertRecord(buffer, i);
+        }
+        assertEquals(3, recorder.getRecords());
+        assertEquals(0, recorder.getDropped());
+    }
+
+    @Test
+    void writesZeroFactorsWithoutAConfig() throws Exception {
+        File file = new File(directory, "session.esr");
+        close(new SensorRecorder(file, 10, null, null));
+
+        ByteBuffer buffer = read(file);
+        assertEquals(SensorRecorder.HEADER_SIZE, buffer.remaining());
+        assertEquals(0, buffer.getFloat(12), 0);
+        assertEquals(0, buffer.getFloat(16), 0);
+    }
+
+    @Test
+    void rotatesToANewFile() throws Exception {
+        File first = new File(directory, "first.esr");
+        File second = new File(directory, "second.esr");
+        SensorRecorder recorder = new SensorRecorder(first, 50, null, null);
+        recorder.onSensorChanged(sample(0));
+        recorder.onSensorChanged(sample(1));
+        assertEquals(first, recorder.rotate(second));
+        assertEquals(second, recorder.getFile());
+        recorder.onSensorChanged(sample(2));
+        close(recorder);
+
+        ByteBuffer buffer = read(first);
+        assertEquals(SensorRecorder.HEADER_SIZE + 2 * SensorRecorder.RECORD_SIZE, buffer.remaining());
+        buffer.position(SensorRecorder.HEADER_SIZE);
+        assertRecord(buffer, 0);
+        assertRecord(buffer, 1);
+
+        buffer = read(second);
+        assertEquals(SensorRecorder.HEADER_SIZE + SensorRecorder.RECORD_SIZE, buffer.remaining());
+        assertEquals(SensorRecorder.MAGIC, buffer.getInt());
+        buffer.position(SensorRecorder.HEADER_SIZE);
+        assertRecord(buffer, 2);
+        assertEquals(3, recorder.getRecords());
+    }
+
+    @Test
+    void stopsAndCountsTheDroppedRecordsWhenARotationFails() throws Exception {
+        File first = new File(directory, "first.esr");
+        // the folder of the next file cannot be created, as it is a file
+        File next = new File(first, "next.esr");
+        final CountDownLatch resume = new CountDownLatch(1);
+        SensorRecorder recorder = new SensorRecorder(first, 50, null, new SensorRecorder.CompletionListener() {
+            @Override
+            public void onComplete(SensorRecorder recorder, IOException error) {
+                // hold the writer thread until the samples after the rotation are received
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        recorder.onSensorChanged(sample(0));
+        recorder.rotate(next);
+        recorder.onSensorChanged(sample(1));
+        recorder.onSensorChanged(sample(2));
+        resume.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recorder.getDropped() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, recorder.getDropped());
+        assertEquals(1, recorder.getRecords());
+        assertNotNull(recorder.getError());
+        assertEquals(SensorRecorder.HEADER_SIZE + SensorRecorder.RECORD_SIZE, read(first).remaining());
+
+        // the recorder is closed
+        recorder.onSensorChanged(sample(3));
+        File other = new File(directory, "other.esr");
+        assertEquals(next, recorder.rotate(other));
+        assertEquals(1, recorder.getRecords());
+        assertFalse(other.exists());
+    }
+}
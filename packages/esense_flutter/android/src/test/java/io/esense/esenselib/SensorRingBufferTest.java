@@ -0,0 +1,114 @@
+package io.esense.esenselib;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SensorRingBufferTest {
+
+    private static ESenseEvent sample(int index) {
+        ESenseEvent evt = new ESenseEvent(
+                new short[]{(short) index, (short) -index, 1000},
+                new short[]{(short) (10 * index), 20, (short) -30});
+        evt.setPacketIndex(index);
+        evt.setTimestamp(1_000_000 + 20 * index);
+        evt.setSampleTimestamp(2_000_000 + 20 * index);
+        return evt;
+    }
+
+    private static void fill(SensorRingBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buffer.onSensorChanged(sample(i));
+        }
+    }
+
+    /**
+     * @return the packet indices of the drained records
+     */
+    private static int[] indices(byte[] records) {
+        assertEquals(0, records.length % SensorRingBuffer.RECORD_SIZE);
+        ByteBuffer buffer = ByteBuffer.wrap(records).order(ByteOrder.LITTLE_ENDIAN);
+        int[] indices = new int[records.length / SensorRingBuffer.RECORD_SIZE];
+        for (int n = 0; n < indices.length; n++) {
+            indices[n] = buffer.getInt(n * SensorRingBuffer.RECORD_SIZE + 16);
+        }
+        return indices;
+    }
+
+    @Test
+    void drainsTheRecordLayout() {
+        SensorRingBuffer buffer = new SensorRingBuffer(4, SensorRingBuffer.OverflowPolicy.DROP_OLDEST);
+        fill(buffer, 3, 4);
+
+        ByteBuffer record = ByteBuffer.wrap(buffer.drain(10)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(SensorRingBuffer.RECORD_SIZE, record.remaining());
+        assertEquals(1_000_060, record.getLong());
+        assertEquals(2_000_060, record.getLong());
+        assertEquals(3, record.getInt());
+        assertEquals(3, record.getShort());
+        assertEquals(-3, record.getShort());
+        assertEquals(1000, record.getShort());
+        assertEquals(30, record.getShort());
+        assertEquals(20, record.getShort());
+        assertEquals(-30, record.getShort());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void drainsTheOldestSamplesFirst() {
+        SensorRingBuffer buffer = new SensorRingBuffer(4, SensorRingBuffer.OverflowPolicy.DROP_OLDEST);
+        fill(buffer, 0, 3);
+
+        assertArrayEquals(new int[]{0, 1}, indices(buffer.drain(2)));
+        assertEquals(1, buffer.size());
+        // wraps around the end of the arrays
+        fill(buffer, 3, 6);
+        assertArrayEquals(new int[]{2, 3, 4, 5}, indices(buffer.drain(Integer.MAX_VALUE)));
+        assertEquals(0, buffer.drain(0).length);
+    }
+
+    @Test
+    void overwritesTheOldestSamplesWhenFull() {
+        SensorRingBuffer buffer = new SensorRingBuffer(3, SensorRingBuffer.OverflowPolicy.DROP_OLDEST);
+        fill(buffer, 0, 5);
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.getDropped());
+        assertArrayEquals(new int[]{2, 3, 4}, indices(buffer.drain(10)));
+    }
+
+    @Test
+    void discardsTheNewSamplesWhenFull() {
+        SensorRingBuffer buffer = new SensorRingBuffer(3, SensorRingBuffer.OverflowPolicy.DROP_NEWEST);
+        fill(buffer, 0, 5);
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.getDropped());
+        assertArrayEquals(new int[]{0, 1, 2}, indices(buffer.drain(10)));
+    }
+
+    @Test
+    void clearsTheSamplesAndTheDropCounter() {
+        SensorRingBuffer buffer = new SensorRingBuffer(2, SensorRingBuffer.OverflowPolicy.DROP_OLDEST);
+        fill(buffer, 0, 3);
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getDropped());
+        fill(buffer, 7, 8);
+        assertArrayEquals(new int[]{7}, indices(buffer.drain(10)));
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new SensorRingBuffer(0, SensorRingBuffer.OverflowPolicy.DROP_OLDEST));
+        SensorRingBuffer buffer = new SensorRingBuffer(2, SensorRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertThrows(IllegalArgumentException.class, () -> buffer.drain(-1));
+    }
+}
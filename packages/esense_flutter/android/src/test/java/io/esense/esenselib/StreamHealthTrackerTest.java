@@ -0,0 +1,97 @@
+package io.esense.esenselib;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamHealthTrackerTest {
+    private static final int RATE = 50;  // Hz, a period of 20 ms
+    private static final long START = 1_000_000;
+
+    private StreamHealthTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new StreamHealthTracker();
+        tracker.reset(RATE);
+    }
+
+    private ESenseEvent packet(int index, long arrival) {
+        ESenseEvent evt = new ESenseEvent(new short[3], new short[3]);
+        evt.setPacketIndex(index & 0xff);
+        evt.setTimestamp(arrival);
+        assertTrue(tracker.onPacket(evt));
+        return evt;
+    }
+
+    @Test
+    void reconstructsEvenlySpacedTimestamps() {
+        packet(10, START);
+        packet(11, START + 35);  // delivered late
+        ESenseEvent evt = packet(12, START + 40);
+
+        assertEquals(2, evt.getSequenceNumber());
+        assertEquals(START + 40, evt.getSampleTimestamp());
+        assertEquals(3, tracker.getReceived());
+        assertEquals(0, tracker.getDropped());
+    }
+
+    @Test
+    void unwrapsThePacketIndex() {
+        packet(254, START);
+        packet(255, START + 20);
+        ESenseEvent evt = packet(0, START + 40);
+
+        assertEquals(2, evt.getSequenceNumber());
+        assertEquals(0, tracker.getDropped());
+    }
+
+    @Test
+    void countsTheGaps() {
+        packet(0, START);
+        ESenseEvent evt = packet(4, START + 80);
+
+        assertEquals(4, evt.getSequenceNumber());
+        assertEquals(3, tracker.getDropped());
+        assertEquals(3.0 / 5, tracker.getLossRatio(), 1e-9);
+        // a single gap of 3 packets, in the bucket up to 4
+        assertArrayEquals(new int[]{0, 0, 1, 0, 0, 0, 0}, tracker.getGapHistogram(START + 80));
+    }
+
+    @Test
+    void tellsAWraparoundFromAGapUsingTheArrivalTime() {
+        packet(0, START);
+        // 300 periods elapsed, but the index only advanced by 300 - 256
+        ESenseEvent evt = packet(300, START + 300 * 20);
+
+        assertEquals(300, evt.getSequenceNumber());
+        assertEquals(299, tracker.getDropped());
+        assertEquals(START + 300 * 20, evt.getSampleTimestamp());
+    }
+
+    @Test
+    void dropsDuplicates() {
+        packet(7, START);
+        ESenseEvent duplicate = new ESenseEvent(new short[3], new short[3]);
+        duplicate.setPacketIndex(7);
+        duplicate.setTimestamp(START + 1);
+
+        assertFalse(tracker.onPacket(duplicate));
+        assertEquals(1, tracker.getDuplicates());
+        assertEquals(1, tracker.getReceived());
+    }
+
+    @Test
+    void forgetsTheHistogramsOutsideTheWindow() {
+        packet(0, START);
+        packet(3, START + 60);
+
+        long later = START + (StreamHealthTracker.WINDOW_SECONDS + 1) * 1000L;
+        assertArrayEquals(new int[StreamHealthTracker.GAP_BUCKETS.length + 1], tracker.getGapHistogram(later));
+        assertEquals(2, tracker.getDropped());
+    }
+}
@@ -52,6 +52,7 @@ class ESenseManagerMethodCallHandler: NSObject, FlutterPlugin {
     var connected = false
     var samplingRate = 10  // default 10 Hz.
     var manager:ESenseManager? = nil
+    var deviceName:String? = nil  // tagged to the events, as on Android
     var eSenseConnectionEventStreamHandler:ESenseConnectionEventStreamHandler
     
     init(eSenseConnectionEventStreamHandler: ESenseConnectionEventStreamHandler) {
@@ -69,6 +70,8 @@ class ESenseManagerMethodCallHandler: NSObject, FlutterPlugin {
         case "connect":
             let name = args?["name"]
             if name != nil  {
+                deviceName = name
+                eSenseConnectionEventStreamHandler.deviceName = name
                 manager = ESenseManager(deviceName: name! , listener: eSenseConnectionEventStreamHandler)
                 connected = manager?.connect(timeout: TIMEOUT) ?? false
                 result(connected)
@@ -142,6 +145,17 @@ class ESenseManagerMethodCallHandler: NSObject, FlutterPlugin {
 class ESenseConnectionEventStreamHandler: NSObject, ESenseConnectionListener, FlutterStreamHandler {
     
     var sink: FlutterEventSink?
+    var deviceName: String?
+    
+    /// Sends a connection event of the given type, tagged with the device
+    func send(_ type: String) {
+        var map:Dictionary<String,Any> = Dictionary()
+        map["type"] = type
+        if deviceName != nil {
+            map["deviceId"] = deviceName!
+        }
+        sink?(map)
+    }
     
     /*
      *  FlutterStreamHandler functions below
@@ -162,22 +176,22 @@ class ESenseConnectionEventStreamHandler: NSObject, ESenseConnectionListener, Fl
      */
     
     func onDeviceFound(_ manager: ESenseManager) {
-        sink!("device_found")
+        send("device_found")
     }
     
     func onDeviceNotFound(_ manager: ESenseManager) {
-        sink!("device_not_found")
+        send("device_not_found")
     }
     
     func onConnected(_ manager: ESenseManager) {
         manager.setDeviceReadyHandler { device in
             manager.removeDeviceReadyHandler()
-            self.sink!("connected")
+            self.send("connected")
         }
     }
     
     func onDisconnected(_ manager: ESenseManager) {
-        sink!("disconnected")
+        send("disconnected")
     }
 }
 
@@ -200,6 +214,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         var map:Dictionary<String,Any> = Dictionary()
         map["type"] = "Listen"
         map["success"] = success
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
         return nil
     }
@@ -214,6 +229,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         var map:Dictionary<String,Any> = Dictionary()
         map["type"] = "BatteryRead"
         map["voltage"] = voltage
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
     
@@ -221,6 +237,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         var map:Dictionary<String,Any> = Dictionary()
         map["type"] = "ButtonEventChanged"
         map["pressed"] = pressed
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
     
@@ -231,6 +248,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         map["maxAdvertisementInterval"] = maxAdvertisementInterval
         map["minConnectionInterval"] = minConnectionInterval
         map["maxConnectionInterval"] = maxConnectionInterval
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
     
@@ -238,6 +256,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         var map:Dictionary<String,Any> = Dictionary()
         map["type"] = "DeviceNameRead"
         map["deviceName"] = deviceName
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
     
@@ -245,6 +264,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         var map:Dictionary<String,Any> = Dictionary()
         map["type"] = "SensorConfigRead"
         // right now this event is empty, i.e. we do not serialize and send the config object across
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
     
@@ -254,6 +274,7 @@ class ESenseEventStreamHandler: NSObject, ESenseEventListener, FlutterStreamHand
         map["offsetX"] = offsetX
         map["offsetY"] = offsetY
         map["offsetZ"] = offsetZ
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
 }
@@ -294,6 +315,7 @@ class ESenseSensorEventStreamHandler: NSObject, ESenseSensorListener, FlutterStr
         map["gyro.x"] = evt.getGyro()[0]
         map["gyro.y"] = evt.getGyro()[1]
         map["gyro.z"] = evt.getGyro()[2]
+        map["deviceId"] = eSenseManagerMethodCallHandler?.deviceName
         self.sink!(map)
     }
     
@@ -8,10 +8,14 @@
 library esense;
 
 import 'dart:async';
+import 'dart:io';
+import 'dart:typed_data';
+import 'package:flutter/foundation.dart' show visibleForTesting;
 import 'package:flutter/services.dart';
 
 part 'esense_events.dart';
 part 'esense_config.dart';
+part 'esense_recording.dart';
 
 class ESenseManager {
   static const String ESenseManagerMethodChannelName =
@@ -20,19 +24,39 @@ class ESenseManager {
       'esense.io/esense_connection';
   static const String ESenseEventChannelName = 'esense.io/esense_events';
   static const String ESenseSensorEventChannelName = 'esense.io/esense_sensor';
+  static const String ESenseFeatureEventChannelName =
+      'esense.io/esense_features';
 
   final MethodChannel _eSenseManagerMethodChannel =
       const MethodChannel(ESenseManagerMethodChannelName);
-  final EventChannel _eSenseConnectionEventChannel =
-      const EventChannel(ESenseConnectionEventChannelName);
-  final EventChannel _eSenseEventChannel =
-      const EventChannel(ESenseEventChannelName);
-  final EventChannel _eSenseSensorEventChannel =
-      const EventChannel(ESenseSensorEventChannelName);
+
+  // The event channels are shared by all managers, so each channel is only
+  // listened to once and its events are filtered by the device they are
+  // tagged with. Events sent together in a list on Android are flattened.
+  static final Stream<dynamic> _eSenseConnectionEvents =
+      const EventChannel(ESenseConnectionEventChannelName)
+          .receiveBroadcastStream();
+  static final Stream<dynamic> _eSenseEvents =
+      const EventChannel(ESenseEventChannelName).receiveBroadcastStream();
+  static final Stream<dynamic> _eSenseSensorEvents =
+      const EventChannel(ESenseSensorEventChannelName)
+          .receiveBroadcastStream()
+          .expand(_unbatch);
+  static final Stream<dynamic> _eSenseFeatureEvents =
+      const EventChannel(ESenseFeatureEventChannelName)
+          .receiveBroadcastStream()
+          .expand(_unbatch);
+
+  static Iterable<dynamic> _unbatch(dynamic event) =>
+      event is List ? event : [event];
+
+  // The names of the devices of all the managers created.
+  static final Set<String> _deviceNames = {};
 
   Stream<ConnectionEvent>? _connectionEventStream;
   Stream<ESenseEvent>? _eventStream;
   Stream<SensorEvent>? _sensorStream;
+  Stream<FeatureEvent>? _featureStream;
 
   /// Is this manager connected to an eSense device?
   bool connected = false;
@@ -46,16 +70,45 @@ class ESenseManager {
   int get samplingRate => _samplingRate;
 
   /// Constructs an eSense manager for a device with name [deviceName].
+  ///
+  /// Several managers can be used at the same time to connect to different
+  /// eSense devices, e.g. a left and a right earbud.
   ESenseManager(this.deviceName) {
     assert(deviceName.isNotEmpty,
         'Must provide a valid name of the eSense device to connect to.');
+    _deviceNames.add(deviceName);
   }
 
+  /// Invokes [method] on the native manager of this device.
+  Future<T?> _invoke<T>(String method, [Map<String, dynamic>? arguments]) =>
+      _eSenseManagerMethodChannel.invokeMethod<T>(
+          method, <String, dynamic>{...?arguments, 'name': deviceName});
+
+  /// Is [event] an event of the device named [deviceName], given the
+  /// [deviceNames] of all the managers?
+  ///
+  /// Events tagged with a `deviceId` belong to that device. Untagged events,
+  /// e.g. the connection strings sent by older native plugins, can only be
+  /// attributed when a single device is managed.
+  @visibleForTesting
+  static bool isEventOf(
+      dynamic event, String deviceName, Iterable<String> deviceNames) {
+    if (event is Map && event['deviceId'] != null) {
+      return event['deviceId'] == deviceName;
+    }
+    return deviceNames.length <= 1;
+  }
+
+  bool _isOwnEvent(dynamic event) =>
+      isEventOf(event, deviceName, _deviceNames);
+
   // ------------    METHOD HANDLERS --------------------
 
   /// Initiates a connection scanning procedure.
   ///
-  /// The phone will first scan for the device with the given [deviceName].
+  /// The phone will first scan for the device with the given [deviceName],
+  /// which may also be the MAC address of the device. Scanning is skipped if
+  /// the device has been seen within the last 30 seconds.
   /// Then, if found, it will try to connect.
   /// Different [ConnectionEvent] events of type
   ///
@@ -73,9 +126,7 @@ class ESenseManager {
     _eventStream = null;
     _sensorStream = null;
 
-    return await _eSenseManagerMethodChannel.invokeMethod<bool?>(
-            'connect', <String, dynamic>{'name': deviceName}) ??
-        false;
+    return await _invoke<bool?>('connect') ?? false;
   }
 
   /// Disconnects the device (if connected).
@@ -88,17 +139,39 @@ class ESenseManager {
     _eventStream = null;
     _sensorStream = null;
 
-    return (connected)
-        ? await _eSenseManagerMethodChannel.invokeMethod<bool?>('disconnect') ??
-            false
-        : false;
+    return (connected) ? await _invoke<bool?>('disconnect') ?? false : false;
   }
 
+  /// Sets the policy for reconnecting to the device after an unexpected
+  /// disconnection. Reconnection is enabled by default.
+  ///
+  /// Reconnection is attempted up to [maxAttempts] times, with a delay
+  /// starting at [initialDelay] and doubling up to [maxDelay]. After that, a
+  /// background connection is made, which completes whenever the device is
+  /// back in range.
+  /// Once reconnected, the sensor configuration, sampling and button events
+  /// are resumed, and a [ConnectionType.connected] event is fired.
+  ///
+  /// Returns `true` if the request was successfully made, `false` otherwise.
+  Future<bool> setReconnectPolicy({
+    bool enabled = true,
+    Duration initialDelay = const Duration(milliseconds: 500),
+    Duration maxDelay = const Duration(seconds: 30),
+    int maxAttempts = 5,
+  }) async =>
+      await _invoke<bool?>('setReconnectPolicy', <String, dynamic>{
+        'enabled': enabled,
+        'initialDelay': initialDelay.inMilliseconds,
+        'maxDelay': maxDelay.inMilliseconds,
+        'maxAttempts': maxAttempts,
+      }) ??
+      false;
+
   /// Checks the BTLE connection if the device is connected or not.
   ///
   /// Returns `true` if a device is connected `false` otherwise
-  Future<bool> isConnected() async => connected =
-      await _eSenseManagerMethodChannel.invokeMethod('isConnected') ?? false;
+  Future<bool> isConnected() async =>
+      connected = await _invoke('isConnected') ?? false;
 
   /// Set the sampling rate for sensor sampling in Hz (min: 1 - max: 100)
   /// Default sampling rate is 10 Hz.
@@ -116,11 +189,189 @@ class ESenseManager {
     _samplingRate = rate;
     // for some strange reason, iOS does not accept an int as argument
     // hence, [rate] is converted to a string
-    return await _eSenseManagerMethodChannel.invokeMethod<bool?>(
+    return await _invoke<bool?>(
             'setSamplingRate', <String, dynamic>{'rate': '$rate'}) ??
         false;
   }
 
+  /// Enables batching of sensor events on Android.
+  ///
+  /// When enabled, up to [batchSize] samples are packed into a single binary
+  /// frame on the sensor channel. A frame is sent when it is full, or when its
+  /// oldest sample has waited for [maxLatency].
+  /// Use a [batchSize] of 0 to disable batching (default).
+  /// The [sensorEvents] stream delivers the same events in both modes.
+  ///
+  /// Returns `true` if the request was successfully made, `false` otherwise.
+  ///
+  /// Batching must be set **before** listening is started.
+  Future<bool> setSensorBatching(int batchSize,
+      {Duration maxLatency = const Duration(milliseconds: 100)}) async {
+    assert(batchSize >= 0, 'Batch size cannot be negative.');
+    return await _invoke<bool?>('setSensorBatching', <String, dynamic>{
+          'batchSize': batchSize,
+          'maxLatency': maxLatency.inMilliseconds,
+        }) ??
+        false;
+  }
+
+  /// Sets the sliding window of the [featureEvents] on Android.
+  ///
+  /// Features are computed over the last [windowSize] samples (at least 3),
+  /// and sent every [hopSize] samples. The default window is 50 samples, sent
+  /// every 25 samples.
+  ///
+  /// Returns `true` if the request was successfully made, `false` otherwise.
+  ///
+  /// The window must be set **before** listening is started.
+  Future<bool> setFeatureWindow(int windowSize, {int? hopSize}) async {
+    assert(windowSize >= 3, 'The window must hold at least 3 samples.');
+    return await _invoke<bool?>('setFeatureWindow', <String, dynamic>{
+          'windowSize': windowSize,
+          'hopSize': hopSize ?? (windowSize ~/ 2),
+        }) ??
+        false;
+  }
+
+  /// Enables calibrated values in the sensor events on Android.
+  ///
+  /// When enabled, the [SensorEvent.calibratedAccel] (in g, corrected with
+  /// the factory accelerometer offsets) and [SensorEvent.calibratedGyro]
+  /// (in deg/s) values are computed natively, using the current sensor
+  /// configuration of the device.
+  ///
+  /// Returns `true` if the request was successfully made, `false` otherwise.
+  ///
+  /// Calibration must be set **before** listening is started.
+  Future<bool> setSensorCalibration(bool enabled) async =>
+      await _invoke<bool?>(
+          'setSensorCalibration', <String, dynamic>{'enabled': enabled}) ??
+      false;
+
+  /// Starts recording the samples of the device to a binary file on Android.
+  ///
+  /// Samples are written directly to the file, without passing through
+  /// Flutter, which suits long sessions. The file is written at [path], or
+  /// in the files directory of the app if no path is given.
+  /// Use [ESenseRecording] to read the file.
+  ///
+  /// Returns information on the file, or `null` if recording could not be
+  /// started.
+  Future<RecordingInfo?> startRecording({String? path}) async {
+    if (!connected) {
+      throw ESenseException('Not connected to any eSense device.');
+    }
+    final map = await _invoke<Map<dynamic, dynamic>>(
+        'startRecording', <String, dynamic>{'path': path});
+    return map != null ? RecordingInfo.fromMap(map) : null;
+  }
+
+  /// Closes the current recording file and continues recording to a new
+  /// file, at [path] or in the files directory of the app.
+  ///
+  /// Returns information on the closed file. Its last samples may still be
+  /// being written when this method returns.
+  Future<RecordingInfo?> rotateRecording({String? path}) async {
+    final map = await _invoke<Map<dynamic, dynamic>>(
+        'rotateRecording', <String, dynamic>{'path': path});
+    return map != null ? RecordingInfo.fromMap(map) : null;
+  }
+
+  /// Stops recording, once all samples have been written to the file.
+  ///
+  /// Returns information on the file, or `null` if no recording was started.
+  Future<RecordingInfo?> stopRecording() async {
+    final map = await _invoke<Map<dynamic, dynamic>>('stopRecording');
+    return map != null ? RecordingInfo.fromMap(map) : null;
+  }
+
+  /// Gets the health of the sensor stream since listening was started,
+  /// i.e. the number of received and lost packets and rolling histograms of
+  /// the delivery jitter and gap sizes.
+  Future<StreamHealth?> getStreamHealth() async {
+    if (!connected) {
+      throw ESenseException('Not connected to any eSense device.');
+    }
+    final map = await _invoke<Map<dynamic, dynamic>>('getStreamHealth');
+    return map != null ? StreamHealth.fromMap(map) : null;
+  }
+
+  /// Sets the interval of the periodic [StreamHealth] events on the
+  /// [eSenseEvents] stream. Use [Duration.zero] to disable them (default).
+  ///
+  /// Returns `true` if the request was successfully made, `false` otherwise.
+  Future<bool> setStreamHealthInterval(Duration interval) async =>
+      await _invoke<bool?>('setStreamHealthInterval',
+          <String, dynamic>{'interval': interval.inMilliseconds}) ??
+      false;
+
+  /// Tunes the Bluetooth connection for streaming at [samplingRate] with
+  /// samples waiting at most [latencyBudget] before they are sent.
+  ///
+  /// On Android, this requests a connection priority and an MTU from the
+  /// phone, and writes a matching connection interval to the device (keeping
+  /// its advertisement interval). The settings actually obtained are read back
+  /// and returned, or `null` if the request could not be made.
+  /// The [samplingRate] is also used when listening to [sensorEvents], and on
+  /// Android a sampling stream is restarted at this rate.
+  Future<StreamingProfileResult?> applyStreamingProfile(int samplingRate,
+      {Duration latencyBudget = const Duration(milliseconds: 100)}) async {
+    assert(samplingRate > 0 && samplingRate <= 100,
+        'Must provide a sampling rate between 1 and 100 Hz.');
+    if (!connected) {
+      throw ESenseException('Not connected to any eSense device.');
+    }
+    _samplingRate = samplingRate;
+    final map = await _invoke<Map<dynamic, dynamic>>(
+        'applyStreamingProfile', <String, dynamic>{
+      'samplingRate': samplingRate,
+      'latencyBudget': latencyBudget.inMilliseconds,
+    });
+    return map != null ? StreamingProfileResult.fromMap(map) : null;
+  }
+
+  /// Starts sampling into a ring buffer on the Android side, instead of
+  /// pushing every sample on the [sensorEvents] stream.
+  ///
+  /// The buffer holds at most [capacity] samples, and [policy] decides what
+  /// happens when a sample arrives while it is full. Samples are fetched in
+  /// bulk with [drainSensorBuffer], at the pace of the app.
+  ///
+  /// Returns `true` if sampling was started, `false` otherwise.
+  Future<bool> startSensorBuffer(
+      {int capacity = 6000,
+      BufferOverflowPolicy policy = BufferOverflowPolicy.dropOldest}) async {
+    assert(capacity > 0, 'Capacity must be positive.');
+    if (!connected) {
+      throw ESenseException('Not connected to any eSense device.');
+    }
+    return await _invoke<bool?>('startSensorBuffer', <String, dynamic>{
+          'capacity': capacity,
+          'policy': _policyNames[policy],
+        }) ??
+        false;
+  }
+
+  static const Map<BufferOverflowPolicy, String> _policyNames = {
+    BufferOverflowPolicy.dropOldest: 'DROP_OLDEST',
+    BufferOverflowPolicy.dropNewest: 'DROP_NEWEST',
+  };
+
+  /// Removes up to [maxSamples] of the oldest samples from the ring buffer
+  /// started with [startSensorBuffer]. All samples are drained if
+  /// [maxSamples] is not specified.
+  Future<SensorBufferDrain?> drainSensorBuffer({int? maxSamples}) async {
+    final map = await _invoke<Map<dynamic, dynamic>>('drainSensorBuffer',
+        <String, dynamic>{if (maxSamples != null) 'maxSamples': maxSamples});
+    return map != null ? SensorBufferDrain.fromMap(map) : null;
+  }
+
+  /// Stops sampling into the ring buffer and discards the samples left in it.
+  ///
+  /// Returns `true` if the request was successfully made, `false` otherwise.
+  Future<bool> stopSensorBuffer() async =>
+      await _invoke<bool?>('stopSensorBuffer') ?? false;
+
   /// Requests a read of the name of the connected device.
   ///
   /// The event [DeviceNameRead] is fired when the name has been read.
@@ -129,9 +380,7 @@ class ESenseManager {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel
-            .invokeMethod<bool?>('getDeviceName') ??
-        false;
+    return await _invoke<bool?>('getDeviceName') ?? false;
   }
 
   /// Requests a change of the name of the connected device.
@@ -144,7 +393,7 @@ class ESenseManager {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel.invokeMethod(
+    return await _invoke(
             'setDeviceName', <String, dynamic>{'deviceName': deviceName}) ??
         false;
   }
@@ -157,9 +406,7 @@ class ESenseManager {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel
-            .invokeMethod<bool?>('getBatteryVoltage') ??
-        false;
+    return await _invoke<bool?>('getBatteryVoltage') ?? false;
   }
 
   /// Requests a read of the factory accelerometer offset values of the connected
@@ -171,9 +418,7 @@ class ESenseManager {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel
-            .invokeMethod<bool?>('getAccelerometerOffset') ??
-        false;
+    return await _invoke<bool?>('getAccelerometerOffset') ?? false;
   }
 
   /// Requests a read of the parameter values of advertisement and connection
@@ -186,8 +431,7 @@ class ESenseManager {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel
-            .invokeMethod<bool?>('getAdvertisementAndConnectionInterval') ??
+    return await _invoke<bool?>('getAdvertisementAndConnectionInterval') ??
         false;
   }
 
@@ -212,7 +456,7 @@ class ESenseManager {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel.invokeMethod<bool?>(
+    return await _invoke<bool?>(
             'setAdvertisementAndConnectiontInterval', <String, dynamic>{
           'advMinInterval': advMinInterval,
           'advMaxInterval': advMaxInterval,
@@ -223,30 +467,36 @@ class ESenseManager {
   }
 
   /// Requests a read of the sensor configuration of the connected device.
-  /// Right now not implemented on the Flutter side, i.e. the [ESenseConfig]
-  /// class is empty.
   ///
-  /// The event [SensorConfigRead] is fired when the offset has been read.
+  /// The event [SensorConfigRead] is fired when the configuration has been
+  /// read.
   /// Returns `true` if the request was successfully made, `false` otherwise.
   Future<bool> getSensorConfig() async {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel
-            .invokeMethod<bool?>('getSensorConfig') ??
-        false;
+    return await _invoke<bool?>('getSensorConfig') ?? false;
   }
 
   /// Requests a change of the sensor configuration on the connected device.
   ///
+  /// The configuration is restored when the device is reconnected.
   /// Returns `true` if the request was successfully made, `false` otherwise.
   Future<bool> setSensorConfig(ESenseConfig config) async {
     if (!connected) {
       throw ESenseException('Not connected to any eSense device.');
     }
-    return await _eSenseManagerMethodChannel.invokeMethod<bool?>(
-            'setSensorConfig', config.toMap()) ??
-        false;
+    return await _invoke<bool?>('setSensorConfig', config.toMap()) ?? false;
+  }
+
+  /// Gets the sensor configuration of the connected device as last read from
+  /// or written to the device, without a request to the device.
+  /// The configuration is read when the connection is established.
+  ///
+  /// Returns `null` if the configuration is not known yet.
+  Future<ESenseConfig?> getCurrentSensorConfig() async {
+    final map = await _invoke<Map<dynamic, dynamic>>('getCurrentSensorConfig');
+    return map != null ? ESenseConfig.fromMap(map) : null;
   }
 
   // ------------    STREAM HANDLERS --------------------
@@ -264,9 +514,10 @@ class ESenseManager {
   /// ````
   Stream<ConnectionEvent> get connectionEvents {
     if (_connectionEventStream == null) {
-      _connectionEventStream = _eSenseConnectionEventChannel
-          .receiveBroadcastStream()
-          .map((type) => ConnectionEvent.fromString('$type'));
+      _connectionEventStream = _eSenseConnectionEvents
+          .where(_isOwnEvent)
+          .map((event) => ConnectionEvent.fromString(
+              event is Map ? '${event['type']}' : '$event'));
 
       // listen to the connection event in order to set the [connection] status
       _connectionEventStream?.listen((ConnectionEvent event) {
@@ -297,8 +548,9 @@ class ESenseManager {
       throw ESenseException('Not connected to any eSense device.');
     }
 
-    return _eventStream ??= _eSenseEventChannel.receiveBroadcastStream().map(
-        (event) => event is Map ? ESenseEvent.fromMap(event) : ESenseEvent());
+    return _eventStream ??= _eSenseEvents
+        .where(_isOwnEvent)
+        .map((event) => ESenseEvent.fromMap(event as Map));
   }
 
   /// Get the stream of sensor events.
@@ -313,10 +565,34 @@ class ESenseManager {
       throw ESenseException('Not connected to any eSense device.');
     }
 
-    return _sensorStream ??= _eSenseSensorEventChannel
-        .receiveBroadcastStream()
-        .map((event) =>
-            event is Map ? SensorEvent.fromMap(event) : SensorEvent.empty());
+    return _sensorStream ??=
+        _eSenseSensorEvents.where(_isOwnEvent).expand((event) {
+      if (event is Map && event['type'] == 'SensorBatch') {
+        return SensorEvent.fromBatch(event['frame'] as Uint8List,
+            recordSize: event['recordSize'] as int? ??
+                SensorEvent.batchRecordSize);
+      }
+      return [SensorEvent.fromMap(event as Map)];
+    });
+  }
+
+  /// Get the stream of features computed on Android over a sliding window of
+  /// the sensor samples, instead of the samples themselves.
+  ///
+  /// Use the [setFeatureWindow] method to set the window, and
+  /// [setSensorCalibration] to compute the features from calibrated values.
+  /// Features can be listened to at the same time as [sensorEvents].
+  ///
+  /// Throws an [ESenseException] if not connected to an eSense device.
+  /// Wait until [connected] before using this stream.
+  Stream<FeatureEvent> get featureEvents {
+    if (!connected) {
+      throw ESenseException('Not connected to any eSense device.');
+    }
+
+    return _featureStream ??= _eSenseFeatureEvents
+        .where(_isOwnEvent)
+        .map((event) => FeatureEvent.fromMap(event as Map));
   }
 }
 
@@ -7,6 +7,128 @@
 
 part of esense;
 
+/// Accelerometer full scale range in +-g.
+enum AccRange { g2, g4, g8, g16 }
+
+/// Gyroscope full scale range in +-degrees/second.
+enum GyroRange { deg250, deg500, deg1000, deg2000 }
+
+/// Accelerometer low pass filter configuration.
+/// Each value except [disabled] represents the bandwidth of the filter in Hz.
+enum AccLowPassFilter { bw460, bw184, bw92, bw41, bw20, bw10, bw5, disabled }
+
+/// Gyroscope low pass filter configuration.
+/// Each value except [disabled] represents the bandwidth of the filter in Hz.
+enum GyroLowPassFilter {
+  bw250,
+  bw184,
+  bw92,
+  bw41,
+  bw20,
+  bw10,
+  bw5,
+  bw3600,
+  disabled
+}
+
+/// The configuration of the IMU sensors of an eSense device.
+///
+/// Narrower ranges give a better resolution, and narrower low pass filters
+/// give smoother signals.
 class ESenseConfig {
-  Map<String, dynamic> toMap() => {};
+  // names of the enum values in the eSense Android library, in the same order
+  static const List<String> _accRangeNames = ['G_2', 'G_4', 'G_8', 'G_16'];
+  static const List<String> _gyroRangeNames = [
+    'DEG_250',
+    'DEG_500',
+    'DEG_1000',
+    'DEG_2000'
+  ];
+  static const List<String> _accLPFNames = [
+    'BW_460',
+    'BW_184',
+    'BW_92',
+    'BW_41',
+    'BW_20',
+    'BW_10',
+    'BW_5',
+    'DISABLED'
+  ];
+  static const List<String> _gyroLPFNames = [
+    'BW_250',
+    'BW_184',
+    'BW_92',
+    'BW_41',
+    'BW_20',
+    'BW_10',
+    'BW_5',
+    'BW_3600',
+    'DISABLED'
+  ];
+
+  static const List<double> _accSensitivityFactors = [16384, 8192, 4096, 2048];
+  static const List<double> _gyroSensitivityFactors = [131, 65.5, 32.8, 16.4];
+
+  /// Accelerometer range.
+  AccRange accRange;
+
+  /// Gyroscope range.
+  GyroRange gyroRange;
+
+  /// Accelerometer low pass filter.
+  AccLowPassFilter accLowPassFilter;
+
+  /// Gyroscope low pass filter.
+  GyroLowPassFilter gyroLowPassFilter;
+
+  /// Create a configuration. The default configuration is
+  ///  * accelerometer range +-4g
+  ///  * gyroscope range +-1000 deg/s
+  ///  * accelerometer low pass filter bandwidth 5 Hz
+  ///  * gyroscope low pass filter bandwidth 5 Hz
+  ESenseConfig({
+    this.accRange = AccRange.g4,
+    this.gyroRange = GyroRange.deg1000,
+    this.accLowPassFilter = AccLowPassFilter.bw5,
+    this.gyroLowPassFilter = GyroLowPassFilter.bw5,
+  });
+
+  factory ESenseConfig.fromMap(Map<dynamic, dynamic> map) => ESenseConfig(
+        accRange: AccRange.values[_accRangeNames.indexOf(map['accRange'])],
+        gyroRange:
+            GyroRange.values[_gyroRangeNames.indexOf(map['gyroRange'])],
+        accLowPassFilter:
+            AccLowPassFilter.values[_accLPFNames.indexOf(map['accLPF'])],
+        gyroLowPassFilter:
+            GyroLowPassFilter.values[_gyroLPFNames.indexOf(map['gyroLPF'])],
+      );
+
+  Map<String, dynamic> toMap() => {
+        'accRange': _accRangeNames[accRange.index],
+        'gyroRange': _gyroRangeNames[gyroRange.index],
+        'accLPF': _accLPFNames[accLowPassFilter.index],
+        'gyroLPF': _gyroLPFNames[gyroLowPassFilter.index],
+      };
+
+  /// The accelerometer sensitivity factor, i.e. the raw value of 1g.
+  double get accSensitivityFactor => _accSensitivityFactors[accRange.index];
+
+  /// The gyroscope sensitivity factor, i.e. the raw value of 1 deg/s.
+  double get gyroSensitivityFactor =>
+      _gyroSensitivityFactors[gyroRange.index];
+
+  /// Converts raw accelerometer values to g.
+  List<double> convertAccToG(List<int> accel) =>
+      accel.map((value) => value / accSensitivityFactor).toList();
+
+  /// Converts raw gyroscope values to degrees/second.
+  List<double> convertGyroToDegPerSecond(List<int> gyro) =>
+      gyro.map((value) => value / gyroSensitivityFactor).toList();
+
+  @override
+  String toString() => '$runtimeType - '
+      'accRange: $accRange, '
+      'gyroRange: $gyroRange, '
+      'accLowPassFilter: $accLowPassFilter, '
+      'gyroLowPassFilter: $gyroLowPassFilter';
 }
@@ -48,6 +48,13 @@ class SensorEvent {
   /// Phone timestamp
   DateTime timestamp;
 
+  /// Timestamp reconstructed from the packet sequence and the sampling rate.
+  ///
+  /// Unlike [timestamp], which is the arrival time of the packet on the phone,
+  /// these timestamps are evenly spaced and not affected by bursty Bluetooth
+  /// delivery or lost packets.
+  DateTime? sampleTimestamp;
+
   /// Sequential number of sensor packet
   ///
   /// The eSense device don't have a clock, so this index reflect the order of
@@ -62,11 +69,27 @@ class SensorEvent {
   /// 3-elements array with X, Y and Z axis for gyroscope
   List<int>? gyro;
 
+  /// Acceleration in g on X, Y and Z axis, corrected with the factory
+  /// accelerometer offsets.
+  ///
+  /// Only available when enabled by [ESenseManager.setSensorCalibration] and
+  /// once the sensor configuration of the device is known.
+  List<double>? calibratedAccel;
+
+  /// Rotational speed in degrees/second on X, Y and Z axis.
+  ///
+  /// Only available when enabled by [ESenseManager.setSensorCalibration] and
+  /// once the sensor configuration of the device is known.
+  List<double>? calibratedGyro;
+
   SensorEvent({
     required this.timestamp,
     required this.packetIndex,
+    this.sampleTimestamp,
     this.accel,
     this.gyro,
+    this.calibratedAccel,
+    this.calibratedGyro,
   });
 
   factory SensorEvent.empty() =>
@@ -76,6 +99,7 @@ class SensorEvent {
     DateTime time =
         DateTime.fromMillisecondsSinceEpoch(map['timestamp'] as int);
     int index = map['packetIndex'] as int? ?? -1;
+    int? sampleTime = map['sampleTimestamp'] as int?;
     List<int> accl = [
       map['accel.x'] as int,
       map['accel.y'] as int,
@@ -86,15 +110,91 @@ class SensorEvent {
       map['gyro.y'] as int,
       map['gyro.z'] as int
     ];
+    bool calibrated = map.containsKey('calibratedAccel.x');
 
     return SensorEvent(
       timestamp: time,
       packetIndex: index,
+      sampleTimestamp: sampleTime != null
+          ? DateTime.fromMillisecondsSinceEpoch(sampleTime)
+          : null,
       accel: accl,
       gyro: gyro,
+      calibratedAccel: calibrated
+          ? [
+              map['calibratedAccel.x'] as double,
+              map['calibratedAccel.y'] as double,
+              map['calibratedAccel.z'] as double
+            ]
+          : null,
+      calibratedGyro: calibrated
+          ? [
+              map['calibratedGyro.x'] as double,
+              map['calibratedGyro.y'] as double,
+              map['calibratedGyro.z'] as double
+            ]
+          : null,
     );
   }
 
+  /// Size in bytes of each sample in a binary batch frame.
+  static const int batchRecordSize = 32;
+
+  /// Size in bytes of each sample in a binary batch frame with calibrated
+  /// values.
+  static const int calibratedBatchRecordSize = batchRecordSize + 6 * 4;
+
+  /// Decodes a binary batch frame into a list of sensor events.
+  ///
+  /// Each sample is a little-endian record of [batchRecordSize] bytes:
+  /// timestamp (int64), sample timestamp (int64), packet index (int32),
+  /// accel x, y, z (int16) and gyro x, y, z (int16).
+  /// If [recordSize] is [calibratedBatchRecordSize], each record is followed
+  /// by the calibrated accel x, y, z and gyro x, y, z (float32). Calibrated
+  /// values are NaN for samples received before the sensor configuration was
+  /// known.
+  static List<SensorEvent> fromBatch(Uint8List frame,
+      {int recordSize = batchRecordSize}) {
+    final data =
+        ByteData.view(frame.buffer, frame.offsetInBytes, frame.lengthInBytes);
+    final count = frame.lengthInBytes ~/ recordSize;
+    final calibrated = recordSize >= calibratedBatchRecordSize;
+    return List<SensorEvent>.generate(count, (i) {
+      final offset = i * recordSize;
+      return SensorEvent(
+        timestamp: DateTime.fromMillisecondsSinceEpoch(
+            data.getInt64(offset, Endian.little)),
+        sampleTimestamp: DateTime.fromMillisecondsSinceEpoch(
+            data.getInt64(offset + 8, Endian.little)),
+        packetIndex: data.getInt32(offset + 16, Endian.little),
+        accel: [
+          data.getInt16(offset + 20, Endian.little),
+          data.getInt16(offset + 22, Endian.little),
+          data.getInt16(offset + 24, Endian.little),
+        ],
+        gyro: [
+          data.getInt16(offset + 26, Endian.little),
+          data.getInt16(offset + 28, Endian.little),
+          data.getInt16(offset + 30, Endian.little),
+        ],
+        calibratedAccel: calibrated
+            ? [
+                data.getFloat32(offset + 32, Endian.little),
+                data.getFloat32(offset + 36, Endian.little),
+                data.getFloat32(offset + 40, Endian.little),
+              ]
+            : null,
+        calibratedGyro: calibrated
+            ? [
+                data.getFloat32(offset + 44, Endian.little),
+                data.getFloat32(offset + 48, Endian.little),
+                data.getFloat32(offset + 52, Endian.little),
+              ]
+            : null,
+      );
+    });
+  }
+
   @override
   String toString() =>
       '$runtimeType - timestamp: $timestamp, packetIndex: $packetIndex, accl: [${accel![0]},${accel![1]},${accel![2]}], gyro: [${gyro![0]},${gyro![1]},${gyro![2]}]';
@@ -121,6 +221,8 @@ class ESenseEvent {
         return ButtonEventChanged.fromMap(map);
       case 'SensorConfigRead':
         return SensorConfigRead.fromMap(map);
+      case 'StreamHealth':
+        return StreamHealth.fromMap(map);
       default:
         return ESenseEvent();
     }
@@ -240,17 +342,278 @@ class DeviceNameRead extends ESenseEvent {
   String toString() => '$runtimeType - name: $deviceName';
 }
 
-/// Called when the information on sensor configuration has been received
-///
-/// Currently **NOT** implemented in this Flutter Plugin, i.e. the [ESenseConfig]
-/// class is empty.
+/// Called when the information on sensor configuration has been received,
+/// i.e. after [ESenseManager.getSensorConfig]. The [config] holds the ranges,
+/// low pass filters and sensitivity factors of the sensors.
 class SensorConfigRead extends ESenseEvent {
+  /// The sensor configuration of the device, `null` if the platform does not
+  /// send it (iOS).
   ESenseConfig? config;
 
-  SensorConfigRead() : super();
+  SensorConfigRead([this.config]) : super();
   factory SensorConfigRead.fromMap(Map<dynamic, dynamic> map) =>
-      SensorConfigRead()..config = ESenseConfig();
+      SensorConfigRead(map['config'] != null
+          ? ESenseConfig.fromMap(map['config'] as Map<dynamic, dynamic>)
+          : null);
 
   @override
   String toString() => '$runtimeType - config: $config';
 }
+
+/// Health of the sensor stream since listening was started.
+///
+/// Fired periodically when enabled by [ESenseManager.setStreamHealthInterval]
+/// and returned by [ESenseManager.getStreamHealth].
+class StreamHealth extends ESenseEvent {
+  /// Sampling rate of the stream in Hz
+  int samplingRate;
+
+  /// Number of packets received
+  int received;
+
+  /// Number of packets lost, detected from gaps in the packet index
+  int dropped;
+
+  /// Number of duplicate packets received
+  int duplicates;
+
+  /// Fraction of packets lost
+  double lossRatio;
+
+  /// Length in seconds of the window of the rolling histograms
+  int windowSeconds;
+
+  /// Upper bounds (inclusive, in milliseconds) of the [jitterHistogram]
+  /// buckets. The last bucket is unbounded.
+  List<int> jitterBuckets;
+
+  /// Counts of the deviation between the packet inter-arrival time and the
+  /// sampling period over the last [windowSeconds].
+  List<int> jitterHistogram;
+
+  /// Upper bounds (inclusive, in packets) of the [gapHistogram] buckets.
+  /// The last bucket is unbounded.
+  List<int> gapBuckets;
+
+  /// Counts of the number of consecutive packets lost in each gap over the
+  /// last [windowSeconds].
+  List<int> gapHistogram;
+
+  StreamHealth(
+      this.samplingRate,
+      this.received,
+      this.dropped,
+      this.duplicates,
+      this.lossRatio,
+      this.windowSeconds,
+      this.jitterBuckets,
+      this.jitterHistogram,
+      this.gapBuckets,
+      this.gapHistogram)
+      : super();
+  factory StreamHealth.fromMap(Map<dynamic, dynamic> map) => StreamHealth(
+        map['samplingRate'] as int,
+        map['received'] as int,
+        map['dropped'] as int,
+        map['duplicates'] as int,
+        map['lossRatio'] as double,
+        map['windowSeconds'] as int,
+        List<int>.from(map['jitterBuckets'] as List),
+        List<int>.from(map['jitterHistogram'] as List),
+        List<int>.from(map['gapBuckets'] as List),
+        List<int>.from(map['gapHistogram'] as List),
+      );
+
+  @override
+  String toString() => '$runtimeType - '
+      'received: $received, '
+      'dropped: $dropped, '
+      'duplicates: $duplicates, '
+      'lossRatio: $lossRatio';
+}
+
+/// What to do with a new sample when the sensor ring buffer is full.
+enum BufferOverflowPolicy {
+  /// Overwrite the oldest sample.
+  dropOldest,
+
+  /// Discard the new sample.
+  dropNewest,
+}
+
+/// The samples removed from the sensor ring buffer in one drain.
+class SensorBufferDrain {
+  /// The drained samples, oldest first.
+  List<SensorEvent> events;
+
+  /// Total number of samples dropped because the buffer was full.
+  int dropped;
+
+  /// Number of samples still in the buffer.
+  int remaining;
+
+  SensorBufferDrain(this.events, this.dropped, this.remaining);
+  factory SensorBufferDrain.fromMap(Map<dynamic, dynamic> map) =>
+      SensorBufferDrain(SensorEvent.fromBatch(map['frame'] as Uint8List),
+          map['dropped'] as int, map['remaining'] as int);
+
+  @override
+  String toString() => '$runtimeType - '
+      'events: ${events.length}, '
+      'dropped: $dropped, '
+      'remaining: $remaining';
+}
+
+/// Connection priority requested from the phone by a streaming profile.
+enum ConnectionPriority { balanced, high, lowPower }
+
+/// The settings obtained when applying a streaming profile with
+/// [ESenseManager.applyStreamingProfile].
+class StreamingProfileResult {
+  /// The sampling rate of the profile in Hz.
+  int samplingRate;
+
+  /// The latency budget of the profile.
+  Duration latencyBudget;
+
+  /// The connection priority requested from the phone.
+  ConnectionPriority connectionPriority;
+
+  /// Did the phone accept the connection priority?
+  bool priorityAccepted;
+
+  /// The MTU requested, and the MTU of the connection.
+  int requestedMtu, mtu;
+
+  /// The connection interval written to the device (unit: milliseconds).
+  int requestedMinConnectionInterval, requestedMaxConnectionInterval;
+
+  /// The connection interval read back from the device
+  /// (unit: milliseconds), -1 if unknown.
+  int minConnectionInterval, maxConnectionInterval;
+
+  StreamingProfileResult(
+      this.samplingRate,
+      this.latencyBudget,
+      this.connectionPriority,
+      this.priorityAccepted,
+      this.requestedMtu,
+      this.mtu,
+      this.requestedMinConnectionInterval,
+      this.requestedMaxConnectionInterval,
+      this.minConnectionInterval,
+      this.maxConnectionInterval);
+
+  factory StreamingProfileResult.fromMap(Map<dynamic, dynamic> map) =>
+      StreamingProfileResult(
+          map['samplingRate'] as int,
+          Duration(milliseconds: map['latencyBudget'] as int),
+          ConnectionPriority.values[map['connectionPriority'] as int],
+          map['priorityAccepted'] as bool,
+          map['requestedMtu'] as int,
+          map['mtu'] as int,
+          map['requestedMinConnectionInterval'] as int,
+          map['requestedMaxConnectionInterval'] as int,
+          map['minConnectionInterval'] as int,
+          map['maxConnectionInterval'] as int);
+
+  /// Were all the settings of the profile obtained?
+  bool get complete =>
+      priorityAccepted &&
+      mtu >= requestedMtu &&
+      minConnectionInterval == requestedMinConnectionInterval &&
+      maxConnectionInterval == requestedMaxConnectionInterval;
+
+  @override
+  String toString() => '$runtimeType - '
+      'priority: $connectionPriority (accepted: $priorityAccepted), '
+      'mtu: $mtu, '
+      'connection interval: $minConnectionInterval-$maxConnectionInterval ms';
+}
+
+/// The channels of a [FeatureEvent].
+enum FeatureChannel {
+  accelX,
+  accelY,
+  accelZ,
+  accelMagnitude,
+  gyroX,
+  gyroY,
+  gyroZ,
+  gyroMagnitude,
+}
+
+/// The features of one channel over the window.
+class WindowFeatures {
+  /// Mean value.
+  double mean;
+
+  /// Variance.
+  double variance;
+
+  /// Energy, i.e. the mean of the squared values.
+  double energy;
+
+  /// Number of zero crossings of the signal, detrended by a moving average.
+  int zeroCrossings;
+
+  /// Number of peaks, i.e. local maxima of the detrended signal above one
+  /// standard deviation.
+  int peaks;
+
+  WindowFeatures(
+      this.mean, this.variance, this.energy, this.zeroCrossings, this.peaks);
+
+  @override
+  String toString() => 'mean: $mean, '
+      'variance: $variance, '
+      'energy: $energy, '
+      'zeroCrossings: $zeroCrossings, '
+      'peaks: $peaks';
+}
+
+/// Features computed over a sliding window of sensor samples.
+///
+/// Sent on the [ESenseManager.featureEvents] stream.
+class FeatureEvent {
+  /// Number of features of each channel.
+  static const int featuresPerChannel = 5;
+
+  /// Timestamp of the newest sample in the window.
+  DateTime timestamp;
+
+  /// Number of samples in the window.
+  int windowSize;
+
+  /// Are the features computed from calibrated values (g and deg/s), or from
+  /// raw ADC values?
+  bool calibrated;
+
+  /// All the features, [featuresPerChannel] values per channel in the order
+  /// of [FeatureChannel].
+  Float64List values;
+
+  FeatureEvent(this.timestamp, this.windowSize, this.calibrated, this.values);
+  factory FeatureEvent.fromMap(Map<dynamic, dynamic> map) => FeatureEvent(
+      DateTime.fromMillisecondsSinceEpoch(map['timestamp'] as int),
+      map['windowSize'] as int,
+      map['calibrated'] as bool,
+      map['features'] as Float64List);
+
+  /// The features of a channel.
+  WindowFeatures operator [](FeatureChannel channel) {
+    final offset = channel.index * featuresPerChannel;
+    return WindowFeatures(
+        values[offset],
+        values[offset + 1],
+        values[offset + 2],
+        values[offset + 3].toInt(),
+        values[offset + 4].toInt());
+  }
+
+  @override
+  String toString() => '$runtimeType - '
+      'timestamp: $timestamp, '
+      'windowSize: $windowSize, '
+      'calibrated: $calibrated';
+}
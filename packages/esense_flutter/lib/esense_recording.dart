@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Copenhagen Center for Health Technology (CACHET) at the
+ * Technical University of Denmark (DTU).
+ * Use of this source code is governed by a MIT-style license that can be
+ * found in the LICENSE file.
+ */
+
+part of esense;
+
+/// Information on a recording file, as returned by
+/// [ESenseManager.startRecording], [ESenseManager.rotateRecording] and
+/// [ESenseManager.stopRecording].
+class RecordingInfo {
+  /// Path of the recording file.
+  String path;
+
+  /// Number of samples recorded since recording was started.
+  int records;
+
+  /// Number of samples dropped because the disk could not keep up, or the
+  /// file could not be written.
+  int dropped;
+
+  /// The error which stopped the recording, e.g. when a rotated file could
+  /// not be created, or null.
+  String? error;
+
+  RecordingInfo(this.path, this.records, this.dropped, [this.error]);
+  factory RecordingInfo.fromMap(Map<dynamic, dynamic> map) => RecordingInfo(
+      map['path'] as String,
+      map['records'] as int,
+      map['dropped'] as int,
+      map['error'] as String?);
+
+  @override
+  String toString() => '$runtimeType - '
+      'path: $path, '
+      'records: $records, '
+      'dropped: $dropped'
+      '${error != null ? ', error: $error' : ''}';
+}
+
+/// Reader of a recording file written by [ESenseManager.startRecording].
+///
+/// Records have a fixed size, so any range of samples is read directly from
+/// its position in the file, without reading the samples before it.
+class ESenseRecording {
+  static const int magic = 0x534e5345;
+  static const int headerSize = 32;
+
+  final RandomAccessFile _file;
+
+  /// Version of the file format.
+  final int version;
+
+  /// Size in bytes of each record.
+  final int recordSize;
+
+  /// The sampling rate in Hz when recording was started.
+  final int samplingRate;
+
+  /// The accelerometer sensitivity factor, 0 if it was not known.
+  final double accSensitivityFactor;
+
+  /// The gyroscope sensitivity factor, 0 if it was not known.
+  final double gyroSensitivityFactor;
+
+  /// The time the file was created.
+  final DateTime startTime;
+
+  /// Number of samples in the file.
+  final int length;
+
+  ESenseRecording._(
+      this._file,
+      this.version,
+      this.recordSize,
+      this.samplingRate,
+      this.accSensitivityFactor,
+      this.gyroSensitivityFactor,
+      this.startTime,
+      this.length);
+
+  /// Opens the recording file at [path].
+  ///
+  /// A trailing partial record, e.g. of a file still being written, is
+  /// ignored. Throws a [FormatException] if the file is not a recording.
+  static Future<ESenseRecording> open(String path) async {
+    final file = await File(path).open();
+    final header = ByteData.sublistView(await file.read(headerSize));
+    if (header.lengthInBytes < headerSize ||
+        header.getUint32(0, Endian.little) != magic) {
+      await file.close();
+      throw FormatException('Not an eSense recording', path);
+    }
+    final recordSize = header.getUint16(6, Endian.little);
+    final fileLength = await file.length();
+    return ESenseRecording._(
+      file,
+      header.getUint16(4, Endian.little),
+      recordSize,
+      header.getInt32(8, Endian.little),
+      header.getFloat32(12, Endian.little),
+      header.getFloat32(16, Endian.little),
+      DateTime.fromMillisecondsSinceEpoch(header.getInt64(20, Endian.little)),
+      (fileLength - headerSize) ~/ recordSize,
+    );
+  }
+
+  /// Reads [count] samples starting at sample [start].
+  Future<List<SensorEvent>> read(int start, int count) async {
+    assert(start >= 0 && count >= 0, 'Range cannot be negative.');
+    final end = (start + count < length) ? start + count : length;
+    if (start >= end) return [];
+    await _file.setPosition(headerSize + start * recordSize);
+    final bytes = await _file.read((end - start) * recordSize);
+    return SensorEvent.fromBatch(bytes, recordSize: recordSize);
+  }
+
+  /// Reads all the samples, [chunkSize] samples at a time.
+  Stream<SensorEvent> events({int chunkSize = 1024}) async* {
+    for (var start = 0; start < length; start += chunkSize) {
+      yield* Stream.fromIterable(await read(start, chunkSize));
+    }
+  }
+
+  /// Closes the file.
+  Future<void> close() => _file.close();
+
+  @override
+  String toString() => '$runtimeType - '
+      'startTime: $startTime, '
+      'samplingRate: $samplingRate, '
+      'length: $length';
+}
@@ -0,0 +1,88 @@
+import 'dart:typed_data';
+
+import 'package:esense_flutter/esense.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  group('ESenseManager.isEventOf', () {
+    const left = 'eSense-0332';
+    const right = 'eSense-0414';
+
+    test('tagged events belong to their device', () {
+      final event = {'deviceId': left, 'type': 'connected'};
+      expect(ESenseManager.isEventOf(event, left, [left, right]), isTrue);
+      expect(ESenseManager.isEventOf(event, right, [left, right]), isFalse);
+      expect(ESenseManager.isEventOf(event, right, [right]), isFalse);
+    });
+
+    test('untagged strings belong to the only device', () {
+      expect(ESenseManager.isEventOf('connected', left, [left]), isTrue);
+      expect(
+          ESenseManager.isEventOf('connected', left, [left, right]), isFalse);
+    });
+
+    test('untagged maps belong to the only device', () {
+      final event = {'type': 'SensorChanged', 'timestamp': 0};
+      expect(ESenseManager.isEventOf(event, left, [left]), isTrue);
+      expect(ESenseManager.isEventOf(event, left, [left, right]), isFalse);
+    });
+  });
+
+  group('SensorEvent.fromBatch', () {
+    // writes a record as sent by the SensorEventBatcher on Android
+    void writeRecord(ByteData data, int offset, int timestamp, int index,
+        List<int> accel, List<int> gyro) {
+      data.setInt64(offset, timestamp, Endian.little);
+      data.setInt64(offset + 8, timestamp - 5, Endian.little);
+      data.setInt32(offset + 16, index, Endian.little);
+      for (var i = 0; i < 3; i++) {
+        data.setInt16(offset + 20 + 2 * i, accel[i], Endian.little);
+        data.setInt16(offset + 26 + 2 * i, gyro[i], Endian.little);
+      }
+    }
+
+    test('decodes raw records', () {
+      final data = ByteData(2 * SensorEvent.batchRecordSize);
+      writeRecord(data, 0, 1000, 7, [1, -2, 3], [-4, 5, -6]);
+      writeRecord(data, SensorEvent.batchRecordSize, 1010, 8,
+          [-32768, 0, 32767], [0, 0, 0]);
+
+      final events = SensorEvent.fromBatch(data.buffer.asUint8List());
+      expect(events.length, 2);
+      expect(events[0].timestamp, DateTime.fromMillisecondsSinceEpoch(1000));
+      expect(events[0].sampleTimestamp,
+          DateTime.fromMillisecondsSinceEpoch(995));
+      expect(events[0].packetIndex, 7);
+      expect(events[0].accel, [1, -2, 3]);
+      expect(events[0].gyro, [-4, 5, -6]);
+      expect(events[0].calibratedAccel, isNull);
+      expect(events[1].accel, [-32768, 0, 32767]);
+    });
+
+    test('decodes calibrated records', () {
+      const size = SensorEvent.calibratedBatchRecordSize;
+      final data = ByteData(size);
+      writeRecord(data, 0, 1000, 7, [1, 2, 3], [4, 5, 6]);
+      for (var i = 0; i < 6; i++) {
+        data.setFloat32(32 + 4 * i, i / 2, Endian.little);
+      }
+
+      final events =
+          SensorEvent.fromBatch(data.buffer.asUint8List(), recordSize: size);
+      expect(events.single.calibratedAccel, [0.0, 0.5, 1.0]);
+      expect(events.single.calibratedGyro, [1.5, 2.0, 2.5]);
+    });
+
+    test('decodes a view into a larger buffer', () {
+      final data = ByteData(8 + SensorEvent.batchRecordSize + 3);
+      writeRecord(data, 8, 2000, 9, [1, 1, 1], [2, 2, 2]);
+
+      // the trailing partial record is ignored
+      final frame = data.buffer.asUint8List(8);
+      final events = SensorEvent.fromBatch(frame);
+      expect(
+          events.single.timestamp, DateTime.fromMillisecondsSinceEpoch(2000));
+      expect(events.single.gyro, [2, 2, 2]);
+    });
+  });
+}
@@ -0,0 +1,116 @@
+package dk.cachet.light;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates light sensor readings into a batch of values.
+ * <p>
+ * Readings changing less than the deadband from the last reading kept are dropped. Without a window every
+ * remaining reading is appended to the batch as its time and lux ({@link #RAW_STRIDE} values); with a window the
+ * readings are aggregated per window into its start time, the minimum, mean and maximum lux and the number of
+ * readings ({@link #WINDOW_STRIDE} values), appended when the window is closed.
+ * <p>
+ * Not thread-safe, only used on the sensor thread.
+ */
+class LightAggregator {
+    static final int RAW_STRIDE = 2;
+    static final int WINDOW_STRIDE = 5;
+
+    private final double deadband;
+    private final long window;
+
+    private double[] batch = new double[64];
+    private int size;
+    private double lastKept = Double.NaN;
+    private double windowStart = Double.NaN;
+    private double min;
+    private double max;
+    private double sum;
+    private int count;
+
+    /**
+     * @param deadband change in lux below which a reading is dropped, 0 to keep every reading
+     * @param window   length of a window in milliseconds, 0 to keep every reading
+     */
+    LightAggregator(double deadband, long window) {
+        this.deadband = deadband;
+        this.window = window;
+    }
+
+    /**
+     * Adds a reading, closing the current window if the reading is past its end
+     *
+     * @param timestamp time of the reading in milliseconds since epoch
+     * @param lux       illuminance in lux
+     * @return true if the reading opened a new window, which must be closed by {@link #closeWindow(double)} if no
+     * later reading arrives
+     */
+    boolean add(double timestamp, double lux) {
+        if (Math.abs(lux - lastKept) < deadband) return false;
+        lastKept = lux;
+
+        if (window <= 0) {
+            append(timestamp, lux);
+            return false;
+        }
+        boolean opened = false;
+        if (!Double.isNaN(windowStart) && timestamp >= windowStart + window) {
+            closeWindow(windowStart);
+        }
+        if (Double.isNaN(windowStart)) {
+            windowStart = timestamp;
+            min = Double.MAX_VALUE;
+            max = -Double.MAX_VALUE;
+            sum = 0;
+            count = 0;
+            opened = true;
+        }
+        min = Math.min(min, lux);
+        max = Math.max(max, lux);
+        sum += lux;
+        count++;
+        return opened;
+    }
+
+    /**
+     * @return start time of the current window, or NaN if no window is open
+     */
+    double getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Closes the window starting at the given time, if it is still open
+     *
+     * @return true if the window was closed
+     */
+    boolean closeWindow(double start) {
+        if (Double.isNaN(windowStart) || start != windowStart) return false;
+        append(windowStart, min, sum / count, max, count);
+        windowStart = Double.NaN;
+        return true;
+    }
+
+    private void append(double... values) {
+        if (size + values.length > batch.length) {
+            batch = Arrays.copyOf(batch, Math.max(batch.length * 2, size + values.length));
+        }
+        System.arraycopy(values, 0, batch, size, values.length);
+        size += values.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes the values of the batch
+     *
+     * @return the values appended since the last drain
+     */
+    double[] drain() {
+        double[] values = Arrays.copyOf(batch, size);
+        size = 0;
+        return values;
+    }
+}
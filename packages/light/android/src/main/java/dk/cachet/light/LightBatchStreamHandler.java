@@ -0,0 +1,158 @@
+package dk.cachet.light;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Stream of batches of light sensor readings.
+ * <p>
+ * The sensor is registered with the requested sampling period and maximum report latency, so the sensor hardware
+ * can collect the readings in its FIFO and deliver them together. The readings are processed on a background
+ * thread by a {@link LightAggregator}, dropping the readings within the deadband and, with a window, aggregating the
+ * others per window. All the readings delivered together by the sensor are sent to Flutter as a single double[],
+ * received as a Float64List, in the layout of {@link LightAggregator}.
+ * <p>
+ * Each subscription has its own thread and aggregator, so the tasks of a cancelled subscription never touch the
+ * state of the next one.
+ */
+class LightBatchStreamHandler implements EventChannel.StreamHandler {
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Subscription subscription;
+
+    LightBatchStreamHandler(SensorManager sensorManager, Sensor sensor) {
+        this.sensorManager = sensorManager;
+        this.sensor = sensor;
+    }
+
+    /**
+     * @param arguments map with the "samplingPeriod" and "maxReportLatency" in microseconds, the "deadband" in
+     *                  lux and the "window" in milliseconds, 0 to send every reading
+     */
+    @Override
+    public void onListen(Object arguments, final EventChannel.EventSink events) {
+        if (sensor == null) {
+            events.error("NO_SENSOR", "The device has no light sensor", null);
+            return;
+        }
+        Map<?, ?> args = arguments instanceof Map ? (Map<?, ?>) arguments : Collections.emptyMap();
+        int samplingPeriod = intArgument(args, "samplingPeriod", 200000);
+        int maxReportLatencyUs = intArgument(args, "maxReportLatency", 0);
+        double deadband = args.get("deadband") != null ? ((Number) args.get("deadband")).doubleValue() : 0;
+        long window = args.get("window") != null ? ((Number) args.get("window")).longValue() : 0;
+
+        onCancel(null);
+        subscription = new Subscription(events, deadband, window, maxReportLatencyUs / 1000);
+        sensorManager.registerListener(subscription, sensor, samplingPeriod, maxReportLatencyUs,
+                subscription.sensorHandler);
+    }
+
+    private static int intArgument(Map<?, ?> args, String key, int defaultValue) {
+        Object value = args.get(key);
+        return value != null ? ((Number) value).intValue() : defaultValue;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        if (subscription != null) {
+            sensorManager.unregisterListener(subscription);
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    /**
+     * The readings of a single listen, processed on its own sensor thread
+     */
+    private class Subscription implements SensorEventListener {
+        private final HandlerThread sensorThread = new HandlerThread("LightSensor");
+        private final Handler sensorHandler;
+        private final long window;
+        private final long maxReportLatency;
+        private volatile EventChannel.EventSink events;  // null once cancelled
+
+        // State, only used on the sensor thread
+        private final long clockOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        private final LightAggregator aggregator;
+        private boolean flushScheduled;
+
+        Subscription(EventChannel.EventSink events, double deadband, long window, long maxReportLatency) {
+            this.events = events;
+            this.window = window;
+            this.maxReportLatency = maxReportLatency;
+            aggregator = new LightAggregator(deadband, window);
+
+            /// Receive the readings on a background thread, instead of the main thread
+            sensorThread.start();
+            sensorHandler = new Handler(sensorThread.getLooper());
+        }
+
+        /**
+         * Discards the pending tasks, including the ones already due, and stops the thread. Called on the main
+         * thread after the listener is unregistered.
+         */
+        void cancel() {
+            events = null;
+            sensorHandler.removeCallbacksAndMessages(null);
+            sensorThread.quitSafely();
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            /// Do nothing
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            double timestamp = clockOffset + event.timestamp / 1e6;
+            if (aggregator.add(timestamp, event.values[0])) {
+                /// Close the window even if no later reading arrives, as the light sensor only reports changes
+                final double start = aggregator.getWindowStart();
+                sensorHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (aggregator.closeWindow(start)) {
+                            scheduleFlush();
+                        }
+                    }
+                }, window + maxReportLatency);
+            }
+            scheduleFlush();
+        }
+
+        /**
+         * Sends the readings once the readings delivered together by the sensor are processed
+         */
+        private void scheduleFlush() {
+            if (flushScheduled || aggregator.isEmpty()) return;
+            flushScheduled = true;
+            sensorHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled = false;
+                    if (aggregator.isEmpty()) return;
+                    final double[] readings = aggregator.drain();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            EventChannel.EventSink sink = events;
+                            if (sink != null) sink.success(readings);
+                        }
+                    });
+                }
+            });
+        }
+    }
+}
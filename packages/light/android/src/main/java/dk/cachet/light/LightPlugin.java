@@ -23,8 +23,12 @@ public class LightPlugin implements FlutterPlugin, EventChannel.StreamHandler {
     private SensorManager sensorManager = null;
     private Sensor sensor = null;
     private EventChannel eventChannel = null;
+    private EventChannel batchEventChannel = null;
+    private LightBatchStreamHandler batchStreamHandler = null;
     private static final String STEP_COUNT_CHANNEL_NAME =
             "light.eventChannel";
+    private static final String BATCH_CHANNEL_NAME =
+            "light.batchEventChannel";
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding flutterPluginBinding) {
@@ -37,13 +41,20 @@ public class LightPlugin implements FlutterPlugin, EventChannel.StreamHandler {
         BinaryMessenger binaryMessenger = flutterPluginBinding.getBinaryMessenger();
         eventChannel = new EventChannel(binaryMessenger, STEP_COUNT_CHANNEL_NAME);
         eventChannel.setStreamHandler(this);
+
+        /// Init batch event channel
+        batchEventChannel = new EventChannel(binaryMessenger, BATCH_CHANNEL_NAME);
+        batchStreamHandler = new LightBatchStreamHandler(sensorManager, sensor);
+        batchEventChannel.setStreamHandler(batchStreamHandler);
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         /// Cancel the handling of stream data
         eventChannel.setStreamHandler(null);
+        batchEventChannel.setStreamHandler(null);
         onCancel(null);
+        batchStreamHandler.onCancel(null);
     }
 
     @Override
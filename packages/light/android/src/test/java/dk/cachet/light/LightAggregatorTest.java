@@ -0,0 +1,91 @@
+package dk.cachet.light;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LightAggregatorTest {
+
+    @Test
+    void appendsEveryReadingWithoutAWindow() {
+        LightAggregator aggregator = new LightAggregator(0, 0);
+        assertTrue(aggregator.isEmpty());
+        assertFalse(aggregator.add(1000, 10));
+        assertFalse(aggregator.add(1200, 10));
+        assertFalse(aggregator.add(1400, 12));
+
+        assertArrayEquals(new double[]{1000, 10, 1200, 10, 1400, 12}, aggregator.drain(), 0);
+        assertTrue(aggregator.isEmpty());
+        assertEquals(0, aggregator.drain().length);
+    }
+
+    @Test
+    void dropsTheReadingsWithinTheDeadband() {
+        LightAggregator aggregator = new LightAggregator(5, 0);
+        aggregator.add(1000, 100);
+        aggregator.add(1200, 104);
+        // compared to the last reading kept, not the last reading, so a slow drift is kept
+        aggregator.add(1400, 105);
+        aggregator.add(1600, 107);
+        aggregator.add(1800, 101);
+
+        assertArrayEquals(new double[]{1000, 100, 1400, 105}, aggregator.drain(), 0);
+    }
+
+    @Test
+    void aggregatesTheReadingsPerWindow() {
+        LightAggregator aggregator = new LightAggregator(0, 1000);
+        assertTrue(aggregator.add(1000, 10));
+        assertFalse(aggregator.add(1300, 30));
+        assertFalse(aggregator.add(1999, 20));
+        assertTrue(aggregator.isEmpty());
+
+        // the next reading closes the window, and opens the next one
+        assertTrue(aggregator.add(2000, 50));
+        assertEquals(2000, aggregator.getWindowStart(), 0);
+        assertArrayEquals(new double[]{1000, 10, 20, 30, 3}, aggregator.drain(), 0);
+
+        // a window is closed on time even if no later reading arrives
+        assertTrue(aggregator.closeWindow(2000));
+        assertTrue(Double.isNaN(aggregator.getWindowStart()));
+        assertArrayEquals(new double[]{2000, 50, 50, 50, 1}, aggregator.drain(), 0);
+    }
+
+    @Test
+    void closesOnlyTheCurrentWindow() {
+        LightAggregator aggregator = new LightAggregator(0, 1000);
+        aggregator.add(1000, 10);
+        aggregator.add(2500, 20);
+
+        // the window of 1000 was already closed by the reading of 2500
+        assertFalse(aggregator.closeWindow(1000));
+        assertArrayEquals(new double[]{1000, 10, 10, 10, 1}, aggregator.drain(), 0);
+        assertTrue(aggregator.closeWindow(2500));
+        assertFalse(aggregator.closeWindow(2500));
+    }
+
+    @Test
+    void appliesTheDeadbandBeforeTheWindow() {
+        LightAggregator aggregator = new LightAggregator(5, 1000);
+        aggregator.add(1000, 100);
+        aggregator.add(1200, 102);
+        aggregator.add(1400, 110);
+        aggregator.closeWindow(1000);
+
+        assertArrayEquals(new double[]{1000, 100, 105, 110, 2}, aggregator.drain(), 0);
+    }
+
+    @Test
+    void growsTheBatch() {
+        LightAggregator aggregator = new LightAggregator(0, 0);
+        for (int i = 0; i < 100; i++) {
+            aggregator.add(i, i);
+        }
+        double[] values = aggregator.drain();
+        assertEquals(100 * LightAggregator.RAW_STRIDE, values.length);
+        assertEquals(99, values[values.length - 1], 0);
+    }
+}
@@ -1,11 +1,68 @@
 import 'dart:async';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 import 'dart:io' show Platform;
 
+/// A light reading, or the aggregate of the readings in a window.
+class LightReading {
+  /// The time of the reading, or the start of the window.
+  final DateTime timestamp;
+
+  /// The lux of the reading, or the mean lux in the window.
+  final double lux;
+
+  /// The minimum lux in the window, or the lux of the reading.
+  final double min;
+
+  /// The maximum lux in the window, or the lux of the reading.
+  final double max;
+
+  /// The number of readings in the window, 1 for a single reading.
+  final int count;
+
+  LightReading(this.timestamp, this.lux, this.min, this.max, this.count);
+
+  @override
+  String toString() => 'LightReading - timestamp: $timestamp, lux: $lux';
+}
+
+/// A batch of light readings, as sent by the native side in one typed array.
+class LightBatch {
+  /// The values of the readings: the time in milliseconds since epoch and the
+  /// lux per reading, or if [windowed] the start of the window, the minimum,
+  /// mean and maximum lux and the number of readings per window.
+  final Float64List values;
+
+  /// Whether the readings are aggregated per window.
+  final bool windowed;
+
+  LightBatch(this.values, this.windowed);
+
+  /// The number of values per reading.
+  int get stride => windowed ? 5 : 2;
+
+  /// The number of readings in the batch.
+  int get length => values.length ~/ stride;
+
+  /// The readings in the batch.
+  List<LightReading> get readings => List.generate(length, (i) {
+        final int j = i * stride;
+        final DateTime timestamp =
+            DateTime.fromMillisecondsSinceEpoch(values[j].round());
+        return windowed
+            ? LightReading(timestamp, values[j + 2], values[j + 1],
+                values[j + 3], values[j + 4].round())
+            : LightReading(timestamp, values[j + 1], values[j + 1],
+                values[j + 1], 1);
+      });
+}
+
 class Light {
   static Light? _instance;
   static const EventChannel _eventChannel = EventChannel("light.eventChannel");
+  static const EventChannel _batchEventChannel =
+      EventChannel("light.batchEventChannel");
 
   /// Constructs a singleton instance of [Light].
   ///
@@ -31,4 +88,35 @@ class Light {
       return Stream<int>.empty();
     }
   }
+
+  /// A stream of batches of light readings.
+  ///
+  /// The sensor is sampled every [samplingPeriod], and the sensor hardware may
+  /// hold the readings for up to [maxReportLatency] to deliver them together,
+  /// which saves battery. Readings changing less than [deadband] lux from the
+  /// last reading kept are dropped. With a [window], the remaining readings
+  /// are aggregated into their minimum, mean and maximum per window, and a
+  /// window without any is not sent.
+  ///
+  /// Each call creates a new stream; cancel the subscriptions to the previous
+  /// stream first. Return an empty Stream if this device isn't Android.
+  Stream<LightBatch> lightSensorBatchStream({
+    Duration samplingPeriod = const Duration(milliseconds: 200),
+    Duration maxReportLatency = Duration.zero,
+    double deadband = 0,
+    Duration? window,
+  }) {
+    try {
+      if (!Platform.isAndroid) return Stream<LightBatch>.empty();
+    } catch (_) {
+      return Stream<LightBatch>.empty();
+    }
+    final bool windowed = window != null && window > Duration.zero;
+    return _batchEventChannel.receiveBroadcastStream({
+      'samplingPeriod': samplingPeriod.inMicroseconds,
+      'maxReportLatency': maxReportLatency.inMicroseconds,
+      'deadband': deadband,
+      'window': windowed ? window.inMilliseconds : 0,
+    }).map((values) => LightBatch(values as Float64List, windowed));
+  }
 }
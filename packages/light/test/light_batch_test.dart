@@ -0,0 +1,43 @@
+import 'dart:typed_data';
+
+import 'package:light/light.dart';
+import 'package:test/test.dart';
+
+void main() {
+  group('LightBatch.readings', () {
+    test('decodes the raw readings', () {
+      final batch =
+          LightBatch(Float64List.fromList([1000, 10, 1200.4, 12.5]), false);
+
+      expect(batch.length, 2);
+      final readings = batch.readings;
+      expect(readings[0].timestamp.millisecondsSinceEpoch, 1000);
+      expect(readings[0].lux, 10);
+      expect(readings[0].min, 10);
+      expect(readings[0].max, 10);
+      expect(readings[0].count, 1);
+      expect(readings[1].timestamp.millisecondsSinceEpoch, 1200);
+      expect(readings[1].lux, 12.5);
+    });
+
+    test('decodes the windows', () {
+      final batch = LightBatch(
+          Float64List.fromList([1000, 10, 20, 30, 3, 2000, 50, 50, 50, 1]),
+          true);
+
+      expect(batch.length, 2);
+      final readings = batch.readings;
+      expect(readings[0].timestamp.millisecondsSinceEpoch, 1000);
+      expect(readings[0].min, 10);
+      expect(readings[0].lux, 20);
+      expect(readings[0].max, 30);
+      expect(readings[0].count, 3);
+      expect(readings[1].timestamp.millisecondsSinceEpoch, 2000);
+      expect(readings[1].count, 1);
+    });
+
+    test('decodes an empty batch', () {
+      expect(LightBatch(Float64List(0), true).readings, isEmpty);
+    });
+  });
+}